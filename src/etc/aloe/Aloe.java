@@ -19,9 +19,11 @@
 package etc.aloe;
 
 import com.csvreader.CsvWriter;
+import etc.aloe.controllers.ModelReloader;
 import etc.aloe.data.EvaluationReport;
 import etc.aloe.data.FeatureSpecification;
 import etc.aloe.data.MessageSet;
+import etc.aloe.data.MessageSnapshot;
 import etc.aloe.data.Model;
 import etc.aloe.data.ROC;
 import etc.aloe.factories.PipelineFactory;
@@ -68,10 +70,33 @@ public abstract class Aloe {
         }
     }
 
-    protected MessageSet loadMessages(File inputCSVFile) {
+    /**
+     * Load messages from a CSV file. If useSnapshot is true, a fresh snapshot
+     * next to the file is loaded instead, and if there isn't one, a snapshot
+     * is saved after the CSV is parsed.
+     *
+     * @param inputCSVFile
+     * @param useSnapshot
+     * @return
+     */
+    protected MessageSet loadMessages(File inputCSVFile, boolean useSnapshot) {
         MessageSet messages = new MessageSet();
         messages.setDateFormat(factory.constructDateFormat());
 
+        MessageSnapshot snapshot = new MessageSnapshot(MessageSnapshot.fileFor(inputCSVFile), inputCSVFile);
+        if (useSnapshot) {
+            try {
+                if (snapshot.load(messages)) {
+                    return messages;
+                }
+            } catch (IOException e) {
+                System.err.println("Could not read snapshot " + snapshot.getFile() + ", reading CSV instead.");
+                System.err.println("\t" + e.getMessage());
+                messages = new MessageSet();
+                messages.setDateFormat(factory.constructDateFormat());
+            }
+        }
+
         try {
             System.out.println("Reading messages from " + inputCSVFile);
             InputStream inputCSV = new FileInputStream(inputCSVFile);
@@ -90,6 +115,16 @@ public abstract class Aloe {
             System.exit(1);
         }
 
+        if (useSnapshot) {
+            try {
+                snapshot.save(messages);
+                System.out.println("Saved snapshot to " + snapshot.getFile());
+            } catch (IOException e) {
+                System.err.println("Could not save snapshot " + snapshot.getFile());
+                System.err.println("\t" + e.getMessage());
+            }
+        }
+
         return messages;
     }
 
@@ -139,6 +174,25 @@ public abstract class Aloe {
         return spec;
     }
 
+    /**
+     * Watch the model and feature specification files, so a long-running mode
+     * starts labeling with new ones once both have been replaced.
+     *
+     * @param modelFile
+     * @param featureSpecFile
+     * @param pollIntervalMillis
+     * @param spec The feature specification already loaded from its file.
+     * @param model The model already loaded from its file.
+     * @return The started reloader.
+     */
+    protected ModelReloader watchModel(File modelFile, File featureSpecFile, long pollIntervalMillis, FeatureSpecification spec, Model model) {
+        ModelReloader reloader = new ModelReloader(modelFile, featureSpecFile);
+        reloader.setFeatureExtractionImpl(factory.constructFeatureExtraction());
+        reloader.setPollIntervalMillis(pollIntervalMillis);
+        reloader.start(spec, model);
+        return reloader;
+    }
+
     protected void saveMessages(MessageSet messages, File outputCSVFile) {
         try {
             OutputStream outputCSV = new FileOutputStream(outputCSVFile);
@@ -175,11 +229,27 @@ public abstract class Aloe {
         }
     }
 
+    /**
+     * Save a feature specification under a temporary name and then rename it,
+     * so a process reading or watching the file never sees a partial one.
+     *
+     * @param spec
+     * @param outputFeatureSpecFile
+     */
     protected void saveFeatureSpecification(FeatureSpecification spec, File outputFeatureSpecFile) {
         try {
-            OutputStream outputFeatureSpec = new FileOutputStream(outputFeatureSpecFile);
-            spec.save(outputFeatureSpec);
-            outputFeatureSpec.close();
+            File temp = createTempFile(outputFeatureSpecFile);
+            try {
+                OutputStream outputFeatureSpec = new FileOutputStream(temp);
+                try {
+                    spec.save(outputFeatureSpec);
+                } finally {
+                    outputFeatureSpec.close();
+                }
+                replace(temp, outputFeatureSpecFile);
+            } finally {
+                temp.delete();
+            }
             System.out.println("Saved feature spec to " + outputFeatureSpecFile);
         } catch (IOException e) {
             System.err.println("Error saving feature spec to " + outputFeatureSpecFile);
@@ -187,11 +257,27 @@ public abstract class Aloe {
         }
     }
 
+    /**
+     * Save a model under a temporary name and then rename it, so a process
+     * reading or watching the file never sees a partial one.
+     *
+     * @param model
+     * @param outputModelFile
+     */
     protected void saveModel(Model model, File outputModelFile) {
         try {
-            OutputStream outputModel = new FileOutputStream(outputModelFile);
-            model.save(outputModel);
-            outputModel.close();
+            File temp = createTempFile(outputModelFile);
+            try {
+                OutputStream outputModel = new FileOutputStream(temp);
+                try {
+                    model.save(outputModel);
+                } finally {
+                    outputModel.close();
+                }
+                replace(temp, outputModelFile);
+            } finally {
+                temp.delete();
+            }
             System.out.println("Saved model to " + outputModelFile);
         } catch (IOException e) {
             System.err.println("Error saving model to " + outputModelFile);
@@ -199,6 +285,28 @@ public abstract class Aloe {
         }
     }
 
+    /**
+     * Create an empty file to write in place of the given file. It is in the
+     * same directory, so it can be renamed over the file.
+     */
+    private static File createTempFile(File file) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        return File.createTempFile(file.getName(), ".tmp", directory);
+    }
+
+    /**
+     * Rename a file over another. The old file is replaced, not overwritten,
+     * so processes that mapped it into memory keep their copy.
+     */
+    private static void replace(File temp, File file) throws IOException {
+        if (!temp.renameTo(file)) {
+            file.delete();
+            if (!temp.renameTo(file)) {
+                throw new IOException("Could not replace " + file);
+            }
+        }
+    }
+
     protected void saveTopFeatures(List<String> topFeatures, File outputTopFeaturesFile) {
         try {
             PrintStream output = new PrintStream(outputTopFeaturesFile);
@@ -0,0 +1,92 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe;
+
+import etc.aloe.controllers.BatchController;
+import etc.aloe.controllers.ModelReloader;
+import etc.aloe.data.FeatureSpecification;
+import etc.aloe.data.Model;
+import etc.aloe.options.BatchOptions;
+import etc.aloe.options.ModeOptions;
+import java.io.IOException;
+import java.io.PrintStream;
+
+/**
+ * Controller for batch mode.
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public class AloeBatch extends Aloe {
+
+    private final PrintStream results;
+
+    /**
+     * Construct a batch-mode controller.
+     *
+     * @param results Where the results are written. Progress messages should
+     * go elsewhere.
+     */
+    public AloeBatch(PrintStream results) {
+        this.results = results;
+    }
+
+    @Override
+    public void run(ModeOptions modeOptions) {
+        System.out.println("== Preparation ==");
+
+        if (modeOptions instanceof BatchOptions) {
+            BatchOptions options = (BatchOptions) modeOptions;
+
+            BatchController batchController = new BatchController();
+
+            //Provide implementations for the controller
+            batchController.setFeatureExtractionImpl(factory.constructFeatureExtraction());
+            batchController.setDateFormat(factory.constructDateFormat());
+
+            FeatureSpecification spec = this.loadFeatureSpecification(options.inputFeatureSpecFile);
+            Model model = this.loadModel(options.inputModelFile);
+
+            batchController.setModel(model);
+            batchController.setFeatureSpecification(spec);
+            batchController.setFormat(options.format);
+            batchController.setBatchSize(options.batchSize);
+            batchController.setNumThreads(options.numThreads);
+
+            ModelReloader reloader = null;
+            if (options.watch) {
+                reloader = watchModel(options.inputModelFile, options.inputFeatureSpecFile, options.watchIntervalMillis, spec, model);
+                batchController.setReloader(reloader);
+            }
+
+            try {
+                batchController.run(System.in, results);
+            } catch (IOException e) {
+                System.err.println("Error in batch labeling.");
+                System.err.println("\t" + e.getMessage());
+                System.exit(1);
+            }
+
+            if (reloader != null) {
+                reloader.stop();
+            }
+        } else {
+            throw new IllegalArgumentException("Options must be for Batch");
+        }
+    }
+}
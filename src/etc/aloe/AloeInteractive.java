@@ -19,6 +19,7 @@
 package etc.aloe;
 
 import etc.aloe.controllers.InteractiveController;
+import etc.aloe.controllers.ModelReloader;
 import etc.aloe.data.FeatureSpecification;
 import etc.aloe.data.MessageSet;
 import etc.aloe.data.Model;
@@ -50,8 +51,20 @@ public class AloeInteractive extends Aloe {
 
             interactiveController.setModel(model);
             interactiveController.setFeatureSpecification(spec);
+            interactiveController.setHistoryLimit(options.historyLimit);
+
+            ModelReloader reloader = null;
+            if (options.watch) {
+                reloader = watchModel(options.inputModelFile, options.inputFeatureSpecFile, options.watchIntervalMillis, spec, model);
+                interactiveController.setReloader(reloader);
+            }
+
             interactiveController.run();
 
+            if (reloader != null) {
+                reloader.stop();
+            }
+
             System.out.println();
             System.out.println("== Saving Output ==");
 
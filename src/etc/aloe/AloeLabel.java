@@ -19,15 +19,26 @@
 package etc.aloe;
 
 import etc.aloe.controllers.LabelingController;
+import etc.aloe.controllers.StreamingLabelingController;
 import etc.aloe.data.EvaluationReport;
 import etc.aloe.data.FeatureSpecification;
+import etc.aloe.data.MessageReader;
 import etc.aloe.data.MessageSet;
+import etc.aloe.data.MessageWriter;
 import etc.aloe.data.Model;
 import etc.aloe.data.ROC;
 import etc.aloe.data.SegmentSet;
 import etc.aloe.options.LabelOptions;
 import etc.aloe.options.ModeOptions;
 import etc.aloe.processes.Segmentation;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidObjectException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
 
 /**
  * Class that takes input data (may be labeled, unlabeled, or mixed) and applies
@@ -36,6 +47,9 @@ import etc.aloe.processes.Segmentation;
  * If there are any labeled examples in the input data, an evaluation is
  * generated comparing the predicted labels to the true labels.
  *
+ * With the streaming option, messages are read, labeled, and written as a
+ * pipeline so that the input never has to fit in memory.
+ *
  * @author Michael Brooks <mjbrooks@uw.edu
  */
 public class AloeLabel extends Aloe {
@@ -47,6 +61,11 @@ public class AloeLabel extends Aloe {
         if (modeOptions instanceof LabelOptions) {
             LabelOptions options = (LabelOptions) modeOptions;
 
+            if (options.streaming) {
+                runStreaming(options);
+                return;
+            }
+
             //Set up the segmentation
             Segmentation segmentation = factory.constructSegmentation();
 
@@ -57,7 +76,7 @@ public class AloeLabel extends Aloe {
             factory.configureLabeling(labelingController);
 
             //Process the input messages
-            MessageSet messages = this.loadMessages(options.inputCSVFile);
+            MessageSet messages = this.loadMessages(options.inputCSVFile, !options.noSnapshot);
             FeatureSpecification spec = this.loadFeatureSpecification(options.inputFeatureSpecFile);
             Model model = this.loadModel(options.inputModelFile);
 
@@ -89,4 +108,78 @@ public class AloeLabel extends Aloe {
             throw new IllegalArgumentException("Options must be for Labeling");
         }
     }
+
+    /**
+     * Label the input file as a stream. Labeled messages are written to the
+     * output file as their segments are closed, instead of being loaded and
+     * saved all at once.
+     *
+     * @param options
+     */
+    private void runStreaming(LabelOptions options) {
+        //Create a streaming labeling controller
+        StreamingLabelingController labelingController = new StreamingLabelingController();
+
+        //Provide implementations of the needed processes
+        factory.configureStreamingLabeling(labelingController);
+
+        FeatureSpecification spec = this.loadFeatureSpecification(options.inputFeatureSpecFile);
+        Model model = this.loadModel(options.inputModelFile);
+
+        labelingController.setModel(model);
+        labelingController.setFeatureSpecification(spec);
+
+        //Reading and writing happen on different threads, so they get separate date formats
+        Charset charset = Charset.forName("UTF-8");
+        InputStream inputCSV = null;
+        try {
+            inputCSV = new FileInputStream(options.inputCSVFile);
+        } catch (FileNotFoundException e) {
+            System.err.println("Input CSV file " + options.inputCSVFile + " not found.");
+            System.exit(1);
+        }
+
+        OutputStream outputCSV = null;
+        try {
+            outputCSV = new FileOutputStream(options.outputCSVFile);
+        } catch (FileNotFoundException e) {
+            System.err.println("Error saving messages to " + options.outputCSVFile);
+            System.err.println("\t" + e.getMessage());
+            System.exit(1);
+        }
+
+        try {
+            System.out.println("Streaming messages from " + options.inputCSVFile);
+            labelingController.setReader(new MessageReader(inputCSV, factory.constructDateFormat(), charset));
+            labelingController.setWriter(new MessageWriter(outputCSV, factory.constructDateFormat(), charset));
+            labelingController.run();
+
+            inputCSV.close();
+            outputCSV.close();
+            System.out.println("Saved labeled data to " + options.outputCSVFile);
+        } catch (InvalidObjectException e) {
+            System.err.println("Incorrect format in input CSV file " + options.inputCSVFile);
+            System.err.println("\t" + e.getMessage());
+            System.exit(1);
+        } catch (IOException e) {
+            System.err.println("Error streaming messages from " + options.inputCSVFile + " to " + options.outputCSVFile);
+            System.err.println("\t" + e.getMessage());
+            System.exit(1);
+        }
+
+        //Get the outputs
+        EvaluationReport evalReport = labelingController.getEvaluationReport();
+
+        System.out.println("== Saving Output ==");
+
+        saveEvaluationReport(evalReport, options.outputEvaluationReportFile);
+        if (options.makeROC) {
+            ROC roc = evalReport.getROCs().get(0);
+            saveROC(roc, options.outputROCFile);
+        }
+
+        System.out.println("Testing Report:");
+        System.out.println(evalReport);
+        System.out.println("---------");
+    }
 }
@@ -0,0 +1,90 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe;
+
+import etc.aloe.controllers.ModelReloader;
+import etc.aloe.controllers.ServingController;
+import etc.aloe.data.FeatureSpecification;
+import etc.aloe.data.Model;
+import etc.aloe.options.ModeOptions;
+import etc.aloe.options.ServeOptions;
+import java.io.IOException;
+
+/**
+ * Controller for serve mode.
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public class AloeServe extends Aloe {
+
+    @Override
+    public void run(ModeOptions modeOptions) {
+        System.out.println("== Preparation ==");
+
+        if (modeOptions instanceof ServeOptions) {
+            ServeOptions options = (ServeOptions) modeOptions;
+
+            final ServingController servingController = new ServingController();
+
+            //Provide implementations for the controller
+            servingController.setFeatureExtractionImpl(factory.constructFeatureExtraction());
+            servingController.setMappingImpl(factory.constructLabelMapping());
+
+            FeatureSpecification spec = this.loadFeatureSpecification(options.inputFeatureSpecFile);
+            Model model = this.loadModel(options.inputModelFile);
+
+            servingController.setModel(model);
+            servingController.setFeatureSpecification(spec);
+            servingController.setHost(options.host);
+            servingController.setPort(options.port);
+            servingController.setNumThreads(options.numThreads);
+            servingController.setMaxBatchSize(options.maxBatchSize);
+            servingController.setMaxWaitMicros(options.maxWaitMicros);
+
+            final ModelReloader reloader;
+            if (options.watch) {
+                reloader = watchModel(options.inputModelFile, options.inputFeatureSpecFile, options.watchIntervalMillis, spec, model);
+                servingController.setReloader(reloader);
+            } else {
+                reloader = null;
+            }
+
+            try {
+                servingController.start();
+            } catch (IOException e) {
+                System.err.println("Unable to listen on " + options.host + ":" + options.port);
+                System.err.println("\t" + e.getMessage());
+                System.exit(1);
+            }
+
+            //The server's threads keep running until the process is stopped
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    servingController.stop();
+                    if (reloader != null) {
+                        reloader.stop();
+                    }
+                }
+            });
+        } else {
+            throw new IllegalArgumentException("Options must be for Serve");
+        }
+    }
+}
@@ -24,6 +24,7 @@ import etc.aloe.data.Message;
 import etc.aloe.data.MessageSet;
 import etc.aloe.data.Model;
 import etc.aloe.data.Segment;
+import etc.aloe.data.SegmentIdAllocator;
 import etc.aloe.data.SegmentSet;
 import etc.aloe.options.InteractiveOptions;
 import etc.aloe.options.ModeOptions;
@@ -53,13 +54,17 @@ public class AloeSingle extends Aloe {
             messages.add(message);
 
             //Make a segment for the message
-            Segment segment = new Segment();
+            Segment segment = new Segment(new SegmentIdAllocator());
             segment.add(message);
             SegmentSet segmentSet = new SegmentSet();
             segmentSet.add(segment);
 
             LabelingController labelingController = new LabelingController();
-            factory.configureLabeling(labelingController);
+
+            //Provide implementations for the controller
+            labelingController.setFeatureExtractionImpl(factory.constructFeatureExtraction());
+            labelingController.setMappingImpl(factory.constructLabelMapping());
+            labelingController.setCompileFeatures(true);
 
             FeatureSpecification spec = this.loadFeatureSpecification(options.inputFeatureSpecFile);
             Model model = this.loadModel(options.inputModelFile);
@@ -32,11 +32,23 @@ import etc.aloe.processes.Segmentation;
 import java.io.File;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Class that takes input training data, uses cross validation to evaluate the
  * model, then trains a final model on the full training set.
  *
+ * With more than one thread, the final model is trained at the same time as
+ * cross validation, on a worker pool that the cross validation folds share.
+ * Each part saves its output as soon as it is done. Cross validation draws
+ * from the keyed streams RandomProvider.getStream("cross-validation") and
+ * getStream("fold", i), and the final model from getStream("training").
+ * These depend only on the seed and their keys, so the results are the same
+ * for any number of threads.
+ *
  * @author Michael Brooks <mjbrooks@uw.edu>
  */
 public class AloeTrain extends Aloe {
@@ -46,10 +58,10 @@ public class AloeTrain extends Aloe {
         System.out.println("== Preparation ==");
 
         if (modeOptions instanceof TrainOptions) {
-            TrainOptions options = (TrainOptions) modeOptions;
+            final TrainOptions options = (TrainOptions) modeOptions;
 
             //Get and preprocess the data
-            MessageSet messages = this.loadMessages(options.inputCSVFile);
+            MessageSet messages = this.loadMessages(options.inputCSVFile, !options.noSnapshot);
             Segmentation segmentation = factory.constructSegmentation();
             SegmentSet segments = segmentation.segment(messages);
 
@@ -57,53 +69,93 @@ public class AloeTrain extends Aloe {
             CrossValidationController crossValidationController = new CrossValidationController();
             //Configure controller
             factory.configureCrossValidation(crossValidationController);
-
-            //Run cross validation
             crossValidationController.setSegmentSet(segments);
-            crossValidationController.run();
 
             //Create a training controller for making the final model
-            TrainingController trainingController = new TrainingController();
+            final TrainingController trainingController = new TrainingController();
             //Configure the training controller
             factory.configureTraining(trainingController);
-
-            //Run the full training
             trainingController.setSegmentSet(segments);
-            trainingController.run();
-
-            //Get the fruits of our labors
-            System.out.println("== Saving Output ==");
-
-            EvaluationReport evalReport = crossValidationController.getEvaluationReport();
-            FeatureSpecification spec = trainingController.getFeatureSpecification();
-            Model model = trainingController.getModel();
-            List<String> topFeatures = trainingController.getTopFeatures();
-            List<Map.Entry<String, Double>> featureWeights = trainingController.getFeatureWeights();
-
-            saveFeatureSpecification(spec, options.outputFeatureSpecFile);
-            saveModel(model, options.outputModelFile);
-            saveTopFeatures(topFeatures, options.outputTopFeaturesFile);
-            saveFeatureWeights(featureWeights, options.outputFeatureWeightsFile);
-            if (evalReport != null) {
-                saveEvaluationReport(evalReport, options.outputEvaluationReportFile);
-                System.out.println("Aggregated cross-validation report:");
-                System.out.println(evalReport);
-                System.out.println("---------");
-
-                if (options.makeROC) {
-                    options.outputROCDir.mkdirs();
-                    
-                    for (ROC roc : evalReport.getROCs()) {
-                        String fileName = roc.getName() + FileNames.ROC_SUFFIX;
-                        File outputFile = new File(options.outputROCDir, fileName);
-
-                        saveROC(roc, outputFile);
-                    }
+
+            if (options.numThreads > 1) {
+                ExecutorService executor = Executors.newFixedThreadPool(options.numThreads);
+                try {
+                    //Start the final model first so it isn't queued behind the folds
+                    Future<?> training = executor.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            runTraining(trainingController, options);
+                        }
+                    });
+
+                    crossValidationController.setExecutor(executor);
+                    runCrossValidation(crossValidationController, options);
+
+                    training.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    System.err.println("Training was interrupted.");
+                    System.exit(1);
+                } catch (ExecutionException e) {
+                    System.err.println("Error training the final model.");
+                    System.err.println("\t" + e.getCause().getMessage());
+                    System.exit(1);
+                } finally {
+                    executor.shutdownNow();
                 }
+            } else {
+                runCrossValidation(crossValidationController, options);
+                runTraining(trainingController, options);
             }
-
         } else {
             throw new IllegalArgumentException("Options must be for Training");
         }
     }
+
+    /**
+     * Run cross validation and save the report.
+     */
+    private void runCrossValidation(CrossValidationController crossValidationController, TrainOptions options) {
+        crossValidationController.run();
+
+        EvaluationReport evalReport = crossValidationController.getEvaluationReport();
+        if (evalReport != null) {
+            System.out.println("== Saving Cross Validation Output ==");
+            saveEvaluationReport(evalReport, options.outputEvaluationReportFile);
+            System.out.println("Aggregated cross-validation report:");
+            System.out.println(evalReport);
+            System.out.println("---------");
+
+            if (options.makeROC) {
+                options.outputROCDir.mkdirs();
+
+                for (ROC roc : evalReport.getROCs()) {
+                    String fileName = roc.getName() + FileNames.ROC_SUFFIX;
+                    File outputFile = new File(options.outputROCDir, fileName);
+
+                    saveROC(roc, outputFile);
+                }
+            }
+        }
+    }
+
+    /**
+     * Train the final model and save it.
+     */
+    private void runTraining(TrainingController trainingController, TrainOptions options) {
+        trainingController.run();
+
+        //Get the fruits of our labors
+        System.out.println("== Saving Model Output ==");
+
+        FeatureSpecification spec = trainingController.getFeatureSpecification();
+        Model model = trainingController.getModel();
+        List<String> topFeatures = trainingController.getTopFeatures();
+        List<Map.Entry<String, Double>> featureWeights = trainingController.getFeatureWeights();
+
+        saveFeatureSpecification(spec, options.outputFeatureSpecFile);
+        saveModel(model, options.outputModelFile);
+        saveTopFeatures(topFeatures, options.outputTopFeaturesFile);
+        saveFeatureWeights(featureWeights, options.outputFeatureWeightsFile);
+    }
 }
@@ -66,6 +66,18 @@ public class Main {
                 aloe.setPipeline(pipelineClassName);
                 options = aloe.factory.constructSingleOptions();
                 break;
+            case serve:
+                aloe = new AloeServe();
+                aloe.setPipeline(pipelineClassName);
+                options = aloe.factory.constructServeOptions();
+                break;
+            case batch:
+                aloe = new AloeBatch(System.out);
+                //Results go to standard output, so progress goes to standard error
+                System.setOut(System.err);
+                aloe.setPipeline(pipelineClassName);
+                options = aloe.factory.constructBatchOptions();
+                break;
         }
 
         CmdLineParser parser = new CmdLineParser(options);
@@ -89,7 +101,9 @@ public class Main {
         train,
         label,
         interactive,
-        single
+        single,
+        serve,
+        batch
     }
     @Argument(index = 1, usage = "mode", required = true, metaVar = "MODE")
     private ModeName mode;
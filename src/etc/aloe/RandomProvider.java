@@ -23,17 +23,122 @@ import java.util.Random;
 /**
  * Global singleton Random class.
  *
+ * Work that may run in parallel should not share the global generator, because
+ * its results would then depend on how threads are scheduled. Instead, each
+ * task takes its own stream, keyed by its stage and indices such as a fold or
+ * partition number. A stream depends only on the seed and its keys, so a run
+ * with a fixed seed gets the same numbers no matter how many threads it uses.
+ *
  * @author Michael Brooks <mjbrooks@uw.edu>
  */
 public abstract class RandomProvider {
 
-    private static Random _instance = new Random();
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+    private static long seed = new Random().nextLong();
+    private static Random _instance = new Random(seed);
+    private static final ThreadLocal<Random> taskRandom = new ThreadLocal<Random>();
+
+    /**
+     * Seed the global generator and every stream.
+     *
+     * @param seed
+     */
+    public static void setSeed(long seed) {
+        RandomProvider.seed = seed;
+        _instance = new Random(seed);
+    }
 
+    /**
+     * Replace the global generator. Streams are not affected.
+     *
+     * @param random
+     */
     public static void setRandom(Random random) {
         _instance = random;
     }
 
+    /**
+     * Get the calling thread's task generator if it has one, or the global
+     * generator otherwise.
+     *
+     * @return
+     */
     public static Random getRandom() {
+        Random random = taskRandom.get();
+        if (random != null) {
+            return random;
+        }
         return _instance;
     }
+
+    /**
+     * Set the generator used by the calling thread. Pass null to use the
+     * global generator again.
+     *
+     * @param random
+     * @return The generator the thread used before, or null if it used the
+     * global generator.
+     */
+    public static Random setTaskRandom(Random random) {
+        Random previous = taskRandom.get();
+        if (random == null) {
+            taskRandom.remove();
+        } else {
+            taskRandom.set(random);
+        }
+        return previous;
+    }
+
+    /**
+     * Get a new random stream for a task. Streams with different keys are
+     * independent, and a stream with the same keys always produces the same
+     * numbers for a given seed. Streams should not be shared by threads.
+     *
+     * @param stage The name of the stage, e.g. "fold".
+     * @param keys Indices identifying the task within the stage.
+     * @return
+     */
+    public static Random getStream(String stage, long... keys) {
+        long streamSeed = mix(seed + GOLDEN_GAMMA);
+        streamSeed = mix(streamSeed ^ mix(stage.hashCode() + GOLDEN_GAMMA));
+        for (long key : keys) {
+            streamSeed = mix(streamSeed ^ mix(key + GOLDEN_GAMMA));
+        }
+        return new SplitMixRandom(streamSeed);
+    }
+
+    /**
+     * The SplitMix64 finalizer, which scrambles the bits of a 64 bit value.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * A Random that produces a SplitMix64 sequence. Unlike java.util.Random,
+     * it keeps all 64 bits of its seed and does no synchronization.
+     */
+    private static class SplitMixRandom extends Random {
+
+        private static final long serialVersionUID = 1L;
+        private long state;
+
+        SplitMixRandom(long seed) {
+            super(seed);
+        }
+
+        @Override
+        public void setSeed(long seed) {
+            //Called by the Random constructor
+            this.state = seed;
+        }
+
+        @Override
+        protected int next(int bits) {
+            state += GOLDEN_GAMMA;
+            return (int) (mix(state) >>> (64 - bits));
+        }
+    }
 }
@@ -0,0 +1,565 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.classifiers;
+
+import etc.aloe.RandomProvider;
+import java.util.Random;
+import weka.classifiers.AbstractClassifier;
+import weka.core.Capabilities;
+import weka.core.Capabilities.Capability;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.WeightedInstancesHandler;
+
+/**
+ * A linear support vector machine for binary classes, trained by dual
+ * coordinate descent (Hsieh et al., ICML 2008, the method used by LIBLINEAR).
+ *
+ * The model is the same as SMO with a linear kernel: hinge loss with cost C,
+ * where each instance's cost is scaled by its weight. Unlike SMO it works
+ * directly on sparse instances and keeps no kernel cache, so training time is
+ * roughly linear in the number of non-zero feature values.
+ *
+ * Attributes are scaled by their largest absolute value in the training
+ * data, which keeps sparse data sparse. This is not SMO's normalization,
+ * which maps each attribute's range onto [0, 1]: the two only agree for
+ * attributes whose minimum is 0. For others, such as the message count, the
+ * columns are scaled differently, so the solvers regularize them differently
+ * and the models can differ. The bias is learned as the weight of an extra
+ * constant feature.
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public class LinearSVM extends AbstractClassifier implements WeightedInstancesHandler {
+
+    private static final long serialVersionUID = 1L;
+    private static final double BIAS_FEATURE = 1.0;
+    private double cost = 1.0;
+    private double epsilon = 0.01;
+    private int maxIterations = 1000;
+    private boolean buildLogisticModels = false;
+    private int classIndex;
+    private double[] scales;
+    private double[] weights;
+    private double bias;
+    //The logistic model, 1 / (1 + exp(sigmoidA * output + sigmoidB))
+    private double sigmoidA;
+    private double sigmoidB;
+    private boolean hasLogisticModel;
+
+    public double getCost() {
+        return cost;
+    }
+
+    public void setCost(double cost) {
+        this.cost = cost;
+    }
+
+    public double getEpsilon() {
+        return epsilon;
+    }
+
+    /**
+     * Set the tolerance on the projected gradient used to stop training.
+     *
+     * @param epsilon
+     */
+    public void setEpsilon(double epsilon) {
+        this.epsilon = epsilon;
+    }
+
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    public void setMaxIterations(int maxIterations) {
+        this.maxIterations = maxIterations;
+    }
+
+    public boolean getBuildLogisticModels() {
+        return buildLogisticModels;
+    }
+
+    /**
+     * Fit a logistic model to the SVM output, so that distributionForInstance
+     * returns probabilities instead of 0 or 1.
+     *
+     * @param buildLogisticModels
+     */
+    public void setBuildLogisticModels(boolean buildLogisticModels) {
+        this.buildLogisticModels = buildLogisticModels;
+    }
+
+    public String globalInfo() {
+        return "Linear support vector machine trained by dual coordinate descent.";
+    }
+
+    @Override
+    public Capabilities getCapabilities() {
+        Capabilities result = super.getCapabilities();
+        result.disableAll();
+
+        result.enable(Capability.NUMERIC_ATTRIBUTES);
+        result.enable(Capability.MISSING_VALUES);
+        result.enable(Capability.BINARY_CLASS);
+        result.enable(Capability.MISSING_CLASS_VALUES);
+
+        return result;
+    }
+
+    @Override
+    public void buildClassifier(Instances data) throws Exception {
+        getCapabilities().testWithFail(data);
+
+        classIndex = data.classIndex();
+        int numAttributes = data.numAttributes();
+
+        //Scale each attribute by its largest absolute value
+        scales = new double[numAttributes];
+        for (int i = 0; i < data.numInstances(); i++) {
+            Instance instance = data.instance(i);
+            for (int k = 0; k < instance.numValues(); k++) {
+                int index = instance.index(k);
+                double value = instance.valueSparse(k);
+                if (index != classIndex && !Double.isNaN(value)) {
+                    scales[index] = Math.max(scales[index], Math.abs(value));
+                }
+            }
+        }
+        for (int index = 0; index < numAttributes; index++) {
+            scales[index] = scales[index] > 0 ? 1.0 / scales[index] : 0;
+        }
+
+        //Copy the labeled instances into sparse arrays
+        int numExamples = 0;
+        for (int i = 0; i < data.numInstances(); i++) {
+            if (!data.instance(i).classIsMissing() && data.instance(i).weight() > 0) {
+                numExamples++;
+            }
+        }
+        int[][] indices = new int[numExamples][];
+        double[][] values = new double[numExamples][];
+        double[] labels = new double[numExamples];
+        double[] upperBounds = new double[numExamples];
+        int example = 0;
+        for (int i = 0; i < data.numInstances(); i++) {
+            Instance instance = data.instance(i);
+            if (instance.classIsMissing() || instance.weight() <= 0) {
+                continue;
+            }
+            int count = 0;
+            int[] exampleIndices = new int[instance.numValues()];
+            double[] exampleValues = new double[instance.numValues()];
+            for (int k = 0; k < instance.numValues(); k++) {
+                int index = instance.index(k);
+                double value = instance.valueSparse(k);
+                if (index != classIndex && !Double.isNaN(value) && value * scales[index] != 0) {
+                    exampleIndices[count] = index;
+                    exampleValues[count] = value * scales[index];
+                    count++;
+                }
+            }
+            indices[example] = trim(exampleIndices, count);
+            values[example] = trim(exampleValues, count);
+            labels[example] = instance.classValue() == 1 ? 1 : -1;
+            upperBounds[example] = cost * instance.weight();
+            example++;
+        }
+
+        weights = new double[numAttributes];
+        bias = 0;
+        solve(indices, values, labels, upperBounds);
+
+        hasLogisticModel = false;
+        if (buildLogisticModels) {
+            double[] outputs = new double[numExamples];
+            double[] exampleWeights = new double[numExamples];
+            for (example = 0; example < numExamples; example++) {
+                outputs[example] = dot(indices[example], values[example]);
+                exampleWeights[example] = upperBounds[example] / cost;
+            }
+            fitSigmoid(outputs, labels, exampleWeights);
+        }
+    }
+
+    /**
+     * Dual coordinate descent with shrinking for the L1-loss SVM.
+     */
+    private void solve(int[][] indices, double[][] values, double[] labels, double[] upperBounds) {
+        int numExamples = labels.length;
+        double[] alpha = new double[numExamples];
+        double[] diagonal = new double[numExamples];
+        int[] order = new int[numExamples];
+        for (int i = 0; i < numExamples; i++) {
+            double norm = BIAS_FEATURE * BIAS_FEATURE;
+            for (double value : values[i]) {
+                norm += value * value;
+            }
+            diagonal[i] = norm;
+            order[i] = i;
+        }
+
+        Random random = RandomProvider.getRandom();
+        int activeSize = numExamples;
+        double maxProjectedOld = Double.POSITIVE_INFINITY;
+        double minProjectedOld = Double.NEGATIVE_INFINITY;
+        int iteration = 0;
+        while (iteration < maxIterations) {
+            double maxProjected = Double.NEGATIVE_INFINITY;
+            double minProjected = Double.POSITIVE_INFINITY;
+
+            for (int i = 0; i < activeSize; i++) {
+                int j = i + random.nextInt(activeSize - i);
+                int swap = order[i];
+                order[i] = order[j];
+                order[j] = swap;
+            }
+
+            for (int s = 0; s < activeSize; s++) {
+                int i = order[s];
+                double gradient = labels[i] * dot(indices[i], values[i]) - 1;
+                double upperBound = upperBounds[i];
+
+                double projected = 0;
+                if (alpha[i] == 0) {
+                    if (gradient > maxProjectedOld) {
+                        //Shrink: this example is unlikely to become a support vector
+                        activeSize--;
+                        order[s] = order[activeSize];
+                        order[activeSize] = i;
+                        s--;
+                        continue;
+                    } else if (gradient < 0) {
+                        projected = gradient;
+                    }
+                } else if (alpha[i] == upperBound) {
+                    if (gradient < minProjectedOld) {
+                        activeSize--;
+                        order[s] = order[activeSize];
+                        order[activeSize] = i;
+                        s--;
+                        continue;
+                    } else if (gradient > 0) {
+                        projected = gradient;
+                    }
+                } else {
+                    projected = gradient;
+                }
+
+                maxProjected = Math.max(maxProjected, projected);
+                minProjected = Math.min(minProjected, projected);
+
+                if (Math.abs(projected) > 1.0e-12) {
+                    double oldAlpha = alpha[i];
+                    alpha[i] = Math.min(Math.max(alpha[i] - gradient / diagonal[i], 0.0), upperBound);
+                    double delta = (alpha[i] - oldAlpha) * labels[i];
+                    int[] exampleIndices = indices[i];
+                    double[] exampleValues = values[i];
+                    for (int k = 0; k < exampleIndices.length; k++) {
+                        weights[exampleIndices[k]] += delta * exampleValues[k];
+                    }
+                    bias += delta * BIAS_FEATURE;
+                }
+            }
+
+            iteration++;
+
+            if (maxProjected - minProjected <= epsilon) {
+                if (activeSize == numExamples) {
+                    break;
+                } else {
+                    //Check the shrunken examples before stopping
+                    activeSize = numExamples;
+                    maxProjectedOld = Double.POSITIVE_INFINITY;
+                    minProjectedOld = Double.NEGATIVE_INFINITY;
+                    continue;
+                }
+            }
+
+            maxProjectedOld = maxProjected <= 0 ? Double.POSITIVE_INFINITY : maxProjected;
+            minProjectedOld = minProjected >= 0 ? Double.NEGATIVE_INFINITY : minProjected;
+        }
+
+        if (iteration >= maxIterations) {
+            System.err.println("LinearSVM reached " + maxIterations + " iterations without converging.");
+        }
+    }
+
+    /**
+     * Fit Platt's sigmoid to the outputs by Newton's method with
+     * backtracking (Lin, Lin and Weng, Machine Learning 68(3), 2007).
+     */
+    private void fitSigmoid(double[] outputs, double[] labels, double[] exampleWeights) {
+        double positive = 0;
+        double negative = 0;
+        for (int i = 0; i < labels.length; i++) {
+            if (labels[i] > 0) {
+                positive += exampleWeights[i];
+            } else {
+                negative += exampleWeights[i];
+            }
+        }
+
+        double highTarget = (positive + 1.0) / (positive + 2.0);
+        double lowTarget = 1 / (negative + 2.0);
+        double[] targets = new double[labels.length];
+        for (int i = 0; i < labels.length; i++) {
+            targets[i] = labels[i] > 0 ? highTarget : lowTarget;
+        }
+
+        final int maxSteps = 100;
+        final double minStep = 1e-10;
+        final double sigma = 1e-12;
+        final double tolerance = 1e-5;
+
+        double a = 0.0;
+        double b = Math.log((negative + 1.0) / (positive + 1.0));
+        double value = sigmoidLoss(outputs, targets, exampleWeights, a, b);
+
+        for (int step = 0; step < maxSteps; step++) {
+            //Gradient and Hessian, with the Hessian kept positive definite
+            double h11 = sigma;
+            double h22 = sigma;
+            double h21 = 0.0;
+            double g1 = 0.0;
+            double g2 = 0.0;
+            for (int i = 0; i < outputs.length; i++) {
+                double fApB = outputs[i] * a + b;
+                double p;
+                double q;
+                if (fApB >= 0) {
+                    p = Math.exp(-fApB) / (1.0 + Math.exp(-fApB));
+                    q = 1.0 / (1.0 + Math.exp(-fApB));
+                } else {
+                    p = 1.0 / (1.0 + Math.exp(fApB));
+                    q = Math.exp(fApB) / (1.0 + Math.exp(fApB));
+                }
+                double d2 = p * q * exampleWeights[i];
+                h11 += outputs[i] * outputs[i] * d2;
+                h22 += d2;
+                h21 += outputs[i] * d2;
+                double d1 = (targets[i] - p) * exampleWeights[i];
+                g1 += outputs[i] * d1;
+                g2 += d1;
+            }
+
+            if (Math.abs(g1) < tolerance && Math.abs(g2) < tolerance) {
+                break;
+            }
+
+            double det = h11 * h22 - h21 * h21;
+            double dA = -(h22 * g1 - h21 * g2) / det;
+            double dB = -(-h21 * g1 + h11 * g2) / det;
+            double gd = g1 * dA + g2 * dB;
+
+            double stepSize = 1;
+            while (stepSize >= minStep) {
+                double newA = a + stepSize * dA;
+                double newB = b + stepSize * dB;
+                double newValue = sigmoidLoss(outputs, targets, exampleWeights, newA, newB);
+                if (newValue < value + 0.0001 * stepSize * gd) {
+                    a = newA;
+                    b = newB;
+                    value = newValue;
+                    break;
+                }
+                stepSize = stepSize / 2.0;
+            }
+
+            if (stepSize < minStep) {
+                break;
+            }
+        }
+
+        sigmoidA = a;
+        sigmoidB = b;
+        hasLogisticModel = true;
+    }
+
+    private static double sigmoidLoss(double[] outputs, double[] targets, double[] exampleWeights, double a, double b) {
+        double loss = 0;
+        for (int i = 0; i < outputs.length; i++) {
+            double fApB = outputs[i] * a + b;
+            if (fApB >= 0) {
+                loss += exampleWeights[i] * (targets[i] * fApB + Math.log(1 + Math.exp(-fApB)));
+            } else {
+                loss += exampleWeights[i] * ((targets[i] - 1) * fApB + Math.log(1 + Math.exp(fApB)));
+            }
+        }
+        return loss;
+    }
+
+    private double dot(int[] exampleIndices, double[] exampleValues) {
+        double sum = bias * BIAS_FEATURE;
+        for (int k = 0; k < exampleIndices.length; k++) {
+            sum += weights[exampleIndices[k]] * exampleValues[k];
+        }
+        return sum;
+    }
+
+    private static int[] trim(int[] array, int length) {
+        if (array.length == length) {
+            return array;
+        }
+        int[] result = new int[length];
+        System.arraycopy(array, 0, result, 0, length);
+        return result;
+    }
+
+    private static double[] trim(double[] array, int length) {
+        if (array.length == length) {
+            return array;
+        }
+        double[] result = new double[length];
+        System.arraycopy(array, 0, result, 0, length);
+        return result;
+    }
+
+    /**
+     * Get the output of the SVM for an instance. Positive outputs predict the
+     * second class value.
+     *
+     * @param instance
+     * @return
+     */
+    public double output(Instance instance) {
+        double sum = bias * BIAS_FEATURE;
+        for (int k = 0; k < instance.numValues(); k++) {
+            int index = instance.index(k);
+            double value = instance.valueSparse(k);
+            if (index != classIndex && index < weights.length && !Double.isNaN(value)) {
+                sum += weights[index] * scales[index] * value;
+            }
+        }
+        return sum;
+    }
+
+    @Override
+    public double[] distributionForInstance(Instance instance) throws Exception {
+        double output = output(instance);
+        double[] result = new double[2];
+        if (hasLogisticModel) {
+            result[1] = 1.0 / (1.0 + Math.exp(sigmoidA * output + sigmoidB));
+            result[0] = 1 - result[1];
+        } else if (output > 0) {
+            result[1] = 1;
+        } else {
+            result[0] = 1;
+        }
+        return result;
+    }
+
+    /**
+     * Get the non-zero weights on the scaled attributes, in the same form as
+     * SMO.sparseWeights() for one pair of classes.
+     *
+     * @return
+     */
+    public double[] sparseWeights() {
+        int count = 0;
+        for (int index = 0; index < weights.length; index++) {
+            if (weights[index] != 0) {
+                count++;
+            }
+        }
+        double[] result = new double[count];
+        count = 0;
+        for (int index = 0; index < weights.length; index++) {
+            if (weights[index] != 0) {
+                result[count++] = weights[index];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the attribute indices of the values in sparseWeights().
+     *
+     * @return
+     */
+    public int[] sparseIndices() {
+        int count = 0;
+        for (int index = 0; index < weights.length; index++) {
+            if (weights[index] != 0) {
+                count++;
+            }
+        }
+        int[] result = new int[count];
+        count = 0;
+        for (int index = 0; index < weights.length; index++) {
+            if (weights[index] != 0) {
+                result[count++] = index;
+            }
+        }
+        return result;
+    }
+
+    public double getBias() {
+        return bias;
+    }
+
+    /**
+     * Get the factor each attribute is multiplied by before it is weighted.
+     *
+     * @return A copy of the factors, or null if no model has been built.
+     */
+    public double[] getScales() {
+        return scales == null ? null : scales.clone();
+    }
+
+    public int getClassIndex() {
+        return classIndex;
+    }
+
+    /**
+     * Check whether the last model built has a logistic model, which is not
+     * the case if no model was asked for or the outputs were all the same.
+     *
+     * @return
+     */
+    public boolean hasLogisticModel() {
+        return hasLogisticModel;
+    }
+
+    /**
+     * Get the slope of the logistic model, 1 / (1 + exp(A * output + B)).
+     *
+     * @return
+     */
+    public double getSigmoidA() {
+        return sigmoidA;
+    }
+
+    /**
+     * Get the intercept of the logistic model, 1 / (1 + exp(A * output + B)).
+     *
+     * @return
+     */
+    public double getSigmoidB() {
+        return sigmoidB;
+    }
+
+    @Override
+    public String toString() {
+        if (weights == null) {
+            return "LinearSVM: No model built yet.";
+        }
+        return "LinearSVM: " + sparseIndices().length + " non-zero weights, bias " + bias;
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.controllers;
+
+import etc.aloe.data.BatchRecord;
+import etc.aloe.data.FeatureSpecification;
+import etc.aloe.data.Model;
+import etc.aloe.data.Predictions;
+import etc.aloe.data.RecordFormat;
+import etc.aloe.data.Segment;
+import etc.aloe.data.SegmentIdAllocator;
+import etc.aloe.data.SegmentSet;
+import etc.aloe.processes.FeatureExtraction;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class that labels a stream of newline-delimited records with an existing
+ * model, writing one result line per record in input order.
+ *
+ * Each record is labeled as a segment of its own. Reading, labeling, and
+ * writing overlap: lines are grouped into micro-batches that are labeled on a
+ * pool of threads while more input is read. A batch is sent as soon as it is
+ * full or no more input is waiting, so a client that writes one record and
+ * waits for its result is not held up, and a client that streams records as
+ * fast as it can gets full batches. Results are flushed whenever the next
+ * batch is not ready yet. Blank lines are skipped.
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public class BatchController {
+
+    private static final String CHARSET = "UTF-8";
+    private static final Future<List<BatchRecord>> END_OF_BATCHES = new FutureTask<List<BatchRecord>>(new Runnable() {
+        @Override
+        public void run() {
+        }
+    }, null);
+    private FeatureSpecification featureSpecification;
+    private Model model;
+    private FeatureExtraction featureExtractionImpl;
+    private LoadedModel loaded;
+    private ModelReloader reloader;
+    private RecordFormat format = RecordFormat.TSV;
+    private DateFormat dateFormat;
+    private int batchSize = 256;
+    private int numThreads = 1;
+    private int numRecords;
+    private int numErrors;
+
+    public void setFeatureSpecification(FeatureSpecification spec) {
+        this.featureSpecification = spec;
+    }
+
+    public void setModel(Model model) {
+        this.model = model;
+    }
+
+    /**
+     * Label each batch with the reloader's current model instead of the model
+     * and feature specification set here.
+     *
+     * @param reloader
+     */
+    public void setReloader(ModelReloader reloader) {
+        this.reloader = reloader;
+    }
+
+    public void setFormat(RecordFormat format) {
+        this.format = format;
+    }
+
+    public RecordFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Set the format used to parse timestamps. Each labeling thread uses its
+     * own clone.
+     *
+     * @param dateFormat
+     */
+    public void setDateFormat(DateFormat dateFormat) {
+        this.dateFormat = dateFormat;
+    }
+
+    /**
+     * Set the largest number of records labeled together.
+     *
+     * @param batchSize
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Set the number of batches labeled at the same time.
+     *
+     * @param numThreads
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * Get the number of records written by the last run.
+     *
+     * @return
+     */
+    public int getNumRecords() {
+        return numRecords;
+    }
+
+    /**
+     * Get the number of records in the last run that could not be labeled.
+     *
+     * @return
+     */
+    public int getNumErrors() {
+        return numErrors;
+    }
+
+    /**
+     * Label every record from the input until it ends.
+     *
+     * @param input UTF-8 records, one per line.
+     * @param output Where the UTF-8 results are written, one per line.
+     * @throws IOException If reading or writing fails.
+     */
+    public void run(InputStream input, OutputStream output) throws IOException {
+
+        System.out.println("== Batch Labeling ==");
+
+        if (dateFormat == null) {
+            throw new IllegalStateException("No date format provided.");
+        }
+
+        this.numRecords = 0;
+        this.numErrors = 0;
+
+        //Compile the features once instead of filtering every batch
+        if (reloader == null) {
+            loaded = LoadedModel.compile(featureSpecification, model, getFeatureExtractionImpl(), 1);
+        }
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, CHARSET));
+        Writer writer = new BufferedWriter(new OutputStreamWriter(output, CHARSET));
+
+        //Bounded, so a slow reader of the output slows down the input
+        BlockingQueue<Future<List<BatchRecord>>> pending = new ArrayBlockingQueue<Future<List<BatchRecord>>>(2 * numThreads);
+        ExecutorService labelers = Executors.newFixedThreadPool(numThreads);
+        ExecutorService writing = Executors.newSingleThreadExecutor();
+        try {
+            Future<Void> written = writing.submit(new WriteTask(pending, writer));
+
+            List<String> lines = new ArrayList<String>(batchSize);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().length() == 0) {
+                    continue;
+                }
+                lines.add(line);
+                if (lines.size() >= batchSize || !reader.ready()) {
+                    enqueue(pending, labelers.submit(new LabelTask(lines)), written);
+                    lines = new ArrayList<String>(batchSize);
+                }
+            }
+            if (!lines.isEmpty()) {
+                enqueue(pending, labelers.submit(new LabelTask(lines)), written);
+            }
+            enqueue(pending, END_OF_BATCHES, written);
+
+            written.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else {
+                throw new IllegalStateException(cause);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Batch labeling was interrupted");
+        } finally {
+            labelers.shutdownNow();
+            writing.shutdownNow();
+        }
+
+        System.out.println("Labeled " + numRecords + " records (" + numErrors + " could not be labeled).");
+    }
+
+    /**
+     * Queue a batch for writing, giving up if the writer has stopped.
+     */
+    private static void enqueue(BlockingQueue<Future<List<BatchRecord>>> pending, Future<List<BatchRecord>> batch, Future<Void> written)
+            throws InterruptedException, ExecutionException {
+        checkWriter(written);
+        while (!pending.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+            checkWriter(written);
+        }
+    }
+
+    private static void checkWriter(Future<Void> written) throws InterruptedException, ExecutionException {
+        if (written.isDone()) {
+            written.get();
+            throw new IllegalStateException("Output stopped before the input ended");
+        }
+    }
+
+    /**
+     * Parses and labels a batch of lines.
+     */
+    private class LabelTask implements Callable<List<BatchRecord>> {
+
+        private final List<String> lines;
+
+        LabelTask(List<String> lines) {
+            this.lines = lines;
+        }
+
+        @Override
+        public List<BatchRecord> call() {
+            DateFormat format = (DateFormat) dateFormat.clone();
+            List<BatchRecord> records = new ArrayList<BatchRecord>(lines.size());
+            List<BatchRecord> readable = new ArrayList<BatchRecord>(lines.size());
+            SegmentIdAllocator segmentIds = new SegmentIdAllocator();
+            SegmentSet segmentSet = new SegmentSet();
+            for (int i = 0; i < lines.size(); i++) {
+                BatchRecord record = getFormat().parse(lines.get(i), i, format);
+                records.add(record);
+                if (record.getMessage() != null) {
+                    Segment segment = new Segment(segmentIds);
+                    segment.add(record.getMessage());
+                    segmentSet.add(segment);
+                    readable.add(record);
+                }
+            }
+
+            if (!readable.isEmpty()) {
+                try {
+                    Predictions predictions = label(segmentSet);
+                    for (int i = 0; i < readable.size(); i++) {
+                        readable.get(i).setPrediction(predictions.getPredictedLabel(i), predictions.getPredictionConfidence(i));
+                    }
+                } catch (RuntimeException e) {
+                    System.err.println("Error labeling batch: " + e.getMessage());
+                    for (BatchRecord record : readable) {
+                        record.setError("labeling failed: " + e.getMessage());
+                    }
+                }
+            }
+            return records;
+        }
+
+        private Predictions label(SegmentSet segmentSet) {
+            //The whole batch is labeled with one model
+            LoadedModel current = reloader == null ? loaded : reloader.getCurrent();
+            return current.label(segmentSet, getFeatureExtractionImpl());
+        }
+    }
+
+    /**
+     * Writes the results of each batch, in the order the batches were read.
+     */
+    private class WriteTask implements Callable<Void> {
+
+        private final BlockingQueue<Future<List<BatchRecord>>> pending;
+        private final Writer writer;
+
+        WriteTask(BlockingQueue<Future<List<BatchRecord>>> pending, Writer writer) {
+            this.pending = pending;
+            this.writer = writer;
+        }
+
+        @Override
+        public Void call() throws Exception {
+            Future<List<BatchRecord>> batch;
+            while ((batch = pending.take()) != END_OF_BATCHES) {
+                for (BatchRecord record : batch.get()) {
+                    writer.write(getFormat().format(record));
+                    writer.write('\n');
+                    numRecords++;
+                    if (record.getError() != null) {
+                        numErrors++;
+                    }
+                }
+
+                //Don't leave results sitting in the buffer while waiting
+                Future<List<BatchRecord>> next = pending.peek();
+                if (next == null || !next.isDone()) {
+                    writer.flush();
+                }
+            }
+            writer.flush();
+            return null;
+        }
+    }
+
+    public FeatureExtraction getFeatureExtractionImpl() {
+        return this.featureExtractionImpl;
+    }
+
+    public void setFeatureExtractionImpl(FeatureExtraction featureExtractor) {
+        this.featureExtractionImpl = featureExtractor;
+    }
+}
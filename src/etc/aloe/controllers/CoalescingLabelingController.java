@@ -0,0 +1,389 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.controllers;
+
+import etc.aloe.data.FeatureSpecification;
+import etc.aloe.data.Model;
+import etc.aloe.data.Predictions;
+import etc.aloe.data.Segment;
+import etc.aloe.data.SegmentSet;
+import etc.aloe.processes.FeatureExtraction;
+import etc.aloe.processes.LabelMapping;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class that labels segments submitted one at a time from many threads by
+ * gathering them into micro-batches.
+ *
+ * Labeling a batch of segments costs much less than labeling each one on its
+ * own, since feature extraction and prediction have a fixed cost per call. A
+ * dispatcher thread waits for a labeling thread to be free, then collects
+ * segments until the batch is full or the oldest segment has waited the
+ * maximum wait time, and hands the batch off. When the labeling threads are
+ * busy, segments pile up and the next batches are bigger, so throughput grows
+ * with load. A segment waits at most the maximum wait time, plus any time
+ * spent waiting for a free labeling thread, before its batch starts. With no
+ * wait (the default), a batch is whatever queued up while the labeling threads
+ * were busy, so a segment submitted to an idle controller is labeled at once.
+ *
+ * Each submitted segment gets a future, which returns the same segment once
+ * its predicted label and confidence have been set.
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public class CoalescingLabelingController {
+
+    private FeatureSpecification featureSpecification;
+    private Model model;
+    private FeatureExtraction featureExtractionImpl;
+    private LabelMapping mappingImpl;
+    private LoadedModel loaded;
+    private ModelReloader reloader;
+    private int maxBatchSize = 64;
+    private long maxWaitMicros = 0;
+    private int numThreads = 1;
+    private int queueCapacity = 4096;
+    private BlockingQueue<Request> queue;
+    private Semaphore freeThreads;
+    private ExecutorService labelers;
+    private Thread dispatcher;
+    private volatile boolean stopped = true;
+    private final AtomicLong numBatches = new AtomicLong();
+    private final AtomicLong numLabeled = new AtomicLong();
+
+    public void setFeatureSpecification(FeatureSpecification spec) {
+        this.featureSpecification = spec;
+    }
+
+    public void setModel(Model model) {
+        this.model = model;
+    }
+
+    /**
+     * Label each batch with the reloader's current model instead of the model
+     * and feature specification set here.
+     *
+     * @param reloader
+     */
+    public void setReloader(ModelReloader reloader) {
+        this.reloader = reloader;
+    }
+
+    /**
+     * Set the largest number of segments labeled together.
+     *
+     * @param maxBatchSize
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Set how long to wait for more segments before labeling a batch that
+     * isn't full.
+     *
+     * @param maxWaitMicros Microseconds, counted from when the first segment
+     * in the batch is taken.
+     */
+    public void setMaxWaitMicros(long maxWaitMicros) {
+        this.maxWaitMicros = Math.max(0, maxWaitMicros);
+    }
+
+    public long getMaxWaitMicros() {
+        return maxWaitMicros;
+    }
+
+    /**
+     * Set the number of batches labeled at the same time.
+     *
+     * @param numThreads
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * Set the number of segments that may wait to be labeled. Submitting more
+     * blocks until there is room.
+     *
+     * @param queueCapacity
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = Math.max(1, queueCapacity);
+    }
+
+    /**
+     * Get the number of batches labeled so far.
+     *
+     * @return
+     */
+    public long getNumBatches() {
+        return numBatches.get();
+    }
+
+    /**
+     * Get the number of segments labeled so far.
+     *
+     * @return
+     */
+    public long getNumLabeled() {
+        return numLabeled.get();
+    }
+
+    /**
+     * Start accepting segments.
+     */
+    public synchronized void start() {
+        if (dispatcher != null) {
+            throw new IllegalStateException("Already started");
+        }
+
+        //Compile the features once instead of filtering every batch
+        if (reloader == null) {
+            loaded = LoadedModel.compile(featureSpecification, model, getFeatureExtractionImpl(), 1);
+        }
+
+        queue = new LinkedBlockingQueue<Request>(queueCapacity);
+        freeThreads = new Semaphore(numThreads);
+        labelers = Executors.newFixedThreadPool(numThreads);
+        dispatcher = new Thread(new Dispatcher(), "labeling-dispatcher");
+        dispatcher.setDaemon(true);
+        stopped = false;
+        dispatcher.start();
+    }
+
+    /**
+     * Stop labeling. Segments that were submitted but not yet labeled fail
+     * with an IllegalStateException.
+     */
+    public synchronized void stop() {
+        if (dispatcher == null) {
+            return;
+        }
+        stopped = true;
+        dispatcher.interrupt();
+        dispatcher = null;
+
+        List<Request> abandoned = new ArrayList<Request>();
+        for (Runnable task : labelers.shutdownNow()) {
+            abandoned.addAll(((BatchTask) task).batch);
+        }
+        queue.drainTo(abandoned);
+        fail(abandoned);
+    }
+
+    private static void fail(List<Request> requests) {
+        for (Request request : requests) {
+            request.fail(new IllegalStateException("Labeling stopped"));
+        }
+    }
+
+    /**
+     * Submit a segment to be labeled.
+     *
+     * @param segment
+     * @return A future that returns the segment once it has been labeled.
+     * @throws InterruptedException If interrupted while waiting for room in
+     * the queue.
+     */
+    public Future<Segment> submit(Segment segment) throws InterruptedException {
+        BlockingQueue<Request> requests;
+        synchronized (this) {
+            if (dispatcher == null) {
+                throw new IllegalStateException("Not started");
+            }
+            requests = queue;
+        }
+        Request request = new Request(segment);
+        requests.put(request);
+        if (stopped && requests.remove(request)) {
+            //Stopped after the check above, so nothing will take it
+            request.fail(new IllegalStateException("Labeling stopped"));
+        }
+        return request;
+    }
+
+    /**
+     * Collects batches and hands them to the labeling threads.
+     */
+    private class Dispatcher implements Runnable {
+
+        @Override
+        public void run() {
+            List<Request> batch = new ArrayList<Request>(0);
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    freeThreads.acquire();
+                    batch = new ArrayList<Request>(maxBatchSize);
+                    batch.add(queue.take());
+
+                    long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(maxWaitMicros);
+                    while (batch.size() < maxBatchSize) {
+                        queue.drainTo(batch, maxBatchSize - batch.size());
+                        long remaining = deadline - System.nanoTime();
+                        if (batch.size() >= maxBatchSize || remaining <= 0) {
+                            break;
+                        }
+                        Request next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                    }
+
+                    labelers.execute(new BatchTask(batch));
+                    batch = new ArrayList<Request>(0);
+                }
+            } catch (InterruptedException e) {
+                //Stopped while gathering
+                fail(batch);
+            } catch (RejectedExecutionException e) {
+                //Stopped while handing off
+                fail(batch);
+            }
+        }
+    }
+
+    /**
+     * Labels one batch and completes its futures.
+     */
+    private class BatchTask implements Runnable {
+
+        private final List<Request> batch;
+
+        BatchTask(List<Request> batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public void run() {
+            try {
+                SegmentSet segmentSet = new SegmentSet();
+                List<Request> labeling = new ArrayList<Request>(batch.size());
+                for (Request request : batch) {
+                    if (!request.isCancelled()) {
+                        segmentSet.add(request.segment);
+                        labeling.add(request);
+                    }
+                }
+
+                if (!labeling.isEmpty()) {
+                    //Errors too, e.g. a regex overflowing the stack, or the
+                    //requests would never complete
+                    Throwable failure = null;
+                    try {
+                        label(segmentSet);
+                    } catch (Throwable e) {
+                        failure = e;
+                    }
+
+                    //Count before anyone sees the results
+                    numBatches.incrementAndGet();
+                    if (failure == null) {
+                        numLabeled.addAndGet(labeling.size());
+                    }
+
+                    for (Request request : labeling) {
+                        if (failure == null) {
+                            request.labeled();
+                        } else {
+                            request.fail(failure);
+                        }
+                    }
+                }
+            } finally {
+                //Nobody may be left waiting, whatever went wrong
+                for (Request request : batch) {
+                    if (!request.isDone()) {
+                        request.fail(new IllegalStateException("Labeling failed"));
+                    }
+                }
+                freeThreads.release();
+            }
+        }
+
+        private void label(SegmentSet segmentSet) {
+            //The whole batch is labeled with one model
+            LoadedModel current = reloader == null ? loaded : reloader.getCurrent();
+            Predictions predictions = current.label(segmentSet, getFeatureExtractionImpl());
+            getMappingImpl().map(predictions, segmentSet);
+        }
+    }
+
+    /**
+     * A segment waiting to be labeled, and its future.
+     */
+    private static class Request extends FutureTask<Segment> {
+
+        private static final Runnable NOTHING = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+        private final Segment segment;
+
+        Request(Segment segment) {
+            super(NOTHING, segment);
+            this.segment = segment;
+        }
+
+        void labeled() {
+            set(segment);
+        }
+
+        void fail(Throwable cause) {
+            setException(cause);
+        }
+    }
+
+    public FeatureExtraction getFeatureExtractionImpl() {
+        return this.featureExtractionImpl;
+    }
+
+    public void setFeatureExtractionImpl(FeatureExtraction featureExtractor) {
+        this.featureExtractionImpl = featureExtractor;
+    }
+
+    public LabelMapping getMappingImpl() {
+        return this.mappingImpl;
+    }
+
+    public void setMappingImpl(LabelMapping mapping) {
+        this.mappingImpl = mapping;
+    }
+}
@@ -18,6 +18,7 @@
  */
 package etc.aloe.controllers;
 
+import etc.aloe.RandomProvider;
 import etc.aloe.data.EvaluationReport;
 import etc.aloe.data.ExampleSet;
 import etc.aloe.data.FeatureSpecification;
@@ -31,11 +32,31 @@ import etc.aloe.processes.CrossValidationSplit;
 import etc.aloe.processes.FeatureExtraction;
 import etc.aloe.processes.FeatureGeneration;
 import etc.aloe.processes.Training;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import weka.core.Instances;
 
 /**
  * Class that performs cross validation on segmented data and and produces an
  * evaluation report.
  *
+ * Features that don't depend on the training data are extracted once for all
+ * of the labeled segments. Each fold only configures and extracts the features
+ * that depend on its training split.
+ *
+ * Folds can run on several threads. Fold i draws its random numbers from the
+ * keyed stream RandomProvider.getStream("fold", i), and the shared setup uses
+ * getStream("cross-validation"). The streams depend only on the seed and
+ * their keys, not on which thread runs them or when, and the fold reports are
+ * merged in fold order, so the results don't depend on the number of threads.
+ *
  * @author Michael Brooks <mjbrooks@uw.edu>
  */
 public class CrossValidationController {
@@ -50,6 +71,8 @@ public class CrossValidationController {
     private double falsePositiveCost = 1;
     private double falseNegativeCost = 1;
     private boolean balanceTestSet;
+    private int numThreads = 1;
+    private ExecutorService executor;
 
     public EvaluationReport getEvaluationReport() {
         return evaluationReport;
@@ -71,7 +94,44 @@ public class CrossValidationController {
         this.falseNegativeCost = falseNegativeCost;
     }
 
+    /**
+     * Set the number of folds that run at the same time.
+     *
+     * @param numThreads
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * Run the folds on a thread pool owned by the caller, which may be shared
+     * with other work. The pool's size limits how many folds run at once.
+     *
+     * @param executor The pool, or null to create one for each run.
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Run cross validation. Shuffling the segments draws from the
+     * "cross-validation" random stream and each fold draws from its own
+     * "fold" stream, so the results do not depend on the number of threads.
+     */
     public void run() {
+        Random previous = RandomProvider.setTaskRandom(RandomProvider.getStream("cross-validation"));
+        try {
+            runFolds();
+        } finally {
+            RandomProvider.setTaskRandom(previous);
+        }
+    }
+
+    private void runFolds() {
 
         if (this.folds > 0) {
 
@@ -85,48 +145,165 @@ public class CrossValidationController {
             validationPrep.randomize(segmentSet.getSegments());
             segmentSet.setSegments(validationPrep.stratify(segmentSet.getSegments(), folds));
 
-            evaluationReport = new EvaluationReport(this.folds + " Cross Validation", falsePositiveCost, falseNegativeCost);
+            //Extract the features that are the same in every fold
+            FeatureGeneration generation = getFeatureGenerationImpl();
+            FeatureExtraction extraction = getFeatureExtractionImpl();
+            ExampleSet basicExamples = segmentSet.getBasicExamples();
+            FeatureSpecification invariantSpec = generation.generateInvariantFeatures(basicExamples);
+            ExampleSet invariantExamples = extraction.extractFeatures(basicExamples, invariantSpec);
+
+            IdentityHashMap<Segment, Integer> exampleIndices = new IdentityHashMap<Segment, Integer>();
+            List<Segment> segments = segmentSet.getSegments();
+            for (int i = 0; i < segments.size(); i++) {
+                exampleIndices.put(segments.get(i), i);
+            }
+
+            List<FoldTask> tasks = new ArrayList<FoldTask>();
             for (int foldIndex = 0; foldIndex < this.folds; foldIndex++) {
-                System.out.println("- Starting fold " + (foldIndex + 1));
-                //Split the data
-                CrossValidationSplit<Segment> split = new CrossValidationSplit<Segment>();
-
-                SegmentSet trainingSegments = new SegmentSet();
-                trainingSegments.setSegments(split.getTrainingForFold(segmentSet.getSegments(), foldIndex, this.folds));
-                if (getBalancingImpl() != null) {
-                    trainingSegments = getBalancingImpl().balance(trainingSegments);
+                tasks.add(new FoldTask(foldIndex, invariantExamples, exampleIndices));
+            }
+
+            evaluationReport = new EvaluationReport(this.folds + " Cross Validation", falsePositiveCost, falseNegativeCost);
+            if ((executor != null || numThreads > 1) && this.folds > 1) {
+                runInParallel(tasks);
+            } else {
+                for (FoldTask task : tasks) {
+                    addFoldReport(task.foldIndex, task.call());
                 }
+            }
+        } else {
+            System.out.println("== Skipping Cross Validation ==");
+        }
+    }
+
+    /**
+     * Run the folds on a thread pool and add their reports in fold order.
+     */
+    private void runInParallel(List<FoldTask> tasks) {
+        ExecutorService pool = executor;
+        if (pool == null) {
+            pool = Executors.newFixedThreadPool(Math.min(numThreads, tasks.size()));
+        }
 
-                SegmentSet testingSegments = new SegmentSet();
-                testingSegments.setSegments(split.getTestingForFold(segmentSet.getSegments(), foldIndex, this.folds));
-                if (getBalancingImpl() != null && balanceTestSet) {
-                    testingSegments = getBalancingImpl().balance(testingSegments);
+        List<Future<EvaluationReport>> futures = new ArrayList<Future<EvaluationReport>>();
+        try {
+            for (FoldTask task : tasks) {
+                futures.add(pool.submit(task));
+            }
+
+            for (int foldIndex = 0; foldIndex < futures.size(); foldIndex++) {
+                addFoldReport(foldIndex, futures.get(foldIndex).get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Cross validation was interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException("Cross validation failed", cause);
+        } finally {
+            if (pool != executor) {
+                pool.shutdownNow();
+            } else {
+                //Don't leave folds running on a pool the caller still uses
+                for (Future<EvaluationReport> future : futures) {
+                    future.cancel(true);
                 }
+            }
+        }
+    }
 
-                ExampleSet basicTrainingExamples = trainingSegments.getBasicExamples();
-                ExampleSet basicTestingExamples = testingSegments.getBasicExamples();
+    private void addFoldReport(int foldIndex, EvaluationReport report) {
+        evaluationReport.addPartial(report);
+        int numCorrect = report.getTrueNegativeCount() + report.getTruePositiveCount();
+        System.out.println("- Fold " + (foldIndex + 1) + " completed (" + numCorrect + "/" + report.getTotalExamples() + " correct).");
+        System.out.println();
+    }
 
-                FeatureGeneration generation = getFeatureGenerationImpl();
-                FeatureSpecification spec = generation.generateFeatures(basicTrainingExamples);
+    /**
+     * Get the examples for some segments, in the same order, from examples
+     * extracted for all of the segments. Segments may appear more than once.
+     *
+     * @param examples The examples for every segment.
+     * @param exampleIndices The index of each segment's example.
+     * @param segments The segments to select.
+     * @return
+     */
+    private ExampleSet selectExamples(ExampleSet examples, IdentityHashMap<Segment, Integer> exampleIndices, SegmentSet segments) {
+        Instances all = examples.getInstances();
+        Instances selected = new Instances(all, segments.size());
+        for (Segment segment : segments.getSegments()) {
+            Integer index = exampleIndices.get(segment);
+            if (index == null) {
+                throw new IllegalStateException("No examples for segment " + segment.getId());
+            }
+            selected.add(all.instance(index));
+        }
+        return new ExampleSet(selected);
+    }
 
-                FeatureExtraction extraction = getFeatureExtractionImpl();
-                ExampleSet trainingSet = extraction.extractFeatures(basicTrainingExamples, spec);
-                ExampleSet testingSet = extraction.extractFeatures(basicTestingExamples, spec);
+    /**
+     * Trains and tests one fold. The process implementations only hold their
+     * configuration, so folds share them; each fold builds its own filters
+     * and classifier.
+     */
+    private class FoldTask implements Callable<EvaluationReport> {
+
+        private final int foldIndex;
+        private final ExampleSet invariantExamples;
+        private final IdentityHashMap<Segment, Integer> exampleIndices;
+
+        FoldTask(int foldIndex, ExampleSet invariantExamples, IdentityHashMap<Segment, Integer> exampleIndices) {
+            this.foldIndex = foldIndex;
+            this.invariantExamples = invariantExamples;
+            this.exampleIndices = exampleIndices;
+        }
 
-                Training training = getTrainingImpl();
-                Model model = training.train(trainingSet);
+        @Override
+        public EvaluationReport call() {
+            Random previous = RandomProvider.setTaskRandom(RandomProvider.getStream("fold", foldIndex));
+            try {
+                return runFold();
+            } finally {
+                RandomProvider.setTaskRandom(previous);
+            }
+        }
 
-                Predictions predictions = model.getPredictions(testingSet);
-                EvaluationReport report = new EvaluationReport("Fold " + (foldIndex + 1), falsePositiveCost, falseNegativeCost);
-                report.addPredictions(predictions);
+        private EvaluationReport runFold() {
+            System.out.println("- Starting fold " + (foldIndex + 1));
+            //Split the data
+            CrossValidationSplit<Segment> split = new CrossValidationSplit<Segment>();
 
-                evaluationReport.addPartial(report);
-                int numCorrect = report.getTrueNegativeCount() + report.getTruePositiveCount();
-                System.out.println("- Fold " + (foldIndex + 1) + " completed (" + numCorrect + "/" + testingSet.size() + " correct).");
-                System.out.println();
+            SegmentSet trainingSegments = new SegmentSet();
+            trainingSegments.setSegments(split.getTrainingForFold(segmentSet.getSegments(), foldIndex, folds));
+            if (getBalancingImpl() != null) {
+                trainingSegments = getBalancingImpl().balance(trainingSegments);
             }
-        } else {
-            System.out.println("== Skipping Cross Validation ==");
+
+            SegmentSet testingSegments = new SegmentSet();
+            testingSegments.setSegments(split.getTestingForFold(segmentSet.getSegments(), foldIndex, folds));
+            if (getBalancingImpl() != null && balanceTestSet) {
+                testingSegments = getBalancingImpl().balance(testingSegments);
+            }
+
+            ExampleSet invariantTrainingExamples = selectExamples(invariantExamples, exampleIndices, trainingSegments);
+            ExampleSet invariantTestingExamples = selectExamples(invariantExamples, exampleIndices, testingSegments);
+
+            FeatureSpecification spec = getFeatureGenerationImpl().generateDependentFeatures(invariantTrainingExamples);
+
+            FeatureExtraction extraction = getFeatureExtractionImpl();
+            ExampleSet trainingSet = extraction.extractFeatures(invariantTrainingExamples, spec);
+            ExampleSet testingSet = extraction.extractFeatures(invariantTestingExamples, spec);
+
+            Training training = getTrainingImpl();
+            Model model = training.train(trainingSet);
+
+            Predictions predictions = model.getPredictions(testingSet);
+            EvaluationReport report = new EvaluationReport("Fold " + (foldIndex + 1), falsePositiveCost, falseNegativeCost);
+            report.addPredictions(predictions);
+            return report;
         }
     }
 
@@ -18,17 +18,17 @@
  */
 package etc.aloe.controllers;
 
-import etc.aloe.data.ExampleSet;
 import etc.aloe.data.FeatureSpecification;
 import etc.aloe.data.Message;
 import etc.aloe.data.MessageSet;
 import etc.aloe.data.Model;
 import etc.aloe.data.Predictions;
 import etc.aloe.data.Segment;
+import etc.aloe.data.SegmentIdAllocator;
 import etc.aloe.data.SegmentSet;
 import etc.aloe.processes.FeatureExtraction;
 import etc.aloe.processes.LabelMapping;
-import etc.aloe.processes.Loggable;
+import java.util.ArrayDeque;
 import java.util.Date;
 import java.util.List;
 import java.util.Scanner;
@@ -44,8 +44,11 @@ public class InteractiveController {
     private FeatureSpecification featureSpecification;
     private Model model;
     private FeatureExtraction featureExtractionImpl;
-    private MessageSet messages;
+    private final ArrayDeque<Message> history = new ArrayDeque<Message>();
+    private int historyLimit = 0;
     private LabelMapping mappingImpl;
+    private final SegmentIdAllocator segmentIds = new SegmentIdAllocator();
+    private ModelReloader reloader;
 
     public void setFeatureSpecification(FeatureSpecification spec) {
         this.featureSpecification = spec;
@@ -55,17 +58,72 @@ public class InteractiveController {
         this.model = model;
     }
 
+    /**
+     * Label each message with the reloader's current model instead of the
+     * model and feature specification set here.
+     *
+     * @param reloader
+     */
+    public void setReloader(ModelReloader reloader) {
+        this.reloader = reloader;
+    }
+
+    /**
+     * Set the number of recent messages kept for output. Older messages are
+     * dropped as new ones arrive. A limit of 0 or less keeps every message.
+     *
+     * @param historyLimit
+     */
+    public void setHistoryLimit(int historyLimit) {
+        this.historyLimit = historyLimit;
+    }
+
+    public int getHistoryLimit() {
+        return historyLimit;
+    }
+
+    /**
+     * Get the messages kept from the last run, oldest first.
+     *
+     * @return
+     */
     public MessageSet getMessageSet() {
+        MessageSet messages = new MessageSet();
+        for (Message message : history) {
+            messages.add(message);
+        }
         return messages;
     }
 
+    /**
+     * Keep a labeled message, dropping the oldest kept messages if the history
+     * limit is exceeded.
+     *
+     * @param message
+     */
+    void remember(Message message) {
+        history.addLast(message);
+        if (historyLimit > 0) {
+            while (history.size() > historyLimit) {
+                history.removeFirst();
+            }
+        }
+    }
+
     public void run() {
 
         System.out.println("== Interactive Mode ==");
 
         Scanner scan = new Scanner(System.in);
 
-        messages = new MessageSet();
+        history.clear();
+
+        //Compile the features once instead of filtering every message
+        FeatureExtraction extraction = getFeatureExtractionImpl();
+        LoadedModel loaded = null;
+        if (reloader == null) {
+            loaded = LoadedModel.compile(featureSpecification, model, extraction, 1);
+        }
 
         int msgIdInc = 0;
         System.out.print("MSG > ");
@@ -76,27 +134,21 @@ public class InteractiveController {
             Date time = new Date();
 
             Message message = new Message(msgIdInc++, time, participant, messageStr);
-            messages.add(message);
 
             //Make a segment for the message
-            Segment segment = new Segment();
+            Segment segment = new Segment(segmentIds);
             segment.add(message);
             SegmentSet segmentSet = new SegmentSet();
             segmentSet.add(segment);
 
-            //First extract features
-            FeatureExtraction extraction = getFeatureExtractionImpl();
-            extraction.setVerbosity(Loggable.Verbosity.Quiet);
-
-            ExampleSet examples = extraction.extractFeatures(segmentSet.getBasicExamples(), featureSpecification);
-
-            //Predict the labels
-            Predictions prediction = this.model.getPredictions(examples);
+            //Extract features and predict the label with one model
+            LoadedModel current = reloader == null ? loaded : reloader.getCurrent();
+            Predictions prediction = current.label(segmentSet, extraction);
 
             //Map back onto messages
             LabelMapping mapping = getMappingImpl();
             mapping.map(prediction, segmentSet);
-
+            remember(message);
 
             //Print out the label
             System.out.println("Predicted label: " + message.getPredictedLabel());
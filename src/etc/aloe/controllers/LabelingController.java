@@ -21,6 +21,7 @@ package etc.aloe.controllers;
 import etc.aloe.data.EvaluationReport;
 import etc.aloe.data.ExampleSet;
 import etc.aloe.data.FeatureSpecification;
+import etc.aloe.data.Featurizer;
 import etc.aloe.data.Model;
 import etc.aloe.data.Predictions;
 import etc.aloe.data.SegmentSet;
@@ -42,6 +43,8 @@ public class LabelingController {
     private LabelMapping mappingImpl;
     private double falsePositiveCost = 1;
     private double falseNegativeCost = 1;
+    private boolean compileFeatures = false;
+    private ModelReloader reloader;
 
     public void setSegmentSet(SegmentSet segments) {
         this.segmentSet = segments;
@@ -55,6 +58,32 @@ public class LabelingController {
         this.model = model;
     }
 
+    /**
+     * Label each run with the reloader's current model instead of the model
+     * and feature specification set here. Embedding applications that call
+     * run() for each new set of segments pick up a new model between runs.
+     *
+     * @param reloader
+     */
+    public void setReloader(ModelReloader reloader) {
+        this.reloader = reloader;
+    }
+
+    /**
+     * Extract features with a compiled feature specification when possible,
+     * instead of applying its filters to basic examples. Compiling has a fixed
+     * cost, so this pays off for small inputs that are labeled immediately.
+     *
+     * @param compileFeatures
+     */
+    public void setCompileFeatures(boolean compileFeatures) {
+        this.compileFeatures = compileFeatures;
+    }
+
+    public boolean getCompileFeatures() {
+        return compileFeatures;
+    }
+
     public EvaluationReport getEvaluationReport() {
         return this.evaluationReport;
     }
@@ -65,10 +94,28 @@ public class LabelingController {
 
         //First extract features
         FeatureExtraction extraction = getFeatureExtractionImpl();
-        ExampleSet examples = extraction.extractFeatures(segmentSet.getBasicExamples(), featureSpecification);
+        ExampleSet examples;
+        Model model = this.model;
+        if (reloader != null) {
+            //The whole run is labeled with one model
+            LoadedModel current = reloader.getCurrent();
+            examples = current.extractFeatures(segmentSet, extraction);
+            model = current.getModel();
+        } else {
+            Featurizer featurizer = null;
+            if (compileFeatures) {
+                featurizer = extraction.compile(featureSpecification);
+            }
+
+            if (featurizer != null) {
+                examples = featurizer.extractFeatures(segmentSet);
+            } else {
+                examples = extraction.extractFeatures(segmentSet.getBasicExamples(), featureSpecification);
+            }
+        }
 
         //Predict the labels
-        Predictions predictions = this.model.getPredictions(examples);
+        Predictions predictions = model.getPredictions(examples);
 
         //Map back onto messages
         LabelMapping mapping = getMappingImpl();
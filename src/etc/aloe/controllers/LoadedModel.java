@@ -0,0 +1,126 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.controllers;
+
+import etc.aloe.data.ExampleSet;
+import etc.aloe.data.FeatureSpecification;
+import etc.aloe.data.Featurizer;
+import etc.aloe.data.Model;
+import etc.aloe.data.Predictions;
+import etc.aloe.data.SegmentSet;
+import etc.aloe.processes.FeatureExtraction;
+import etc.aloe.processes.Loggable;
+
+/**
+ * A model and the feature specification it was trained with, ready for
+ * labeling. Long-running controllers label each unit of work with a single
+ * LoadedModel, so when the model is replaced, work that is already under way
+ * finishes with the old one and features are never mixed between the two.
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public class LoadedModel {
+
+    private final FeatureSpecification featureSpecification;
+    private final Model model;
+    private final Featurizer featurizer;
+    private final long generation;
+
+    /**
+     * Construct a loaded model.
+     *
+     * @param spec
+     * @param model
+     * @param featurizer The compiled feature specification, or null to apply
+     * its filters instead.
+     * @param generation Counts the models loaded by the same process.
+     */
+    public LoadedModel(FeatureSpecification spec, Model model, Featurizer featurizer, long generation) {
+        this.featureSpecification = spec;
+        this.model = model;
+        this.featurizer = featurizer;
+        this.generation = generation;
+    }
+
+    /**
+     * Compile the feature specification and wrap it with the model.
+     *
+     * @param spec
+     * @param model
+     * @param extraction Used quietly, to compile the specification.
+     * @param generation
+     * @return
+     */
+    public static LoadedModel compile(FeatureSpecification spec, Model model, FeatureExtraction extraction, long generation) {
+        extraction.setVerbosity(Loggable.Verbosity.Quiet);
+        return new LoadedModel(spec, model, extraction.compile(spec), generation);
+    }
+
+    public FeatureSpecification getFeatureSpecification() {
+        return featureSpecification;
+    }
+
+    public Model getModel() {
+        return model;
+    }
+
+    public Featurizer getFeaturizer() {
+        return featurizer;
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Extract features for every segment, with the compiled featurizer if
+     * there is one.
+     *
+     * @param segmentSet
+     * @param extraction Applies the filters if the specification wasn't
+     * compiled.
+     * @return
+     */
+    public ExampleSet extractFeatures(SegmentSet segmentSet, FeatureExtraction extraction) {
+        if (featurizer != null) {
+            return featurizer.extractFeatures(segmentSet);
+        }
+        //The filters are not safe to use from several threads
+        synchronized (featureSpecification) {
+            return extraction.extractFeatures(segmentSet.getBasicExamples(), featureSpecification);
+        }
+    }
+
+    /**
+     * Predict a label for every segment.
+     *
+     * @param segmentSet
+     * @param extraction Applies the filters if the specification wasn't
+     * compiled.
+     * @return One prediction per segment, in order.
+     */
+    public Predictions label(SegmentSet segmentSet, FeatureExtraction extraction) {
+        ExampleSet examples = extractFeatures(segmentSet, extraction);
+        Predictions predictions = model.getPredictions(examples);
+        if (predictions.size() != segmentSet.size()) {
+            throw new IllegalStateException("Labeled " + predictions.size() + " of " + segmentSet.size() + " segments");
+        }
+        return predictions;
+    }
+}
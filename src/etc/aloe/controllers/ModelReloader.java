@@ -0,0 +1,386 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.controllers;
+
+import etc.aloe.data.FeatureSpecification;
+import etc.aloe.data.Message;
+import etc.aloe.data.Model;
+import etc.aloe.data.Predictions;
+import etc.aloe.data.Segment;
+import etc.aloe.data.SegmentIdAllocator;
+import etc.aloe.data.SegmentSet;
+import etc.aloe.processes.FeatureExtraction;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidObjectException;
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Class that watches a model file and feature specification file and replaces
+ * the loaded model when they change, without stopping a long-running process.
+ *
+ * The files are checked on a background thread. Since a model only works with
+ * the feature specification it was trained with, a reload starts once both
+ * files have been replaced and neither has changed for one polling interval.
+ * The new files are loaded, compiled, and used to label a test message on the
+ * background thread, and only then swapped in. Controllers take the current
+ * model when each unit of work starts, so work under way finishes with the
+ * old model and nothing waits for the swap. If the new files can't be used,
+ * the old model is kept and the files are not tried again until they change.
+ *
+ * The new model is loaded into a new instance of the class of the current
+ * model.
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public class ModelReloader {
+
+    private static final String PROBE_TEXT = "model reload check :)";
+    private final File modelFile;
+    private final File featureSpecFile;
+    private final AtomicReference<LoadedModel> current = new AtomicReference<LoadedModel>();
+    private FeatureExtraction featureExtractionImpl;
+    private long pollIntervalMillis = 2000;
+    private ScheduledExecutorService poller;
+    private Stamp seenModel;
+    private Stamp seenSpec;
+    private Stamp pendingModel;
+    private Stamp pendingSpec;
+    private volatile long numReloads;
+    private volatile long numFailures;
+    private volatile double lastLoadMillis;
+    private volatile long lastSwapNanos;
+    private volatile Date lastReloaded;
+
+    /**
+     * Construct a reloader for a pair of files.
+     *
+     * @param modelFile
+     * @param featureSpecFile
+     */
+    public ModelReloader(File modelFile, File featureSpecFile) {
+        this.modelFile = modelFile;
+        this.featureSpecFile = featureSpecFile;
+    }
+
+    public File getModelFile() {
+        return modelFile;
+    }
+
+    public File getFeatureSpecFile() {
+        return featureSpecFile;
+    }
+
+    /**
+     * Set how often the files are checked for changes.
+     *
+     * @param pollIntervalMillis
+     */
+    public void setPollIntervalMillis(long pollIntervalMillis) {
+        this.pollIntervalMillis = Math.max(1, pollIntervalMillis);
+    }
+
+    public long getPollIntervalMillis() {
+        return pollIntervalMillis;
+    }
+
+    /**
+     * Start watching the files.
+     *
+     * @param spec The feature specification already loaded from the file.
+     * @param model The model already loaded from the file.
+     */
+    public synchronized void start(FeatureSpecification spec, Model model) {
+        if (poller != null) {
+            throw new IllegalStateException("Already started");
+        }
+
+        seenModel = Stamp.of(modelFile);
+        seenSpec = Stamp.of(featureSpecFile);
+        pendingModel = null;
+        pendingSpec = null;
+        current.set(LoadedModel.compile(spec, model, getFeatureExtractionImpl(), 1));
+
+        poller = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "model-reloader");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        poller.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    poll();
+                } catch (RuntimeException e) {
+                    //An exception would cancel the polling
+                    System.err.println("Error checking " + modelFile + " for changes: " + e.getMessage());
+                }
+            }
+        }, pollIntervalMillis, pollIntervalMillis, TimeUnit.MILLISECONDS);
+
+        System.out.println("Watching " + modelFile + " and " + featureSpecFile + " for changes every " + pollIntervalMillis + " ms.");
+    }
+
+    /**
+     * Stop watching the files. The current model stays loaded.
+     */
+    public synchronized void stop() {
+        if (poller != null) {
+            poller.shutdownNow();
+            poller = null;
+        }
+    }
+
+    /**
+     * Get the model to label the next unit of work with.
+     *
+     * @return The current model, or null if the reloader hasn't started.
+     */
+    public LoadedModel getCurrent() {
+        return current.get();
+    }
+
+    /**
+     * Check the files, reloading them if they are ready.
+     *
+     * @return True if a new model was swapped in.
+     */
+    synchronized boolean poll() {
+        Stamp model = Stamp.of(modelFile);
+        Stamp spec = Stamp.of(featureSpecFile);
+        if (model == null || spec == null || model.equals(seenModel) || spec.equals(seenSpec)) {
+            //Missing, unchanged, or only half replaced
+            pendingModel = null;
+            pendingSpec = null;
+            return false;
+        }
+        if (!model.equals(pendingModel) || !spec.equals(pendingSpec)) {
+            //Still being written, maybe
+            pendingModel = model;
+            pendingSpec = spec;
+            return false;
+        }
+        return reload();
+    }
+
+    /**
+     * Load the files now, whether or not they have changed, and swap them in
+     * if they work.
+     *
+     * @return True if a new model was swapped in.
+     */
+    public synchronized boolean reload() {
+        LoadedModel previous = current.get();
+        if (previous == null) {
+            throw new IllegalStateException("Not started");
+        }
+
+        //Stamp first, so changes made while loading are picked up next time
+        seenModel = Stamp.of(modelFile);
+        seenSpec = Stamp.of(featureSpecFile);
+        pendingModel = null;
+        pendingSpec = null;
+
+        long start = System.nanoTime();
+        LoadedModel next;
+        try {
+            next = load(previous);
+        } catch (IOException e) {
+            return failed(previous, e);
+        } catch (RuntimeException e) {
+            return failed(previous, e);
+        }
+
+        long loaded = System.nanoTime();
+        current.set(next);
+        long swapped = System.nanoTime();
+
+        lastLoadMillis = (loaded - start) / 1e6;
+        lastSwapNanos = swapped - loaded;
+        lastReloaded = new Date();
+        numReloads++;
+        System.out.println("Reloaded model " + next.getGeneration() + " from " + modelFile
+                + " in " + String.format("%.1f", lastLoadMillis) + " ms (swap took " + lastSwapNanos + " ns).");
+        return true;
+    }
+
+    private boolean failed(LoadedModel previous, Exception e) {
+        numFailures++;
+        System.err.println("Could not reload " + modelFile + " and " + featureSpecFile + ", keeping model " + previous.getGeneration() + ".");
+        System.err.println("\t" + e.getMessage());
+        return false;
+    }
+
+    /**
+     * Load, compile, and test the files.
+     */
+    private LoadedModel load(LoadedModel previous) throws IOException {
+        FeatureSpecification spec = new FeatureSpecification();
+        InputStream input = new FileInputStream(featureSpecFile);
+        try {
+            if (!spec.load(input)) {
+                throw new InvalidObjectException("Could not read " + featureSpecFile);
+            }
+        } finally {
+            input.close();
+        }
+
+        Model model;
+        try {
+            model = previous.getModel().getClass().getConstructor().newInstance();
+        } catch (Exception e) {
+            //Any of the reflection failures, or the constructor throwing
+            throw new IllegalStateException("Cannot construct a " + previous.getModel().getClass().getName(), e);
+        }
+        input = new FileInputStream(modelFile);
+        try {
+            if (!model.load(input)) {
+                throw new InvalidObjectException("Could not read " + modelFile);
+            }
+        } finally {
+            input.close();
+        }
+
+        LoadedModel next = LoadedModel.compile(spec, model, getFeatureExtractionImpl(), previous.getGeneration() + 1);
+
+        //Label something now, so lazy loading is done before the swap
+        SegmentSet probe = new SegmentSet();
+        Segment segment = new Segment(new SegmentIdAllocator());
+        segment.add(new Message(0, new Date(), "reloader", PROBE_TEXT));
+        probe.add(segment);
+        Predictions predictions = next.label(probe, getFeatureExtractionImpl());
+        if (predictions.getPredictedLabel(0) == null) {
+            throw new InvalidObjectException("The new model did not label a test message");
+        }
+        return next;
+    }
+
+    /**
+     * Get the number of the model currently in use. The model loaded at start
+     * is number 1.
+     *
+     * @return
+     */
+    public long getGeneration() {
+        LoadedModel loaded = current.get();
+        return loaded == null ? 0 : loaded.getGeneration();
+    }
+
+    /**
+     * Get the number of times a new model was swapped in.
+     *
+     * @return
+     */
+    public long getNumReloads() {
+        return numReloads;
+    }
+
+    /**
+     * Get the number of times new files could not be used.
+     *
+     * @return
+     */
+    public long getNumFailures() {
+        return numFailures;
+    }
+
+    /**
+     * Get how long the last successful reload took to load, compile, and test
+     * the new files, in milliseconds.
+     *
+     * @return
+     */
+    public double getLastLoadMillis() {
+        return lastLoadMillis;
+    }
+
+    /**
+     * Get how long the last swap took, in nanoseconds. This is the only part
+     * of a reload that happens between two units of work.
+     *
+     * @return
+     */
+    public long getLastSwapNanos() {
+        return lastSwapNanos;
+    }
+
+    /**
+     * Get when the last new model was swapped in.
+     *
+     * @return The time, or null if the model hasn't been reloaded.
+     */
+    public Date getLastReloaded() {
+        return lastReloaded;
+    }
+
+    public FeatureExtraction getFeatureExtractionImpl() {
+        return this.featureExtractionImpl;
+    }
+
+    public void setFeatureExtractionImpl(FeatureExtraction featureExtractor) {
+        this.featureExtractionImpl = featureExtractor;
+    }
+
+    /**
+     * Identifies a version of a file by its size and modification time.
+     */
+    private static class Stamp {
+
+        private final long lastModified;
+        private final long length;
+
+        private Stamp(long lastModified, long length) {
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+
+        static Stamp of(File file) {
+            long lastModified = file.lastModified();
+            if (lastModified == 0) {
+                return null;
+            }
+            return new Stamp(lastModified, file.length());
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Stamp)) {
+                return false;
+            }
+            Stamp stamp = (Stamp) other;
+            return lastModified == stamp.lastModified && length == stamp.length;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (lastModified ^ (lastModified >>> 32)) * 31 + (int) length;
+        }
+    }
+}
@@ -0,0 +1,415 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.controllers;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import etc.aloe.data.FeatureSpecification;
+import etc.aloe.data.Message;
+import etc.aloe.data.Model;
+import etc.aloe.data.Predictions;
+import etc.aloe.data.Segment;
+import etc.aloe.data.SegmentIdAllocator;
+import etc.aloe.data.SegmentSet;
+import etc.aloe.processes.FeatureExtraction;
+import etc.aloe.processes.LabelMapping;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Class that keeps a model and feature specification in memory and labels
+ * messages sent to it over HTTP.
+ *
+ * POST /classify takes one message per line, as UTF-8 text. Each message is
+ * labeled as a segment of its own, and the response has one line per message,
+ * in the same order: the predicted label, a tab, and the confidence that the
+ * label is true. GET /health answers "ok" once the server is running, and GET
+ * /metrics answers one "name value" line per counter: the micro-batches and
+ * messages labeled, and with a ModelReloader, the model generation, reloads,
+ * failed reloads, and the time the last reload took to load and to swap.
+ *
+ * Unless the maximum batch size is 1, messages from requests handled at the
+ * same time are labeled together in micro-batches by a
+ * CoalescingLabelingController, and request threads wait for their results.
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public class ServingController {
+
+    private static final String PARTICIPANT = "client";
+    private static final String CONTENT_TYPE = "text/tab-separated-values; charset=utf-8";
+    private static final String CHARSET = "UTF-8";
+    private static final int BACKLOG = 128;
+    private static final String NODELAY_PROPERTY = "sun.net.httpserver.nodelay";
+    private FeatureSpecification featureSpecification;
+    private Model model;
+    private FeatureExtraction featureExtractionImpl;
+    private LoadedModel loaded;
+    private ModelReloader reloader;
+    private String host = "localhost";
+    private int port = 8000;
+    private int numThreads = 1;
+    private int maxBatchSize = 64;
+    private long maxWaitMicros = 0;
+    private LabelMapping mappingImpl;
+    private CoalescingLabelingController coalescer;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public void setFeatureSpecification(FeatureSpecification spec) {
+        this.featureSpecification = spec;
+    }
+
+    public void setModel(Model model) {
+        this.model = model;
+    }
+
+    /**
+     * Label each request with the reloader's current model instead of the
+     * model and feature specification set here.
+     *
+     * @param reloader
+     */
+    public void setReloader(ModelReloader reloader) {
+        this.reloader = reloader;
+    }
+
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * Set the port to listen on. Port 0 picks a free port.
+     *
+     * @param port
+     */
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Get the port the server listens on.
+     *
+     * @return
+     */
+    public int getPort() {
+        if (server != null) {
+            return server.getAddress().getPort();
+        }
+        return port;
+    }
+
+    /**
+     * Set the number of threads that label messages. Without micro-batches,
+     * this is also the number of requests handled at the same time.
+     *
+     * @param numThreads
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * Set the largest number of messages labeled together. A size of 1 labels
+     * each request on its own thread, without micro-batches.
+     *
+     * @param maxBatchSize
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Set how long a micro-batch waits for more messages before it is labeled.
+     *
+     * @param maxWaitMicros
+     */
+    public void setMaxWaitMicros(long maxWaitMicros) {
+        this.maxWaitMicros = maxWaitMicros;
+    }
+
+    public long getMaxWaitMicros() {
+        return maxWaitMicros;
+    }
+
+    /**
+     * Get the controller that gathers messages into micro-batches.
+     *
+     * @return The controller, or null if the server isn't running with
+     * micro-batches.
+     */
+    public CoalescingLabelingController getCoalescer() {
+        return coalescer;
+    }
+
+    /**
+     * Start answering requests. Requests are handled on a pool of threads
+     * until stop() is called.
+     *
+     * @throws IOException If the server could not listen on the port.
+     */
+    public void start() throws IOException {
+        System.out.println("== Serving ==");
+
+        int numHandlers = numThreads;
+        if (maxBatchSize > 1) {
+            coalescer = new CoalescingLabelingController();
+            coalescer.setFeatureExtractionImpl(getFeatureExtractionImpl());
+            coalescer.setMappingImpl(getMappingImpl());
+            coalescer.setFeatureSpecification(featureSpecification);
+            coalescer.setModel(model);
+            coalescer.setReloader(reloader);
+            coalescer.setMaxBatchSize(maxBatchSize);
+            coalescer.setMaxWaitMicros(maxWaitMicros);
+            coalescer.setNumThreads(numThreads);
+            coalescer.start();
+
+            //Waiting requests are what fill the batches
+            numHandlers = numThreads * maxBatchSize;
+        } else if (reloader == null) {
+            //Compile the features once instead of filtering every request
+            loaded = LoadedModel.compile(featureSpecification, model, getFeatureExtractionImpl(), 1);
+        }
+
+        //Without TCP_NODELAY, small responses wait ~40ms for delayed ACKs
+        if (System.getProperty(NODELAY_PROPERTY) == null) {
+            System.setProperty(NODELAY_PROPERTY, "true");
+        }
+        server = HttpServer.create(new InetSocketAddress(host, port), BACKLOG);
+        server.createContext("/classify", new ClassifyHandler());
+        server.createContext("/health", new HealthHandler());
+        server.createContext("/metrics", new MetricsHandler());
+        executor = Executors.newFixedThreadPool(numHandlers);
+        server.setExecutor(executor);
+        server.start();
+
+        System.out.println("Listening on http://" + host + ":" + getPort() + "/classify with " + numThreads + " labeling threads.");
+        if (coalescer != null) {
+            System.out.println("Labeling micro-batches of up to " + maxBatchSize + " messages, waiting up to " + maxWaitMicros + " microseconds.");
+        }
+    }
+
+    /**
+     * Stop answering requests.
+     */
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+        }
+        if (coalescer != null) {
+            coalescer.stop();
+            coalescer = null;
+        }
+    }
+
+    /**
+     * Label some messages, each as a segment of its own.
+     *
+     * @param messageTexts
+     * @return One prediction per message, in order.
+     */
+    public Predictions classify(List<String> messageTexts) {
+        if (messageTexts.isEmpty()) {
+            return new Predictions();
+        }
+
+        SegmentIdAllocator segmentIds = new SegmentIdAllocator();
+        SegmentSet segmentSet = new SegmentSet();
+        Date time = new Date();
+        for (int i = 0; i < messageTexts.size(); i++) {
+            Segment segment = new Segment(segmentIds);
+            segment.add(new Message(i, time, PARTICIPANT, messageTexts.get(i)));
+            segmentSet.add(segment);
+        }
+
+        if (coalescer != null) {
+            return classifyTogether(segmentSet);
+        }
+
+        //The whole request is labeled with one model
+        LoadedModel current = reloader == null ? loaded : reloader.getCurrent();
+        return current.label(segmentSet, getFeatureExtractionImpl());
+    }
+
+    /**
+     * Describe the server's counters, one "name value" line each.
+     *
+     * @return
+     */
+    public String getMetrics() {
+        StringBuilder metrics = new StringBuilder();
+        CoalescingLabelingController batches = coalescer;
+        if (batches != null) {
+            metrics.append("labeled_batches ").append(batches.getNumBatches()).append('\n');
+            metrics.append("labeled_messages ").append(batches.getNumLabeled()).append('\n');
+        }
+        if (reloader != null) {
+            metrics.append("model_generation ").append(reloader.getGeneration()).append('\n');
+            metrics.append("model_reloads ").append(reloader.getNumReloads()).append('\n');
+            metrics.append("model_reload_failures ").append(reloader.getNumFailures()).append('\n');
+            metrics.append("model_last_load_ms ").append(reloader.getLastLoadMillis()).append('\n');
+            metrics.append("model_last_swap_ns ").append(reloader.getLastSwapNanos()).append('\n');
+        }
+        return metrics.toString();
+    }
+
+    /**
+     * Label segments along with those of other requests, waiting for the
+     * results.
+     */
+    private Predictions classifyTogether(SegmentSet segmentSet) {
+        try {
+            List<Future<Segment>> labeled = new ArrayList<Future<Segment>>(segmentSet.size());
+            for (int i = 0; i < segmentSet.size(); i++) {
+                labeled.add(coalescer.submit(segmentSet.get(i)));
+            }
+
+            Predictions predictions = new Predictions();
+            for (Future<Segment> future : labeled) {
+                Segment segment = future.get();
+                predictions.add(segment.getPredictedLabel(), segment.getPredictionConfidence());
+            }
+            return predictions;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while labeling");
+        }
+    }
+
+    private static List<String> readLines(InputStream input) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, CHARSET));
+        List<String> lines = new ArrayList<String>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lines.add(line);
+        }
+        return lines;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(CHARSET);
+        exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream output = exchange.getResponseBody();
+        output.write(bytes);
+        output.close();
+    }
+
+    private class ClassifyHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                if (!"POST".equals(exchange.getRequestMethod())) {
+                    exchange.getResponseHeaders().set("Allow", "POST");
+                    respond(exchange, 405, "POST one message per line.\n");
+                    return;
+                }
+
+                List<String> messageTexts = readLines(exchange.getRequestBody());
+                Predictions predictions = classify(messageTexts);
+
+                StringBuilder body = new StringBuilder();
+                for (int i = 0; i < predictions.size(); i++) {
+                    body.append(predictions.getPredictedLabel(i));
+                    body.append('\t');
+                    body.append(predictions.getPredictionConfidence(i));
+                    body.append('\n');
+                }
+                respond(exchange, 200, body.toString());
+            } catch (RuntimeException e) {
+                System.err.println("Error labeling request: " + e.getMessage());
+                respond(exchange, 500, "Error labeling request: " + e.getMessage() + "\n");
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    private static class HealthHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                respond(exchange, 200, "ok\n");
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    private class MetricsHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                respond(exchange, 200, getMetrics());
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    public FeatureExtraction getFeatureExtractionImpl() {
+        return this.featureExtractionImpl;
+    }
+
+    public void setFeatureExtractionImpl(FeatureExtraction featureExtractor) {
+        this.featureExtractionImpl = featureExtractor;
+    }
+
+    public LabelMapping getMappingImpl() {
+        return this.mappingImpl;
+    }
+
+    public void setMappingImpl(LabelMapping mapping) {
+        this.mappingImpl = mapping;
+    }
+}
@@ -0,0 +1,416 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.controllers;
+
+import etc.aloe.data.EvaluationReport;
+import etc.aloe.data.ExampleSet;
+import etc.aloe.data.FeatureSpecification;
+import etc.aloe.data.Message;
+import etc.aloe.data.MessageReader;
+import etc.aloe.data.MessageWriter;
+import etc.aloe.data.Model;
+import etc.aloe.data.Predictions;
+import etc.aloe.data.Segment;
+import etc.aloe.data.SegmentSet;
+import etc.aloe.processes.FeatureExtraction;
+import etc.aloe.processes.LabelMapping;
+import etc.aloe.processes.Loggable;
+import etc.aloe.processes.StreamingSegmentation;
+import etc.aloe.processes.StreamingSegmentation.SegmentHandler;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Class for using an existing model to label a stream of messages without
+ * holding the whole data set in memory.
+ *
+ * Reading, segmentation, feature extraction, prediction, and writing run as
+ * concurrent stages connected by bounded queues. Segments are labeled in
+ * batches as soon as they are closed and written out immediately, so memory
+ * use depends on the batch size and queue capacity rather than the size of
+ * the input. Labeled messages are written in the order their segments were
+ * closed.
+ *
+ * If any stage fails, every stage is stopped and run() throws the first
+ * failure, so a stage blocked on a full or empty queue never holds up the
+ * caller.
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public class StreamingLabelingController {
+
+    private static final int MESSAGE_CHUNK_SIZE = 512;
+    private static final List<Message> END_OF_MESSAGES = new ArrayList<Message>(0);
+    private static final Batch END_OF_BATCHES = new Batch(null);
+    private MessageReader reader;
+    private MessageWriter writer;
+    private StreamingSegmentation segmentationImpl;
+    private FeatureSpecification featureSpecification;
+    private EvaluationReport evaluationReport;
+    private Model model;
+    private FeatureExtraction featureExtractionImpl;
+    private LabelMapping mappingImpl;
+    private double falsePositiveCost = 1;
+    private double falseNegativeCost = 1;
+    private int batchSize = 1000;
+    private int queueCapacity = 4;
+    private int numMessages;
+    private int numSegments;
+
+    public void setReader(MessageReader reader) {
+        this.reader = reader;
+    }
+
+    public void setWriter(MessageWriter writer) {
+        this.writer = writer;
+    }
+
+    public void setFeatureSpecification(FeatureSpecification spec) {
+        this.featureSpecification = spec;
+    }
+
+    public void setModel(Model model) {
+        this.model = model;
+    }
+
+    public EvaluationReport getEvaluationReport() {
+        return this.evaluationReport;
+    }
+
+    /**
+     * Run the streaming labeling process until the reader is exhausted.
+     *
+     * @throws IOException If reading or writing messages fails.
+     */
+    public void run() throws IOException {
+
+        System.out.println("== Streaming Labeling and Testing ==");
+
+        this.numMessages = 0;
+        this.numSegments = 0;
+        this.evaluationReport = new EvaluationReport("Unlabeled Data", falsePositiveCost, falseNegativeCost);
+        getFeatureExtractionImpl().setVerbosity(Loggable.Verbosity.Quiet);
+
+        BlockingQueue<List<Message>> messageQueue = new ArrayBlockingQueue<List<Message>>(queueCapacity);
+        BlockingQueue<Batch> segmentQueue = new ArrayBlockingQueue<Batch>(queueCapacity);
+        BlockingQueue<Batch> exampleQueue = new ArrayBlockingQueue<Batch>(queueCapacity);
+        BlockingQueue<Batch> predictionQueue = new ArrayBlockingQueue<Batch>(queueCapacity);
+
+        List<Stage> stages = new ArrayList<Stage>();
+        stages.add(new ReadStage(messageQueue));
+        stages.add(new SegmentationStage(messageQueue, segmentQueue));
+        stages.add(new ExtractionStage(segmentQueue, exampleQueue));
+        stages.add(new PredictionStage(exampleQueue, predictionQueue));
+        stages.add(new WriteStage(predictionQueue));
+
+        ExecutorService executor = Executors.newFixedThreadPool(stages.size());
+        try {
+            CompletionService<Void> completed = new ExecutorCompletionService<Void>(executor);
+            for (Stage stage : stages) {
+                completed.submit(stage);
+            }
+
+            //Wait for the stages in the order they finish, so the first failure is seen at once
+            for (int i = 0; i < stages.size(); i++) {
+                Future<Void> future = completed.take();
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    //Stop the other stages, which may be blocked on a queue
+                    executor.shutdownNow();
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else {
+                        throw new IllegalStateException(cause);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Labeling was interrupted");
+        } finally {
+            executor.shutdownNow();
+        }
+
+        System.out.println("Labeled " + numMessages + " messages in " + numSegments + " segments.");
+    }
+
+    /**
+     * A stage of the pipeline. A stage that is interrupted while waiting on a
+     * queue stops quietly, since it is only interrupted when another stage
+     * has failed.
+     */
+    private abstract static class Stage implements Callable<Void> {
+
+        @Override
+        public Void call() throws Exception {
+            try {
+                process();
+            } catch (InterruptedException e) {
+                //Stopped
+            }
+            return null;
+        }
+
+        abstract void process() throws Exception;
+    }
+
+    /**
+     * Reads messages from the reader in chunks.
+     */
+    private class ReadStage extends Stage {
+
+        private final BlockingQueue<List<Message>> output;
+
+        ReadStage(BlockingQueue<List<Message>> output) {
+            this.output = output;
+        }
+
+        @Override
+        void process() throws Exception {
+            List<Message> chunk = new ArrayList<Message>(MESSAGE_CHUNK_SIZE);
+            Message message;
+            while ((message = reader.read()) != null) {
+                chunk.add(message);
+                if (chunk.size() == MESSAGE_CHUNK_SIZE) {
+                    output.put(chunk);
+                    chunk = new ArrayList<Message>(MESSAGE_CHUNK_SIZE);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                output.put(chunk);
+            }
+            output.put(END_OF_MESSAGES);
+
+            System.out.println("Read " + reader.getNumRead() + " raw messages (" + reader.getNumLabeled() + " labeled).");
+        }
+    }
+
+    /**
+     * Segments messages and groups the closed segments into batches.
+     */
+    private class SegmentationStage extends Stage implements SegmentHandler {
+
+        private final BlockingQueue<List<Message>> input;
+        private final BlockingQueue<Batch> output;
+        private SegmentSet current = new SegmentSet();
+
+        SegmentationStage(BlockingQueue<List<Message>> input, BlockingQueue<Batch> output) {
+            this.input = input;
+            this.output = output;
+        }
+
+        @Override
+        void process() throws Exception {
+            StreamingSegmentation segmentation = getSegmentationImpl();
+            segmentation.setSegmentHandler(this);
+
+            List<Message> chunk;
+            while ((chunk = input.take()) != END_OF_MESSAGES) {
+                for (Message message : chunk) {
+                    segmentation.add(message);
+                }
+            }
+            segmentation.finish();
+
+            if (current.size() > 0) {
+                output.put(new Batch(current));
+            }
+            output.put(END_OF_BATCHES);
+        }
+
+        @Override
+        public void segmentClosed(Segment segment) throws InterruptedException {
+            current.add(segment);
+            if (current.size() >= batchSize) {
+                output.put(new Batch(current));
+                current = new SegmentSet();
+            }
+        }
+    }
+
+    /**
+     * Extracts features for each batch of segments.
+     */
+    private class ExtractionStage extends Stage {
+
+        private final BlockingQueue<Batch> input;
+        private final BlockingQueue<Batch> output;
+
+        ExtractionStage(BlockingQueue<Batch> input, BlockingQueue<Batch> output) {
+            this.input = input;
+            this.output = output;
+        }
+
+        @Override
+        void process() throws Exception {
+            FeatureExtraction extraction = getFeatureExtractionImpl();
+
+            Batch batch;
+            while ((batch = input.take()) != END_OF_BATCHES) {
+                batch.examples = extraction.extractFeatures(batch.segments.getBasicExamples(), featureSpecification);
+                if (batch.examples == null) {
+                    throw new IllegalStateException("Feature extraction failed");
+                }
+                output.put(batch);
+            }
+            output.put(END_OF_BATCHES);
+        }
+    }
+
+    /**
+     * Predicts labels for each batch and maps them back onto the messages.
+     */
+    private class PredictionStage extends Stage {
+
+        private final BlockingQueue<Batch> input;
+        private final BlockingQueue<Batch> output;
+
+        PredictionStage(BlockingQueue<Batch> input, BlockingQueue<Batch> output) {
+            this.input = input;
+            this.output = output;
+        }
+
+        @Override
+        void process() throws Exception {
+            LabelMapping mapping = getMappingImpl();
+
+            Batch batch;
+            while ((batch = input.take()) != END_OF_BATCHES) {
+                batch.predictions = model.getPredictions(batch.examples);
+                batch.examples = null;
+                mapping.map(batch.predictions, batch.segments);
+                output.put(batch);
+            }
+            output.put(END_OF_BATCHES);
+        }
+    }
+
+    /**
+     * Writes labeled messages and collects predictions for evaluation. Only
+     * predictions for labeled segments are kept.
+     */
+    private class WriteStage extends Stage {
+
+        private final BlockingQueue<Batch> input;
+
+        WriteStage(BlockingQueue<Batch> input) {
+            this.input = input;
+        }
+
+        @Override
+        void process() throws Exception {
+            Predictions labeled = new Predictions();
+
+            Batch batch;
+            while ((batch = input.take()) != END_OF_BATCHES) {
+                for (int s = 0; s < batch.segments.size(); s++) {
+                    Segment segment = batch.segments.get(s);
+                    for (Message message : segment.getMessages()) {
+                        writer.write(message);
+                        numMessages++;
+                    }
+
+                    Boolean trueLabel = batch.predictions.getTrueLabel(s);
+                    if (trueLabel != null) {
+                        labeled.add(batch.predictions.getPredictedLabel(s), batch.predictions.getPredictionConfidence(s), trueLabel);
+                    }
+                }
+                numSegments += batch.segments.size();
+            }
+            writer.flush();
+
+            evaluationReport.addPredictions(labeled);
+        }
+    }
+
+    /**
+     * A batch of closed segments moving through the pipeline.
+     */
+    private static class Batch {
+
+        private final SegmentSet segments;
+        private ExampleSet examples;
+        private Predictions predictions;
+
+        Batch(SegmentSet segments) {
+            this.segments = segments;
+        }
+    }
+
+    public void setCosts(double falsePositiveCost, double falseNegativeCost) {
+        this.falsePositiveCost = falsePositiveCost;
+        this.falseNegativeCost = falseNegativeCost;
+    }
+
+    /**
+     * Set the number of segments that are labeled together.
+     *
+     * @param batchSize
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Set the number of chunks or batches that may wait between two stages.
+     *
+     * @param queueCapacity
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public StreamingSegmentation getSegmentationImpl() {
+        return this.segmentationImpl;
+    }
+
+    public void setSegmentationImpl(StreamingSegmentation segmentation) {
+        this.segmentationImpl = segmentation;
+    }
+
+    public FeatureExtraction getFeatureExtractionImpl() {
+        return this.featureExtractionImpl;
+    }
+
+    public void setFeatureExtractionImpl(FeatureExtraction featureExtractor) {
+        this.featureExtractionImpl = featureExtractor;
+    }
+
+    public LabelMapping getMappingImpl() {
+        return this.mappingImpl;
+    }
+
+    public void setMappingImpl(LabelMapping mapping) {
+        this.mappingImpl = mapping;
+    }
+}
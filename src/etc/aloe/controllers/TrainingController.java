@@ -18,6 +18,7 @@
  */
 package etc.aloe.controllers;
 
+import etc.aloe.RandomProvider;
 import etc.aloe.data.ExampleSet;
 import etc.aloe.data.FeatureSpecification;
 import etc.aloe.data.Model;
@@ -29,6 +30,7 @@ import etc.aloe.processes.FeatureWeighting;
 import etc.aloe.processes.Training;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 /**
  * Class that trains a model on some segmented data.
@@ -77,7 +79,20 @@ public class TrainingController {
         return this.model;
     }
 
+    /**
+     * Train the model. Balancing draws from the "training" random stream, so
+     * the model does not depend on anything else running at the same time.
+     */
     public void run() {
+        Random previous = RandomProvider.setTaskRandom(RandomProvider.getStream("training"));
+        try {
+            trainModel();
+        } finally {
+            RandomProvider.setTaskRandom(previous);
+        }
+    }
+
+    private void trainModel() {
 
         System.out.println("== Training Final Model ==");
 
@@ -0,0 +1,150 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.cscw2013;
+
+import etc.aloe.data.ExampleSet;
+import etc.aloe.data.FeatureSpecification;
+import etc.aloe.data.FeatureVector;
+import etc.aloe.data.Featurizer;
+import etc.aloe.data.Segment;
+import etc.aloe.data.SegmentSet;
+import etc.aloe.filters.CompiledFilterChain;
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Extracts features with a compiled copy of a trained feature specification.
+ * The basic example values (id, message, label, and rate features) are written
+ * straight into a sparse vector, and the compiled filters work on reusable
+ * per-thread vectors, so no Weka instances are created until the final
+ * feature vector is converted for the classifier.
+ *
+ * A specification loaded from a binary file is already compiled, so its Weka
+ * filters are never deserialized.
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public class CompiledFeaturizer implements Featurizer {
+
+    /**
+     * The value stored for the message attribute of a basic example. The
+     * message text is passed to the compiled filters separately.
+     */
+    private static final double MESSAGE_PLACEHOLDER = 1;
+    private final CompiledFilterChain filters;
+    private final int numBasicAttributes;
+    private final int idIndex;
+    private final int messageIndex;
+    private final int labelIndex;
+    private final int falseIndex;
+    private final int trueIndex;
+    private final int firstRateIndex;
+    private final ThreadLocal<FeatureVector> basicValues = new ThreadLocal<FeatureVector>() {
+        @Override
+        protected FeatureVector initialValue() {
+            return new FeatureVector();
+        }
+    };
+
+    /**
+     * Compile a trained feature specification.
+     *
+     * @param spec
+     * @throws IllegalArgumentException if the specification's filters can't
+     * be compiled.
+     */
+    public CompiledFeaturizer(FeatureSpecification spec) {
+        Instances basicFormat = new SegmentSet().getBasicExamples().getInstances();
+        this.filters = spec.getCompiledFilters();
+        filters.checkInputFormat(basicFormat);
+
+        this.numBasicAttributes = basicFormat.numAttributes();
+        this.idIndex = basicFormat.attribute(ExampleSet.ID_ATTR_NAME).index();
+        this.messageIndex = basicFormat.attribute(ExampleSet.MESSAGE_ATTR_NAME).index();
+        Attribute labelAttr = basicFormat.attribute(ExampleSet.LABEL_ATTR_NAME);
+        this.labelIndex = labelAttr.index();
+        this.falseIndex = labelAttr.indexOfValue("false");
+        this.trueIndex = labelAttr.indexOfValue("true");
+        this.firstRateIndex = basicFormat.attribute(SegmentSet.DURATION_ATTR_NAME).index();
+
+        //The basic values are written in attribute order
+        if (idIndex != 0 || messageIndex != 1 || labelIndex != 2 || firstRateIndex != 3
+                || numBasicAttributes != firstRateIndex + 4) {
+            throw new IllegalArgumentException("Unexpected basic example format");
+        }
+    }
+
+    @Override
+    public ExampleSet extractFeatures(SegmentSet segments) {
+        Instances instances = filters.getOutputFormat();
+        FeatureVector features = new FeatureVector();
+        for (int i = 0; i < segments.size(); i++) {
+            featurize(segments.get(i), features);
+            instances.add(filters.toInstance(features));
+        }
+        return new ExampleSet(instances);
+    }
+
+    @Override
+    public void featurize(Segment segment, FeatureVector features) {
+        Boolean label = segment.getTrueLabel();
+        double labelValue = label == null ? Double.NaN : (label ? trueIndex : falseIndex);
+
+        String text = segment.concatMessages();
+        featurize(segment.getId(), text, labelValue, segment.getDurationInSeconds(), segment.getMessages().size(), features);
+    }
+
+    @Override
+    public void featurize(String text, double durationSeconds, int numMessages, FeatureVector features) {
+        featurize(0, text, Double.NaN, durationSeconds, numMessages, features);
+    }
+
+    private void featurize(int id, String text, double labelValue, double durationSeconds, int numMessages, FeatureVector features) {
+        FeatureVector basic = basicValues.get();
+        basic.clear(numBasicAttributes);
+
+        //Zeros are left out, as the first filter would leave them out
+        if (id != 0) {
+            basic.add(idIndex, id);
+        }
+        basic.add(messageIndex, MESSAGE_PLACEHOLDER);
+        if (labelValue != 0) {
+            basic.add(labelIndex, labelValue);
+        }
+        double[] rateValues = SegmentSet.getRateValues(id, text, durationSeconds, numMessages);
+        for (int r = 0; r < rateValues.length; r++) {
+            if (rateValues[r] != 0) {
+                basic.add(firstRateIndex + r, rateValues[r]);
+            }
+        }
+
+        filters.apply(basic, text, features);
+    }
+
+    @Override
+    public Instance toInstance(FeatureVector features) {
+        return filters.toInstance(features);
+    }
+
+    @Override
+    public Instances getOutputFormat() {
+        return filters.getOutputFormat();
+    }
+}
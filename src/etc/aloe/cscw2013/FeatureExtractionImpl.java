@@ -20,8 +20,17 @@ package etc.aloe.cscw2013;
 
 import etc.aloe.data.ExampleSet;
 import etc.aloe.data.FeatureSpecification;
+import etc.aloe.data.Featurizer;
 import etc.aloe.processes.FeatureExtraction;
 import etc.aloe.processes.Loggable.Verbosity;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import weka.core.Instance;
 import weka.core.Instances;
 import weka.filters.Filter;
 
@@ -29,11 +38,43 @@ import weka.filters.Filter;
  * Applies an existing feature specification to a data set to get a new data set
  * with features extracted.
  *
+ * Large data sets are split into contiguous partitions that are filtered on
+ * separate threads, each with its own copy of the filters. Once a filter has
+ * seen its first batch it treats every later instance independently, so the
+ * joined result is the same as filtering the whole set at once.
+ *
  * @author Michael Brooks <mjbrooks@uw.edu>
  */
 public class FeatureExtractionImpl implements FeatureExtraction {
 
+    private static final int PARALLEL_THRESHOLD = 20000;
+    private static final int MIN_PARTITION_SIZE = 5000;
     private Verbosity verbosity = Verbosity.Normal;
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+    private int parallelThreshold = PARALLEL_THRESHOLD;
+    private int minPartitionSize = MIN_PARTITION_SIZE;
+
+    /**
+     * Set the number of threads used to extract features from large data
+     * sets. With one thread, features are always extracted sequentially.
+     *
+     * @param numThreads
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    /**
+     * Set the smallest data set that is split across threads, and the
+     * smallest partition it is split into.
+     *
+     * @param parallelThreshold
+     * @param minPartitionSize
+     */
+    void setPartitioning(int parallelThreshold, int minPartitionSize) {
+        this.parallelThreshold = parallelThreshold;
+        this.minPartitionSize = Math.max(1, minPartitionSize);
+    }
 
     @Override
     public ExampleSet extractFeatures(ExampleSet basicExamples, FeatureSpecification spec) {
@@ -43,26 +84,197 @@ public class FeatureExtractionImpl implements FeatureExtraction {
             System.out.print("Extracting features for " + examples.size() + " examples... ");
         }
 
+        int numPartitions = getNumPartitions(examples, spec);
+        if (numPartitions > 1) {
+            examples = extractPartitions(examples, spec, numPartitions);
+            if (examples == null) {
+                return null;
+            }
+        } else {
+            for (Filter filter : spec.getFilters()) {
+                try {
+                    Instances instances = Filter.useFilter(examples.getInstances(), filter);
+                    examples = new ExampleSet(instances);
+                } catch (Exception e) {
+                    System.err.println("Unable to apply filter: " + filter.toString());
+                    System.err.println("\t" + e.getMessage());
+                    return null;
+                }
+            }
+        }
+
+        if (this.verbosity.ordinal() > Verbosity.Quiet.ordinal()) {
+            System.out.println("done.");
+        }
+
+        return examples;
+    }
+
+    @Override
+    public Featurizer compile(FeatureSpecification spec) {
+        try {
+            return new CompiledFeaturizer(spec);
+        } catch (IllegalArgumentException e) {
+            if (this.verbosity.ordinal() > Verbosity.Quiet.ordinal()) {
+                System.out.println("Feature specification can't be compiled, using filters: " + e.getMessage());
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Decide how many partitions to split the examples into. Filters that
+     * have not finished their first batch would configure themselves from
+     * each partition separately, so those are always run sequentially.
+     */
+    private int getNumPartitions(ExampleSet examples, FeatureSpecification spec) {
+        int size = examples.size();
+        if (numThreads < 2 || size < parallelThreshold) {
+            return 1;
+        }
+
         for (Filter filter : spec.getFilters()) {
+            if (!filter.isFirstBatchDone()) {
+                return 1;
+            }
+        }
+
+        return Math.max(1, Math.min(numThreads, size / minPartitionSize));
+    }
+
+    /**
+     * Run every filter over contiguous partitions of the examples in parallel
+     * and join the results in the original order.
+     *
+     * @return The filtered examples, or null on failure.
+     */
+    private ExampleSet extractPartitions(ExampleSet examples, FeatureSpecification spec, int numPartitions) {
+        Instances instances = examples.getInstances();
+        List<Filter> filters = spec.getFilters();
+
+        //Each partition gets its own copy of every filter
+        List<Filter[]> copies = new ArrayList<Filter[]>();
+        for (Filter filter : filters) {
             try {
-                Instances instances = Filter.useFilter(examples.getInstances(), filter);
-                examples = new ExampleSet(instances);
+                copies.add(Filter.makeCopies(filter, numPartitions));
             } catch (Exception e) {
-                System.err.println("Unable to apply filter: " + filter.toString());
+                System.err.println("Unable to copy filter: " + filter.toString());
                 System.err.println("\t" + e.getMessage());
                 return null;
             }
         }
 
-        if (this.verbosity.ordinal() > Verbosity.Quiet.ordinal()) {
-            System.out.println("done.");
+        ExecutorService executor = Executors.newFixedThreadPool(numPartitions);
+        try {
+            List<Future<Instances>> futures = new ArrayList<Future<Instances>>();
+            int size = instances.size();
+            for (int p = 0; p < numPartitions; p++) {
+                int start = (int) ((long) size * p / numPartitions);
+                int end = (int) ((long) size * (p + 1) / numPartitions);
+
+                Filter[] partitionFilters = new Filter[filters.size()];
+                for (int f = 0; f < partitionFilters.length; f++) {
+                    partitionFilters[f] = copies.get(f)[p];
+                }
+
+                Instances partition = new Instances(instances, start, end - start);
+                futures.add(executor.submit(new PartitionTask(partition, partitionFilters)));
+            }
+
+            Instances joined = null;
+            for (int p = 0; p < numPartitions; p++) {
+                Instances part = futures.get(p).get();
+                futures.set(p, null);
+                if (joined == null) {
+                    //The joined set shares the first partition's attributes
+                    joined = new Instances(part, size);
+                    joined.addAll(part);
+                } else {
+                    append(joined, part);
+                }
+            }
+            return new ExampleSet(joined);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Feature extraction was interrupted.");
+            return null;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof FilterFailure) {
+                System.err.println("Unable to apply filter: " + ((FilterFailure) cause).filter.toString());
+                cause = cause.getCause();
+            }
+            System.err.println("\t" + cause.getMessage());
+            return null;
+        } finally {
+            executor.shutdownNow();
         }
+    }
 
-        return examples;
+    /**
+     * Add the instances from a partition to the joined set. String values are
+     * stored in the attributes, so they are added to the joined set's
+     * attributes and the instances are pointed at the new indices.
+     */
+    private static void append(Instances joined, Instances part) {
+        boolean hasStrings = joined.checkForStringAttributes();
+        for (int i = 0; i < part.size(); i++) {
+            Instance instance = part.instance(i);
+            if (hasStrings) {
+                instance = (Instance) instance.copy();
+                for (int a = 0; a < joined.numAttributes(); a++) {
+                    if (joined.attribute(a).isString() && !instance.isMissing(a)) {
+                        instance.setValue(a, joined.attribute(a).addStringValue(part.attribute(a), (int) instance.value(a)));
+                    }
+                }
+            }
+            joined.add(instance);
+        }
     }
 
     @Override
     public void setVerbosity(Verbosity verbosityLevel) {
         this.verbosity = verbosityLevel;
     }
+
+    /**
+     * Runs a chain of filters over one partition.
+     */
+    private static class PartitionTask implements Callable<Instances> {
+
+        private final Instances partition;
+        private final Filter[] filters;
+
+        PartitionTask(Instances partition, Filter[] filters) {
+            this.partition = partition;
+            this.filters = filters;
+        }
+
+        @Override
+        public Instances call() throws FilterFailure {
+            Instances instances = partition;
+            for (Filter filter : filters) {
+                try {
+                    instances = Filter.useFilter(instances, filter);
+                } catch (Exception e) {
+                    throw new FilterFailure(filter, e);
+                }
+            }
+            return instances;
+        }
+    }
+
+    /**
+     * Records which filter failed on a partition.
+     */
+    private static class FilterFailure extends Exception {
+
+        private static final long serialVersionUID = 1L;
+        private final Filter filter;
+
+        FilterFailure(Filter filter, Exception cause) {
+            super(cause);
+            this.filter = filter;
+        }
+    }
 }
@@ -20,6 +20,7 @@ package etc.aloe.cscw2013;
 
 import etc.aloe.data.ExampleSet;
 import etc.aloe.data.FeatureSpecification;
+import etc.aloe.filters.FusedRegexFilter;
 import etc.aloe.filters.PronounRegexFilter;
 import etc.aloe.filters.PunctuationRegexFilter;
 import etc.aloe.filters.SimpleStringToWordVector;
@@ -70,19 +71,8 @@ public class FeatureGenerationImpl implements FeatureGeneration {
         System.out.print("Configuring features over " + examples.size() + " examples... ");
 
         try {
-            spec.addFilter(getPronounsFilter(examples));
-            spec.addFilter(getPunctuationFilter(examples));
-            spec.addFilter(getSpecialWordsFilter(examples));
-            spec.addFilter(getSpellingFilter(examples));
-
-            spec.addFilter(getEmoticonsFilter(examples));
-            spec.addFilter(getBagOfWordsFilter(examples));
-            Filter finalFilter = getRemoveIDFilter(examples);
-            spec.addFilter(finalFilter);
-
-            Instances output = finalFilter.getOutputFormat();
-            int numAttrs = output.numAttributes();
-            System.out.println("generated " + (numAttrs - 1) + " features.");
+            spec.addFilter(getRegexFilter(examples));
+            addDependentFilters(spec, examples);
         } catch (Exception e) {
             System.err.println("Error generating features.");
             System.err.println("\t" + e.getMessage());
@@ -91,68 +81,80 @@ public class FeatureGenerationImpl implements FeatureGeneration {
         return spec;
     }
 
-    /**
-     * Configure the special words filter with the provided data..
-     *
-     * @param examples
-     * @return
-     * @throws Exception
-     */
-    private Filter getSpecialWordsFilter(ExampleSet examples) throws Exception {
-        SpecialRegexFilter filter = new SpecialRegexFilter(ExampleSet.MESSAGE_ATTR_NAME);
+    @Override
+    public FeatureSpecification generateInvariantFeatures(ExampleSet basicExamples) {
+        FeatureSpecification spec = new FeatureSpecification();
 
-        filter.setInputFormat(examples.getInstances());
-        Instances filtered = Filter.useFilter(examples.getInstances(), filter);
-        examples.setInstances(filtered);
+        try {
+            //The regexes don't depend on the data, so only the format is needed
+            ExampleSet format = new ExampleSet(new Instances(basicExamples.getInstances(), 0));
+            spec.addFilter(getRegexFilter(format));
+        } catch (Exception e) {
+            System.err.println("Error generating features.");
+            System.err.println("\t" + e.getMessage());
+        }
 
-        return filter;
+        return spec;
     }
 
-    /**
-     * Configure the spelling filter to work with the provided data.
-     *
-     * @param examples
-     * @return
-     * @throws Exception
-     */
-    private Filter getSpellingFilter(ExampleSet examples) throws Exception {
-        SpellingRegexFilter filter = new SpellingRegexFilter(ExampleSet.MESSAGE_ATTR_NAME);
-        filter.setCountRegexLengths(COUNT_REGEX_LENGTHS);
+    @Override
+    public FeatureSpecification generateDependentFeatures(ExampleSet invariantExamples) {
+        ExampleSet examples = invariantExamples.copy();
+        FeatureSpecification spec = new FeatureSpecification();
 
-        filter.setInputFormat(examples.getInstances());
-        Instances filtered = Filter.useFilter(examples.getInstances(), filter);
-        examples.setInstances(filtered);
+        System.out.print("Configuring features over " + examples.size() + " examples... ");
 
-        return filter;
+        try {
+            addDependentFilters(spec, examples);
+        } catch (Exception e) {
+            System.err.println("Error generating features.");
+            System.err.println("\t" + e.getMessage());
+        }
+
+        return spec;
     }
 
     /**
-     * Configure the punctuation filter to work with the provided data.
+     * Configure the emoticon, bag of words, and id removal filters (in that
+     * order) on examples that already have the regex features.
      *
+     * @param spec The specification to add the filters to.
      * @param examples
-     * @return
      * @throws Exception
      */
-    private Filter getPunctuationFilter(ExampleSet examples) throws Exception {
-        PunctuationRegexFilter filter = new PunctuationRegexFilter(ExampleSet.MESSAGE_ATTR_NAME);
-        filter.setCountRegexLengths(COUNT_REGEX_LENGTHS);
-
-        filter.setInputFormat(examples.getInstances());
-        Instances filtered = Filter.useFilter(examples.getInstances(), filter);
-        examples.setInstances(filtered);
-
-        return filter;
+    private void addDependentFilters(FeatureSpecification spec, ExampleSet examples) throws Exception {
+        spec.addFilter(getEmoticonsFilter(examples));
+        spec.addFilter(getBagOfWordsFilter(examples));
+        Filter finalFilter = getRemoveIDFilter(examples);
+        spec.addFilter(finalFilter);
+
+        Instances output = finalFilter.getOutputFormat();
+        int numAttrs = output.numAttributes();
+        System.out.println("generated " + (numAttrs - 1) + " features.");
     }
 
     /**
-     * Configure the pronouns filter to work with the provided data.
+     * Configure a filter for the pronoun, punctuation, special word, and
+     * spelling regexes (in that order) to work with the provided data. The
+     * regexes are all run in one filter so each message is only scanned once.
      *
      * @param examples
      * @return
      * @throws Exception
      */
-    private Filter getPronounsFilter(ExampleSet examples) throws Exception {
-        PronounRegexFilter filter = new PronounRegexFilter(ExampleSet.MESSAGE_ATTR_NAME);
+    private Filter getRegexFilter(ExampleSet examples) throws Exception {
+        PronounRegexFilter pronouns = new PronounRegexFilter();
+
+        PunctuationRegexFilter punctuation = new PunctuationRegexFilter();
+        punctuation.setCountRegexLengths(COUNT_REGEX_LENGTHS);
+
+        SpecialRegexFilter specialWords = new SpecialRegexFilter();
+
+        SpellingRegexFilter spelling = new SpellingRegexFilter();
+        spelling.setCountRegexLengths(COUNT_REGEX_LENGTHS);
+
+        FusedRegexFilter filter = new FusedRegexFilter(ExampleSet.MESSAGE_ATTR_NAME,
+                pronouns, punctuation, specialWords, spelling);
 
         filter.setInputFormat(examples.getInstances());
         Instances filtered = Filter.useFilter(examples.getInstances(), filter);
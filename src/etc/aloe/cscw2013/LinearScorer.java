@@ -0,0 +1,550 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.cscw2013;
+
+import etc.aloe.classifiers.LinearSVM;
+import etc.aloe.data.BinaryArtifact;
+import java.io.InvalidObjectException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.util.ArrayList;
+import java.util.Random;
+import weka.classifiers.Classifier;
+import weka.classifiers.CostMatrix;
+import weka.classifiers.functions.Logistic;
+import weka.classifiers.functions.SMO;
+import weka.classifiers.meta.CostSensitiveClassifier;
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+import weka.core.Utils;
+import weka.filters.Filter;
+import weka.filters.unsupervised.attribute.Normalize;
+
+/**
+ * Scores instances with a trained linear SMO or LinearSVM without going
+ * through Weka.
+ *
+ * SMO copies each instance through its filters and then takes a dot product
+ * with its weights. This class reads the weights and the normalization once
+ * and computes the same dot product in a single pass over an instance's
+ * non-zero values, plus the few attributes that normalization makes non-zero.
+ * A LinearSVM's scaling is folded into its weights. The arithmetic is done in
+ * the same order as the classifier's, so the results are identical. It then
+ * applies the classifier's logistic model, and the min-cost rule of a
+ * CostSensitiveClassifier, the same way Weka does.
+ *
+ * A scorer can be written to a binary model file and read back without the
+ * classifier. The arrays it reads are views of the file's buffer, so a
+ * memory-mapped file is used in place.
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+class LinearScorer {
+
+    private final DoubleBuffer weights;
+    private final double bias;
+    private final int classIndex;
+    //Normalization, or null if the SMO does not normalize
+    private final DoubleBuffer min;
+    private final DoubleBuffer range;
+    private final double scale;
+    private final double translation;
+    //Weighted attributes whose value is not 0 after normalizing a 0
+    private final int[] shiftedIndices;
+    private final boolean hasLogisticModel;
+    private final double logisticIntercept;
+    private final double logisticSlope;
+    private final CostMatrix costMatrix;
+    //Whether to follow LinearSVM's arithmetic instead of SMO's
+    private final boolean linearSVM;
+
+    private LinearScorer(double[] weights, double bias, int classIndex,
+            Normalize normalize,
+            boolean hasLogisticModel, double logisticIntercept, double logisticSlope,
+            CostMatrix costMatrix, boolean linearSVM) {
+        this.weights = DoubleBuffer.wrap(weights);
+        this.bias = bias;
+        this.classIndex = classIndex;
+        this.linearSVM = linearSVM;
+        this.hasLogisticModel = hasLogisticModel;
+        this.logisticIntercept = logisticIntercept;
+        this.logisticSlope = logisticSlope;
+        this.costMatrix = costMatrix;
+
+        if (normalize == null) {
+            this.min = null;
+            this.range = null;
+            this.scale = 1;
+            this.translation = 0;
+            this.shiftedIndices = new int[0];
+        } else {
+            double[] minValues = new double[weights.length];
+            double[] rangeValues = new double[weights.length];
+            this.min = DoubleBuffer.wrap(minValues);
+            this.range = DoubleBuffer.wrap(rangeValues);
+            this.scale = normalize.getScale();
+            this.translation = normalize.getTranslation();
+            double[] minArray = normalize.getMinArray();
+            double[] maxArray = normalize.getMaxArray();
+            int numShifted = 0;
+            int[] shifted = new int[weights.length];
+            for (int index = 0; index < weights.length; index++) {
+                if (weights[index] == 0 || index == classIndex) {
+                    continue;
+                }
+                if (Double.isNaN(minArray[index]) || maxArray[index] == minArray[index]) {
+                    //Normalize sets constant attributes to 0
+                    weights[index] = 0;
+                    continue;
+                }
+                minValues[index] = minArray[index];
+                rangeValues[index] = maxArray[index] - minArray[index];
+                if (normalize(index, 0) != 0) {
+                    shifted[numShifted++] = index;
+                }
+            }
+            this.shiftedIndices = new int[numShifted];
+            System.arraycopy(shifted, 0, this.shiftedIndices, 0, numShifted);
+        }
+    }
+
+    private LinearScorer(DoubleBuffer weights, double bias, int classIndex,
+            DoubleBuffer min, DoubleBuffer range, double scale, double translation, int[] shiftedIndices,
+            boolean hasLogisticModel, double logisticIntercept, double logisticSlope,
+            CostMatrix costMatrix, boolean linearSVM) {
+        this.weights = weights;
+        this.bias = bias;
+        this.classIndex = classIndex;
+        this.linearSVM = linearSVM;
+        this.min = min;
+        this.range = range;
+        this.scale = scale;
+        this.translation = translation;
+        this.shiftedIndices = shiftedIndices;
+        this.hasLogisticModel = hasLogisticModel;
+        this.logisticIntercept = logisticIntercept;
+        this.logisticSlope = logisticSlope;
+        this.costMatrix = costMatrix;
+    }
+
+    /**
+     * Write the scorer to a binary model file.
+     *
+     * @param out
+     * @throws Exception If the cost matrix can't be written.
+     */
+    void write(BinaryArtifact.Writer out) throws Exception {
+        out.putInt(classIndex);
+        out.putDouble(bias);
+        out.putDoubles(weights);
+
+        out.putBoolean(min != null);
+        if (min != null) {
+            out.putDouble(scale);
+            out.putDouble(translation);
+            out.putDoubles(min);
+            out.putDoubles(range);
+        }
+        out.putInts(shiftedIndices);
+
+        out.putBoolean(hasLogisticModel);
+        out.putDouble(logisticIntercept);
+        out.putDouble(logisticSlope);
+
+        out.putBoolean(costMatrix != null);
+        if (costMatrix != null) {
+            out.putInt(costMatrix.numRows());
+            for (int row = 0; row < costMatrix.numRows(); row++) {
+                for (int column = 0; column < costMatrix.numColumns(); column++) {
+                    out.putDouble(costMatrix.getElement(row, column));
+                }
+            }
+        }
+
+        out.putBoolean(linearSVM);
+    }
+
+    /**
+     * Read a scorer written by write().
+     *
+     * @param buffer
+     * @param version The version of the model file. Scorers in version 1
+     * files are all for SMOs.
+     * @return
+     * @throws InvalidObjectException
+     */
+    static LinearScorer read(ByteBuffer buffer, int version) throws InvalidObjectException {
+        int classIndex = buffer.getInt();
+        double bias = buffer.getDouble();
+        DoubleBuffer weights = BinaryArtifact.getDoubles(buffer);
+
+        DoubleBuffer min = null;
+        DoubleBuffer range = null;
+        double scale = 1;
+        double translation = 0;
+        if (buffer.get() != 0) {
+            scale = buffer.getDouble();
+            translation = buffer.getDouble();
+            min = BinaryArtifact.getDoubles(buffer);
+            range = BinaryArtifact.getDoubles(buffer);
+            if (min.limit() != weights.limit() || range.limit() != weights.limit()) {
+                throw new InvalidObjectException("Normalization does not match the weights");
+            }
+        }
+        int[] shiftedIndices = BinaryArtifact.getInts(buffer);
+        for (int index : shiftedIndices) {
+            if (index < 0 || index >= weights.limit()) {
+                throw new InvalidObjectException("Invalid attribute index " + index);
+            }
+        }
+
+        boolean hasLogisticModel = buffer.get() != 0;
+        double logisticIntercept = buffer.getDouble();
+        double logisticSlope = buffer.getDouble();
+
+        CostMatrix costMatrix = null;
+        if (buffer.get() != 0) {
+            int size = buffer.getInt();
+            if (size != 2) {
+                throw new InvalidObjectException("Invalid cost matrix size " + size);
+            }
+            costMatrix = new CostMatrix(size);
+            for (int row = 0; row < size; row++) {
+                for (int column = 0; column < size; column++) {
+                    costMatrix.setElement(row, column, buffer.getDouble());
+                }
+            }
+        }
+
+        boolean linearSVM = version >= 2 && buffer.get() != 0;
+        if (linearSVM && min != null) {
+            throw new InvalidObjectException("LinearSVM scorers are not normalized");
+        }
+
+        return new LinearScorer(weights, bias, classIndex, min, range, scale, translation, shiftedIndices,
+                hasLogisticModel, logisticIntercept, logisticSlope, costMatrix, linearSVM);
+    }
+
+    /**
+     * Make a scorer for a trained classifier.
+     *
+     * @param classifier An SMO or LinearSVM, or a CostSensitiveClassifier
+     * wrapping one.
+     * @return The scorer, or null if the classifier is not a trained
+     * LinearSVM or a trained binary SMO with a linear kernel and a
+     * normalization this class can fold in.
+     */
+    static LinearScorer forClassifier(Classifier classifier) {
+        try {
+            CostMatrix costMatrix = null;
+            if (classifier instanceof CostSensitiveClassifier) {
+                CostSensitiveClassifier cost = (CostSensitiveClassifier) classifier;
+                if (cost.getMinimizeExpectedCost()) {
+                    costMatrix = cost.getCostMatrix();
+                    //Make sure the matrix has no expressions
+                    costMatrix.expectedCosts(new double[costMatrix.numColumns()]);
+                }
+                classifier = cost.getClassifier();
+            }
+
+            if (classifier instanceof LinearSVM) {
+                return forLinearSVM((LinearSVM) classifier, costMatrix);
+            }
+            if (!(classifier instanceof SMO)) {
+                return null;
+            }
+            SMO smo = (SMO) classifier;
+
+            if (!Boolean.TRUE.equals(getField(SMO.class, smo, "m_KernelIsLinear"))
+                    || getField(SMO.class, smo, "m_NominalToBinary") != null
+                    || smo.numClassAttributeValues() != 2
+                    || smo.sparseWeights()[0][1] == null) {
+                return null;
+            }
+
+            double[] sparseWeights = smo.sparseWeights()[0][1];
+            int[] sparseIndices = smo.sparseIndices()[0][1];
+            int classIndex = (Integer) getField(SMO.class, smo, "m_classIndex");
+
+            int numAttributes = classIndex + 1;
+            for (int index : sparseIndices) {
+                numAttributes = Math.max(numAttributes, index + 1);
+            }
+            double[] weights = new double[numAttributes];
+            for (int k = 0; k < sparseIndices.length; k++) {
+                weights[sparseIndices[k]] = sparseWeights[k];
+            }
+
+            Filter filter = (Filter) getField(SMO.class, smo, "m_Filter");
+            if (filter != null && !(filter instanceof Normalize)) {
+                return null;
+            }
+
+            boolean hasLogisticModel = smo.getBuildLogisticModels();
+            double logisticIntercept = 0;
+            double logisticSlope = 0;
+            if (hasLogisticModel) {
+                Object binarySMO = ((Object[][]) getField(SMO.class, smo, "m_classifiers"))[0][1];
+                Logistic logistic = (Logistic) getField(binarySMO.getClass(), binarySMO, "m_logistic");
+                double[][] coefficients = logistic.coefficients();
+                logisticIntercept = coefficients[0][0];
+                //The SVM output is dropped if it was the same for every instance
+                logisticSlope = coefficients.length > 1 ? coefficients[1][0] : 0;
+            }
+
+            return new LinearScorer(weights, smo.bias()[0][1], classIndex,
+                    (Normalize) filter, hasLogisticModel, logisticIntercept, logisticSlope, costMatrix, false);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static LinearScorer forLinearSVM(LinearSVM svm, CostMatrix costMatrix) {
+        double[] scales = svm.getScales();
+        if (scales == null) {
+            return null;
+        }
+
+        //LinearSVM multiplies each weight by its scale, then by the value
+        double[] sparseWeights = svm.sparseWeights();
+        int[] sparseIndices = svm.sparseIndices();
+        double[] weights = new double[scales.length];
+        for (int k = 0; k < sparseIndices.length; k++) {
+            weights[sparseIndices[k]] = sparseWeights[k] * scales[sparseIndices[k]];
+        }
+
+        //LinearSVM adds its bias, where SMO subtracts it
+        return new LinearScorer(weights, -svm.getBias(), svm.getClassIndex(),
+                null, svm.hasLogisticModel(), svm.getSigmoidB(), svm.getSigmoidA(), costMatrix, true);
+    }
+
+    /**
+     * Make instances to compare a scorer with its classifier on. Each has a
+     * few of the weighted attributes set to small whole numbers, and the
+     * first has none set.
+     *
+     * @param classifier The classifier the scorer was made for.
+     * @param scorer
+     * @param count The number of instances.
+     * @return The instances, or null if the classifier's attributes aren't
+     * known.
+     */
+    static Instances makeProbes(Classifier classifier, LinearScorer scorer, int count) {
+        Instances format;
+        try {
+            format = getProbeFormat(classifier);
+        } catch (Exception e) {
+            return null;
+        }
+        if (format == null || format.classIndex() != scorer.classIndex) {
+            return null;
+        }
+
+        int numAttributes = format.numAttributes();
+        int numWeighted = 0;
+        int[] weighted = new int[numAttributes];
+        for (int index = 0; index < numAttributes && index < scorer.weights.limit(); index++) {
+            if (index != scorer.classIndex && scorer.weights.get(index) != 0 && format.attribute(index).isNumeric()) {
+                weighted[numWeighted++] = index;
+            }
+        }
+
+        //Always the same probes, so saving a model twice gives the same file
+        Random random = new Random(numAttributes);
+        Instances probes = new Instances(format, count);
+        for (int i = 0; i < count; i++) {
+            double[] values = new double[numAttributes];
+            for (int k = 0; i > 0 && k < numWeighted; k++) {
+                if (random.nextInt(4) == 0) {
+                    values[weighted[k]] = 1 + random.nextInt(3);
+                }
+            }
+            probes.add(new SparseInstance(1, values));
+        }
+        return probes;
+    }
+
+    /**
+     * Get the attributes a classifier was trained on.
+     */
+    private static Instances getProbeFormat(Classifier classifier) throws Exception {
+        if (classifier instanceof CostSensitiveClassifier) {
+            classifier = ((CostSensitiveClassifier) classifier).getClassifier();
+        }
+
+        if (classifier instanceof LinearSVM) {
+            LinearSVM svm = (LinearSVM) classifier;
+            ArrayList<Attribute> attributes = new ArrayList<Attribute>();
+            for (int index = 0; index < svm.getScales().length; index++) {
+                if (index == svm.getClassIndex()) {
+                    ArrayList<String> classValues = new ArrayList<String>();
+                    classValues.add("false");
+                    classValues.add("true");
+                    attributes.add(new Attribute("class", classValues));
+                } else {
+                    attributes.add(new Attribute("a" + index));
+                }
+            }
+            Instances format = new Instances("probes", attributes, 0);
+            format.setClassIndex(svm.getClassIndex());
+            return format;
+        }
+
+        if (classifier instanceof SMO) {
+            //The filters keep the training header
+            Filter filter = (Filter) getField(SMO.class, classifier, "m_Missing");
+            if (filter == null) {
+                filter = (Filter) getField(SMO.class, classifier, "m_Filter");
+            }
+            return filter == null ? null : filter.getOutputFormat();
+        }
+        return null;
+    }
+
+    private static Object getField(Class<?> type, Object object, String name) throws Exception {
+        Field field = type.getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(object);
+    }
+
+    /**
+     * Check whether an instance can be scored. SMO replaces missing values
+     * with means, which this class does not know.
+     *
+     * @param instance
+     * @return
+     */
+    boolean canScore(Instance instance) {
+        return !instance.hasMissingValue();
+    }
+
+    /**
+     * Get the SVM output for an instance. Positive outputs predict the second
+     * class value.
+     *
+     * @param instance
+     * @return
+     */
+    double output(Instance instance) {
+        //As in SMO.BinarySMO.SVMOutput, in order of attribute index
+        //LinearSVM.output starts from the bias instead
+        double result = linearSVM ? -bias : 0;
+        int numValues = instance.numValues();
+        int k = 0;
+        int s = 0;
+        while (k < numValues || s < shiftedIndices.length) {
+            int index;
+            double value;
+            int instanceIndex = k < numValues ? instance.index(k) : Integer.MAX_VALUE;
+            int shiftedIndex = s < shiftedIndices.length ? shiftedIndices[s] : Integer.MAX_VALUE;
+            if (instanceIndex <= shiftedIndex) {
+                index = instanceIndex;
+                value = instance.valueSparse(k);
+                k++;
+                if (instanceIndex == shiftedIndex) {
+                    s++;
+                }
+            } else {
+                index = shiftedIndex;
+                value = 0;
+                s++;
+            }
+
+            if (index == classIndex || index >= weights.limit() || weights.get(index) == 0) {
+                continue;
+            }
+            if (min != null) {
+                value = normalize(index, value);
+            }
+            if (value != 0) {
+                result += value * weights.get(index);
+            }
+        }
+        if (!linearSVM) {
+            result -= bias;
+        }
+        return result;
+    }
+
+    /**
+     * Normalize a value, as in Normalize.convertInstance.
+     */
+    private double normalize(int index, double value) {
+        return (value - min.get(index)) / range.get(index) * scale + translation;
+    }
+
+    /**
+     * Get the class distribution the classifier would give an instance.
+     *
+     * @param instance
+     * @return
+     */
+    double[] distributionForInstance(Instance instance) throws Exception {
+        double output = output(instance);
+
+        double[] distribution = new double[2];
+        if (hasLogisticModel && linearSVM) {
+            //As in LinearSVM.distributionForInstance
+            distribution[1] = 1.0 / (1.0 + Math.exp(logisticSlope * output + logisticIntercept));
+            distribution[0] = 1 - distribution[1];
+        } else if (hasLogisticModel) {
+            //As in Logistic.evaluateProbability
+            double v = logisticIntercept + logisticSlope * output;
+            distribution[0] = 1 / (Math.exp(v - v) + Math.exp(0 - v));
+            distribution[1] = 1 / (Math.exp(v - 0) + Math.exp(0 - 0));
+        } else if (output > 0) {
+            distribution[1] = 1;
+        } else {
+            distribution[0] = 1;
+        }
+
+        if (costMatrix != null) {
+            int minIndex = Utils.minIndex(costMatrix.expectedCosts(distribution));
+            distribution[0] = minIndex == 0 ? 1 : 0;
+            distribution[1] = minIndex == 1 ? 1 : 0;
+        }
+        return distribution;
+    }
+
+    /**
+     * Get the class value the classifier would predict from a distribution,
+     * as in AbstractClassifier.classifyInstance.
+     *
+     * @param distribution
+     * @return
+     */
+    static double classify(double[] distribution) {
+        double max = 0;
+        int maxIndex = 0;
+        for (int i = 0; i < distribution.length; i++) {
+            if (distribution[i] > max) {
+                maxIndex = i;
+                max = distribution[i];
+            }
+        }
+        if (max > 0) {
+            return maxIndex;
+        } else {
+            return Utils.missingValue();
+        }
+    }
+}
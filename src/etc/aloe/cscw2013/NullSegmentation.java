@@ -21,6 +21,7 @@ package etc.aloe.cscw2013;
 import etc.aloe.data.Message;
 import etc.aloe.data.MessageSet;
 import etc.aloe.data.Segment;
+import etc.aloe.data.SegmentIdAllocator;
 import etc.aloe.data.SegmentSet;
 import etc.aloe.processes.SegmentResolution;
 import etc.aloe.processes.Segmentation;
@@ -34,6 +35,8 @@ import etc.aloe.processes.Segmentation;
  */
 public class NullSegmentation implements Segmentation {
 
+    private SegmentIdAllocator segmentIds = new SegmentIdAllocator();
+
     @Override
     public SegmentSet segment(MessageSet messages) {
         System.out.println("Applying no segmentation procedure.");
@@ -41,7 +44,7 @@ public class NullSegmentation implements Segmentation {
 
         int numLabeled = 0;
         for (Message message : messages.getMessages()) {
-            Segment current = new Segment();
+            Segment current = new Segment(segmentIds);
 
             current.add(message);
 
@@ -61,4 +64,9 @@ public class NullSegmentation implements Segmentation {
     @Override
     public void setSegmentResolution(SegmentResolution resolution) {
     }
+
+    @Override
+    public void setSegmentIdAllocator(SegmentIdAllocator segmentIds) {
+        this.segmentIds = segmentIds;
+    }
 }
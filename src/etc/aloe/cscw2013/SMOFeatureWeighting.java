@@ -18,6 +18,7 @@
  */
 package etc.aloe.cscw2013;
 
+import etc.aloe.classifiers.LinearSVM;
 import etc.aloe.data.ExampleSet;
 import etc.aloe.data.Model;
 import etc.aloe.processes.FeatureWeighting;
@@ -37,7 +38,8 @@ import weka.core.Instances;
  * Extracts top features and feature weights from a linear support vector
  * machine (SMO) classifier.
  *
- * Also works with a CostSensitiveClassifier wrapping an SMO.
+ * Also works with a LinearSVM, and with a CostSensitiveClassifier wrapping
+ * either.
  *
  * @author Michael Brooks <mjbrooks@uw.edu>
  */
@@ -70,10 +72,19 @@ public class SMOFeatureWeighting implements FeatureWeighting {
         Classifier classifier = wekaModel.getClassifier();
         Instances dataFormat = trainingExamples.getInstances();
 
-        SMO smo = getSMO(classifier);
+        classifier = getSVM(classifier);
 
-        double[] sparseWeights = smo.sparseWeights()[0][1];
-        int[] sparseIndices = smo.sparseIndices()[0][1];
+        double[] sparseWeights;
+        int[] sparseIndices;
+        if (classifier instanceof LinearSVM) {
+            LinearSVM svm = (LinearSVM) classifier;
+            sparseWeights = svm.sparseWeights();
+            sparseIndices = svm.sparseIndices();
+        } else {
+            SMO smo = (SMO) classifier;
+            sparseWeights = smo.sparseWeights()[0][1];
+            sparseIndices = smo.sparseIndices()[0][1];
+        }
 
         Map<String, Double> weights = new HashMap<String, Double>();
         for (int i = 0; i < sparseWeights.length; i++) {
@@ -96,24 +107,21 @@ public class SMOFeatureWeighting implements FeatureWeighting {
     }
 
     /**
-     * Given a classifier, attempts to cast it to an SMO or get the contained
-     * SMO.
+     * Given a classifier, checks that it is an SMO or LinearSVM, or gets the
+     * one contained in a CostSensitiveClassifier.
      *
      * @param classifier
      * @return
      */
-    private SMO getSMO(Classifier classifier) {
+    private Classifier getSVM(Classifier classifier) {
         if (classifier instanceof CostSensitiveClassifier) {
             classifier = ((CostSensitiveClassifier) classifier).getClassifier();
         }
 
-        SMO smo = null;
-        if (classifier instanceof SMO) {
-            smo = (SMO) classifier;
-        } else {
-            throw new IllegalArgumentException("Classifier was neither SMO or CostSensitiveClassifier(SMO)");
+        if (!(classifier instanceof SMO) && !(classifier instanceof LinearSVM)) {
+            throw new IllegalArgumentException("Classifier was neither SMO, LinearSVM or a CostSensitiveClassifier wrapping one");
         }
 
-        return smo;
+        return classifier;
     }
 }
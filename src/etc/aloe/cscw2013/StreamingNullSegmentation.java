@@ -0,0 +1,87 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.cscw2013;
+
+import etc.aloe.data.Message;
+import etc.aloe.data.Segment;
+import etc.aloe.data.SegmentIdAllocator;
+import etc.aloe.processes.SegmentResolution;
+import etc.aloe.processes.StreamingSegmentation;
+
+/**
+ * Streaming version of NullSegmentation. Each message is placed in its own
+ * segment, which is closed immediately.
+ *
+ * The SegmentResolution has no effect.
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public class StreamingNullSegmentation implements StreamingSegmentation {
+
+    private SegmentHandler handler;
+    private SegmentIdAllocator segmentIds = new SegmentIdAllocator();
+    private boolean started = false;
+    private int numSegments = 0;
+    private int numLabeled = 0;
+
+    @Override
+    public void add(Message message) throws InterruptedException {
+        if (!started) {
+            System.out.println("Applying no segmentation procedure to stream.");
+            started = true;
+        }
+
+        Segment current = new Segment(segmentIds);
+        current.add(message);
+
+        if (message.hasTrueLabel()) {
+            current.setTrueLabel(message.getTrueLabel());
+            numLabeled++;
+        }
+        numSegments++;
+
+        if (this.handler != null) {
+            this.handler.segmentClosed(current);
+        }
+    }
+
+    @Override
+    public void advanceWatermark(long timeMillis) {
+        //Segments are closed as soon as they are created
+    }
+
+    @Override
+    public void finish() throws InterruptedException {
+        System.out.println("Grouped messages into " + numSegments + " segments (" + numLabeled + " labeled).");
+    }
+
+    @Override
+    public void setSegmentHandler(SegmentHandler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public void setSegmentResolution(SegmentResolution resolution) {
+    }
+
+    @Override
+    public void setSegmentIdAllocator(SegmentIdAllocator segmentIds) {
+        this.segmentIds = segmentIds;
+    }
+}
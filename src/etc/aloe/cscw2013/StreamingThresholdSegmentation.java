@@ -0,0 +1,392 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.cscw2013;
+
+import etc.aloe.data.Message;
+import etc.aloe.data.Segment;
+import etc.aloe.data.SegmentIdAllocator;
+import etc.aloe.processes.SegmentResolution;
+import etc.aloe.processes.StreamingSegmentation;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Streaming version of ThresholdSegmentation. Messages separated by more than
+ * the threshold go into different segments, and messages can optionally be
+ * separated by participant as well.
+ *
+ * Segments are tracked in event time. The watermark is the latest message
+ * time seen so far, minus the allowed lateness. A segment is closed once the
+ * watermark is more than the threshold past its last message, because no
+ * on-time message can extend it after that. Messages up to the allowed
+ * lateness out of order are placed in the right segment (merging segments if
+ * a message bridges the gap between them), so the segments are the same as
+ * those produced by ThresholdSegmentation. Only the order in which they are
+ * produced differs.
+ *
+ * Messages earlier than the watermark are late, and are handled according to
+ * the late policy. Only the open segments are held in memory, which for a
+ * live stream is about one per active participant.
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public class StreamingThresholdSegmentation implements StreamingSegmentation {
+
+    /**
+     * What to do with messages that arrive after the watermark has passed
+     * them.
+     */
+    public static enum LatePolicy {
+
+        /**
+         * Segment late messages like any other message. A late message joins
+         * an open segment if it is close enough, and otherwise gets a segment
+         * of its own.
+         */
+        ADMIT,
+        /**
+         * Put each late message in a segment of its own.
+         */
+        SEPARATE,
+        /**
+         * Discard late messages. They do not appear in any segment.
+         */
+        DROP
+    }
+    private static final String ALL_PARTICIPANTS = "";
+    private final int thresholdSeconds;
+    private final boolean byParticipant;
+    private int allowedLatenessSeconds = 0;
+    private LatePolicy latePolicy = LatePolicy.ADMIT;
+    private SegmentResolution resolution;
+    private SegmentIdAllocator segmentIds = new SegmentIdAllocator();
+    private SegmentHandler handler;
+    /**
+     * Open segments for each participant, in time order.
+     */
+    private final Map<String, List<OpenSegment>> openSegments = new HashMap<String, List<OpenSegment>>();
+    /**
+     * All open segments, in the order they expire.
+     */
+    private final TreeSet<OpenSegment> expiryOrder = new TreeSet<OpenSegment>();
+    private boolean hasWatermark = false;
+    private long maxSeconds;
+    private long watermarkSeconds;
+    private long sequence = 0;
+    private boolean started = false;
+    private int numSegments = 0;
+    private int numLabeled = 0;
+    private int numLate = 0;
+    private int numDropped = 0;
+
+    /**
+     * Construct a new StreamingThresholdSegmentation.
+     *
+     * @param thresholdSeconds The number of seconds to use as the segmentation
+     * threshold.
+     * @param byParticipant True if messages should be separated by participant.
+     */
+    public StreamingThresholdSegmentation(int thresholdSeconds, boolean byParticipant) {
+        this.thresholdSeconds = thresholdSeconds;
+        this.byParticipant = byParticipant;
+    }
+
+    /**
+     * Set how far out of order messages may arrive and still be on time.
+     * Segments are held open this much longer. Default 0.
+     *
+     * @param allowedLatenessSeconds
+     */
+    public void setAllowedLateness(int allowedLatenessSeconds) {
+        this.allowedLatenessSeconds = Math.max(0, allowedLatenessSeconds);
+    }
+
+    /**
+     * Set what happens to messages that arrive later than the allowed
+     * lateness. Default ADMIT.
+     *
+     * @param latePolicy
+     */
+    public void setLatePolicy(LatePolicy latePolicy) {
+        this.latePolicy = latePolicy;
+    }
+
+    @Override
+    public void add(Message message) throws InterruptedException {
+        if (!started) {
+            System.out.println("Segmenting stream with " + thresholdSeconds + " second threshold," + (byParticipant ? "" : " not") + " separating by participant.");
+            started = true;
+        }
+
+        long msgSeconds = message.getTimestampMillis() / 1000;
+        String key = byParticipant ? message.getParticipant() : ALL_PARTICIPANTS;
+
+        if (hasWatermark && msgSeconds < watermarkSeconds) {
+            numLate++;
+            if (latePolicy == LatePolicy.DROP) {
+                numDropped++;
+                return;
+            } else if (latePolicy == LatePolicy.SEPARATE) {
+                Segment segment = new Segment(segmentIds);
+                segment.add(message);
+                close(segment);
+                return;
+            }
+
+            insert(key, message, msgSeconds);
+            //The message may have gone into a segment that is already expired
+            closeExpired();
+        } else {
+            advance(msgSeconds);
+            insert(key, message, msgSeconds);
+        }
+    }
+
+    @Override
+    public void advanceWatermark(long timeMillis) throws InterruptedException {
+        advance(timeMillis / 1000);
+    }
+
+    @Override
+    public void finish() throws InterruptedException {
+        while (!expiryOrder.isEmpty()) {
+            close(expiryOrder.pollFirst());
+        }
+        openSegments.clear();
+
+        System.out.println("Grouped messages into " + numSegments + " segments (" + numLabeled + " labeled).");
+        if (numLate > 0) {
+            System.out.println("Received " + numLate + " late messages (" + numDropped + " dropped).");
+        }
+    }
+
+    /**
+     * Move event time forward and close the segments that have expired.
+     *
+     * @param nowSeconds
+     * @throws InterruptedException
+     */
+    private void advance(long nowSeconds) throws InterruptedException {
+        if (hasWatermark && nowSeconds <= maxSeconds) {
+            return;
+        }
+        hasWatermark = true;
+        maxSeconds = nowSeconds;
+        watermarkSeconds = maxSeconds - allowedLatenessSeconds;
+        closeExpired();
+    }
+
+    /**
+     * Add a message to the open segment it belongs in, merging segments that
+     * it bridges, or start a new segment.
+     */
+    private void insert(String key, Message message, long msgSeconds) {
+        List<OpenSegment> segments = openSegments.get(key);
+        if (segments == null) {
+            segments = new ArrayList<OpenSegment>(2);
+            openSegments.put(key, segments);
+        }
+
+        OpenSegment target = null;
+        int position = segments.size();
+        for (int i = 0; i < segments.size(); i++) {
+            OpenSegment open = segments.get(i);
+            if (open.accepts(msgSeconds)) {
+                expiryOrder.remove(open);
+                if (target == null) {
+                    target = open;
+                } else {
+                    target.merge(open);
+                    segments.remove(i);
+                    i--;
+                }
+            } else if (target == null && open.firstSeconds > msgSeconds && position == segments.size()) {
+                position = i;
+            }
+        }
+
+        if (target == null) {
+            target = new OpenSegment(key);
+            segments.add(position, target);
+        }
+
+        target.add(message, msgSeconds);
+        target.sequence = sequence++;
+        expiryOrder.add(target);
+    }
+
+    /**
+     * Close every open segment that can no longer be extended by an on-time
+     * message. The segments are checked in order of their last message, so
+     * this stops at the first one still open.
+     *
+     * @throws InterruptedException
+     */
+    private void closeExpired() throws InterruptedException {
+        Iterator<OpenSegment> iter = expiryOrder.iterator();
+        while (iter.hasNext()) {
+            OpenSegment open = iter.next();
+            if (open.lastSeconds <= 0) {
+                //Like ThresholdSegmentation, never split after time 0
+                continue;
+            }
+            if (watermarkSeconds - open.lastSeconds <= thresholdSeconds) {
+                break;
+            }
+            iter.remove();
+
+            List<OpenSegment> segments = openSegments.get(open.key);
+            segments.remove(open);
+            if (segments.isEmpty()) {
+                openSegments.remove(open.key);
+            }
+            close(open);
+        }
+    }
+
+    private void close(OpenSegment open) throws InterruptedException {
+        if (!open.sorted) {
+            Collections.sort(open.messages);
+        }
+
+        Segment segment = new Segment(segmentIds);
+        for (Message message : open.messages) {
+            segment.add(message);
+        }
+        close(segment);
+    }
+
+    private void close(Segment segment) throws InterruptedException {
+        if (this.resolution != null) {
+            segment.setTrueLabel(this.resolution.resolveLabel(segment));
+            if (segment.hasTrueLabel()) {
+                numLabeled++;
+            }
+        }
+        numSegments++;
+
+        if (this.handler != null) {
+            this.handler.segmentClosed(segment);
+        }
+    }
+
+    /**
+     * Get the number of segments that are currently open.
+     *
+     * @return
+     */
+    public int getOpenSegmentCount() {
+        return expiryOrder.size();
+    }
+
+    /**
+     * Get the number of late messages received so far.
+     *
+     * @return
+     */
+    public int getLateCount() {
+        return numLate;
+    }
+
+    @Override
+    public void setSegmentHandler(SegmentHandler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public void setSegmentResolution(SegmentResolution resolution) {
+        this.resolution = resolution;
+    }
+
+    @Override
+    public void setSegmentIdAllocator(SegmentIdAllocator segmentIds) {
+        this.segmentIds = segmentIds;
+    }
+
+    /**
+     * A segment that may still receive messages.
+     */
+    private class OpenSegment implements Comparable<OpenSegment> {
+
+        private final String key;
+        private final List<Message> messages = new ArrayList<Message>();
+        private long firstSeconds;
+        private long lastSeconds;
+        private boolean sorted = true;
+        private long sequence;
+
+        OpenSegment(String key) {
+            this.key = key;
+        }
+
+        /**
+         * True if a message at the given time belongs in this segment.
+         */
+        boolean accepts(long msgSeconds) {
+            if (msgSeconds > lastSeconds) {
+                return !splits(lastSeconds, msgSeconds);
+            } else if (msgSeconds < firstSeconds) {
+                return !splits(msgSeconds, firstSeconds);
+            }
+            return true;
+        }
+
+        void add(Message message, long msgSeconds) {
+            if (messages.isEmpty()) {
+                firstSeconds = msgSeconds;
+                lastSeconds = msgSeconds;
+            } else {
+                if (message.getTimestampMillis() < messages.get(messages.size() - 1).getTimestampMillis()) {
+                    sorted = false;
+                }
+                firstSeconds = Math.min(firstSeconds, msgSeconds);
+                lastSeconds = Math.max(lastSeconds, msgSeconds);
+            }
+            messages.add(message);
+        }
+
+        void merge(OpenSegment other) {
+            messages.addAll(other.messages);
+            firstSeconds = Math.min(firstSeconds, other.firstSeconds);
+            lastSeconds = Math.max(lastSeconds, other.lastSeconds);
+            sorted = false;
+        }
+
+        @Override
+        public int compareTo(OpenSegment o) {
+            if (lastSeconds != o.lastSeconds) {
+                return lastSeconds < o.lastSeconds ? -1 : 1;
+            }
+            return sequence < o.sequence ? -1 : (sequence == o.sequence ? 0 : 1);
+        }
+    }
+
+    /**
+     * True if two consecutive messages at these times are in different
+     * segments.
+     */
+    private boolean splits(long earlierSeconds, long laterSeconds) {
+        return earlierSeconds > 0 && (laterSeconds - earlierSeconds) > thresholdSeconds;
+    }
+}
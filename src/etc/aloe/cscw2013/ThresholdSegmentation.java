@@ -18,22 +18,33 @@
  */
 package etc.aloe.cscw2013;
 
-import etc.aloe.data.Message;
 import etc.aloe.data.MessageSet;
 import etc.aloe.data.Segment;
+import etc.aloe.data.SegmentIdAllocator;
 import etc.aloe.data.SegmentSet;
 import etc.aloe.processes.SegmentResolution;
 import etc.aloe.processes.Segmentation;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Segments messages according to a time threshold. Messages separated by more
  * than the threshold go into different segments. Can optionally separate
  * messages by participant as well.
  *
+ * When separating by participant, messages are first bucketed by participant
+ * id, with the buckets ordered by participant name. Each bucket is sorted by
+ * time only if it is not already in order, and large inputs are split into
+ * segments one bucket per task. The segments themselves are always created
+ * in order, so the output and segment ids do not depend on thread timing.
+ *
  * In order for labels to be applied to segments, be sure to set the segment
  * resolution procedure.
  *
@@ -41,9 +52,12 @@ import java.util.List;
  */
 public class ThresholdSegmentation implements Segmentation {
 
+    private static final int PARALLEL_THRESHOLD = 100000;
+    private static final int INSERTION_SORT_SIZE = 16;
     private final int thresholdSeconds;
     private final boolean byParticipant;
     private SegmentResolution resolution;
+    private SegmentIdAllocator segmentIds = new SegmentIdAllocator();
 
     /**
      * Construct a new ThresholdSegmentation.
@@ -57,104 +71,231 @@ public class ThresholdSegmentation implements Segmentation {
         this.byParticipant = byParticipant;
     }
 
-    /**
-     * Return a list of messages sorted by participant name (ascending).
-     *
-     * @param original
-     * @return
-     */
-    protected List<Message> sortByParticipant(List<Message> original) {
-        List<Message> messages = new ArrayList<Message>(original);
+    @Override
+    public SegmentSet segment(MessageSet messageSet) {
+        System.out.println("Segmenting with " + thresholdSeconds + " second threshold," + (byParticipant ? "" : " not") + " separating by participant.");
 
-        Collections.sort(messages, new Comparator<Message>() {
-            @Override
-            public int compare(Message o1, Message o2) {
-                return o1.getParticipant().compareTo(o2.getParticipant());
+        int size = messageSet.size();
+        long[] times = new long[size];
+        for (int i = 0; i < size; i++) {
+            times[i] = messageSet.getTimestampMillis(i);
+        }
+
+        //The message indexes in output order, and where each bucket starts
+        int[] order = new int[size];
+        List<int[]> buckets = bucket(messageSet, order);
+
+        //Marks the positions in order where a new segment begins
+        boolean[] boundaries = new boolean[size];
+        splitBuckets(buckets, order, times, boundaries, size >= PARALLEL_THRESHOLD);
+
+        SegmentSet segments = new SegmentSet();
+        Segment current = new Segment(segmentIds);
+        int numLabeled = 0;
+        for (int k = 0; k < size; k++) {
+            if (boundaries[k]) {
+                if (addSegment(segments, current)) {
+                    numLabeled++;
+                }
+                current = new Segment(segmentIds);
             }
-        });
+            current.add(messageSet.get(order[k]));
+        }
+
+        if (current.getMessages().size() > 0) {
+            if (addSegment(segments, current)) {
+                numLabeled++;
+            }
+        }
+
+        System.out.println("Grouped messages into " + segments.size() + " segments (" + numLabeled + " labeled).");
 
-        return messages;
+        return segments;
     }
 
     /**
-     * Return a list of messages sorted by time (ascending).
+     * Resolve the segment's label and add it to the set.
      *
-     * @param original
-     * @return
+     * @return True if the segment has a label.
      */
-    protected List<Message> sortByTime(List<Message> original) {
-        List<Message> messages = new ArrayList<Message>(original);
+    private boolean addSegment(SegmentSet segments, Segment segment) {
+        boolean labeled = false;
+        if (this.resolution != null) {
+            segment.setTrueLabel(this.resolution.resolveLabel(segment));
+            labeled = segment.hasTrueLabel();
+        }
+        segments.add(segment);
+        return labeled;
+    }
 
-        Collections.sort(messages, new Comparator<Message>() {
+    /**
+     * Fill order with the message indexes grouped into buckets, keeping the
+     * original order within each bucket. Without participant separation,
+     * everything is in one bucket.
+     *
+     * @return The [start, end) range of each non-empty bucket in order.
+     */
+    private List<int[]> bucket(final MessageSet messageSet, int[] order) {
+        int size = order.length;
+        List<int[]> buckets = new ArrayList<int[]>();
+
+        if (!byParticipant || size == 0) {
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            buckets.add(new int[]{0, size});
+            return buckets;
+        }
+
+        int numParticipants = messageSet.getParticipantCount();
+        int[] participantIds = new int[size];
+        int[] counts = new int[numParticipants];
+        for (int i = 0; i < size; i++) {
+            participantIds[i] = messageSet.getParticipantId(i);
+            counts[participantIds[i]]++;
+        }
+
+        //Buckets are ordered by participant name
+        Integer[] byName = new Integer[numParticipants];
+        for (int p = 0; p < numParticipants; p++) {
+            byName[p] = p;
+        }
+        Arrays.sort(byName, new Comparator<Integer>() {
             @Override
-            public int compare(Message o1, Message o2) {
-                return o1.getTimestamp().compareTo(o2.getTimestamp());
+            public int compare(Integer o1, Integer o2) {
+                return messageSet.getParticipantName(o1).compareTo(messageSet.getParticipantName(o2));
             }
         });
 
-        return messages;
-    }
-
-    @Override
-    public SegmentSet segment(MessageSet messageSet) {
-        System.out.println("Segmenting with " + thresholdSeconds + " second threshold," + (byParticipant ? "" : " not") + " separating by participant.");
-        List<Message> messages = sortByTime(messageSet.getMessages());
-        if (byParticipant) {
-            messages = sortByParticipant(messages);
+        int[] next = new int[numParticipants];
+        int start = 0;
+        for (Integer p : byName) {
+            if (counts[p] > 0) {
+                next[p] = start;
+                buckets.add(new int[]{start, start + counts[p]});
+                start += counts[p];
+            }
         }
 
-        SegmentSet segments = new SegmentSet();
+        for (int i = 0; i < size; i++) {
+            order[next[participantIds[i]]++] = i;
+        }
 
-        Segment current = new Segment();
-        long lastTime = 0;
-        String lastParticipant = null;
+        return buckets;
+    }
 
-        int numLabeled = 0;
-        for (Message message : messages) {
-            long msgSeconds = message.getTimestamp().getTime() / 1000;
-            long diffSeconds = (msgSeconds - lastTime);
+    /**
+     * Sort each bucket by time and find its segment boundaries, in parallel
+     * if requested.
+     */
+    private void splitBuckets(List<int[]> buckets, final int[] order, final long[] times, final boolean[] boundaries, boolean parallel) {
+        if (!parallel || buckets.size() < 2) {
+            for (int[] bucket : buckets) {
+                splitBucket(bucket[0], bucket[1], order, times, boundaries);
+            }
+            return;
+        }
 
-            boolean newSegment = false;
-            if (lastTime > 0 && diffSeconds > thresholdSeconds) {
-                newSegment = true;
+        int numThreads = Math.min(buckets.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<Object>> futures = new ArrayList<Future<Object>>();
+            for (final int[] bucket : buckets) {
+                futures.add(executor.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        splitBucket(bucket[0], bucket[1], order, times, boundaries);
+                        return null;
+                    }
+                }));
             }
-            if (byParticipant && lastParticipant != null && !lastParticipant.equals(message.getParticipant())) {
-                newSegment = true;
+            for (Future<Object> future : futures) {
+                future.get();
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Segmentation was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 
-            if (newSegment) {
-                if (this.resolution != null) {
-                    current.setTrueLabel(this.resolution.resolveLabel(current));
-                    if (current.hasTrueLabel()) {
-                        numLabeled++;
-                    }
-                }
-                segments.add(current);
-                current = new Segment();
+    /**
+     * Sort one bucket by time if needed and mark where its segments begin.
+     */
+    private void splitBucket(int start, int end, int[] order, long[] times, boolean[] boundaries) {
+        for (int k = start + 1; k < end; k++) {
+            if (times[order[k]] < times[order[k - 1]]) {
+                sortByTime(order, start, end, times, new int[end - start]);
+                break;
             }
+        }
 
-            lastTime = msgSeconds;
-            lastParticipant = message.getParticipant();
-            current.add(message);
+        //A new bucket is a new participant
+        if (start > 0) {
+            boundaries[start] = true;
         }
 
-        if (current.getMessages().size() > 0) {
-            if (this.resolution != null) {
-                current.setTrueLabel(this.resolution.resolveLabel(current));
-                if (current.hasTrueLabel()) {
-                    numLabeled++;
+        for (int k = start + 1; k < end; k++) {
+            long lastSeconds = times[order[k - 1]] / 1000;
+            long msgSeconds = times[order[k]] / 1000;
+            if (lastSeconds > 0 && msgSeconds - lastSeconds > thresholdSeconds) {
+                boundaries[k] = true;
+            }
+        }
+    }
+
+    /**
+     * Stable merge sort of order[start, end) by time.
+     */
+    private static void sortByTime(int[] order, int start, int end, long[] times, int[] scratch) {
+        if (end - start <= INSERTION_SORT_SIZE) {
+            for (int k = start + 1; k < end; k++) {
+                int index = order[k];
+                long time = times[index];
+                int j = k - 1;
+                while (j >= start && times[order[j]] > time) {
+                    order[j + 1] = order[j];
+                    j--;
                 }
+                order[j + 1] = index;
             }
-            segments.add(current);
+            return;
         }
 
-        System.out.println("Grouped messages into " + segments.size() + " segments (" + numLabeled + " labeled).");
+        int middle = (start + end) >>> 1;
+        sortByTime(order, start, middle, times, scratch);
+        sortByTime(order, middle, end, times, scratch);
+        if (times[order[middle - 1]] <= times[order[middle]]) {
+            return;
+        }
 
-        return segments;
+        int length = middle - start;
+        System.arraycopy(order, start, scratch, 0, length);
+        int left = 0;
+        int right = middle;
+        int out = start;
+        while (left < length && right < end) {
+            if (times[order[right]] < times[scratch[left]]) {
+                order[out++] = order[right++];
+            } else {
+                order[out++] = scratch[left++];
+            }
+        }
+        while (left < length) {
+            order[out++] = scratch[left++];
+        }
     }
 
     @Override
     public void setSegmentResolution(SegmentResolution resolution) {
         this.resolution = resolution;
     }
+
+    @Override
+    public void setSegmentIdAllocator(SegmentIdAllocator segmentIds) {
+        this.segmentIds = segmentIds;
+    }
 }
@@ -18,6 +18,7 @@
  */
 package etc.aloe.cscw2013;
 
+import etc.aloe.classifiers.LinearSVM;
 import etc.aloe.data.ExampleSet;
 import etc.aloe.processes.Training;
 import weka.classifiers.Classifier;
@@ -33,12 +34,28 @@ import weka.core.Utils;
  */
 public class TrainingImpl implements Training {
 
+    /**
+     * The algorithm used to train the support vector machine.
+     */
+    public static enum Solver {
+
+        /**
+         * Weka's SMO with a linear polynomial kernel.
+         */
+        SMO,
+        /**
+         * LinearSVM, a dual coordinate descent solver for sparse data. It is
+         * much faster than SMO on large training sets.
+         */
+        DCD
+    }
     private static final String SMO_OPTIONS = "-C 1.0 -L 0.0010 -P 1.0E-12 -N 0 -V -1 -W 1 -K \"weka.classifiers.functions.supportVector.PolyKernel -C 250007 -E 1.0\"";
     private boolean buildLogisticModel = false;
     private double falsePositiveCost = 1;
     private double falseNegativeCost = 1;
     private boolean useReweighting = false;
     private boolean useCostTraining = false;
+    private Solver solver = Solver.SMO;
 
     public TrainingImpl() {
     }
@@ -90,8 +107,27 @@ public class TrainingImpl implements Training {
         this.useCostTraining = useCostTraining;
     }
 
-    @Override
-    public WekaModel train(ExampleSet examples) {
+    public Solver getSolver() {
+        return solver;
+    }
+
+    public void setSolver(Solver solver) {
+        this.solver = solver;
+    }
+
+    /**
+     * Construct the support vector machine for the configured solver.
+     *
+     * @return The classifier, or null if it could not be configured.
+     */
+    private Classifier constructSVM() {
+        if (solver == Solver.DCD) {
+            LinearSVM svm = new LinearSVM();
+            svm.setBuildLogisticModels(isBuildLogisticModel());
+            System.out.println("LinearSVM Options: C " + svm.getCost() + ", epsilon " + svm.getEpsilon());
+            return svm;
+        }
+
         System.out.println("SMO Options: " + SMO_OPTIONS);
         SMO smo = new SMO();
         try {
@@ -104,12 +140,22 @@ public class TrainingImpl implements Training {
 
         //Build logistic models if desired
         smo.setBuildLogisticModels(isBuildLogisticModel());
+        return smo;
+    }
+
+    @Override
+    public WekaModel train(ExampleSet examples) {
+        Classifier svm = constructSVM();
+        if (svm == null) {
+            return null;
+        }
+        String svmName = svm.getClass().getSimpleName();
 
-        Classifier classifier = smo;
+        Classifier classifier = svm;
 
         if (useCostTraining) {
             CostSensitiveClassifier cost = new CostSensitiveClassifier();
-            cost.setClassifier(smo);
+            cost.setClassifier(svm);
             CostMatrix matrix = new CostMatrix(2);
             matrix.setElement(0, 0, 0);
             matrix.setElement(0, 1, falsePositiveCost);
@@ -119,7 +165,7 @@ public class TrainingImpl implements Training {
 
             classifier = cost;
 
-            System.out.print("Wrapping SMO in CostSensitiveClassifier " + matrix.toMatlab());
+            System.out.print("Wrapping " + svmName + " in CostSensitiveClassifier " + matrix.toMatlab());
 
             if (useReweighting) {
                 cost.setMinimizeExpectedCost(false);
@@ -131,14 +177,14 @@ public class TrainingImpl implements Training {
         }
 
         try {
-            System.out.print("Training SMO on " + examples.size() + " examples... ");
+            System.out.print("Training " + svmName + " on " + examples.size() + " examples... ");
             classifier.buildClassifier(examples.getInstances());
             System.out.println("done.");
 
             WekaModel model = new WekaModel(classifier);
             return model;
         } catch (Exception ex) {
-            System.err.println("Unable to train SMO.");
+            System.err.println("Unable to train " + svmName + ".");
             System.err.println("\t" + ex.getMessage());
             return null;
         }
@@ -18,6 +18,7 @@
  */
 package etc.aloe.cscw2013;
 
+import etc.aloe.data.BinaryArtifact;
 import etc.aloe.data.ExampleSet;
 import etc.aloe.data.Model;
 import etc.aloe.data.Predictions;
@@ -27,37 +28,130 @@ import java.io.InvalidObjectException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import weka.classifiers.Classifier;
+import weka.core.Instance;
+import weka.core.Instances;
 
 /**
  * Model implementation that uses Weka classifiers.
  *
+ * A linear SMO or LinearSVM is scored with a LinearScorer instead of through
+ * Weka, once the scorer has been checked against Weka. A scorer made from a
+ * classifier is checked on the first examples the model labels. Predictions
+ * may be requested from several threads at once.
+ *
+ * A model with a linear scorer is saved in ALOE's binary artifact format: the
+ * scorer's weights, normalization, and calibration, followed by the Java
+ * serialized classifier. The scorer is checked against the classifier when it
+ * is saved, and the file records that it passed. Loading such a file only
+ * reads the scorer, from a memory-mapped buffer, and a scorer that passed is
+ * used without checking it again; the classifier is deserialized when it is
+ * first needed, if ever. Other models are saved with Java serialization alone,
+ * and files written that way still load.
+ *
  * @author Michael Brooks <mjbrooks@uw.edu>
  */
 public class WekaModel implements Model {
 
+    private static final int NUM_VALIDATION_EXAMPLES = 50;
+    private static final int VERSION = 2;
     private Classifier classifier;
+    //The classifier's serialized bytes, until it is deserialized
+    private ByteBuffer serializedClassifier;
+    private LinearScorer linearScorer;
+    private int numValidated;
 
     public WekaModel() {
     }
 
     public WekaModel(Classifier classifier) {
+        setClassifier(classifier);
+    }
+
+    private synchronized void setClassifier(Classifier classifier) {
         this.classifier = classifier;
+        this.serializedClassifier = null;
+        this.linearScorer = LinearScorer.forClassifier(classifier);
+        this.numValidated = 0;
     }
 
     @Override
     public boolean save(OutputStream destination) throws IOException {
+        Classifier classifier = getClassifier();
+        LinearScorer scorer;
+        boolean checked;
+        synchronized (this) {
+            scorer = linearScorer;
+            checked = numValidated >= NUM_VALIDATION_EXAMPLES;
+        }
+
+        if (scorer != null && !checked) {
+            //Check now, so the loaded model doesn't have to
+            Instances probes = LinearScorer.makeProbes(classifier, scorer, NUM_VALIDATION_EXAMPLES);
+            if (probes != null) {
+                checked = matchesOnAll(scorer, classifier, probes);
+                if (!checked) {
+                    System.err.println("Linear scoring does not match the classifier; scoring through Weka instead.");
+                    synchronized (this) {
+                        linearScorer = null;
+                    }
+                    scorer = null;
+                }
+            }
+        }
+
+        if (scorer != null) {
+            BinaryArtifact.Writer writer = new BinaryArtifact.Writer(BinaryArtifact.MODEL, VERSION);
+            try {
+                writer.putBoolean(checked);
+                scorer.write(writer);
+                writer.writeTo(destination);
+            } catch (Exception e) {
+                throw new IOException("Could not write linear scorer: " + e.getMessage(), e);
+            }
+        }
+
         ObjectOutputStream out = new ObjectOutputStream(destination);
         out.writeObject(classifier);
+        out.flush();
         return true;
     }
 
     @Override
     public boolean load(InputStream source) throws InvalidObjectException {
         try {
-            ObjectInputStream in = new ObjectInputStream(source);
-            this.classifier = (Classifier) in.readObject();
+            ByteBuffer buffer = BinaryArtifact.read(source);
+            int version = BinaryArtifact.readHeader(buffer, BinaryArtifact.MODEL, VERSION);
+            if (version == 0) {
+                setClassifier(readClassifier(buffer));
+                return true;
+            }
+
+            //Version 1 files did not check the scorer when they were saved
+            boolean checked = version >= 2 && buffer.get() != 0;
+            LinearScorer scorer = LinearScorer.read(buffer, version);
+            synchronized (this) {
+                this.classifier = null;
+                this.serializedClassifier = buffer.slice();
+                this.linearScorer = scorer;
+                this.numValidated = checked ? NUM_VALIDATION_EXAMPLES : 0;
+            }
             return true;
+        } catch (BufferUnderflowException e) {
+            throw new InvalidObjectException("Model file is truncated");
+        } catch (InvalidObjectException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new InvalidObjectException(e.getMessage());
+        }
+    }
+
+    private static Classifier readClassifier(ByteBuffer buffer) throws InvalidObjectException {
+        try {
+            ObjectInputStream in = new ObjectInputStream(BinaryArtifact.asStream(buffer));
+            return (Classifier) in.readObject();
         } catch (IOException e) {
             throw new InvalidObjectException(e.getMessage());
         } catch (ClassNotFoundException e) {
@@ -76,16 +170,27 @@ public class WekaModel implements Model {
      */
     @Override
     public Predictions getPredictions(ExampleSet examples) {
+        LinearScorer scorer = getLinearScorer(examples);
+        if (scorer != null) {
+            return getLinearPredictions(scorer, examples);
+        }
+
         Predictions predictions = new Predictions();
+        Classifier classifier = getClassifier();
 
         for (int i = 0; i < examples.size(); i++) {
             try {
                 Boolean trueLabel = examples.getTrueLabel(i);
 
-                double classValue = classifier.classifyInstance(examples.get(i));
+                double classValue;
+                double[] distribution;
+                //Weka classifiers are not safe to use from several threads
+                synchronized (classifier) {
+                    classValue = classifier.classifyInstance(examples.get(i));
+                    distribution = classifier.distributionForInstance(examples.get(i));
+                }
                 Boolean predictedLabel = examples.getClassLabel(classValue);
 
-                double[] distribution = classifier.distributionForInstance(examples.get(i));
                 Double confidence = examples.getConfidence(distribution);
                 predictions.add(predictedLabel, confidence, trueLabel);
 
@@ -98,11 +203,139 @@ public class WekaModel implements Model {
     }
 
     /**
-     * Get the weka classifier.
+     * Label examples with the linear scorer, falling back to the classifier
+     * for examples the scorer can't handle.
+     */
+    private Predictions getLinearPredictions(LinearScorer scorer, ExampleSet examples) {
+        Predictions predictions = new Predictions();
+
+        for (int i = 0; i < examples.size(); i++) {
+            try {
+                Boolean trueLabel = examples.getTrueLabel(i);
+                Instance instance = examples.get(i);
+
+                double[] distribution;
+                double classValue;
+                if (scorer.canScore(instance)) {
+                    distribution = scorer.distributionForInstance(instance);
+                    classValue = LinearScorer.classify(distribution);
+                } else {
+                    Classifier classifier = getClassifier();
+                    synchronized (classifier) {
+                        classValue = classifier.classifyInstance(instance);
+                        distribution = classifier.distributionForInstance(instance);
+                    }
+                }
+
+                Boolean predictedLabel = examples.getClassLabel(classValue);
+                Double confidence = examples.getConfidence(distribution);
+                predictions.add(predictedLabel, confidence, trueLabel);
+
+            } catch (Exception ex) {
+                System.err.println("Classification error on instance " + i);
+            }
+        }
+
+        return predictions;
+    }
+
+    /**
+     * Get the linear scorer if there is one. Until it has been checked against
+     * the classifier on enough examples, it is checked on the examples about
+     * to be labeled, and discarded if it does not give the same results.
+     */
+    private synchronized LinearScorer getLinearScorer(ExampleSet examples) {
+        if (linearScorer == null || numValidated >= NUM_VALIDATION_EXAMPLES) {
+            return linearScorer;
+        }
+
+        Classifier classifier = getClassifier();
+        for (int i = 0; i < examples.size() && numValidated < NUM_VALIDATION_EXAMPLES; i++) {
+            Instance instance = examples.get(i);
+            if (!linearScorer.canScore(instance)) {
+                continue;
+            }
+            try {
+                if (!matches(linearScorer, classifier, instance)) {
+                    System.err.println("Linear scoring does not match the classifier; scoring through Weka instead.");
+                    linearScorer = null;
+                    return null;
+                }
+            } catch (Exception e) {
+                linearScorer = null;
+                return null;
+            }
+            numValidated++;
+        }
+
+        return linearScorer;
+    }
+
+    /**
+     * Check a linear scorer against its classifier on some instances.
+     *
+     * @return True if they give the same results on every instance.
+     */
+    private static boolean matchesOnAll(LinearScorer scorer, Classifier classifier, Instances probes) {
+        try {
+            for (int i = 0; i < probes.numInstances(); i++) {
+                if (!matches(scorer, classifier, probes.instance(i))) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Check that a linear scorer gives the same class and distribution as its
+     * classifier for an instance.
+     */
+    private static boolean matches(LinearScorer scorer, Classifier classifier, Instance instance) throws Exception {
+        double[] expected;
+        double expectedClass;
+        //Weka classifiers are not safe to use from several threads
+        synchronized (classifier) {
+            expected = classifier.distributionForInstance(instance);
+            expectedClass = classifier.classifyInstance(instance);
+        }
+        double[] actual = scorer.distributionForInstance(instance);
+        boolean matches = expected.length == actual.length
+                && expectedClass == LinearScorer.classify(actual);
+        for (int c = 0; matches && c < expected.length; c++) {
+            matches = expected[c] == actual[c];
+        }
+        return matches;
+    }
+
+    /**
+     * Check whether the classifier is in memory, rather than still serialized
+     * in a loaded model file.
+     *
+     * @return
+     */
+    synchronized boolean isClassifierLoaded() {
+        return classifier != null;
+    }
+
+    /**
+     * Get the weka classifier, deserializing it if it hasn't been yet.
      *
      * @return
+     * @throws IllegalStateException If the classifier in the model file can't
+     * be read.
      */
-    public Classifier getClassifier() {
+    public synchronized Classifier getClassifier() {
+        if (classifier == null && serializedClassifier != null) {
+            try {
+                classifier = readClassifier(serializedClassifier.duplicate());
+                serializedClassifier = null;
+            } catch (InvalidObjectException e) {
+                throw new IllegalStateException("Could not read the classifier: " + e.getMessage(), e);
+            }
+        }
         return classifier;
     }
 }
@@ -0,0 +1,99 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.data;
+
+/**
+ * One record read in batch mode: the message to label, or the reason it could
+ * not be read, plus the label once it has been predicted.
+ *
+ * The id is kept exactly as it appeared in the input so that it can be written
+ * back unchanged with the result.
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public class BatchRecord {
+
+    private final String id;
+    private final Message message;
+    private String error;
+    private Boolean predictedLabel;
+    private Double confidence;
+
+    /**
+     * Construct a record for a message that was read successfully.
+     *
+     * @param id The id as it appeared in the input.
+     * @param message
+     */
+    public BatchRecord(String id, Message message) {
+        this.id = id;
+        this.message = message;
+    }
+
+    /**
+     * Construct a record for input that could not be read.
+     *
+     * @param id The id as it appeared in the input, or null if unknown.
+     * @param error
+     */
+    public BatchRecord(String id, String error) {
+        this.id = id;
+        this.message = null;
+        this.error = error;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Get the message to label.
+     *
+     * @return The message, or null if the record could not be read.
+     */
+    public Message getMessage() {
+        return message;
+    }
+
+    /**
+     * Get the reason this record could not be labeled.
+     *
+     * @return The error, or null if there wasn't one.
+     */
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    public Boolean getPredictedLabel() {
+        return predictedLabel;
+    }
+
+    public Double getConfidence() {
+        return confidence;
+    }
+
+    public void setPrediction(Boolean predictedLabel, Double confidence) {
+        this.predictedLabel = predictedLabel;
+        this.confidence = confidence;
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidObjectException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Helpers for the binary format of trained artifacts (models and feature
+ * specifications).
+ *
+ * An artifact starts with the same magic number as a message snapshot, the
+ * kind of artifact, and a format version, all little-endian like the rest of
+ * the file. Files that don't start this way are left to Java serialization,
+ * which is what older versions of ALOE wrote.
+ *
+ * Artifacts are read through a memory-mapped buffer when they come from a
+ * file, so large arrays can be used in place instead of copied. Arrays of
+ * doubles are aligned to 8 bytes from the start of the file.
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public final class BinaryArtifact {
+
+    private static final int MAGIC = 0x414c4f45;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    /**
+     * The kind of artifact in a file.
+     */
+    public static final int MODEL = 1;
+    public static final int FEATURE_SPECIFICATION = 2;
+
+    private BinaryArtifact() {
+    }
+
+    /**
+     * Read everything left in a stream into a little-endian buffer. A file is
+     * mapped rather than read.
+     *
+     * @param source
+     * @return
+     * @throws IOException
+     */
+    public static ByteBuffer read(InputStream source) throws IOException {
+        ByteBuffer buffer;
+        if (source instanceof FileInputStream) {
+            FileChannel channel = ((FileInputStream) source).getChannel();
+            long position = channel.position();
+            long length = channel.size() - position;
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("File is too large to map");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            channel.position(position + length);
+        } else {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] block = new byte[1 << 16];
+            int count;
+            while ((count = source.read(block)) > 0) {
+                bytes.write(block, 0, count);
+            }
+            buffer = ByteBuffer.wrap(bytes.toByteArray());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    /**
+     * Read the header of an artifact, if the buffer has one.
+     *
+     * @param buffer Positioned at the start of the file. It is left after the
+     * header if there is one, and where it was otherwise.
+     * @param kind The kind of artifact expected.
+     * @param version The newest version the reader understands.
+     * @return The version of the file, or 0 if the buffer does not start with
+     * an artifact header.
+     * @throws InvalidObjectException If the file is a different kind of
+     * artifact or a newer version.
+     */
+    public static int readHeader(ByteBuffer buffer, int kind, int version) throws InvalidObjectException {
+        int start = buffer.position();
+        if (buffer.remaining() < 12 || buffer.getInt() != MAGIC) {
+            buffer.position(start);
+            return 0;
+        }
+        int fileKind = buffer.getInt();
+        int fileVersion = buffer.getInt();
+        if (fileKind != kind) {
+            throw new InvalidObjectException("File holds a different kind of artifact (" + fileKind + ")");
+        }
+        if (fileVersion < 1 || fileVersion > version) {
+            throw new InvalidObjectException("Unsupported artifact version " + fileVersion);
+        }
+        return fileVersion;
+    }
+
+    /**
+     * Get an input stream over the rest of a buffer.
+     *
+     * @param buffer
+     * @return
+     */
+    public static InputStream asStream(ByteBuffer buffer) {
+        return new BufferInputStream(buffer.slice());
+    }
+
+    public static String getString(ByteBuffer buffer) throws InvalidObjectException {
+        int length = buffer.getInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > buffer.remaining()) {
+            throw new InvalidObjectException("Invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    public static byte[] getBytes(ByteBuffer buffer) throws InvalidObjectException {
+        int length = getLength(buffer, 1);
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    public static int[] getInts(ByteBuffer buffer) throws InvalidObjectException {
+        int length = getLength(buffer, 4);
+        int[] values = new int[length];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + length * 4);
+        return values;
+    }
+
+    /**
+     * Get a view of an array of doubles in the buffer. If the buffer is
+     * mapped, so is the view.
+     *
+     * @param buffer
+     * @return
+     * @throws InvalidObjectException
+     */
+    public static DoubleBuffer getDoubles(ByteBuffer buffer) throws InvalidObjectException {
+        int length = getLength(buffer, 8);
+        align(buffer);
+        if (length * 8 > buffer.remaining()) {
+            throw new InvalidObjectException("Invalid array length " + length);
+        }
+        ByteBuffer slice = buffer.slice();
+        slice.limit(length * 8);
+        slice.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position(buffer.position() + length * 8);
+        return slice.asDoubleBuffer();
+    }
+
+    private static int getLength(ByteBuffer buffer, int width) throws InvalidObjectException {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining() / width) {
+            throw new InvalidObjectException("Invalid array length " + length);
+        }
+        return length;
+    }
+
+    private static void align(ByteBuffer buffer) {
+        buffer.position((buffer.position() + 7) & ~7);
+    }
+
+    /**
+     * Little-endian writes to a growing buffer, which is written out once the
+     * artifact is complete.
+     */
+    public static class Writer {
+
+        private ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+
+        /**
+         * Start an artifact of the given kind and version.
+         *
+         * @param kind
+         * @param version
+         */
+        public Writer(int kind, int version) {
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC);
+            buffer.putInt(kind);
+            buffer.putInt(version);
+        }
+
+        private void reserve(int bytes) {
+            if (buffer.remaining() < bytes) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+                larger.order(ByteOrder.LITTLE_ENDIAN);
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+        }
+
+        public void putBoolean(boolean value) {
+            reserve(1);
+            buffer.put((byte) (value ? 1 : 0));
+        }
+
+        public void putInt(int value) {
+            reserve(4);
+            buffer.putInt(value);
+        }
+
+        public void putDouble(double value) {
+            reserve(8);
+            buffer.putDouble(value);
+        }
+
+        public void putString(String value) {
+            if (value == null) {
+                putInt(-1);
+                return;
+            }
+            byte[] bytes = value.getBytes(UTF8);
+            putInt(bytes.length);
+            reserve(bytes.length);
+            buffer.put(bytes);
+        }
+
+        public void putBytes(byte[] bytes) {
+            putInt(bytes.length);
+            reserve(bytes.length);
+            buffer.put(bytes);
+        }
+
+        public void putInts(int[] values) {
+            putInt(values.length);
+            reserve(values.length * 4);
+            for (int value : values) {
+                buffer.putInt(value);
+            }
+        }
+
+        public void putDoubles(DoubleBuffer values) {
+            int length = values.limit();
+            putInt(length);
+            reserve(length * 8 + 7);
+            buffer.position((buffer.position() + 7) & ~7);
+            for (int i = 0; i < length; i++) {
+                buffer.putDouble(values.get(i));
+            }
+        }
+
+        /**
+         * Write what has been put so far.
+         *
+         * @param destination
+         * @throws IOException
+         */
+        public void writeTo(OutputStream destination) throws IOException {
+            destination.write(buffer.array(), 0, buffer.position());
+        }
+    }
+
+    /**
+     * Reads the rest of a buffer.
+     */
+    private static class BufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            length = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, length);
+            return length;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
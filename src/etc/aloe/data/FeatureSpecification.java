@@ -18,6 +18,7 @@
  */
 package etc.aloe.data;
 
+import etc.aloe.filters.CompiledFilterChain;
 import etc.aloe.processes.Loading;
 import etc.aloe.processes.Saving;
 import java.io.IOException;
@@ -26,26 +27,62 @@ import java.io.InvalidObjectException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import weka.core.Instances;
 import weka.filters.Filter;
 
 /**
  * A FeatureSpecification contains information sufficient to know how to extract
  * features for any single data point.
  *
+ * If the filters can be compiled, the specification is saved in ALOE's binary
+ * artifact format: the compiled filters (formats, regexes, vocabularies, and
+ * term statistics), followed by the Java serialized filters. Loading such a
+ * file only reads the compiled filters; the Weka filters are deserialized
+ * when they are first asked for. Other specifications are saved with Java
+ * serialization alone, and files written that way still load.
+ *
  * @author Michael Brooks <mjbrooks@uw.edu>
  */
 public class FeatureSpecification implements Loading, Saving {
 
+    private static final int VERSION = 1;
     private List<Filter> filters = new ArrayList<Filter>();
+    //The filters' serialized bytes, until they are deserialized
+    private ByteBuffer serializedFilters;
+    private CompiledFilterChain compiledFilters;
 
     @Override
-    public boolean load(InputStream source) throws InvalidObjectException {
+    public synchronized boolean load(InputStream source) throws InvalidObjectException {
         try {
-            ObjectInputStream in = new ObjectInputStream(source);
-            filters = (List<Filter>) in.readObject();
+            ByteBuffer buffer = BinaryArtifact.read(source);
+            if (BinaryArtifact.readHeader(buffer, BinaryArtifact.FEATURE_SPECIFICATION, VERSION) == 0) {
+                filters = readFilters(buffer);
+                serializedFilters = null;
+                compiledFilters = null;
+                return true;
+            }
+
+            compiledFilters = CompiledFilterChain.read(buffer);
+            serializedFilters = buffer.slice();
+            filters = null;
             return true;
+        } catch (BufferUnderflowException e) {
+            throw new InvalidObjectException("Feature specification file is truncated");
+        } catch (InvalidObjectException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new InvalidObjectException(e.getMessage());
+        }
+    }
+
+    private static List<Filter> readFilters(ByteBuffer buffer) throws InvalidObjectException {
+        try {
+            ObjectInputStream in = new ObjectInputStream(BinaryArtifact.asStream(buffer));
+            return (List<Filter>) in.readObject();
         } catch (ClassNotFoundException e) {
             throw new InvalidObjectException(e.getMessage());
         } catch (IOException e) {
@@ -54,9 +91,20 @@ public class FeatureSpecification implements Loading, Saving {
     }
 
     @Override
-    public boolean save(OutputStream destination) throws IOException {
+    public synchronized boolean save(OutputStream destination) throws IOException {
+        List<Filter> filters = getFilters();
+
+        BinaryArtifact.Writer writer = new BinaryArtifact.Writer(BinaryArtifact.FEATURE_SPECIFICATION, VERSION);
+        try {
+            getCompiledFilters().write(writer);
+            writer.writeTo(destination);
+        } catch (IllegalArgumentException e) {
+            //Filters that can't be compiled are saved on their own
+        }
+
         ObjectOutputStream out = new ObjectOutputStream(destination);
         out.writeObject(filters);
+        out.flush();
         return true;
     }
 
@@ -65,16 +113,44 @@ public class FeatureSpecification implements Loading, Saving {
      *
      * @param filter
      */
-    public void addFilter(Filter filter) {
-        this.filters.add(filter);
+    public synchronized void addFilter(Filter filter) {
+        getFilters().add(filter);
+        compiledFilters = null;
     }
 
     /**
-     * Get the list of filters in this spec.
+     * Get the list of filters in this spec, deserializing them if they
+     * haven't been yet.
      *
      * @return
+     * @throws IllegalStateException If the filters in the specification file
+     * can't be read.
      */
-    public List<Filter> getFilters() {
+    public synchronized List<Filter> getFilters() {
+        if (filters == null) {
+            try {
+                filters = readFilters(serializedFilters.duplicate());
+                serializedFilters = null;
+            } catch (InvalidObjectException e) {
+                throw new IllegalStateException("Could not read the filters: " + e.getMessage(), e);
+            }
+        }
         return filters;
     }
+
+    /**
+     * Get the filters compiled for the basic example format. Filters read
+     * from a binary specification are already compiled; others are compiled
+     * on each call.
+     *
+     * @return
+     * @throws IllegalArgumentException if the filters can't be compiled.
+     */
+    public synchronized CompiledFilterChain getCompiledFilters() {
+        if (compiledFilters != null) {
+            return compiledFilters;
+        }
+        Instances basicFormat = new SegmentSet().getBasicExamples().getInstances();
+        return CompiledFilterChain.compile(basicFormat, getFilters());
+    }
 }
@@ -0,0 +1,130 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.data;
+
+import java.util.Arrays;
+import weka.core.Instance;
+import weka.core.SparseInstance;
+
+/**
+ * A sparse vector of feature values, stored as parallel arrays of attribute
+ * indices and values. The arrays are reused when the vector is cleared, so one
+ * vector can hold the features of many examples in turn without allocating.
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public final class FeatureVector {
+
+    private static final int INITIAL_CAPACITY = 64;
+    private int[] indices = new int[INITIAL_CAPACITY];
+    private double[] values = new double[INITIAL_CAPACITY];
+    private int size = 0;
+    private int numAttributes = 0;
+
+    /**
+     * Remove all values and set the number of attributes.
+     *
+     * @param numAttributes
+     */
+    public void clear(int numAttributes) {
+        this.size = 0;
+        this.numAttributes = numAttributes;
+    }
+
+    /**
+     * Append a value. Indices must be added in increasing order. Zeros are
+     * stored if they are added.
+     *
+     * @param index
+     * @param value
+     */
+    public void add(int index, double value) {
+        if (index < 0 || index >= numAttributes || (size > 0 && index <= indices[size - 1])) {
+            throw new IllegalArgumentException("Index " + index + " out of order");
+        }
+
+        if (size == indices.length) {
+            indices = Arrays.copyOf(indices, 2 * size);
+            values = Arrays.copyOf(values, 2 * size);
+        }
+        indices[size] = index;
+        values[size] = value;
+        size++;
+    }
+
+    /**
+     * Get the number of stored values.
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the attribute index of the kth stored value.
+     *
+     * @param k
+     * @return
+     */
+    public int index(int k) {
+        return indices[k];
+    }
+
+    /**
+     * Get the kth stored value.
+     *
+     * @param k
+     * @return
+     */
+    public double value(int k) {
+        return values[k];
+    }
+
+    /**
+     * Get the number of attributes the vector has values for.
+     *
+     * @return
+     */
+    public int numAttributes() {
+        return numAttributes;
+    }
+
+    /**
+     * Get the value of an attribute, which is 0 if it is not stored.
+     *
+     * @param attributeIndex
+     * @return
+     */
+    public double get(int attributeIndex) {
+        int k = Arrays.binarySearch(indices, 0, size, attributeIndex);
+        return k < 0 ? 0 : values[k];
+    }
+
+    /**
+     * Create a Weka instance with a copy of the stored values. Like any sparse
+     * instance built from arrays, it leaves out stored zeros.
+     *
+     * @param weight
+     * @return
+     */
+    public Instance toInstance(double weight) {
+        return new SparseInstance(weight, Arrays.copyOf(values, size), Arrays.copyOf(indices, size), numAttributes);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.data;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * A Featurizer extracts features from segments directly, producing the same
+ * values as applying a feature specification's filters to the segments' basic
+ * examples. Implementations are immutable and may be shared by threads.
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public interface Featurizer {
+
+    /**
+     * Extract features for every segment in the set.
+     *
+     * @param segments
+     * @return One example per segment, in order.
+     */
+    ExampleSet extractFeatures(SegmentSet segments);
+
+    /**
+     * Extract the features of a segment into a vector.
+     *
+     * @param segment
+     * @param features The vector to fill. Its previous values are removed.
+     */
+    void featurize(Segment segment, FeatureVector features);
+
+    /**
+     * Extract the features of an unlabeled segment from its raw text and
+     * timing.
+     *
+     * @param text The segment's messages, joined with spaces.
+     * @param durationSeconds The segment duration, as computed by Segment.
+     * @param numMessages The number of messages in the segment.
+     * @param features The vector to fill. Its previous values are removed.
+     */
+    void featurize(String text, double durationSeconds, int numMessages, FeatureVector features);
+
+    /**
+     * Create an instance from a feature vector, with the extracted feature
+     * attributes as its dataset.
+     *
+     * @param features
+     * @return
+     */
+    Instance toInstance(FeatureVector features);
+
+    /**
+     * Get an empty data set with the extracted feature attributes.
+     *
+     * @return
+     */
+    Instances getOutputFormat();
+}
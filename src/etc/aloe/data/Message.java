@@ -23,18 +23,16 @@ import java.util.Date;
 /**
  * Stores messages with id, participant, timestamp, and (optionally) labels.
  *
+ * A message is a view of one row in a column store. Messages constructed
+ * directly get a store of their own, and are moved into a MessageSet's
+ * store when added to the set.
+ *
  * @author Michael Brooks <mjbrooks@uw.edu>
  */
 public class Message implements Comparable<Message>, LabelableItem {
 
-    private final int id;
-    private final Date timestamp;
-    private final String participant;
-    private final String message;
-    private Boolean trueLabel;
-    private Boolean predictedLabel = null;
-    private Double predictionConfidence = Double.NaN;
-    private int segmentId = -1;
+    private MessageColumns columns;
+    private int row;
 
     /**
      * Construct a new un-labeled message.
@@ -112,13 +110,40 @@ public class Message implements Comparable<Message>, LabelableItem {
             Boolean predictedLabel,
             int segmentId) {
 
-        this.id = id;
-        this.timestamp = timestamp;
-        this.participant = participant;
-        this.message = message;
-        this.trueLabel = trueLabel;
-        this.predictedLabel = predictedLabel;
-        this.segmentId = segmentId;
+        this.columns = new MessageColumns(1);
+        this.row = columns.add(id, timestamp.getTime(), participant, message,
+                trueLabel, predictedLabel, Double.NaN, segmentId);
+    }
+
+    /**
+     * Construct a view of a stored message.
+     *
+     * @param columns
+     * @param row
+     */
+    Message(MessageColumns columns, int row) {
+        this.columns = columns;
+        this.row = row;
+    }
+
+    MessageColumns getColumns() {
+        return columns;
+    }
+
+    int getRow() {
+        return row;
+    }
+
+    /**
+     * Point this message at a different row, after its values have been
+     * copied there.
+     *
+     * @param columns
+     * @param row
+     */
+    void moveTo(MessageColumns columns, int row) {
+        this.columns = columns;
+        this.row = row;
     }
 
     /**
@@ -127,7 +152,7 @@ public class Message implements Comparable<Message>, LabelableItem {
      * @return
      */
     public int getId() {
-        return id;
+        return columns.getId(row);
     }
 
     /**
@@ -136,7 +161,7 @@ public class Message implements Comparable<Message>, LabelableItem {
      * @return
      */
     public String getMessage() {
-        return message;
+        return columns.getText(row);
     }
 
     /**
@@ -145,7 +170,16 @@ public class Message implements Comparable<Message>, LabelableItem {
      * @return
      */
     public Date getTimestamp() {
-        return timestamp;
+        return new Date(columns.getTimestamp(row));
+    }
+
+    /**
+     * Get the time the message occurred, in milliseconds since the epoch.
+     *
+     * @return
+     */
+    public long getTimestampMillis() {
+        return columns.getTimestamp(row);
     }
 
     /**
@@ -154,57 +188,59 @@ public class Message implements Comparable<Message>, LabelableItem {
      * @return
      */
     public String getParticipant() {
-        return participant;
+        return columns.getParticipant(row);
     }
 
     @Override
     public Boolean getTrueLabel() {
-        return trueLabel;
+        return columns.getTrueLabel(row);
     }
 
     @Override
     public void setTrueLabel(Boolean truth) {
-        this.trueLabel = truth;
+        columns.setTrueLabel(row, truth);
     }
 
     @Override
     public boolean hasTrueLabel() {
-        return trueLabel != null;
+        return columns.hasTrueLabel(row);
     }
 
     @Override
     public Boolean getPredictedLabel() {
-        return predictedLabel;
+        return columns.getPredictedLabel(row);
     }
 
     @Override
     public void setPredictedLabel(Boolean prediction) {
-        this.predictedLabel = prediction;
+        columns.setPredictedLabel(row, prediction);
     }
 
     @Override
     public boolean hasPredictedLabel() {
-        return predictedLabel != null;
+        return columns.hasPredictedLabel(row);
     }
 
     @Override
     public Double getPredictionConfidence() {
-        return predictionConfidence;
+        return columns.getConfidence(row);
     }
 
     @Override
     public void setPredictionConfidence(Double predictionConfidence) {
-        this.predictionConfidence = predictionConfidence;
+        columns.setConfidence(row, predictionConfidence);
     }
 
     @Override
     public boolean hasPredictionConfidence() {
-        return predictionConfidence != null;
+        return columns.hasConfidence(row);
     }
 
     @Override
     public int compareTo(Message o) {
-        return getTimestamp().compareTo(o.getTimestamp());
+        long thisTime = getTimestampMillis();
+        long otherTime = o.getTimestampMillis();
+        return thisTime < otherTime ? -1 : (thisTime == otherTime ? 0 : 1);
     }
 
     /**
@@ -214,7 +250,7 @@ public class Message implements Comparable<Message>, LabelableItem {
      * @return
      */
     public int getSegmentId() {
-        return segmentId;
+        return columns.getSegmentId(row);
     }
 
     /**
@@ -223,7 +259,7 @@ public class Message implements Comparable<Message>, LabelableItem {
      * @return
      */
     public boolean hasSegmentId() {
-        return segmentId != -1;
+        return columns.getSegmentId(row) != -1;
     }
 
     /**
@@ -232,6 +268,26 @@ public class Message implements Comparable<Message>, LabelableItem {
      * @param segId
      */
     public void setSegmentId(int segId) {
-        this.segmentId = segId;
+        columns.setSegmentId(row, segId);
+    }
+
+    /**
+     * Two messages are equal if they are views of the same stored message.
+     *
+     * @param obj
+     * @return
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof Message)) {
+            return false;
+        }
+        Message other = (Message) obj;
+        return columns == other.columns && row == other.row;
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(columns) * 31 + row;
     }
 }
@@ -0,0 +1,331 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Column storage for messages. Each message is a row, and each field is held
+ * in a primitive array: timestamps as epoch milliseconds, participants as
+ * indexes into a dictionary of names, and the optional labels as bit sets.
+ *
+ * Rows can only be appended. A Message is a view of one row.
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+final class MessageColumns {
+
+    private static final int MIN_CAPACITY = 16;
+    private int size;
+    private int[] ids;
+    private long[] timestamps;
+    private int[] participants;
+    private String[] texts;
+    private long[] hasTrueLabel;
+    private long[] trueLabels;
+    private long[] hasPredictedLabel;
+    private long[] predictedLabels;
+    private long[] hasConfidence;
+    private double[] confidences;
+    private int[] segmentIds;
+    private final List<String> participantNames = new ArrayList<String>();
+    private final Map<String, Integer> participantCodes = new HashMap<String, Integer>();
+
+    /**
+     * Construct empty storage with room for the given number of rows.
+     *
+     * @param capacity
+     */
+    MessageColumns(int capacity) {
+        allocate(Math.max(1, capacity));
+    }
+
+    /**
+     * Construct storage from complete column arrays. Confidences are set to
+     * NaN, as for freshly loaded messages.
+     */
+    MessageColumns(int size, int[] ids, long[] timestamps, int[] participants, List<String> participantNames,
+            String[] texts, long[] hasTrueLabel, long[] trueLabels, long[] hasPredictedLabel, long[] predictedLabels,
+            int[] segmentIds) {
+        this.size = size;
+        this.ids = ids;
+        this.timestamps = timestamps;
+        this.participants = participants;
+        this.texts = texts;
+        this.hasTrueLabel = hasTrueLabel;
+        this.trueLabels = trueLabels;
+        this.hasPredictedLabel = hasPredictedLabel;
+        this.predictedLabels = predictedLabels;
+        this.segmentIds = segmentIds;
+        this.confidences = new double[ids.length];
+        Arrays.fill(confidences, Double.NaN);
+        this.hasConfidence = new long[hasTrueLabel.length];
+        for (int row = 0; row < size; row++) {
+            setBit(hasConfidence, row, true);
+        }
+        for (String participant : participantNames) {
+            encodeParticipant(participant);
+        }
+    }
+
+    private void allocate(int capacity) {
+        int words = (capacity + 63) >>> 6;
+        if (ids == null) {
+            ids = new int[capacity];
+            timestamps = new long[capacity];
+            participants = new int[capacity];
+            texts = new String[capacity];
+            confidences = new double[capacity];
+            segmentIds = new int[capacity];
+            hasTrueLabel = new long[words];
+            trueLabels = new long[words];
+            hasPredictedLabel = new long[words];
+            predictedLabels = new long[words];
+            hasConfidence = new long[words];
+        } else {
+            ids = Arrays.copyOf(ids, capacity);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            participants = Arrays.copyOf(participants, capacity);
+            texts = Arrays.copyOf(texts, capacity);
+            confidences = Arrays.copyOf(confidences, capacity);
+            segmentIds = Arrays.copyOf(segmentIds, capacity);
+            hasTrueLabel = Arrays.copyOf(hasTrueLabel, words);
+            trueLabels = Arrays.copyOf(trueLabels, words);
+            hasPredictedLabel = Arrays.copyOf(hasPredictedLabel, words);
+            predictedLabels = Arrays.copyOf(predictedLabels, words);
+            hasConfidence = Arrays.copyOf(hasConfidence, words);
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > ids.length) {
+            allocate(Math.max(capacity, Math.max(MIN_CAPACITY, ids.length + (ids.length >> 1))));
+        }
+    }
+
+    /**
+     * Get the number of rows.
+     *
+     * @return
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * True if another row can be added without growing the arrays.
+     *
+     * @return
+     */
+    boolean isFull() {
+        return size == ids.length;
+    }
+
+    /**
+     * Throw IndexOutOfBoundsException if the row does not exist.
+     *
+     * @param row
+     */
+    void checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Index: " + row + ", Size: " + size);
+        }
+    }
+
+    /**
+     * Append a row.
+     *
+     * @return The new row's index.
+     */
+    int add(int id, long timestamp, String participant, String text,
+            Boolean trueLabel, Boolean predictedLabel, Double confidence, int segmentId) {
+        ensureCapacity(size + 1);
+        int row = size++;
+        ids[row] = id;
+        timestamps[row] = timestamp;
+        participants[row] = encodeParticipant(participant);
+        texts[row] = text;
+        setTrueLabel(row, trueLabel);
+        setPredictedLabel(row, predictedLabel);
+        setConfidence(row, confidence);
+        segmentIds[row] = segmentId;
+        return row;
+    }
+
+    /**
+     * Append a copy of a row from other storage.
+     *
+     * @return The new row's index.
+     */
+    int add(MessageColumns source, int sourceRow) {
+        return add(source.ids[sourceRow], source.timestamps[sourceRow],
+                source.getParticipant(sourceRow), source.texts[sourceRow],
+                source.getTrueLabel(sourceRow), source.getPredictedLabel(sourceRow),
+                source.getConfidence(sourceRow), source.segmentIds[sourceRow]);
+    }
+
+    /**
+     * Append copies of all of the rows from other storage.
+     *
+     * @param source
+     */
+    void addAll(MessageColumns source) {
+        ensureCapacity(size + source.size);
+
+        int[] codes = new int[source.participantNames.size()];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = encodeParticipant(source.participantNames.get(i));
+        }
+
+        System.arraycopy(source.ids, 0, ids, size, source.size);
+        System.arraycopy(source.timestamps, 0, timestamps, size, source.size);
+        System.arraycopy(source.texts, 0, texts, size, source.size);
+        System.arraycopy(source.confidences, 0, confidences, size, source.size);
+        System.arraycopy(source.segmentIds, 0, segmentIds, size, source.size);
+        for (int i = 0; i < source.size; i++) {
+            int row = size + i;
+            participants[row] = codes[source.participants[i]];
+            setBit(hasTrueLabel, row, getBit(source.hasTrueLabel, i));
+            setBit(trueLabels, row, getBit(source.trueLabels, i));
+            setBit(hasPredictedLabel, row, getBit(source.hasPredictedLabel, i));
+            setBit(predictedLabels, row, getBit(source.predictedLabels, i));
+            setBit(hasConfidence, row, getBit(source.hasConfidence, i));
+        }
+        size += source.size;
+    }
+
+    private int encodeParticipant(String participant) {
+        Integer code = participantCodes.get(participant);
+        if (code == null) {
+            code = participantNames.size();
+            participantNames.add(participant);
+            participantCodes.put(participant, code);
+        }
+        return code;
+    }
+
+    int getId(int row) {
+        return ids[row];
+    }
+
+    long getTimestamp(int row) {
+        return timestamps[row];
+    }
+
+    String getParticipant(int row) {
+        return participantNames.get(participants[row]);
+    }
+
+    /**
+     * Get the dictionary code of the row's participant. Rows with equal
+     * participant names have equal codes.
+     *
+     * @param row
+     * @return
+     */
+    int getParticipantCode(int row) {
+        return participants[row];
+    }
+
+    /**
+     * Get the number of distinct participant names.
+     *
+     * @return
+     */
+    int getParticipantCount() {
+        return participantNames.size();
+    }
+
+    /**
+     * Get the participant name for a dictionary code.
+     *
+     * @param code
+     * @return
+     */
+    String getParticipantName(int code) {
+        return participantNames.get(code);
+    }
+
+    String getText(int row) {
+        return texts[row];
+    }
+
+    Boolean getTrueLabel(int row) {
+        return getBit(hasTrueLabel, row) ? Boolean.valueOf(getBit(trueLabels, row)) : null;
+    }
+
+    boolean hasTrueLabel(int row) {
+        return getBit(hasTrueLabel, row);
+    }
+
+    void setTrueLabel(int row, Boolean label) {
+        setBit(hasTrueLabel, row, label != null);
+        setBit(trueLabels, row, label != null && label);
+    }
+
+    Boolean getPredictedLabel(int row) {
+        return getBit(hasPredictedLabel, row) ? Boolean.valueOf(getBit(predictedLabels, row)) : null;
+    }
+
+    boolean hasPredictedLabel(int row) {
+        return getBit(hasPredictedLabel, row);
+    }
+
+    void setPredictedLabel(int row, Boolean label) {
+        setBit(hasPredictedLabel, row, label != null);
+        setBit(predictedLabels, row, label != null && label);
+    }
+
+    Double getConfidence(int row) {
+        return getBit(hasConfidence, row) ? Double.valueOf(confidences[row]) : null;
+    }
+
+    boolean hasConfidence(int row) {
+        return getBit(hasConfidence, row);
+    }
+
+    void setConfidence(int row, Double confidence) {
+        setBit(hasConfidence, row, confidence != null);
+        confidences[row] = confidence != null ? confidence : Double.NaN;
+    }
+
+    int getSegmentId(int row) {
+        return segmentIds[row];
+    }
+
+    void setSegmentId(int row, int segmentId) {
+        segmentIds[row] = segmentId;
+    }
+
+    private static boolean getBit(long[] bits, int row) {
+        return (bits[row >>> 6] & (1L << row)) != 0;
+    }
+
+    private static void setBit(long[] bits, int row, boolean value) {
+        if (value) {
+            bits[row >>> 6] |= 1L << row;
+        } else {
+            bits[row >>> 6] &= ~(1L << row);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.data;
+
+import com.csvreader.CsvReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidObjectException;
+import java.nio.charset.Charset;
+import java.text.DateFormat;
+
+/**
+ * Reads messages one row at a time from a CSV source in the format used by
+ * MessageSet. Useful when the whole message set should not be held in memory.
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public class MessageReader {
+
+    private final CsvReader csvReader;
+    private final DateFormat dateFormat;
+    private final MessageRowParser rowParser;
+    private static final int BLOCK_SIZE = 512;
+    private MessageColumns block = new MessageColumns(BLOCK_SIZE);
+    private int lineNumber = 1;
+    private int numRead = 0;
+    private int numLabeled = 0;
+
+    /**
+     * Construct a reader for the given source. The CSV headers are read and
+     * validated immediately.
+     *
+     * @param source
+     * @param dateFormat The format used to parse timestamps.
+     * @param charset
+     * @throws InvalidObjectException If the headers are invalid.
+     */
+    public MessageReader(InputStream source, DateFormat dateFormat, Charset charset) throws InvalidObjectException {
+        if (dateFormat == null) {
+            throw new IllegalStateException("No date format provided.");
+        }
+
+        this.dateFormat = dateFormat;
+        this.csvReader = new CsvReader(source, charset);
+
+        String[] headers = readCSVHeaders();
+        MessageRowParser.validateHeaders(headers);
+        this.rowParser = new MessageRowParser(headers);
+    }
+
+    /**
+     * Reads the headers from the first row.
+     *
+     * @return
+     * @throws InvalidObjectException
+     */
+    private String[] readCSVHeaders() throws InvalidObjectException {
+        try {
+            if (!csvReader.readHeaders()) {
+                throw new InvalidObjectException("CSV must contain headers in the first row");
+            }
+            return csvReader.getHeaders();
+        } catch (IOException e) {
+            throw new InvalidObjectException(e.getMessage());
+        }
+    }
+
+    /**
+     * Read the next message from the source.
+     *
+     * @return The next message, or null if there are no more rows.
+     * @throws InvalidObjectException If the row contains an invalid value.
+     * @throws IOException
+     */
+    public Message read() throws IOException {
+        if (!csvReader.readRecord()) {
+            return null;
+        }
+        lineNumber++;
+
+        //Messages are stored in fixed-size blocks that are never grown, so
+        //earlier messages can be handed to other threads safely
+        if (block.isFull()) {
+            block = new MessageColumns(BLOCK_SIZE);
+        }
+
+        Message message;
+        try {
+            int row = rowParser.parse(csvReader.getValues(), csvReader.getColumnCount(), dateFormat, block);
+            message = new Message(block, row);
+        } catch (InvalidObjectException e) {
+            throw new InvalidObjectException(e.getMessage() + " on line " + lineNumber);
+        }
+
+        if (message.hasTrueLabel()) {
+            numLabeled++;
+        }
+        numRead++;
+        return message;
+    }
+
+    /**
+     * Get the number of messages read so far.
+     *
+     * @return
+     */
+    public int getNumRead() {
+        return numRead;
+    }
+
+    /**
+     * Get the number of messages read so far that had a true label.
+     *
+     * @return
+     */
+    public int getNumLabeled() {
+        return numLabeled;
+    }
+
+    /**
+     * Close the underlying CSV reader.
+     */
+    public void close() {
+        csvReader.close();
+    }
+}
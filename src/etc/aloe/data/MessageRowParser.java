@@ -0,0 +1,177 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.data;
+
+import java.io.InvalidObjectException;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Converts CSV rows into messages. Column positions are resolved once from the
+ * header row, so the same parser can be used for every row of a file.
+ *
+ * Errors are reported without a line number, since the caller knows where the
+ * row came from.
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+class MessageRowParser {
+
+    private final int idIndex;
+    private final int timeIndex;
+    private final int participantIndex;
+    private final int messageIndex;
+    private final int truthIndex;
+    private final int predictionIndex;
+    private final int segmentIndex;
+
+    /**
+     * Construct a parser for rows with the given (already validated) headers.
+     *
+     * @param headers
+     */
+    MessageRowParser(String[] headers) {
+        List<String> headerList = Arrays.asList(headers);
+
+        //If a header is repeated, the last one is used (as in CsvReader)
+        idIndex = headerList.lastIndexOf(MessageSet.ID_COLUMN_NAME);
+        timeIndex = headerList.lastIndexOf(MessageSet.TIME_COLUMN_NAME);
+        participantIndex = headerList.lastIndexOf(MessageSet.PARTICIPANT_COLUMN_NAME);
+        messageIndex = headerList.lastIndexOf(MessageSet.MESSAGE_COLUMN_NAME);
+        truthIndex = headerList.lastIndexOf(MessageSet.TRUTH_COLUMN_NAME);
+        predictionIndex = headerList.lastIndexOf(MessageSet.PREDICTION_COLUMN_NAME);
+        segmentIndex = headerList.lastIndexOf(MessageSet.SEGMENT_COLUMN_NAME);
+    }
+
+    /**
+     * Makes sure that the csv headers contain the minimum required fields.
+     *
+     * @param headers
+     * @throws InvalidObjectException
+     */
+    static void validateHeaders(String[] headers) throws InvalidObjectException {
+        if (headers.length < MessageSet.MIN_INPUT_COLUMNS) {
+            throw new InvalidObjectException("CSV must contain at least " + (MessageSet.MIN_INPUT_COLUMNS) + " columns");
+        }
+
+        if (headers.length > MessageSet.NUM_OUTPUT_COLUMNS) {
+            throw new InvalidObjectException("CSV must contain no more than " + (MessageSet.NUM_OUTPUT_COLUMNS) + " columns");
+        }
+
+        List<String> headerList = Arrays.asList(headers);
+        if (!headerList.contains(MessageSet.ID_COLUMN_NAME)) {
+            throw new InvalidObjectException("'" + MessageSet.ID_COLUMN_NAME + "' column must be present.");
+        }
+
+        if (!headerList.contains(MessageSet.TIME_COLUMN_NAME)) {
+            throw new InvalidObjectException("'" + MessageSet.TIME_COLUMN_NAME + "' column must be present.");
+        }
+
+        if (!headerList.contains(MessageSet.PARTICIPANT_COLUMN_NAME)) {
+            throw new InvalidObjectException("'" + MessageSet.PARTICIPANT_COLUMN_NAME + "' column must be present.");
+        }
+
+        if (!headerList.contains(MessageSet.MESSAGE_COLUMN_NAME)) {
+            throw new InvalidObjectException("'" + MessageSet.MESSAGE_COLUMN_NAME + "' column must be present.");
+        }
+    }
+
+    /**
+     * Get a field from the row, or the empty string if the row is too short or
+     * the column is not present.
+     */
+    private static String get(String[] fields, int numFields, int index) {
+        if (index < 0 || index >= numFields) {
+            return "";
+        }
+        return fields[index];
+    }
+
+    /**
+     * Convert a row into a message, appending it to the column storage.
+     *
+     * @param fields The row values.
+     * @param numFields The number of values in the row.
+     * @param dateFormat The format used to parse the timestamp.
+     * @param columns The storage to add the message to.
+     * @return The message's row in the storage.
+     * @throws InvalidObjectException If the row contains an invalid value.
+     */
+    int parse(String[] fields, int numFields, DateFormat dateFormat, MessageColumns columns) throws InvalidObjectException {
+        String idText = get(fields, numFields, idIndex);
+        String messageText = get(fields, numFields, messageIndex);
+        String participant = get(fields, numFields, participantIndex);
+        String timeText = get(fields, numFields, timeIndex);
+        String truthText = get(fields, numFields, truthIndex).toLowerCase();
+        String predictionText = get(fields, numFields, predictionIndex).toLowerCase();
+        String segmentIdText = get(fields, numFields, segmentIndex).toLowerCase();
+
+        int id = -1;
+        try {
+            id = Integer.parseInt(idText);
+        } catch (NumberFormatException e) {
+            throw new InvalidObjectException("Invalid value '" + idText + "' for '" + MessageSet.ID_COLUMN_NAME + "'");
+        }
+
+        Date time = null;
+        try {
+            time = dateFormat.parse(timeText);
+        } catch (ParseException e) {
+            throw new InvalidObjectException("Invalid value '" + timeText + "' for '" + MessageSet.TIME_COLUMN_NAME + "'");
+        }
+
+        Boolean truth = null;
+        if (truthText.equals("1") || truthText.equals("true")) {
+            truth = true;
+        } else if (truthText.equals("0") || truthText.equals("false")) {
+            truth = false;
+        } else if (truthText.equals("")) {
+            truth = null;
+        } else {
+            throw new InvalidObjectException("Invalid value '" + truthText + "' for '" + MessageSet.TRUTH_COLUMN_NAME + "'");
+        }
+
+        Boolean prediction = null;
+        if (predictionText.equals("1") || predictionText.equals("true")) {
+            prediction = true;
+        } else if (predictionText.equals("0") || predictionText.equals("false")) {
+            prediction = false;
+        } else if (predictionText.equals("")) {
+            prediction = null;
+        } else {
+            throw new InvalidObjectException("Invalid value '" + predictionText + "' for '" + MessageSet.PREDICTION_COLUMN_NAME + "'");
+        }
+
+        int segment = -1;
+        if (segmentIdText.equals("")) {
+            segment = -1;
+        } else {
+            try {
+                segment = Integer.parseInt(segmentIdText);
+            } catch (NumberFormatException e) {
+                throw new InvalidObjectException("Invalid value '" + segmentIdText + "' for '" + MessageSet.SEGMENT_COLUMN_NAME + "'");
+            }
+        }
+
+        return columns.add(id, time.getTime(), participant, messageText, truth, prediction, Double.NaN, segment);
+    }
+}
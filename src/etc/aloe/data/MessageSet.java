@@ -18,60 +18,65 @@
  */
 package etc.aloe.data;
 
-import com.csvreader.CsvReader;
-import com.csvreader.CsvWriter;
 import etc.aloe.processes.Loading;
 import etc.aloe.processes.Saving;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InvalidObjectException;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.text.DateFormat;
-import java.text.ParseException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Date;
+import java.util.AbstractList;
 import java.util.List;
+import java.util.RandomAccess;
 
 /**
  * MessageSet contains messages.
  *
+ * The messages are stored by column in primitive arrays rather than as
+ * separate objects. Messages returned by the set are views of its storage,
+ * so changing their labels or segment ids changes the set.
+ *
  * @author Michael Brooks <mjbrooks@uw.edu>
  */
 public class MessageSet implements Loading, Saving {
 
-    private List<Message> messages = new ArrayList<Message>();
-    private static final int ID_COLUMN = 0;
-    private static final int TIME_COLUMN = 1;
-    private static final int PARTICIPANT_COLUMN = 2;
-    private static final int MESSAGE_COLUMN = 3;
-    private static final int TRUTH_COLUMN = 4;
-    private static final int PREDICTION_COLUMN = 5;
-    private static final int SEGMENT_COLUMN = 6;
-    private static final int MIN_INPUT_COLUMNS = 4;
-    private static final int NUM_OUTPUT_COLUMNS = 7;
-    private static final String ID_COLUMN_NAME = "id";
-    private static final String TIME_COLUMN_NAME = "time";
-    private static final String PARTICIPANT_COLUMN_NAME = "participant";
-    private static final String MESSAGE_COLUMN_NAME = "message";
-    private static final String TRUTH_COLUMN_NAME = "truth";
-    private static final String PREDICTION_COLUMN_NAME = "predicted";
-    private static final String SEGMENT_COLUMN_NAME = "segment";
+    private MessageColumns columns = new MessageColumns(16);
+    private final List<Message> messages = new MessageList();
+    static final int ID_COLUMN = 0;
+    static final int TIME_COLUMN = 1;
+    static final int PARTICIPANT_COLUMN = 2;
+    static final int MESSAGE_COLUMN = 3;
+    static final int TRUTH_COLUMN = 4;
+    static final int PREDICTION_COLUMN = 5;
+    static final int SEGMENT_COLUMN = 6;
+    static final int MIN_INPUT_COLUMNS = 4;
+    static final int NUM_OUTPUT_COLUMNS = 7;
+    static final String ID_COLUMN_NAME = "id";
+    static final String TIME_COLUMN_NAME = "time";
+    static final String PARTICIPANT_COLUMN_NAME = "participant";
+    static final String MESSAGE_COLUMN_NAME = "message";
+    static final String TRUTH_COLUMN_NAME = "truth";
+    static final String PREDICTION_COLUMN_NAME = "predicted";
+    static final String SEGMENT_COLUMN_NAME = "segment";
     private DateFormat dateFormat;
     private Charset charset = Charset.forName("UTF-8");
 
     /**
-     * Add a message to the set.
+     * Add a message to the set. The message's values are copied into the
+     * set, and the message becomes a view of the copy.
      *
      * @param message
      */
     public void add(Message message) {
-        messages.add(message);
+        int row = columns.add(message.getColumns(), message.getRow());
+        message.moveTo(columns, row);
     }
 
     /**
-     * Get the underlying list of messages.
+     * Get a list view of the messages. Adding to the list adds to the set.
      *
      * @return
      */
@@ -80,127 +85,50 @@ public class MessageSet implements Loading, Saving {
     }
 
     /**
-     * Makes sure that the csv headers contain the minimum required fields.
+     * Load messages from a CSV source. File sources are memory-mapped and
+     * parsed in parallel.
      *
-     * @param csvReader
+     * @param source
+     * @return
      * @throws InvalidObjectException
      */
-    private void validateCSVHeaders(CsvReader csvReader) throws InvalidObjectException {
-
-        String[] headers = null;
-        try {
-            if (!csvReader.readHeaders()) {
-                throw new InvalidObjectException("CSV must contain headers in the first row");
-            }
-            headers = csvReader.getHeaders();
-        } catch (IOException e) {
-            throw new InvalidObjectException(e.getMessage());
-        }
-
-        if (headers.length < MIN_INPUT_COLUMNS) {
-            throw new InvalidObjectException("CSV must contain at least " + (MIN_INPUT_COLUMNS) + " columns");
+    @Override
+    public boolean load(InputStream source) throws InvalidObjectException {
+        if (source instanceof FileInputStream) {
+            return loadFile(((FileInputStream) source).getChannel());
         }
 
-        if (headers.length > NUM_OUTPUT_COLUMNS) {
-            throw new InvalidObjectException("CSV must contain no more than " + (NUM_OUTPUT_COLUMNS) + " columns");
-        }
+        MessageReader reader = new MessageReader(source, dateFormat, charset);
 
-        List<String> headerList = Arrays.asList(headers);
-        if (!headerList.contains(ID_COLUMN_NAME)) {
-            throw new InvalidObjectException("'" + ID_COLUMN_NAME + "' column must be present.");
-        }
+        try {
+            Message message;
+            while ((message = reader.read()) != null) {
+                this.add(message);
+            }
 
-        if (!headerList.contains(TIME_COLUMN_NAME)) {
-            throw new InvalidObjectException("'" + TIME_COLUMN_NAME + "' column must be present.");
-        }
+            System.out.println("Loaded " + this.size() + " raw messages (" + reader.getNumLabeled() + " labeled).");
 
-        if (!headerList.contains(PARTICIPANT_COLUMN_NAME)) {
-            throw new InvalidObjectException("'" + PARTICIPANT_COLUMN_NAME + "' column must be present.");
+        } catch (IOException ex) {
+            throw new InvalidObjectException(ex.getMessage());
         }
 
-        if (!headerList.contains(MESSAGE_COLUMN_NAME)) {
-            throw new InvalidObjectException("'" + MESSAGE_COLUMN_NAME + "' column must be present.");
-        }
+        return true;
     }
 
-    @Override
-    public boolean load(InputStream source) throws InvalidObjectException {
-        if (dateFormat == null) {
-            throw new IllegalStateException("No date format provided.");
-        }
-
-        CsvReader csvReader = new CsvReader(source, charset);
+    /**
+     * Load messages from a CSV file using a ParallelMessageLoader.
+     *
+     * @param channel
+     * @return
+     * @throws InvalidObjectException
+     */
+    private boolean loadFile(FileChannel channel) throws InvalidObjectException {
+        ParallelMessageLoader loader = new ParallelMessageLoader(dateFormat, charset);
 
         try {
-            validateCSVHeaders(csvReader);
-
-            int lineNumber = 1;
-            int numLabeled = 0;
-            while (csvReader.readRecord()) {
-                lineNumber++;
-
-                String idText = csvReader.get(ID_COLUMN_NAME);
-                String messageText = csvReader.get(MESSAGE_COLUMN_NAME);
-                String participant = csvReader.get(PARTICIPANT_COLUMN_NAME);
-                String timeText = csvReader.get(TIME_COLUMN_NAME);
-                String truthText = csvReader.get(TRUTH_COLUMN_NAME).toLowerCase();
-                String predictionText = csvReader.get(PREDICTION_COLUMN_NAME).toLowerCase();
-                String segmentIdText = csvReader.get(SEGMENT_COLUMN_NAME).toLowerCase();
-
-                int id = -1;
-                try {
-                    id = Integer.parseInt(idText);
-                } catch (NumberFormatException e) {
-                    throw new InvalidObjectException("Invalid value '" + idText + "' for '" + ID_COLUMN_NAME + "' on line " + lineNumber);
-                }
-
-                Date time = null;
-                try {
-                    time = getDateFormat().parse(timeText);
-                } catch (ParseException e) {
-                    throw new InvalidObjectException("Invalid value '" + timeText + "' for '" + TIME_COLUMN_NAME + "' on line " + lineNumber);
-                }
-
-                Boolean truth = null;
-                if (truthText.equals("1") || truthText.equals("true")) {
-                    truth = true;
-                    numLabeled++;
-                } else if (truthText.equals("0") || truthText.equals("false")) {
-                    truth = false;
-                    numLabeled++;
-                } else if (truthText.equals("")) {
-                    truth = null;
-                } else {
-                    throw new InvalidObjectException("Invalid value '" + truthText + "' for '" + TRUTH_COLUMN_NAME + "' on line " + lineNumber);
-                }
-
-                Boolean prediction = null;
-                if (predictionText.equals("1") || predictionText.equals("true")) {
-                    prediction = true;
-                } else if (predictionText.equals("0") || predictionText.equals("false")) {
-                    prediction = false;
-                } else if (predictionText.equals("")) {
-                    prediction = null;
-                } else {
-                    throw new InvalidObjectException("Invalid value '" + predictionText + "' for '" + PREDICTION_COLUMN_NAME + "' on line " + lineNumber);
-                }
-
-                int segment = -1;
-                if (segmentIdText.equals("")) {
-                    segment = -1;
-                } else {
-                    try {
-                        segment = Integer.parseInt(segmentIdText);
-                    } catch (NumberFormatException e) {
-                        throw new InvalidObjectException("Invalid value '" + segmentIdText + "' for '" + SEGMENT_COLUMN_NAME + "' on line " + lineNumber);
-                    }
-                }
-
-                Message message = new Message(id, time, participant, messageText, truth, prediction, segment);
-                this.add(message);
-            }
+            addColumns(loader.loadColumns(channel));
 
-            System.out.println("Loaded " + this.size() + " raw messages (" + numLabeled + " labeled).");
+            System.out.println("Loaded " + this.size() + " raw messages (" + loader.getNumLabeled() + " labeled).");
 
         } catch (IOException ex) {
             throw new InvalidObjectException(ex.getMessage());
@@ -209,38 +137,37 @@ public class MessageSet implements Loading, Saving {
         return true;
     }
 
-    @Override
-    public boolean save(OutputStream destination) throws IOException {
-        if (dateFormat == null) {
-            throw new IllegalStateException("No date format provided.");
+    /**
+     * Add all of the messages in the column storage to the set.
+     *
+     * @param loaded
+     */
+    void addColumns(MessageColumns loaded) {
+        if (columns.size() == 0) {
+            columns = loaded;
+        } else {
+            columns.addAll(loaded);
         }
+    }
 
-        CsvWriter out = new CsvWriter(destination, ',', charset);
-
-        String[] row = new String[NUM_OUTPUT_COLUMNS];
-        row[ID_COLUMN] = ID_COLUMN_NAME;
-        row[PARTICIPANT_COLUMN] = PARTICIPANT_COLUMN_NAME;
-        row[TIME_COLUMN] = TIME_COLUMN_NAME;
-        row[MESSAGE_COLUMN] = MESSAGE_COLUMN_NAME;
-        row[TRUTH_COLUMN] = TRUTH_COLUMN_NAME;
-        row[PREDICTION_COLUMN] = PREDICTION_COLUMN_NAME;
-        row[SEGMENT_COLUMN] = SEGMENT_COLUMN_NAME;
+    /**
+     * Get the set's column storage.
+     *
+     * @return
+     */
+    MessageColumns getColumns() {
+        return columns;
+    }
 
-        out.writeRecord(row);
+    @Override
+    public boolean save(OutputStream destination) throws IOException {
+        MessageWriter writer = new MessageWriter(destination, dateFormat, charset);
 
         for (Message message : messages) {
-            row[ID_COLUMN] = Integer.toString(message.getId());
-            row[PARTICIPANT_COLUMN] = message.getParticipant();
-            row[TIME_COLUMN] = dateFormat.format(message.getTimestamp());
-            row[MESSAGE_COLUMN] = message.getMessage();
-            row[TRUTH_COLUMN] = message.hasTrueLabel() ? message.getTrueLabel().toString() : null;
-            row[PREDICTION_COLUMN] = message.hasPredictedLabel() ? message.getPredictedLabel().toString() : null;
-            row[SEGMENT_COLUMN] = message.hasSegmentId() ? Integer.toString(message.getSegmentId()) : null;
-
-            out.writeRecord(row);
+            writer.write(message);
         }
 
-        out.flush();
+        writer.flush();
         return true;
     }
 
@@ -263,7 +190,50 @@ public class MessageSet implements Loading, Saving {
      * @return
      */
     public int size() {
-        return this.messages.size();
+        return columns.size();
+    }
+
+    /**
+     * Get the timestamp of the ith message, in milliseconds since the epoch.
+     *
+     * @param i
+     * @return
+     */
+    public long getTimestampMillis(int i) {
+        columns.checkRow(i);
+        return columns.getTimestamp(i);
+    }
+
+    /**
+     * Get the participant id of the ith message. Messages from the same
+     * participant have the same id. Ids run from 0 to
+     * getParticipantCount() - 1.
+     *
+     * @param i
+     * @return
+     */
+    public int getParticipantId(int i) {
+        columns.checkRow(i);
+        return columns.getParticipantCode(i);
+    }
+
+    /**
+     * Get the number of distinct participants.
+     *
+     * @return
+     */
+    public int getParticipantCount() {
+        return columns.getParticipantCount();
+    }
+
+    /**
+     * Get the name of the participant with the given id.
+     *
+     * @param participantId
+     * @return
+     */
+    public String getParticipantName(int participantId) {
+        return columns.getParticipantName(participantId);
     }
 
     /**
@@ -273,6 +243,29 @@ public class MessageSet implements Loading, Saving {
      * @return
      */
     public Message get(int i) {
-        return this.messages.get(i);
+        columns.checkRow(i);
+        return new Message(columns, i);
+    }
+
+    /**
+     * A list of views of the stored messages.
+     */
+    private class MessageList extends AbstractList<Message> implements RandomAccess {
+
+        @Override
+        public Message get(int index) {
+            return MessageSet.this.get(index);
+        }
+
+        @Override
+        public int size() {
+            return MessageSet.this.size();
+        }
+
+        @Override
+        public boolean add(Message message) {
+            MessageSet.this.add(message);
+            return true;
+        }
     }
 }
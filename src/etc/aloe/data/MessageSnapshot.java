@@ -0,0 +1,555 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.data;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * A binary copy of a parsed message CSV file, so that the same file can be
+ * loaded again without parsing it.
+ *
+ * The snapshot records the length and modification time of the CSV file and
+ * the date format used to parse it, protected by a checksum. If any of these
+ * no longer match, the snapshot is stale and is ignored. Snapshots are read
+ * through memory-mapped buffers.
+ *
+ * The snapshot layout (little-endian) is a header followed by the columns:
+ * timestamps, the four label bit sets, ids, participant codes, segment ids,
+ * participant name lengths and UTF-8 bytes, then message text lengths and
+ * UTF-8 bytes.
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public class MessageSnapshot {
+
+    private static final int MAGIC = 0x414c4f45;
+    private static final int VERSION = 1;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int MAX_HEADER_BYTES = 4096;
+    private static final long MAX_WINDOW_BYTES = 1L << 30;
+    private final File file;
+    private final long sourceLength;
+    private final long sourceModified;
+
+    /**
+     * Construct a snapshot for a source CSV file. The source's length and
+     * modification time are recorded now, so they should be read before the
+     * source itself is.
+     *
+     * @param file The snapshot file.
+     * @param source The CSV file.
+     */
+    public MessageSnapshot(File file, File source) {
+        this.file = file;
+        this.sourceLength = source.length();
+        this.sourceModified = source.lastModified();
+    }
+
+    /**
+     * Get the default snapshot file for a CSV file, which is next to it.
+     *
+     * @param source
+     * @return
+     */
+    public static File fileFor(File source) {
+        return new File(source.getPath() + ".snapshot");
+    }
+
+    /**
+     * Get the snapshot file.
+     *
+     * @return
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Describe the parsing behavior of a date format, or null if it can't be
+     * described.
+     */
+    static String describe(DateFormat dateFormat) {
+        String pattern;
+        if (dateFormat instanceof TimestampFormat) {
+            pattern = ((TimestampFormat) dateFormat).toPattern();
+        } else if (dateFormat instanceof SimpleDateFormat) {
+            pattern = ((SimpleDateFormat) dateFormat).toPattern();
+        } else {
+            return null;
+        }
+        return pattern + "|" + dateFormat.getTimeZone().getID() + "|" + dateFormat.isLenient() + "|" + Locale.getDefault();
+    }
+
+    /**
+     * Load the snapshot into the message set, if it is fresh. The message
+     * set's date format must be the same one the snapshot was saved with.
+     *
+     * @param messages
+     * @return True if the messages were loaded, false if the snapshot is
+     * missing, stale, or damaged.
+     * @throws IOException If the snapshot could not be read.
+     */
+    public boolean load(MessageSet messages) throws IOException {
+        String formatKey = describe(messages.getDateFormat());
+        if (formatKey == null || !file.isFile()) {
+            return false;
+        }
+
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+
+            ByteBuffer headerBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, MAX_HEADER_BYTES));
+            headerBuffer.order(ByteOrder.LITTLE_ENDIAN);
+            Header header = Header.read(headerBuffer);
+            if (header == null
+                    || header.sourceLength != sourceLength
+                    || header.sourceModified != sourceModified
+                    || !header.formatKey.equals(formatKey)
+                    || headerBuffer.position() + header.bodyLength() != size) {
+                return false;
+            }
+
+            MessageColumns columns = readColumns(channel, headerBuffer.position(), header);
+            if (columns == null) {
+                return false;
+            }
+
+            messages.addColumns(columns);
+            System.out.println("Loaded " + columns.size() + " raw messages (" + header.numLabeled + " labeled) from snapshot " + file + ".");
+            return true;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Read the columns following the header, or return null if they are
+     * inconsistent.
+     */
+    private static MessageColumns readColumns(FileChannel channel, long position, Header header) throws IOException {
+        int size = header.numMessages;
+        int words = (size + 63) >>> 6;
+
+        long[] timestamps = new long[size];
+        position = readLongs(channel, position, timestamps);
+        long[] hasTrueLabel = new long[words];
+        position = readLongs(channel, position, hasTrueLabel);
+        long[] trueLabels = new long[words];
+        position = readLongs(channel, position, trueLabels);
+        long[] hasPredictedLabel = new long[words];
+        position = readLongs(channel, position, hasPredictedLabel);
+        long[] predictedLabels = new long[words];
+        position = readLongs(channel, position, predictedLabels);
+
+        int[] ids = new int[size];
+        position = readInts(channel, position, ids);
+        int[] participants = new int[size];
+        position = readInts(channel, position, participants);
+        int[] segmentIds = new int[size];
+        position = readInts(channel, position, segmentIds);
+
+        int[] participantLengths = new int[header.numParticipants];
+        position = readInts(channel, position, participantLengths);
+        String[] participantNames = readStrings(channel, position, participantLengths, header.participantBytes);
+        if (participantNames == null) {
+            return null;
+        }
+        position += header.participantBytes;
+
+        int[] textLengths = new int[size];
+        position = readInts(channel, position, textLengths);
+        String[] texts = readStrings(channel, position, textLengths, header.textBytes);
+        if (texts == null) {
+            return null;
+        }
+
+        for (int code : participants) {
+            if (code < 0 || code >= participantNames.length) {
+                return null;
+            }
+        }
+
+        return new MessageColumns(size, ids, timestamps, participants, Arrays.asList(participantNames),
+                texts, hasTrueLabel, trueLabels, hasPredictedLabel, predictedLabels, segmentIds);
+    }
+
+    private static ByteBuffer map(FileChannel channel, long position, long length) throws IOException {
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    private static long readLongs(FileChannel channel, long position, long[] values) throws IOException {
+        int perWindow = (int) (MAX_WINDOW_BYTES / 8);
+        for (int start = 0; start < values.length; start += perWindow) {
+            int count = Math.min(perWindow, values.length - start);
+            map(channel, position, count * 8L).asLongBuffer().get(values, start, count);
+            position += count * 8L;
+        }
+        return position;
+    }
+
+    private static long readInts(FileChannel channel, long position, int[] values) throws IOException {
+        int perWindow = (int) (MAX_WINDOW_BYTES / 4);
+        for (int start = 0; start < values.length; start += perWindow) {
+            int count = Math.min(perWindow, values.length - start);
+            map(channel, position, count * 4L).asIntBuffer().get(values, start, count);
+            position += count * 4L;
+        }
+        return position;
+    }
+
+    /**
+     * Decode consecutive UTF-8 strings. A length of -1 is a null string.
+     * Returns null if the lengths don't add up.
+     */
+    private static String[] readStrings(FileChannel channel, long position, int[] lengths, long totalBytes) throws IOException {
+        long sum = 0;
+        for (int length : lengths) {
+            if (length < -1) {
+                return null;
+            }
+            sum += Math.max(0, length);
+        }
+        if (sum != totalBytes) {
+            return null;
+        }
+
+        String[] strings = new String[lengths.length];
+        long end = position + totalBytes;
+        ByteBuffer window = null;
+        long windowStart = position;
+        long windowEnd = position;
+        byte[] scratch = new byte[256];
+
+        for (int i = 0; i < lengths.length; i++) {
+            int length = lengths[i];
+            if (length < 0) {
+                continue;
+            }
+            if (position + length > windowEnd) {
+                windowStart = position;
+                windowEnd = position + Math.max(length, Math.min(MAX_WINDOW_BYTES, end - position));
+                window = map(channel, windowStart, windowEnd - windowStart);
+            }
+            if (scratch.length < length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            window.position((int) (position - windowStart));
+            window.get(scratch, 0, length);
+            strings[i] = new String(scratch, 0, length, UTF8);
+            position += length;
+        }
+        return strings;
+    }
+
+    /**
+     * Save the message set to the snapshot file. The file is written under a
+     * temporary name and then renamed, so a partial snapshot is never left in
+     * place.
+     *
+     * @param messages
+     * @throws IOException
+     */
+    public void save(MessageSet messages) throws IOException {
+        String formatKey = describe(messages.getDateFormat());
+        if (formatKey == null) {
+            throw new IOException("Snapshots are not supported for date format " + messages.getDateFormat());
+        }
+
+        MessageColumns columns = messages.getColumns();
+        int size = columns.size();
+
+        Header header = new Header();
+        header.sourceLength = sourceLength;
+        header.sourceModified = sourceModified;
+        header.formatKey = formatKey;
+        header.numMessages = size;
+        header.numParticipants = columns.getParticipantCount();
+
+        byte[][] participantNames = new byte[header.numParticipants][];
+        for (int code = 0; code < participantNames.length; code++) {
+            participantNames[code] = encode(columns.getParticipantName(code));
+            header.participantBytes += length(participantNames[code]);
+        }
+
+        File directory = file.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile(file.getName(), ".tmp", directory);
+        try {
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                BlockWriter writer = new BlockWriter(out.getChannel());
+
+                //The header's length is known, but its contents aren't yet
+                writer.seek(header.encode().length);
+
+                int words = (size + 63) >>> 6;
+                for (int row = 0; row < size; row++) {
+                    writer.putLong(columns.getTimestamp(row));
+                }
+                long[] bits = new long[words];
+                for (int set = 0; set < 4; set++) {
+                    Arrays.fill(bits, 0);
+                    for (int row = 0; row < size; row++) {
+                        Boolean label = set < 2 ? columns.getTrueLabel(row) : columns.getPredictedLabel(row);
+                        boolean bit = (set % 2 == 0) ? label != null : (label != null && label);
+                        if (bit) {
+                            bits[row >>> 6] |= 1L << row;
+                        }
+                    }
+                    if (set == 0) {
+                        for (long word : bits) {
+                            header.numLabeled += Long.bitCount(word);
+                        }
+                    }
+                    for (long word : bits) {
+                        writer.putLong(word);
+                    }
+                }
+
+                for (int row = 0; row < size; row++) {
+                    writer.putInt(columns.getId(row));
+                }
+                for (int row = 0; row < size; row++) {
+                    writer.putInt(columns.getParticipantCode(row));
+                }
+                for (int row = 0; row < size; row++) {
+                    writer.putInt(columns.getSegmentId(row));
+                }
+
+                for (byte[] name : participantNames) {
+                    writer.putInt(name == null ? -1 : name.length);
+                }
+                for (byte[] name : participantNames) {
+                    writer.put(name);
+                }
+
+                //The text lengths come before the text, so leave room for them
+                long lengthsPosition = writer.position();
+                int[] textLengths = new int[size];
+                writer.seek(lengthsPosition + size * 4L);
+                for (int row = 0; row < size; row++) {
+                    byte[] text = encode(columns.getText(row));
+                    textLengths[row] = text == null ? -1 : text.length;
+                    header.textBytes += length(text);
+                    writer.put(text);
+                }
+                writer.seek(lengthsPosition);
+                for (int length : textLengths) {
+                    writer.putInt(length);
+                }
+
+                writer.seek(0);
+                writer.put(header.encode());
+                writer.flush();
+            } finally {
+                out.close();
+            }
+
+            if (!temp.renameTo(file)) {
+                file.delete();
+                if (!temp.renameTo(file)) {
+                    throw new IOException("Could not replace " + file);
+                }
+            }
+        } finally {
+            temp.delete();
+        }
+    }
+
+    private static byte[] encode(String text) {
+        return text == null ? null : text.getBytes(UTF8);
+    }
+
+    private static int length(byte[] bytes) {
+        return bytes == null ? 0 : bytes.length;
+    }
+
+    /**
+     * The fixed fields at the start of a snapshot.
+     */
+    private static class Header {
+
+        private long sourceLength;
+        private long sourceModified;
+        private String formatKey;
+        private int numMessages;
+        private int numParticipants;
+        private int numLabeled;
+        private long participantBytes;
+        private long textBytes;
+
+        /**
+         * Get the number of bytes in the columns after the header.
+         */
+        long bodyLength() {
+            long words = (numMessages + 63) >>> 6;
+            return numMessages * 8L
+                    + words * 8L * 4
+                    + numMessages * 4L * 3
+                    + numParticipants * 4L + participantBytes
+                    + numMessages * 4L + textBytes;
+        }
+
+        byte[] encode() {
+            byte[] key = formatKey.getBytes(UTF8);
+            ByteBuffer buffer = ByteBuffer.allocate(4 * 4 + 8 * 4 + 4 * 3 + key.length + 4);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putLong(sourceLength);
+            buffer.putLong(sourceModified);
+            buffer.putInt(key.length);
+            buffer.put(key);
+            buffer.putInt(numMessages);
+            buffer.putInt(numParticipants);
+            buffer.putInt(numLabeled);
+            buffer.putLong(participantBytes);
+            buffer.putLong(textBytes);
+
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array(), 0, buffer.position());
+            buffer.putInt((int) crc.getValue());
+
+            byte[] bytes = new byte[buffer.position()];
+            System.arraycopy(buffer.array(), 0, bytes, 0, bytes.length);
+            return bytes;
+        }
+
+        /**
+         * Read a header, or return null if it is not valid.
+         */
+        static Header read(ByteBuffer buffer) {
+            try {
+                if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                    return null;
+                }
+                Header header = new Header();
+                header.sourceLength = buffer.getLong();
+                header.sourceModified = buffer.getLong();
+                int keyLength = buffer.getInt();
+                if (keyLength < 0 || keyLength > buffer.remaining()) {
+                    return null;
+                }
+                byte[] key = new byte[keyLength];
+                buffer.get(key);
+                header.formatKey = new String(key, UTF8);
+                header.numMessages = buffer.getInt();
+                header.numParticipants = buffer.getInt();
+                header.numLabeled = buffer.getInt();
+                header.participantBytes = buffer.getLong();
+                header.textBytes = buffer.getLong();
+                if (header.numMessages < 0 || header.numParticipants < 0
+                        || header.participantBytes < 0 || header.textBytes < 0) {
+                    return null;
+                }
+
+                int length = buffer.position();
+                byte[] bytes = new byte[length];
+                buffer.position(0);
+                buffer.get(bytes);
+                CRC32 crc = new CRC32();
+                crc.update(bytes);
+                if (buffer.getInt() != (int) crc.getValue()) {
+                    return null;
+                }
+                return header;
+            } catch (java.nio.BufferUnderflowException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Buffered little-endian writes to a file channel, with seeking.
+     */
+    private static class BlockWriter {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        private long position;
+
+        BlockWriter(FileChannel channel) {
+            this.channel = channel;
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        long position() {
+            return position + buffer.position();
+        }
+
+        void seek(long newPosition) throws IOException {
+            flush();
+            position = newPosition;
+        }
+
+        void putInt(int value) throws IOException {
+            if (buffer.remaining() < 4) {
+                flush();
+            }
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            if (buffer.remaining() < 8) {
+                flush();
+            }
+            buffer.putLong(value);
+        }
+
+        void put(byte[] bytes) throws IOException {
+            if (bytes == null) {
+                return;
+            }
+            if (buffer.remaining() < bytes.length) {
+                flush();
+            }
+            if (bytes.length > buffer.capacity()) {
+                ByteBuffer wrapped = ByteBuffer.wrap(bytes);
+                while (wrapped.hasRemaining()) {
+                    position += channel.write(wrapped, position);
+                }
+            } else {
+                buffer.put(bytes);
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            buffer.clear();
+        }
+    }
+}
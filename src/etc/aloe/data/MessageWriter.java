@@ -0,0 +1,92 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.data;
+
+import com.csvreader.CsvWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.text.DateFormat;
+
+/**
+ * Writes messages one row at a time to a CSV destination in the format used by
+ * MessageSet. The header row is written when the writer is constructed.
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public class MessageWriter {
+
+    private final CsvWriter out;
+    private final DateFormat dateFormat;
+    private final String[] row = new String[MessageSet.NUM_OUTPUT_COLUMNS];
+
+    /**
+     * Construct a writer for the given destination and write the header row.
+     *
+     * @param destination
+     * @param dateFormat The format used to print timestamps.
+     * @param charset
+     * @throws IOException
+     */
+    public MessageWriter(OutputStream destination, DateFormat dateFormat, Charset charset) throws IOException {
+        if (dateFormat == null) {
+            throw new IllegalStateException("No date format provided.");
+        }
+
+        this.dateFormat = dateFormat;
+        this.out = new CsvWriter(destination, ',', charset);
+
+        row[MessageSet.ID_COLUMN] = MessageSet.ID_COLUMN_NAME;
+        row[MessageSet.PARTICIPANT_COLUMN] = MessageSet.PARTICIPANT_COLUMN_NAME;
+        row[MessageSet.TIME_COLUMN] = MessageSet.TIME_COLUMN_NAME;
+        row[MessageSet.MESSAGE_COLUMN] = MessageSet.MESSAGE_COLUMN_NAME;
+        row[MessageSet.TRUTH_COLUMN] = MessageSet.TRUTH_COLUMN_NAME;
+        row[MessageSet.PREDICTION_COLUMN] = MessageSet.PREDICTION_COLUMN_NAME;
+        row[MessageSet.SEGMENT_COLUMN] = MessageSet.SEGMENT_COLUMN_NAME;
+
+        out.writeRecord(row);
+    }
+
+    /**
+     * Write a message as the next row.
+     *
+     * @param message
+     * @throws IOException
+     */
+    public void write(Message message) throws IOException {
+        row[MessageSet.ID_COLUMN] = Integer.toString(message.getId());
+        row[MessageSet.PARTICIPANT_COLUMN] = message.getParticipant();
+        row[MessageSet.TIME_COLUMN] = dateFormat.format(message.getTimestamp());
+        row[MessageSet.MESSAGE_COLUMN] = message.getMessage();
+        row[MessageSet.TRUTH_COLUMN] = message.hasTrueLabel() ? message.getTrueLabel().toString() : null;
+        row[MessageSet.PREDICTION_COLUMN] = message.hasPredictedLabel() ? message.getPredictedLabel().toString() : null;
+        row[MessageSet.SEGMENT_COLUMN] = message.hasSegmentId() ? Integer.toString(message.getSegmentId()) : null;
+
+        out.writeRecord(row);
+    }
+
+    /**
+     * Flush any buffered rows to the destination.
+     *
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        out.flush();
+    }
+}
@@ -0,0 +1,511 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.data;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads messages from a CSV file by memory-mapping it and parsing it in
+ * chunks on several threads.
+ *
+ * A quick sequential pass over the bytes finds record boundaries (taking
+ * quoted fields into account) and splits the file into chunks of whole
+ * records. The chunks are then parsed in parallel and the messages are joined
+ * in their original order. Parsing follows the same rules as CsvReader with
+ * its default settings (whitespace is trimmed, quotes are escaped by doubling,
+ * empty lines are skipped), so the result is the same as reading the file
+ * with a MessageReader.
+ *
+ * The charset must be ASCII-compatible, such as UTF-8.
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public class ParallelMessageLoader {
+
+    private static final long MIN_CHUNK_BYTES = 1L << 20;
+    private static final long MAX_CHUNK_BYTES = 64L << 20;
+    private static final long MAX_WINDOW_BYTES = Integer.MAX_VALUE;
+    private static final int MAX_COLUMN_LENGTH = 100000;
+    private final DateFormat dateFormat;
+    private final Charset charset;
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+    private int numLabeled;
+
+    /**
+     * Construct a loader.
+     *
+     * @param dateFormat The format used to parse timestamps. Each thread uses
+     * its own clone.
+     * @param charset
+     */
+    public ParallelMessageLoader(DateFormat dateFormat, Charset charset) {
+        if (dateFormat == null) {
+            throw new IllegalStateException("No date format provided.");
+        }
+        this.dateFormat = dateFormat;
+        this.charset = charset;
+    }
+
+    /**
+     * Set the number of threads used for parsing.
+     *
+     * @param numThreads
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    /**
+     * Get the number of labeled messages found by the last load.
+     *
+     * @return
+     */
+    public int getNumLabeled() {
+        return numLabeled;
+    }
+
+    /**
+     * Load all of the messages from the channel, starting at its current
+     * position.
+     *
+     * @param channel
+     * @return The messages, in file order.
+     * @throws InvalidObjectException If the file is not in the right format.
+     * @throws IOException
+     */
+    public List<Message> load(FileChannel channel) throws IOException {
+        MessageColumns columns = loadColumns(channel);
+        List<Message> messages = new ArrayList<Message>(columns.size());
+        for (int i = 0; i < columns.size(); i++) {
+            messages.add(new Message(columns, i));
+        }
+        return messages;
+    }
+
+    /**
+     * Load all of the messages from the channel into column storage.
+     *
+     * @param channel
+     * @return
+     * @throws IOException
+     */
+    MessageColumns loadColumns(FileChannel channel) throws IOException {
+        long start = channel.position();
+        long end = channel.size();
+        numLabeled = 0;
+
+        //Read the headers
+        ByteBuffer window = map(channel, start, end);
+        RecordParser parser = new RecordParser(window, charset);
+        String[] headerFields = new String[MessageSet.NUM_OUTPUT_COLUMNS + 1];
+        int numHeaders = parser.nextRecord(headerFields);
+        if (numHeaders < 0) {
+            throw new InvalidObjectException("CSV must contain headers in the first row");
+        }
+        if (numHeaders > MessageSet.NUM_OUTPUT_COLUMNS) {
+            throw new InvalidObjectException("CSV must contain no more than " + (MessageSet.NUM_OUTPUT_COLUMNS) + " columns");
+        }
+        String[] headers = new String[numHeaders];
+        System.arraycopy(headerFields, 0, headers, 0, numHeaders);
+        MessageRowParser.validateHeaders(headers);
+
+        List<Chunk> chunks = findChunks(channel, start + parser.position(), end);
+
+        if (chunks.size() == 1) {
+            Chunk chunk = chunks.get(0);
+            return new ChunkTask(channel, chunk, new MessageRowParser(headers), numHeaders).call().getMessages(chunk);
+        }
+
+        int totalRecords = 0;
+        for (Chunk chunk : chunks) {
+            totalRecords += chunk.numRecords;
+        }
+        MessageColumns messages = new MessageColumns(totalRecords);
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(numThreads, chunks.size()));
+        try {
+            List<Future<ChunkResult>> futures = new ArrayList<Future<ChunkResult>>();
+            for (Chunk chunk : chunks) {
+                futures.add(executor.submit(new ChunkTask(channel, chunk, new MessageRowParser(headers), numHeaders)));
+            }
+
+            for (int i = 0; i < chunks.size(); i++) {
+                ChunkResult result = futures.get(i).get();
+                messages.addAll(result.getMessages(chunks.get(i)));
+                futures.set(i, null);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Loading was interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else {
+                throw new IllegalStateException(e.getCause());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return messages;
+    }
+
+    /**
+     * Map part of the file, up to the maximum window size.
+     */
+    private static ByteBuffer map(FileChannel channel, long start, long end) throws IOException {
+        long length = Math.min(end - start, MAX_WINDOW_BYTES);
+        return channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+    }
+
+    /**
+     * Scan the records between start and end, splitting them into chunks of
+     * roughly equal size that start and end on record boundaries.
+     */
+    private List<Chunk> findChunks(FileChannel channel, long start, long end) throws IOException {
+        long chunkBytes = (end - start) / (numThreads * 4L);
+        chunkBytes = Math.max(MIN_CHUNK_BYTES, Math.min(MAX_CHUNK_BYTES, chunkBytes));
+
+        List<Chunk> chunks = new ArrayList<Chunk>();
+        int firstRecord = 0;
+        int numRecords = 0;
+        long chunkStart = start;
+
+        long windowStart = start;
+        while (windowStart < end) {
+            ByteBuffer window = map(channel, windowStart, end);
+            boolean lastWindow = windowStart + window.limit() == end;
+            RecordParser parser = new RecordParser(window, charset);
+
+            while (true) {
+                int recordStart = parser.position();
+                if (parser.nextRecord(null) < 0) {
+                    windowStart += parser.position();
+                    break;
+                }
+                if (!parser.isTerminated() && !lastWindow) {
+                    //The record continues past the window, so start a new window here
+                    if (recordStart == 0) {
+                        throw new IOException("Record larger than " + MAX_WINDOW_BYTES + " bytes at offset " + windowStart);
+                    }
+                    windowStart += recordStart;
+                    break;
+                }
+
+                numRecords++;
+                long recordEnd = windowStart + parser.position();
+                if (recordEnd - chunkStart >= chunkBytes) {
+                    chunks.add(new Chunk(chunkStart, recordEnd, firstRecord, numRecords));
+                    firstRecord += numRecords;
+                    numRecords = 0;
+                    chunkStart = recordEnd;
+                }
+            }
+        }
+
+        if (numRecords > 0 || chunks.isEmpty()) {
+            chunks.add(new Chunk(chunkStart, end, firstRecord, numRecords));
+        }
+        return chunks;
+    }
+
+    /**
+     * A range of the file containing whole records.
+     */
+    private static class Chunk {
+
+        private final long start;
+        private final long end;
+        private final int firstRecord;
+        private final int numRecords;
+
+        Chunk(long start, long end, int firstRecord, int numRecords) {
+            this.start = start;
+            this.end = end;
+            this.firstRecord = firstRecord;
+            this.numRecords = numRecords;
+        }
+    }
+
+    /**
+     * The messages parsed from a chunk, or the first error in the chunk.
+     */
+    private class ChunkResult {
+
+        private final MessageColumns messages;
+        private final int numLabeled;
+        private final InvalidObjectException error;
+        private final int errorRecord;
+
+        ChunkResult(MessageColumns messages, int numLabeled, InvalidObjectException error, int errorRecord) {
+            this.messages = messages;
+            this.numLabeled = numLabeled;
+            this.error = error;
+            this.errorRecord = errorRecord;
+        }
+
+        /**
+         * Get the messages, or throw the error with its line number in the
+         * whole file (the header is line 1).
+         */
+        MessageColumns getMessages(Chunk chunk) throws InvalidObjectException {
+            if (error != null) {
+                int lineNumber = 2 + chunk.firstRecord + errorRecord;
+                throw new InvalidObjectException(error.getMessage() + " on line " + lineNumber);
+            }
+            ParallelMessageLoader.this.numLabeled += numLabeled;
+            return messages;
+        }
+    }
+
+    /**
+     * Parses the messages in one chunk.
+     */
+    private class ChunkTask implements Callable<ChunkResult> {
+
+        private final FileChannel channel;
+        private final Chunk chunk;
+        private final MessageRowParser rowParser;
+        private final int numHeaders;
+
+        ChunkTask(FileChannel channel, Chunk chunk, MessageRowParser rowParser, int numHeaders) {
+            this.channel = channel;
+            this.chunk = chunk;
+            this.rowParser = rowParser;
+            this.numHeaders = numHeaders;
+        }
+
+        @Override
+        public ChunkResult call() throws IOException {
+            MessageColumns messages = new MessageColumns(chunk.numRecords);
+            if (chunk.end == chunk.start) {
+                return new ChunkResult(messages, 0, null, 0);
+            }
+
+            DateFormat format = (DateFormat) dateFormat.clone();
+            RecordParser parser = new RecordParser(channel.map(FileChannel.MapMode.READ_ONLY, chunk.start, chunk.end - chunk.start), charset);
+            String[] fields = new String[numHeaders];
+
+            int labeled = 0;
+            int numFields;
+            while ((numFields = parser.nextRecord(fields)) >= 0) {
+                int record = messages.size();
+                int column = parser.getLongColumn();
+                if (column >= 0) {
+                    InvalidObjectException e = new InvalidObjectException("Maximum column length of 100,000 exceeded in column " + column);
+                    return new ChunkResult(null, 0, e, record);
+                }
+
+                try {
+                    int row = rowParser.parse(fields, Math.min(numFields, numHeaders), format, messages);
+                    if (messages.hasTrueLabel(row)) {
+                        labeled++;
+                    }
+                } catch (InvalidObjectException e) {
+                    return new ChunkResult(null, 0, e, record);
+                }
+            }
+
+            return new ChunkResult(messages, labeled, null, 0);
+        }
+    }
+
+    /**
+     * Splits the bytes of a buffer into CSV records.
+     */
+    private static class RecordParser {
+
+        private static final byte DELIMITER = ',';
+        private static final byte QUALIFIER = '"';
+        private static final byte CR = '\r';
+        private static final byte LF = '\n';
+        private static final byte SPACE = ' ';
+        private static final byte TAB = '\t';
+        private final ByteBuffer buffer;
+        private final int limit;
+        private final Charset charset;
+        private int position = 0;
+        private boolean terminated;
+        private int longColumn;
+        private byte[] scratch = new byte[256];
+
+        RecordParser(ByteBuffer buffer, Charset charset) {
+            this.buffer = buffer;
+            this.limit = buffer.limit();
+            this.charset = charset;
+        }
+
+        int position() {
+            return position;
+        }
+
+        /**
+         * True if the last record ended with a line break rather than the end
+         * of the buffer.
+         */
+        boolean isTerminated() {
+            return terminated;
+        }
+
+        /**
+         * The index of a column in the last record that exceeded the maximum
+         * length, or -1.
+         */
+        int getLongColumn() {
+            return longColumn;
+        }
+
+        /**
+         * Read the next non-empty record.
+         *
+         * @param fields Receives the field values (those that fit), or null if
+         * the values are not needed.
+         * @return The number of fields in the record, or -1 if there are no
+         * more records.
+         */
+        int nextRecord(String[] fields) {
+            //Skip empty lines
+            while (position < limit && isLineBreak(buffer.get(position))) {
+                position++;
+            }
+            if (position >= limit) {
+                return -1;
+            }
+
+            int numFields = 0;
+            terminated = false;
+            longColumn = -1;
+            while (true) {
+                //Skip leading whitespace
+                while (position < limit && isWhitespace(buffer.get(position))) {
+                    position++;
+                }
+
+                int length = 0;
+                if (position < limit && buffer.get(position) == QUALIFIER) {
+                    //Quoted value: doubled qualifiers are escapes, and anything
+                    //between the closing qualifier and the delimiter is ignored
+                    position++;
+                    while (position < limit) {
+                        byte b = buffer.get(position);
+                        if (b == QUALIFIER) {
+                            if (position + 1 < limit && buffer.get(position + 1) == QUALIFIER) {
+                                length = append(fields, length, QUALIFIER);
+                                position += 2;
+                                continue;
+                            }
+                            position++;
+                            break;
+                        }
+                        length = append(fields, length, b);
+                        position++;
+                    }
+                    while (position < limit && !isFieldEnd(buffer.get(position))) {
+                        position++;
+                    }
+                } else {
+                    //Plain value, with trailing whitespace trimmed
+                    int valueStart = position;
+                    while (position < limit && !isFieldEnd(buffer.get(position))) {
+                        position++;
+                    }
+                    int valueEnd = position;
+                    while (valueEnd > valueStart && isWhitespace(buffer.get(valueEnd - 1))) {
+                        valueEnd--;
+                    }
+                    if (fields != null) {
+                        for (int i = valueStart; i < valueEnd; i++) {
+                            length = append(fields, length, buffer.get(i));
+                        }
+                    }
+                }
+
+                if (fields != null && numFields < fields.length) {
+                    String value = new String(scratch, 0, length, charset);
+                    if (value.length() > MAX_COLUMN_LENGTH && longColumn < 0) {
+                        longColumn = numFields;
+                    }
+                    fields[numFields] = value;
+                }
+                numFields++;
+
+                if (position >= limit) {
+                    return numFields;
+                }
+
+                byte b = buffer.get(position);
+                position++;
+                if (b == DELIMITER) {
+                    if (position >= limit) {
+                        //A trailing delimiter at the end of the input adds an empty field
+                        if (fields != null && numFields < fields.length) {
+                            fields[numFields] = "";
+                        }
+                        return numFields + 1;
+                    }
+                } else {
+                    if (b == CR && position < limit && buffer.get(position) == LF) {
+                        position++;
+                    }
+                    terminated = true;
+                    return numFields;
+                }
+            }
+        }
+
+        private int append(String[] fields, int length, byte b) {
+            if (fields == null) {
+                return length;
+            }
+            if (length == scratch.length) {
+                byte[] larger = new byte[scratch.length * 2];
+                System.arraycopy(scratch, 0, larger, 0, length);
+                scratch = larger;
+            }
+            scratch[length] = b;
+            return length + 1;
+        }
+
+        private static boolean isLineBreak(byte b) {
+            return b == CR || b == LF;
+        }
+
+        private static boolean isWhitespace(byte b) {
+            return b == SPACE || b == TAB;
+        }
+
+        private static boolean isFieldEnd(byte b) {
+            return b == DELIMITER || b == CR || b == LF;
+        }
+    }
+}
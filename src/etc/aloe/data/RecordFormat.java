@@ -0,0 +1,413 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.data;
+
+import java.io.InvalidObjectException;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.util.Date;
+import java.util.regex.Pattern;
+
+/**
+ * Line formats for batch-mode records. Each input line holds one message with
+ * its id, participant, timestamp, and text, and each output line holds the id
+ * with the predicted label and confidence, or with an error.
+ *
+ * Reading a line never throws: input that can't be read becomes a record with
+ * an error, so that every input line gets an output line.
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public enum RecordFormat {
+
+    /**
+     * Tab-separated fields: id, participant, timestamp, and text. Backslash
+     * escapes (\t, \n, \r, and \\) are decoded in the participant and text.
+     * Results are written as id, label, and confidence, or as id, "error",
+     * and the reason.
+     */
+    TSV {
+        @Override
+        public BatchRecord parse(String line, int messageId, DateFormat dateFormat) {
+            String[] fields = line.split("\t", 4);
+            if (fields.length < 4) {
+                return new BatchRecord(fields[0], "expected 4 tab-separated fields: id, participant, timestamp, text");
+            }
+
+            Date time;
+            try {
+                time = parseTime(fields[2], dateFormat);
+            } catch (ParseException e) {
+                return new BatchRecord(fields[0], "invalid timestamp '" + fields[2] + "'");
+            }
+
+            return new BatchRecord(fields[0], new Message(messageId, time, unescape(fields[1]), unescape(fields[3])));
+        }
+
+        @Override
+        public String format(BatchRecord record) {
+            StringBuilder line = new StringBuilder();
+            line.append(record.getId() == null ? "" : record.getId());
+            if (record.getError() != null) {
+                line.append("\terror\t");
+                line.append(record.getError().replace('\t', ' ').replace('\n', ' ').replace('\r', ' '));
+            } else {
+                line.append('\t').append(record.getPredictedLabel());
+                line.append('\t').append(record.getConfidence());
+            }
+            return line.toString();
+        }
+    },
+    /**
+     * One JSON object per line, with "id", "participant", "timestamp", and
+     * "text" members. The timestamp may be a string in the date format or a
+     * number of milliseconds since the epoch. The id must be a string, number,
+     * or null, and is written back unchanged. Results are written as objects
+     * with "id", "label", and "confidence" members, or "id" and "error".
+     */
+    JSON {
+        @Override
+        public BatchRecord parse(String line, int messageId, DateFormat dateFormat) {
+            JsonObjectReader reader = new JsonObjectReader(line);
+            try {
+                reader.read();
+            } catch (InvalidObjectException e) {
+                return new BatchRecord(reader.idLiteral, "invalid JSON: " + e.getMessage());
+            }
+            if (reader.invalidId != null) {
+                //The id is written back as-is, so only JSON scalars are allowed
+                return new BatchRecord(null, "invalid id " + reader.invalidId);
+            }
+
+            String id = reader.idLiteral;
+            if (reader.text == null) {
+                return new BatchRecord(id, "missing string member \"text\"");
+            }
+
+            Date time;
+            if (reader.timestampMillis != null) {
+                time = new Date(reader.timestampMillis);
+            } else {
+                try {
+                    time = parseTime(reader.timestamp == null ? "" : reader.timestamp, dateFormat);
+                } catch (ParseException e) {
+                    return new BatchRecord(id, "invalid timestamp '" + reader.timestamp + "'");
+                }
+            }
+
+            String participant = reader.participant == null ? "" : reader.participant;
+            return new BatchRecord(id, new Message(messageId, time, participant, reader.text));
+        }
+
+        @Override
+        public String format(BatchRecord record) {
+            StringBuilder line = new StringBuilder();
+            line.append("{\"id\":").append(record.getId() == null ? "null" : record.getId());
+            if (record.getError() != null) {
+                line.append(",\"error\":");
+                appendString(line, record.getError());
+            } else {
+                line.append(",\"label\":").append(record.getPredictedLabel());
+                line.append(",\"confidence\":").append(record.getConfidence());
+            }
+            line.append('}');
+            return line.toString();
+        }
+    };
+
+    /**
+     * Read one input line.
+     *
+     * @param line
+     * @param messageId The id to give the message.
+     * @param dateFormat The format used to parse timestamps.
+     * @return The record, with an error if the line could not be read.
+     */
+    public abstract BatchRecord parse(String line, int messageId, DateFormat dateFormat);
+
+    /**
+     * Format the result for a record, without a line terminator.
+     *
+     * @param record
+     * @return
+     */
+    public abstract String format(BatchRecord record);
+
+    /**
+     * Parse a timestamp. A blank timestamp means the current time.
+     */
+    private static Date parseTime(String text, DateFormat dateFormat) throws ParseException {
+        if (text.trim().length() == 0) {
+            return new Date();
+        }
+        return dateFormat.parse(text);
+    }
+
+    private static String unescape(String text) {
+        if (text.indexOf('\\') < 0) {
+            return text;
+        }
+        StringBuilder result = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\' && i + 1 < text.length()) {
+                char next = text.charAt(++i);
+                switch (next) {
+                    case 't':
+                        result.append('\t');
+                        break;
+                    case 'n':
+                        result.append('\n');
+                        break;
+                    case 'r':
+                        result.append('\r');
+                        break;
+                    case '\\':
+                        result.append('\\');
+                        break;
+                    default:
+                        result.append(c).append(next);
+                }
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+
+    /**
+     * Reads the members of a single flat JSON object. Members other than the
+     * four in a record are skipped, whatever their values.
+     */
+    private static class JsonObjectReader {
+
+        private static final Pattern NUMBER = Pattern.compile("-?(0|[1-9][0-9]*)(\\.[0-9]+)?([eE][+-]?[0-9]+)?");
+        private final String json;
+        private int pos = 0;
+        private String idLiteral;
+        private String invalidId;
+        private String participant;
+        private String timestamp;
+        private Long timestampMillis;
+        private String text;
+
+        JsonObjectReader(String json) {
+            this.json = json;
+        }
+
+        void read() throws InvalidObjectException {
+            skipWhitespace();
+            expect('{');
+            skipWhitespace();
+            if (peek() == '}') {
+                pos++;
+            } else {
+                while (true) {
+                    skipWhitespace();
+                    String name = readString();
+                    skipWhitespace();
+                    expect(':');
+                    skipWhitespace();
+                    readMember(name);
+                    skipWhitespace();
+                    char c = next();
+                    if (c == '}') {
+                        break;
+                    } else if (c != ',') {
+                        throw error("expected ',' or '}'");
+                    }
+                }
+            }
+            skipWhitespace();
+            if (pos < json.length()) {
+                throw error("unexpected text after the object");
+            }
+        }
+
+        private void readMember(String name) throws InvalidObjectException {
+            int start = pos;
+            char c = peek();
+            String string = null;
+            if (c == '"') {
+                string = readString();
+            } else if (c == '{' || c == '[') {
+                skipNested();
+            } else {
+                while (pos < json.length() && ",}] \t\r\n".indexOf(json.charAt(pos)) < 0) {
+                    pos++;
+                }
+                if (pos == start) {
+                    throw error("expected a value");
+                }
+            }
+            String literal = json.substring(start, pos);
+
+            if ("id".equals(name)) {
+                if (string != null || "null".equals(literal) || NUMBER.matcher(literal).matches()) {
+                    idLiteral = literal;
+                    invalidId = null;
+                } else {
+                    idLiteral = null;
+                    invalidId = literal;
+                }
+            } else if ("participant".equals(name)) {
+                participant = string;
+            } else if ("text".equals(name)) {
+                text = string;
+            } else if ("timestamp".equals(name)) {
+                if (string != null) {
+                    timestamp = string;
+                } else if (!"null".equals(literal)) {
+                    try {
+                        timestampMillis = (long) Double.parseDouble(literal);
+                    } catch (NumberFormatException e) {
+                        throw error("invalid timestamp " + literal);
+                    }
+                }
+            }
+        }
+
+        private String readString() throws InvalidObjectException {
+            expect('"');
+            StringBuilder result = new StringBuilder();
+            while (true) {
+                char c = next();
+                if (c == '"') {
+                    return result.toString();
+                } else if (c != '\\') {
+                    result.append(c);
+                    continue;
+                }
+                char escaped = next();
+                switch (escaped) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        result.append(escaped);
+                        break;
+                    case 'b':
+                        result.append('\b');
+                        break;
+                    case 'f':
+                        result.append('\f');
+                        break;
+                    case 'n':
+                        result.append('\n');
+                        break;
+                    case 'r':
+                        result.append('\r');
+                        break;
+                    case 't':
+                        result.append('\t');
+                        break;
+                    case 'u':
+                        if (pos + 4 > json.length()) {
+                            throw error("incomplete \\u escape");
+                        }
+                        try {
+                            result.append((char) Integer.parseInt(json.substring(pos, pos + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw error("invalid \\u escape");
+                        }
+                        pos += 4;
+                        break;
+                    default:
+                        throw error("invalid escape \\" + escaped);
+                }
+            }
+        }
+
+        private void skipNested() throws InvalidObjectException {
+            int depth = 0;
+            do {
+                char c = peek();
+                if (c == '"') {
+                    readString();
+                    continue;
+                }
+                pos++;
+                if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                }
+            } while (depth > 0);
+        }
+
+        private void skipWhitespace() {
+            while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private char peek() throws InvalidObjectException {
+            if (pos >= json.length()) {
+                throw error("unexpected end of line");
+            }
+            return json.charAt(pos);
+        }
+
+        private char next() throws InvalidObjectException {
+            char c = peek();
+            pos++;
+            return c;
+        }
+
+        private void expect(char expected) throws InvalidObjectException {
+            if (next() != expected) {
+                throw error("expected '" + expected + "'");
+            }
+        }
+
+        private InvalidObjectException error(String message) {
+            return new InvalidObjectException(message + " at character " + pos);
+        }
+    }
+}
@@ -30,20 +30,33 @@ import java.util.List;
  */
 public class Segment implements LabelableItem {
 
-    private static int ID_COUNTER = 0;
-    private int id;
+    /**
+     * Used by segments constructed without an allocator.
+     */
+    private static final SegmentIdAllocator DEFAULT_IDS = new SegmentIdAllocator();
+    private final int id;
     private List<Message> messages;
     private Boolean trueLabel;
     private Boolean predictedLabel;
     private Double predictionConfidence;
 
     /**
-     * Construct an empty, unlabeled segment.
+     * Construct an empty, unlabeled segment with an id from a process-wide
+     * sequence. Segmentations should use their own allocator instead.
      */
     public Segment() {
+        this(DEFAULT_IDS);
+    }
+
+    /**
+     * Construct an empty, unlabeled segment with the next id from the
+     * allocator.
+     *
+     * @param ids
+     */
+    public Segment(SegmentIdAllocator ids) {
         messages = new ArrayList<Message>();
-        id = ID_COUNTER;
-        ID_COUNTER++;
+        id = ids.next();
     }
 
     /**
@@ -0,0 +1,68 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.data;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands out consecutive segment ids. Each segmentation (or each run) owns its
+ * own allocator, so concurrent runs in one JVM don't share an id sequence
+ * and each run numbers its segments from zero. Safe to use from multiple
+ * threads.
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public class SegmentIdAllocator {
+
+    private final AtomicInteger nextId;
+
+    /**
+     * Construct an allocator whose first id is 0.
+     */
+    public SegmentIdAllocator() {
+        this(0);
+    }
+
+    /**
+     * Construct an allocator starting at the given id.
+     *
+     * @param firstId
+     */
+    public SegmentIdAllocator(int firstId) {
+        this.nextId = new AtomicInteger(firstId);
+    }
+
+    /**
+     * Get a new id.
+     *
+     * @return
+     */
+    public int next() {
+        return nextId.getAndIncrement();
+    }
+
+    /**
+     * Get the id that will be returned next, without using it.
+     *
+     * @return
+     */
+    public int peek() {
+        return nextId.get();
+    }
+}
@@ -165,8 +165,28 @@ public class SegmentSet {
      * @param rateAttr
      */
     private void computeRateValues(Segment segment, Instance instance, String messageStr, Attribute durationAttr, Attribute lengthAttr, Attribute cpsAttr, Attribute rateAttr) {
-        double duration = segment.getDurationInSeconds();
-        double length = segment.getMessages().size();
+        double[] rateValues = getRateValues(segment.getId(), messageStr, segment.getDurationInSeconds(), segment.getMessages().size());
+
+        instance.setValue(durationAttr, rateValues[0]);
+        instance.setValue(lengthAttr, rateValues[1]);
+        instance.setValue(cpsAttr, rateValues[2]);
+        instance.setValue(rateAttr, rateValues[3]);
+    }
+
+    /**
+     * Computes the basic timing-related features about a segment: the
+     * duration, length, characters per second, and messages per second, in
+     * that order.
+     *
+     * @param segmentId
+     * @param messageStr The segment's messages, joined with spaces.
+     * @param durationSeconds The segment duration, as computed by Segment.
+     * @param numMessages
+     * @return
+     */
+    public static double[] getRateValues(int segmentId, String messageStr, double durationSeconds, int numMessages) {
+        double duration = durationSeconds;
+        double length = numMessages;
 
         //If the length is 1, then we correct the duration.
         //Assume average typing speed (35 words per minute, 5 char/word)
@@ -177,16 +197,13 @@ public class SegmentSet {
         }
 
         if (duration > 100000) {
-            System.err.println("Wacky segment id: " + segment.getId() + " has duration: " + duration);
+            System.err.println("Wacky segment id: " + segmentId + " has duration: " + duration);
         }
 
         double cps = messageStr.length() / duration;
-        double rate = segment.getMessages().size() / duration;
+        double rate = numMessages / duration;
 
-        instance.setValue(durationAttr, duration);
-        instance.setValue(lengthAttr, length);
-        instance.setValue(cpsAttr, cps);
-        instance.setValue(rateAttr, rate);
+        return new double[]{duration, length, cps, rate};
     }
 
     /**
@@ -0,0 +1,320 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.data;
+
+import java.text.DateFormat;
+import java.text.FieldPosition;
+import java.text.NumberFormat;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * A DateFormat for message timestamps that is safe to share between threads.
+ *
+ * Patterns are interpreted the same way as SimpleDateFormat. Each thread gets
+ * its own working state, and the last timestamp parsed or printed is cached,
+ * since consecutive messages in a chat log often share the same second. The
+ * default yyyy-MM-dd HH:mm:ss layout is handled directly without going
+ * through SimpleDateFormat.
+ *
+ * Instances are immutable: the setters inherited from DateFormat throw
+ * UnsupportedOperationException and clone() returns the same instance.
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public class TimestampFormat extends DateFormat {
+
+    private static final long serialVersionUID = 1L;
+    /**
+     * The default timestamp layout.
+     */
+    public static final String DEFAULT_PATTERN = "yyyy-MM-dd HH:mm:ss";
+    private static final int DEFAULT_LENGTH = DEFAULT_PATTERN.length();
+    private static final int MINUTE_LENGTH = "yyyy-MM-dd HH:mm".length();
+    private final String pattern;
+    private final TimeZone timeZone;
+    private final boolean defaultLayout;
+    private final boolean secondResolution;
+    private final SimpleDateFormat prototype;
+    private final transient ThreadLocal<Codec> codecs = new ThreadLocal<Codec>() {
+        @Override
+        protected Codec initialValue() {
+            return new Codec((SimpleDateFormat) prototype.clone());
+        }
+    };
+
+    /**
+     * Construct a format for the pattern in the default time zone.
+     *
+     * @param pattern A SimpleDateFormat pattern.
+     */
+    public TimestampFormat(String pattern) {
+        this(pattern, TimeZone.getDefault());
+    }
+
+    /**
+     * Construct a format for the pattern in the given time zone.
+     *
+     * @param pattern A SimpleDateFormat pattern.
+     * @param timeZone
+     */
+    public TimestampFormat(String pattern, TimeZone timeZone) {
+        this.pattern = pattern;
+        this.timeZone = (TimeZone) timeZone.clone();
+        this.prototype = new SimpleDateFormat(pattern);
+        this.prototype.setTimeZone(this.timeZone);
+        this.defaultLayout = DEFAULT_PATTERN.equals(pattern);
+        //Output that never shows milliseconds or eras only changes once a second
+        this.secondResolution = pattern.indexOf('S') < 0 && pattern.indexOf('G') < 0;
+
+        //DateFormat's own accessors read these
+        super.setCalendar((Calendar) prototype.getCalendar().clone());
+        super.setNumberFormat((NumberFormat) prototype.getNumberFormat().clone());
+    }
+
+    /**
+     * Get the pattern this format was constructed with.
+     *
+     * @return
+     */
+    public String toPattern() {
+        return pattern;
+    }
+
+    @Override
+    public StringBuffer format(Date date, StringBuffer toAppendTo, FieldPosition fieldPosition) {
+        Codec codec = codecs.get();
+        if (!secondResolution || fieldPosition.getField() != 0 || fieldPosition.getFieldAttribute() != null) {
+            //The caller wants field offsets, so let SimpleDateFormat do it
+            return codec.format.format(date, toAppendTo, fieldPosition);
+        }
+        return toAppendTo.append(codec.format(date.getTime()));
+    }
+
+    @Override
+    public Date parse(String source, ParsePosition pos) {
+        Codec codec = codecs.get();
+        int start = pos.getIndex();
+        if (start == 0 && source.equals(codec.lastParseText)) {
+            pos.setIndex(codec.lastParseEnd);
+            return new Date(codec.lastParseMillis);
+        }
+
+        Date result = null;
+        if (defaultLayout && codec.parseDefault(source, start)) {
+            pos.setIndex(start + DEFAULT_LENGTH);
+            result = new Date(codec.parsedMillis);
+        } else {
+            result = codec.format.parse(source, pos);
+        }
+
+        if (result != null && start == 0) {
+            codec.lastParseText = source;
+            codec.lastParseEnd = pos.getIndex();
+            codec.lastParseMillis = result.getTime();
+        }
+        return result;
+    }
+
+    @Override
+    public Object clone() {
+        //Immutable and thread-safe, so there is no need for a copy
+        return this;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof TimestampFormat)) {
+            return false;
+        }
+        TimestampFormat other = (TimestampFormat) obj;
+        return pattern.equals(other.pattern) && timeZone.equals(other.timeZone);
+    }
+
+    @Override
+    public int hashCode() {
+        return pattern.hashCode() * 31 + timeZone.hashCode();
+    }
+
+    @Override
+    public void setCalendar(Calendar newCalendar) {
+        throw new UnsupportedOperationException("TimestampFormat is immutable");
+    }
+
+    @Override
+    public void setNumberFormat(NumberFormat newNumberFormat) {
+        throw new UnsupportedOperationException("TimestampFormat is immutable");
+    }
+
+    @Override
+    public void setTimeZone(TimeZone zone) {
+        throw new UnsupportedOperationException("TimestampFormat is immutable");
+    }
+
+    @Override
+    public void setLenient(boolean lenient) {
+        throw new UnsupportedOperationException("TimestampFormat is immutable");
+    }
+
+    private Object writeReplace() {
+        return new SerializedForm(pattern, timeZone);
+    }
+
+    /**
+     * The serialized form just records the constructor arguments.
+     */
+    private static class SerializedForm implements java.io.Serializable {
+
+        private static final long serialVersionUID = 1L;
+        private final String pattern;
+        private final TimeZone timeZone;
+
+        SerializedForm(String pattern, TimeZone timeZone) {
+            this.pattern = pattern;
+            this.timeZone = timeZone;
+        }
+
+        private Object readResolve() {
+            return new TimestampFormat(pattern, timeZone);
+        }
+    }
+
+    /**
+     * Per-thread working state.
+     */
+    private class Codec {
+
+        private final SimpleDateFormat format;
+        private final Calendar calendar;
+        private long lastFormatSecond = Long.MIN_VALUE;
+        private String lastFormatText;
+        private String lastParseText;
+        private int lastParseEnd;
+        private long lastParseMillis;
+        private String lastMinuteText;
+        private long lastMinuteMillis;
+        private long parsedMillis;
+
+        Codec(SimpleDateFormat format) {
+            this.format = format;
+            this.calendar = (Calendar) format.getCalendar().clone();
+        }
+
+        String format(long millis) {
+            long second = millis / 1000;
+            if (millis % 1000 < 0) {
+                second--;
+            }
+            if (second != lastFormatSecond) {
+                lastFormatText = defaultLayout ? formatDefault(millis) : format.format(new Date(millis));
+                lastFormatSecond = second;
+            }
+            return lastFormatText;
+        }
+
+        private String formatDefault(long millis) {
+            calendar.setTimeInMillis(millis);
+            StringBuilder text = new StringBuilder(DEFAULT_LENGTH + 2);
+            appendPadded(text, calendar.get(Calendar.YEAR), 4);
+            text.append('-');
+            appendPadded(text, calendar.get(Calendar.MONTH) + 1, 2);
+            text.append('-');
+            appendPadded(text, calendar.get(Calendar.DAY_OF_MONTH), 2);
+            text.append(' ');
+            appendPadded(text, calendar.get(Calendar.HOUR_OF_DAY), 2);
+            text.append(':');
+            appendPadded(text, calendar.get(Calendar.MINUTE), 2);
+            text.append(':');
+            appendPadded(text, calendar.get(Calendar.SECOND), 2);
+            return text.toString();
+        }
+
+        /**
+         * Parse a yyyy-MM-dd HH:mm:ss timestamp starting at the given index.
+         * Returns false, leaving SimpleDateFormat to deal with it, if the
+         * text is not laid out exactly that way.
+         */
+        boolean parseDefault(String text, int start) {
+            int end = start + DEFAULT_LENGTH;
+            if (text.length() < end
+                    || (text.length() > end && isDigit(text.charAt(end)))) {
+                return false;
+            }
+            for (int i = 0; i < DEFAULT_LENGTH; i++) {
+                char expected = DEFAULT_PATTERN.charAt(i);
+                char c = text.charAt(start + i);
+                if (Character.isLetter(expected) ? !isDigit(c) : c != expected) {
+                    return false;
+                }
+            }
+
+            int seconds = digits(text, start + 17, 2);
+            if (seconds > 59) {
+                return false;
+            }
+
+            if (lastMinuteText == null || !text.regionMatches(start, lastMinuteText, 0, MINUTE_LENGTH)) {
+                calendar.clear();
+                calendar.set(digits(text, start, 4),
+                        digits(text, start + 5, 2) - 1,
+                        digits(text, start + 8, 2),
+                        digits(text, start + 11, 2),
+                        digits(text, start + 14, 2),
+                        0);
+                long minuteMillis = calendar.getTimeInMillis();
+
+                if (timeZone.getOffset(minuteMillis) != timeZone.getOffset(minuteMillis + 59999)) {
+                    //The offset changes within this minute, so don't reuse it
+                    calendar.set(Calendar.SECOND, seconds);
+                    parsedMillis = calendar.getTimeInMillis();
+                    lastMinuteText = null;
+                    return true;
+                }
+
+                lastMinuteText = text.substring(start, start + MINUTE_LENGTH);
+                lastMinuteMillis = minuteMillis;
+            }
+
+            parsedMillis = lastMinuteMillis + seconds * 1000L;
+            return true;
+        }
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static int digits(String text, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            value = value * 10 + (text.charAt(i) - '0');
+        }
+        return value;
+    }
+
+    private static void appendPadded(StringBuilder text, int value, int width) {
+        for (int digits = Integer.toString(value).length(); digits < width; digits++) {
+            text.append('0');
+        }
+        text.append(value);
+    }
+}
@@ -20,6 +20,7 @@ package etc.aloe.factories;
 
 import etc.aloe.controllers.CrossValidationController;
 import etc.aloe.controllers.LabelingController;
+import etc.aloe.controllers.StreamingLabelingController;
 import etc.aloe.controllers.TrainingController;
 import etc.aloe.cscw2013.DownsampleBalancing;
 import etc.aloe.cscw2013.FeatureExtractionImpl;
@@ -28,15 +29,20 @@ import etc.aloe.cscw2013.LabelMappingImpl;
 import etc.aloe.cscw2013.NullSegmentation;
 import etc.aloe.cscw2013.ResolutionImpl;
 import etc.aloe.cscw2013.SMOFeatureWeighting;
+import etc.aloe.cscw2013.StreamingNullSegmentation;
+import etc.aloe.cscw2013.StreamingThresholdSegmentation;
 import etc.aloe.cscw2013.ThresholdSegmentation;
 import etc.aloe.cscw2013.TrainingImpl;
 import etc.aloe.cscw2013.UpsampleBalancing;
 import etc.aloe.cscw2013.WekaModel;
 import etc.aloe.data.Model;
+import etc.aloe.data.TimestampFormat;
 import etc.aloe.filters.StringToDictionaryVector;
+import etc.aloe.options.BatchOptions;
 import etc.aloe.options.InteractiveOptions;
 import etc.aloe.options.LabelOptions;
 import etc.aloe.options.ModeOptions;
+import etc.aloe.options.ServeOptions;
 import etc.aloe.options.SingleOptions;
 import etc.aloe.options.TrainOptions;
 import etc.aloe.processes.Balancing;
@@ -46,11 +52,11 @@ import etc.aloe.processes.FeatureWeighting;
 import etc.aloe.processes.LabelMapping;
 import etc.aloe.processes.SegmentResolution;
 import etc.aloe.processes.Segmentation;
+import etc.aloe.processes.StreamingSegmentation;
 import etc.aloe.processes.Training;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.List;
 import org.kohsuke.args4j.Option;
 
@@ -173,12 +179,33 @@ public class CSCW2013 implements PipelineFactory {
         }
     }
 
+    @Override
+    public StreamingSegmentation constructStreamingSegmentation() {
+        if (options instanceof LabelOptionsImpl) {
+            LabelOptionsImpl labelOpts = (LabelOptionsImpl) options;
+
+            if (labelOpts.disableSegmentation) {
+                return new StreamingNullSegmentation();
+            } else {
+                StreamingThresholdSegmentation segmentation = new StreamingThresholdSegmentation(labelOpts.segmentationThresholdSeconds,
+                        !labelOpts.ignoreParticipants);
+                segmentation.setAllowedLateness(labelOpts.allowedLatenessSeconds);
+                segmentation.setLatePolicy(labelOpts.latePolicy);
+                segmentation.setSegmentResolution(new ResolutionImpl());
+                return segmentation;
+            }
+        } else {
+            throw new IllegalArgumentException("Options must be for Labeling");
+        }
+    }
+
     @Override
     public Training constructTraining() {
         if (options instanceof TrainOptionsImpl) {
             TrainOptionsImpl trainOpts = (TrainOptionsImpl) options;
 
             TrainingImpl trainingImpl = new TrainingImpl();
+            trainingImpl.setSolver(trainOpts.svmSolver);
             if (trainOpts.makeROC) {
                 trainingImpl.setBuildLogisticModel(true);
             }
@@ -227,6 +254,22 @@ public class CSCW2013 implements PipelineFactory {
         }
     }
 
+    @Override
+    public void configureStreamingLabeling(StreamingLabelingController labelingController) {
+        if (options instanceof LabelOptions) {
+            LabelOptionsImpl labelOpts = (LabelOptionsImpl) options;
+
+            //Options
+            labelingController.setCosts(labelOpts.falsePositiveCost, labelOpts.falseNegativeCost);
+            labelingController.setBatchSize(labelOpts.streamingBatchSize);
+
+            //Implementations
+            labelingController.setSegmentationImpl(constructStreamingSegmentation());
+            labelingController.setFeatureExtractionImpl(constructFeatureExtraction());
+            labelingController.setMappingImpl(constructLabelMapping());
+        }
+    }
+
     @Override
     public void configureCrossValidation(CrossValidationController crossValidationController) {
         if (options instanceof TrainOptionsImpl) {
@@ -241,6 +284,7 @@ public class CSCW2013 implements PipelineFactory {
             crossValidationController.setFolds(trainOpts.crossValidationFolds);
             crossValidationController.setCosts(trainOpts.falsePositiveCost, trainOpts.falseNegativeCost);
             crossValidationController.setBalanceTestSet(trainOpts.balanceTestSet);
+            crossValidationController.setNumThreads(trainOpts.numThreads);
         } else {
             throw new IllegalArgumentException("Options must be for Training");
         }
@@ -257,7 +301,7 @@ public class CSCW2013 implements PipelineFactory {
 
     @Override
     public DateFormat constructDateFormat() {
-        return new SimpleDateFormat(options.dateFormatString);
+        return new TimestampFormat(options.dateFormatString);
     }
 
     @Override
@@ -280,6 +324,16 @@ public class CSCW2013 implements PipelineFactory {
         return new SingleOptionsImpl();
     }
 
+    @Override
+    public ServeOptions constructServeOptions() {
+        return new ServeOptionsImpl();
+    }
+
+    @Override
+    public BatchOptions constructBatchOptions() {
+        return new BatchOptionsImpl();
+    }
+
     @Override
     public void setOptions(ModeOptions options) {
         this.options = options;
@@ -291,6 +345,12 @@ public class CSCW2013 implements PipelineFactory {
     static class SingleOptionsImpl extends SingleOptions {
     }
 
+    static class ServeOptionsImpl extends ServeOptions {
+    }
+
+    static class BatchOptionsImpl extends BatchOptions {
+    }
+
     static class LabelOptionsImpl extends LabelOptions {
 
         @Option(name = "--fp-cost", usage = "the cost of a false positive (default 1)", metaVar = "COST")
@@ -303,6 +363,10 @@ public class CSCW2013 implements PipelineFactory {
         public int segmentationThresholdSeconds = 30;
         @Option(name = "--no-segmentation", usage = "disable segmentation (each message is in its own segment)")
         public boolean disableSegmentation = false;
+        @Option(name = "--lateness", usage = "with --stream, how many seconds out of order a message may arrive (default 0)", metaVar = "SECONDS")
+        public int allowedLatenessSeconds = 0;
+        @Option(name = "--late-policy", usage = "with --stream, what to do with messages later than --lateness: admit, separate, or drop (default admit)", metaVar = "POLICY")
+        public StreamingThresholdSegmentation.LatePolicy latePolicy = StreamingThresholdSegmentation.LatePolicy.ADMIT;
     }
 
     static class TrainOptionsImpl extends TrainOptions {
@@ -323,6 +387,8 @@ public class CSCW2013 implements PipelineFactory {
         public boolean useReweighting = false;
         @Option(name = "--min-cost", usage = "train a classifier that uses the min-cost criterion")
         public boolean useMinCost = false;
+        @Option(name = "--svm-solver", usage = "how to train the SVM: smo, or dcd for a faster solver suited to large data sets (default smo)", metaVar = "SOLVER")
+        public TrainingImpl.Solver svmSolver = TrainingImpl.Solver.SMO;
         @Option(name = "--downsample", aliases = {"-ds"}, usage = "downsample the majority class in training sets to match the cost ratio")
         public boolean useDownsampling = false;
         @Option(name = "--folds", aliases = {"-k"}, usage = "number of cross-validation folds (default 10, 0 to disable cross validation)", metaVar = "FOLDS")
@@ -20,11 +20,14 @@ package etc.aloe.factories;
 
 import etc.aloe.controllers.CrossValidationController;
 import etc.aloe.controllers.LabelingController;
+import etc.aloe.controllers.StreamingLabelingController;
 import etc.aloe.controllers.TrainingController;
 import etc.aloe.data.Model;
+import etc.aloe.options.BatchOptions;
 import etc.aloe.options.InteractiveOptions;
 import etc.aloe.options.LabelOptions;
 import etc.aloe.options.ModeOptions;
+import etc.aloe.options.ServeOptions;
 import etc.aloe.options.SingleOptions;
 import etc.aloe.options.TrainOptions;
 import etc.aloe.processes.Balancing;
@@ -34,6 +37,7 @@ import etc.aloe.processes.FeatureWeighting;
 import etc.aloe.processes.LabelMapping;
 import etc.aloe.processes.SegmentResolution;
 import etc.aloe.processes.Segmentation;
+import etc.aloe.processes.StreamingSegmentation;
 import etc.aloe.processes.Training;
 import java.text.DateFormat;
 
@@ -62,6 +66,8 @@ public interface PipelineFactory {
 
     Segmentation constructSegmentation();
 
+    StreamingSegmentation constructStreamingSegmentation();
+
     Training constructTraining();
 
     void configureCrossValidation(CrossValidationController crossValidationController);
@@ -70,6 +76,8 @@ public interface PipelineFactory {
 
     void configureLabeling(LabelingController labelingController);
 
+    void configureStreamingLabeling(StreamingLabelingController labelingController);
+
     DateFormat constructDateFormat();
 
     InteractiveOptions constructInteractiveOptions();
@@ -80,5 +88,9 @@ public interface PipelineFactory {
 
     SingleOptions constructSingleOptions();
 
+    ServeOptions constructServeOptions();
+
+    BatchOptions constructBatchOptions();
+
     void setOptions(ModeOptions options);
 }
@@ -18,8 +18,11 @@
  */
 package etc.aloe.filters;
 
+import etc.aloe.data.BinaryArtifact;
+import etc.aloe.data.FeatureVector;
+import java.io.InvalidObjectException;
 import java.io.Serializable;
-import java.util.regex.Matcher;
+import java.nio.ByteBuffer;
 import java.util.regex.Pattern;
 import weka.core.Capabilities.Capability;
 import weka.core.*;
@@ -35,7 +38,10 @@ import weka.filters.UnsupervisedFilter;
 public abstract class AbstractRegexFilter extends SimpleStreamFilter
         implements UnsupervisedFilter {
 
+    private static final long serialVersionUID = -5610927515620018649L;
     private boolean countRegexLengths = false;
+    private transient MultiRegexMatcher matcher;
+    private transient SparseInstanceBuilder instanceBuilder;
 
     /**
      * Set to true to add features for the length of the regex match. Defaults
@@ -47,6 +53,17 @@ public abstract class AbstractRegexFilter extends SimpleStreamFilter
         this.countRegexLengths = countRegexLengths;
     }
 
+    /**
+     * Whether the regex at the given index gets a length feature as well as
+     * a count feature.
+     *
+     * @param regexIndex
+     * @return
+     */
+    protected boolean isCountingRegexLength(int regexIndex) {
+        return countRegexLengths;
+    }
+
     /**
      * A mapping entity between names (feature names) and regular expressions.
      */
@@ -110,6 +127,7 @@ public abstract class AbstractRegexFilter extends SimpleStreamFilter
 
         Attribute stringAttr = inputFormat.attribute(stringAttributeName);
         stringAttributeIndex = stringAttr.index();
+        instanceBuilder = new SparseInstanceBuilder(inputFormat);
 
         //Add the new columns. There is one for each regex feature.
         NamedRegex[] regexFeatures = getRegexFeatures();
@@ -118,7 +136,7 @@ public abstract class AbstractRegexFilter extends SimpleStreamFilter
             Attribute attr = new Attribute(name);
             outputFormat.insertAttributeAt(attr, outputFormat.numAttributes());
 
-            if (countRegexLengths) {
+            if (isCountingRegexLength(i)) {
                 name = name + "_L";
                 attr = new Attribute(name);
                 outputFormat.insertAttributeAt(attr, outputFormat.numAttributes());
@@ -129,6 +147,12 @@ public abstract class AbstractRegexFilter extends SimpleStreamFilter
         return outputFormat;
     }
 
+    @Override
+    public boolean input(Instance instance) throws Exception {
+        StringValueRelease.beforeInput(this);
+        return super.input(instance);
+    }
+
     @Override
     protected Instance process(Instance instance) throws Exception {
         if (stringAttributeIndex < 0) {
@@ -141,64 +165,113 @@ public abstract class AbstractRegexFilter extends SimpleStreamFilter
 
         int numOldValues = instance.numAttributes();
         int numNewFeatures = regexFeatures.length;
-        if (countRegexLengths) {
-            numNewFeatures = regexFeatures.length * 2;
-        }
-        double[] newValues = new double[numOldValues + numNewFeatures];
-
-        // Copy all attributes from input to output
-        for (int i = 0; i < getInputFormat().numAttributes(); i++) {
-            if (getInputFormat().attribute(i).type() != Attribute.STRING) {
-                // Add simple nominal and numeric attributes directly
-                if (instance.value(i) != 0.0) {
-                    newValues[i] = instance.value(i);
-                }
-            } else {
-                if (instance.isMissing(i)) {
-                    newValues[i] = Utils.missingValue();
-                } else {
-
-                    // If this is a string attribute, we have to first add
-                    // this value to the range of possible values, then add
-                    // its new internal index.
-                    if (outputFormatPeek().attribute(i).numValues() == 0) {
-                        // Note that the first string value in a
-                        // SparseInstance doesn't get printed.
-                        outputFormatPeek().attribute(i).addStringValue("Hack to defeat SparseInstance bug");
-                    }
-                    int newIndex = outputFormatPeek().attribute(i).addStringValue(instance.stringValue(i));
-                    newValues[i] = newIndex;
-                }
+        for (int i = 0; i < regexFeatures.length; i++) {
+            if (isCountingRegexLength(i)) {
+                numNewFeatures++;
             }
         }
 
+        // Copy the non-zero attributes from input to output
+        SparseInstanceBuilder builder = getInstanceBuilder();
+        builder.copy(instance, outputFormatPeek());
+
+        //Every regex is run over the string together
+        MultiRegexMatcher regexMatcher = getMatcher();
+        regexMatcher.match(stringValue);
+
+        int index = numOldValues;
         for (int i = 0; i < regexFeatures.length; i++) {
-            Pattern pattern = regexFeatures[i].getPattern();
-
-            Matcher matches = pattern.matcher(stringValue);
-            int count = 0;
-            int maxLength = 0;
-            while (matches.find()) {
-                count++;
-                int len = matches.group().length();
-                if (len > maxLength) {
-                    maxLength = len;
-                }
-            }
+            builder.add(index++, regexMatcher.getCount(i));
 
-            int index = numOldValues + i;
-            if (countRegexLengths) {
-                index = numOldValues + 2 * i;
+            if (isCountingRegexLength(i)) {
+                builder.add(index++, regexMatcher.getMaxLength(i));
             }
-            newValues[index] = count;
+        }
 
-            if (countRegexLengths) {
-                newValues[numOldValues + 2 * i + 1] = maxLength;
+        return builder.build(instance.weight(), numOldValues + numNewFeatures);
+    }
+
+    /**
+     * Get the matcher for the regex features, building it if this filter is
+     * new or was just deserialized.
+     *
+     * @return
+     */
+    private MultiRegexMatcher getMatcher() {
+        if (matcher == null) {
+            NamedRegex[] regexFeatures = getRegexFeatures();
+            Pattern[] patterns = new Pattern[regexFeatures.length];
+            for (int i = 0; i < regexFeatures.length; i++) {
+                patterns[i] = regexFeatures[i].getPattern();
             }
+            matcher = new MultiRegexMatcher(patterns);
         }
+        return matcher;
+    }
 
-        Instance result = new SparseInstance(instance.weight(), newValues);
-        return result;
+    /**
+     * Get the builder for output instances, creating it if this filter was
+     * just deserialized.
+     *
+     * @return
+     */
+    private SparseInstanceBuilder getInstanceBuilder() {
+        if (instanceBuilder == null) {
+            instanceBuilder = new SparseInstanceBuilder(getInputFormat());
+        }
+        return instanceBuilder;
+    }
+
+    /**
+     * Compile this trained filter for use in a compiled filter chain.
+     *
+     * @param inputFormat The format of the vectors given to the compiled
+     * filter.
+     * @param textIndex The index of the string attribute in that format.
+     * @return
+     */
+    CompiledFilter compile(Instances inputFormat, int textIndex) {
+        CompiledFilter.checkFormat(getInputFormat(), inputFormat);
+        if (stringAttributeIndex < 0 || stringAttributeIndex != textIndex) {
+            throw new IllegalArgumentException("Regex filter does not use the string attribute");
+        }
+
+        NamedRegex[] regexFeatures = getRegexFeatures();
+        Pattern[] patterns = new Pattern[regexFeatures.length];
+        boolean[] countLengths = new boolean[regexFeatures.length];
+        int numOutputAttributes = inputFormat.numAttributes();
+        for (int i = 0; i < regexFeatures.length; i++) {
+            patterns[i] = regexFeatures[i].getPattern();
+            countLengths[i] = isCountingRegexLength(i);
+            numOutputAttributes += countLengths[i] ? 2 : 1;
+        }
+
+        return new CompiledRegexFilter(patterns, countLengths, inputFormat.numAttributes(), numOutputAttributes);
+    }
+
+    /**
+     * Read a compiled regex filter from a binary feature specification.
+     *
+     * @param buffer
+     * @return
+     * @throws InvalidObjectException
+     */
+    static CompiledFilter readCompiled(ByteBuffer buffer) throws InvalidObjectException {
+        int numOldValues = buffer.getInt();
+        int numOutputAttributes = buffer.getInt();
+        int numPatterns = buffer.getInt();
+        if (numPatterns < 0 || numPatterns > buffer.remaining()) {
+            throw new InvalidObjectException("Invalid number of regexes " + numPatterns);
+        }
+
+        Pattern[] patterns = new Pattern[numPatterns];
+        boolean[] countLengths = new boolean[numPatterns];
+        for (int i = 0; i < numPatterns; i++) {
+            String regex = BinaryArtifact.getString(buffer);
+            patterns[i] = Pattern.compile(regex, buffer.getInt());
+            countLengths[i] = buffer.get() != 0;
+        }
+        return new CompiledRegexFilter(patterns, countLengths, numOldValues, numOutputAttributes);
     }
 
     @Override
@@ -241,4 +314,76 @@ public abstract class AbstractRegexFilter extends SimpleStreamFilter
         }
         return builder.toString();
     }
+
+    /**
+     * Compiled form of a regex filter. Each thread matches with its own
+     * MultiRegexMatcher.
+     */
+    private static class CompiledRegexFilter extends CompiledFilter {
+
+        private final Pattern[] patterns;
+        private final boolean[] countLengths;
+        private final int numOldValues;
+        private final int numOutputAttributes;
+
+        CompiledRegexFilter(Pattern[] patterns, boolean[] countLengths, int numOldValues, int numOutputAttributes) {
+            this.patterns = patterns;
+            this.countLengths = countLengths;
+            this.numOldValues = numOldValues;
+            this.numOutputAttributes = numOutputAttributes;
+        }
+
+        @Override
+        int getNumOutputAttributes() {
+            return numOutputAttributes;
+        }
+
+        @Override
+        Object createWorkspace() {
+            return new MultiRegexMatcher(patterns);
+        }
+
+        @Override
+        void write(BinaryArtifact.Writer out) {
+            out.putInt(REGEX);
+            out.putInt(numOldValues);
+            out.putInt(numOutputAttributes);
+            out.putInt(patterns.length);
+            for (int i = 0; i < patterns.length; i++) {
+                out.putString(patterns[i].pattern());
+                out.putInt(patterns[i].flags());
+                out.putBoolean(countLengths[i]);
+            }
+        }
+
+        @Override
+        void apply(FeatureVector input, String text, FeatureVector output, Object workspace) {
+            output.clear(numOutputAttributes);
+            for (int k = 0; k < input.size(); k++) {
+                if (input.value(k) != 0) {
+                    output.add(input.index(k), input.value(k));
+                }
+            }
+
+            MultiRegexMatcher regexMatcher = (MultiRegexMatcher) workspace;
+            regexMatcher.match(text);
+
+            int index = numOldValues;
+            for (int i = 0; i < patterns.length; i++) {
+                int count = regexMatcher.getCount(i);
+                if (count != 0) {
+                    output.add(index, count);
+                }
+                index++;
+
+                if (countLengths[i]) {
+                    int maxLength = regexMatcher.getMaxLength(i);
+                    if (maxLength != 0) {
+                        output.add(index, maxLength);
+                    }
+                    index++;
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,122 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.filters;
+
+import etc.aloe.data.BinaryArtifact;
+import etc.aloe.data.FeatureVector;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.nio.ByteBuffer;
+import weka.core.Instances;
+
+/**
+ * One filter of a compiled filter chain. It maps a feature vector in the
+ * filter's input format to one in its output format, giving the same values a
+ * trained filter would give. Compiled filters are immutable; anything that
+ * changes while a vector is processed belongs in a workspace, which each
+ * thread creates for itself.
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+abstract class CompiledFilter {
+
+    /**
+     * The kinds of compiled filter, as written to a feature specification.
+     */
+    static final int REGEX = 1;
+    static final int DICTIONARY = 2;
+    static final int WORD_VECTOR = 3;
+    static final int REMOVE = 4;
+
+    /**
+     * Get the number of attributes in the output format.
+     *
+     * @return
+     */
+    abstract int getNumOutputAttributes();
+
+    /**
+     * Create the scratch space used by one thread.
+     *
+     * @return The workspace, or null if none is needed.
+     */
+    Object createWorkspace() {
+        return null;
+    }
+
+    /**
+     * Filter a feature vector.
+     *
+     * @param input The input values. String attributes hold a placeholder.
+     * @param text The value of the input's string attribute, if any.
+     * @param output Cleared and filled with the output values.
+     * @param workspace The calling thread's workspace.
+     */
+    abstract void apply(FeatureVector input, String text, FeatureVector output, Object workspace);
+
+    /**
+     * Write the kind of filter and its state to a binary feature
+     * specification.
+     *
+     * @param out
+     * @throws IOException
+     */
+    abstract void write(BinaryArtifact.Writer out) throws IOException;
+
+    /**
+     * Read a filter written by write().
+     *
+     * @param buffer
+     * @return
+     * @throws InvalidObjectException
+     */
+    static CompiledFilter read(ByteBuffer buffer) throws InvalidObjectException {
+        int kind = buffer.getInt();
+        switch (kind) {
+            case REGEX:
+                return AbstractRegexFilter.readCompiled(buffer);
+            case DICTIONARY:
+                return StringToDictionaryVector.readCompiled(buffer);
+            case WORD_VECTOR:
+                return SimpleStringToWordVector.readCompiled(buffer);
+            case REMOVE:
+                return CompiledFilterChain.readCompiledRemove(buffer);
+            default:
+                throw new InvalidObjectException("Unknown compiled filter " + kind);
+        }
+    }
+
+    /**
+     * Check that a filter was trained on data in the given format.
+     *
+     * @param expected The format the filter was trained on.
+     * @param actual The format the compiled filter will be given.
+     */
+    static void checkFormat(Instances expected, Instances actual) {
+        if (expected.numAttributes() != actual.numAttributes()) {
+            throw new IllegalArgumentException("Filter expects " + expected.numAttributes() + " attributes but gets " + actual.numAttributes());
+        }
+        for (int i = 0; i < expected.numAttributes(); i++) {
+            if (!expected.attribute(i).name().equals(actual.attribute(i).name())
+                    || expected.attribute(i).type() != actual.attribute(i).type()) {
+                throw new IllegalArgumentException("Filter expects attribute " + expected.attribute(i).name() + " at " + i);
+            }
+        }
+    }
+}
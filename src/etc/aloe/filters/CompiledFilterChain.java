@@ -0,0 +1,386 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.filters;
+
+import etc.aloe.data.BinaryArtifact;
+import etc.aloe.data.FeatureVector;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.filters.Filter;
+import weka.filters.unsupervised.attribute.Remove;
+import weka.filters.unsupervised.attribute.RemoveByName;
+
+/**
+ * A chain of trained filters compiled to work on feature vectors instead of
+ * Weka instances. Applying the chain gives the same values, stored at the same
+ * indices, as applying the filters to an instance one at a time, but without
+ * building an instance or copying a header for every filter.
+ *
+ * The chain is immutable and can be shared by threads. Each thread gets its
+ * own workspace (matchers, stemmers, and intermediate vectors), which is
+ * reused from one vector to the next.
+ *
+ * Only the filters used by ALOE's feature generation can be compiled, and
+ * only after they have been trained.
+ *
+ * A chain can be written to a binary feature specification and read back
+ * without the Weka filters it was compiled from. Only numeric, nominal, and
+ * string attributes can be written.
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public final class CompiledFilterChain {
+
+    private final CompiledFilter[] filters;
+    private final Instances inputFormat;
+    private final Instances outputFormat;
+    private final ThreadLocal<Workspace> workspaces = new ThreadLocal<Workspace>() {
+        @Override
+        protected Workspace initialValue() {
+            return new Workspace(filters);
+        }
+    };
+
+    private CompiledFilterChain(CompiledFilter[] filters, Instances inputFormat, Instances outputFormat) {
+        this.filters = filters;
+        this.inputFormat = inputFormat;
+        this.outputFormat = outputFormat;
+    }
+
+    /**
+     * Compile a chain of trained filters.
+     *
+     * @param inputFormat The format of the data given to the first filter.
+     * @param filters The filters, in the order they are applied.
+     * @return
+     * @throws IllegalArgumentException if any of the filters can't be
+     * compiled.
+     */
+    public static CompiledFilterChain compile(Instances inputFormat, List<Filter> filters) {
+        Instances format = inputFormat;
+        boolean sparse = false;
+        CompiledFilter[] compiled = new CompiledFilter[filters.size()];
+
+        for (int i = 0; i < filters.size(); i++) {
+            Filter filter = filters.get(i);
+            if (!filter.isFirstBatchDone()) {
+                throw new IllegalArgumentException("Filter " + filter.getClass().getSimpleName() + " has not been trained");
+            }
+
+            int textIndex = getTextIndex(format);
+            if (filter instanceof AbstractRegexFilter) {
+                compiled[i] = ((AbstractRegexFilter) filter).compile(format, textIndex);
+            } else if (filter instanceof StringToDictionaryVector) {
+                compiled[i] = ((StringToDictionaryVector) filter).compile(format, textIndex);
+            } else if (filter instanceof SimpleStringToWordVector) {
+                compiled[i] = ((SimpleStringToWordVector) filter).compile(format, textIndex);
+            } else if (sparse && (filter.getClass() == Remove.class || filter.getClass() == RemoveByName.class)) {
+                //Remove only keeps the non-zero values of sparse instances
+                compiled[i] = new CompiledRemove(format, filter.getOutputFormat());
+            } else {
+                throw new IllegalArgumentException("Filter " + filter.getClass().getSimpleName() + " can't be compiled");
+            }
+
+            format = filter.getOutputFormat();
+            if (compiled[i].getNumOutputAttributes() != format.numAttributes()) {
+                throw new IllegalArgumentException("Compiled " + filter.getClass().getSimpleName() + " has the wrong number of attributes");
+            }
+            sparse = true;
+        }
+
+        if (format.checkForStringAttributes()) {
+            throw new IllegalArgumentException("Filter output includes string attributes");
+        }
+
+        return new CompiledFilterChain(compiled, new Instances(inputFormat, 0), format);
+    }
+
+    /**
+     * Check that the chain can be given data in a format.
+     *
+     * @param format
+     * @throws IllegalArgumentException if the chain was compiled for a
+     * different format.
+     */
+    public void checkInputFormat(Instances format) {
+        CompiledFilter.checkFormat(inputFormat, format);
+    }
+
+    /**
+     * Write the chain to a binary feature specification.
+     *
+     * @param out
+     * @throws IOException
+     * @throws IllegalArgumentException if a format has attributes that can't
+     * be written.
+     */
+    public void write(BinaryArtifact.Writer out) throws IOException {
+        writeFormat(out, inputFormat);
+        writeFormat(out, outputFormat);
+        out.putInt(filters.length);
+        for (CompiledFilter filter : filters) {
+            filter.write(out);
+        }
+    }
+
+    /**
+     * Read a chain written by write().
+     *
+     * @param buffer
+     * @return
+     * @throws InvalidObjectException
+     */
+    public static CompiledFilterChain read(ByteBuffer buffer) throws InvalidObjectException {
+        Instances inputFormat = readFormat(buffer);
+        Instances outputFormat = readFormat(buffer);
+        int numFilters = buffer.getInt();
+        if (numFilters < 0 || numFilters > buffer.remaining()) {
+            throw new InvalidObjectException("Invalid number of filters " + numFilters);
+        }
+
+        CompiledFilter[] filters = new CompiledFilter[numFilters];
+        for (int i = 0; i < numFilters; i++) {
+            filters[i] = CompiledFilter.read(buffer);
+        }
+        if (numFilters == 0 || filters[numFilters - 1].getNumOutputAttributes() != outputFormat.numAttributes()) {
+            throw new InvalidObjectException("Compiled filters do not match the output format");
+        }
+        return new CompiledFilterChain(filters, inputFormat, outputFormat);
+    }
+
+    private static void writeFormat(BinaryArtifact.Writer out, Instances format) {
+        out.putString(format.relationName());
+        out.putInt(format.classIndex());
+        out.putInt(format.numAttributes());
+        for (int i = 0; i < format.numAttributes(); i++) {
+            Attribute attribute = format.attribute(i);
+            out.putString(attribute.name());
+            out.putInt(attribute.type());
+            if (attribute.isNominal()) {
+                out.putInt(attribute.numValues());
+                for (int v = 0; v < attribute.numValues(); v++) {
+                    out.putString(attribute.value(v));
+                }
+            } else if (!attribute.isNumeric() && !attribute.isString()) {
+                throw new IllegalArgumentException("Attribute " + attribute.name() + " can't be written");
+            }
+        }
+    }
+
+    private static Instances readFormat(ByteBuffer buffer) throws InvalidObjectException {
+        String relationName = BinaryArtifact.getString(buffer);
+        int classIndex = buffer.getInt();
+        int numAttributes = buffer.getInt();
+        if (numAttributes < 0 || numAttributes > buffer.remaining() || classIndex >= numAttributes) {
+            throw new InvalidObjectException("Invalid format with " + numAttributes + " attributes");
+        }
+
+        ArrayList<Attribute> attributes = new ArrayList<Attribute>(numAttributes);
+        for (int i = 0; i < numAttributes; i++) {
+            String name = BinaryArtifact.getString(buffer);
+            int type = buffer.getInt();
+            if (type == Attribute.NUMERIC) {
+                attributes.add(new Attribute(name));
+            } else if (type == Attribute.STRING) {
+                attributes.add(new Attribute(name, (List<String>) null));
+            } else if (type == Attribute.NOMINAL) {
+                int numValues = buffer.getInt();
+                if (numValues < 0 || numValues > buffer.remaining()) {
+                    throw new InvalidObjectException("Invalid number of values for " + name);
+                }
+                List<String> values = new ArrayList<String>(numValues);
+                for (int v = 0; v < numValues; v++) {
+                    values.add(BinaryArtifact.getString(buffer));
+                }
+                attributes.add(new Attribute(name, values));
+            } else {
+                throw new InvalidObjectException("Unsupported type for attribute " + name);
+            }
+        }
+
+        Instances format = new Instances(relationName, attributes, 0);
+        format.setClassIndex(classIndex);
+        return format;
+    }
+
+    /**
+     * Read a compiled Remove filter from a binary feature specification.
+     */
+    static CompiledFilter readCompiledRemove(ByteBuffer buffer) throws InvalidObjectException {
+        int numOutputAttributes = buffer.getInt();
+        int[] outputIndices = BinaryArtifact.getInts(buffer);
+        for (int index : outputIndices) {
+            if (index >= numOutputAttributes) {
+                throw new InvalidObjectException("Invalid attribute index " + index);
+            }
+        }
+        return new CompiledRemove(outputIndices, numOutputAttributes);
+    }
+
+    /**
+     * Find the string attribute of a format.
+     *
+     * @return The index of the only string attribute, or -1 if there is none.
+     */
+    private static int getTextIndex(Instances format) {
+        int textIndex = -1;
+        for (int i = 0; i < format.numAttributes(); i++) {
+            Attribute attribute = format.attribute(i);
+            if (attribute.isRelationValued()) {
+                throw new IllegalArgumentException("Relational attributes are not supported");
+            }
+            if (attribute.isString()) {
+                if (textIndex >= 0) {
+                    throw new IllegalArgumentException("Only one string attribute is supported");
+                }
+                textIndex = i;
+            }
+        }
+        return textIndex;
+    }
+
+    /**
+     * Apply every filter in the chain.
+     *
+     * @param input Values in the first filter's input format. The string
+     * attribute must hold a placeholder value, not a string index.
+     * @param text The value of the string attribute.
+     * @param output Cleared and filled with the values in the last filter's
+     * output format.
+     */
+    public void apply(FeatureVector input, String text, FeatureVector output) {
+        Workspace workspace = workspaces.get();
+
+        FeatureVector current = input;
+        for (int i = 0; i < filters.length; i++) {
+            FeatureVector next = (i == filters.length - 1) ? output : workspace.vectors[i % 2];
+            filters[i].apply(current, text, next, workspace.filterWorkspaces[i]);
+            current = next;
+        }
+    }
+
+    /**
+     * Create an instance from values in the output format.
+     *
+     * @param features
+     * @return
+     */
+    public Instance toInstance(FeatureVector features) {
+        if (features.numAttributes() != outputFormat.numAttributes()) {
+            throw new IllegalArgumentException("Vector has " + features.numAttributes() + " attributes, not " + outputFormat.numAttributes());
+        }
+        Instance instance = features.toInstance(1);
+        instance.setDataset(outputFormat);
+        return instance;
+    }
+
+    /**
+     * Get an empty data set in the output format.
+     *
+     * @return
+     */
+    public Instances getOutputFormat() {
+        return new Instances(outputFormat, 0);
+    }
+
+    /**
+     * The scratch space of one thread.
+     */
+    private static class Workspace {
+
+        final Object[] filterWorkspaces;
+        final FeatureVector[] vectors = {new FeatureVector(), new FeatureVector()};
+
+        Workspace(CompiledFilter[] filters) {
+            filterWorkspaces = new Object[filters.length];
+            for (int i = 0; i < filters.length; i++) {
+                filterWorkspaces[i] = filters[i].createWorkspace();
+            }
+        }
+    }
+
+    /**
+     * Compiled Remove or RemoveByName filter. Attributes are matched by name,
+     * and zeros are dropped as Remove does for sparse instances.
+     */
+    private static class CompiledRemove extends CompiledFilter {
+
+        private final int[] outputIndices;
+        private final int numOutputAttributes;
+
+        CompiledRemove(int[] outputIndices, int numOutputAttributes) {
+            this.outputIndices = outputIndices;
+            this.numOutputAttributes = numOutputAttributes;
+        }
+
+        CompiledRemove(Instances inputFormat, Instances outputFormat) {
+            this.outputIndices = new int[inputFormat.numAttributes()];
+            this.numOutputAttributes = outputFormat.numAttributes();
+
+            int numKept = 0;
+            int lastIndex = -1;
+            for (int i = 0; i < inputFormat.numAttributes(); i++) {
+                Attribute attribute = outputFormat.attribute(inputFormat.attribute(i).name());
+                if (attribute == null) {
+                    outputIndices[i] = -1;
+                } else if (attribute.index() <= lastIndex || attribute.type() != inputFormat.attribute(i).type()) {
+                    throw new IllegalArgumentException("Remove filter changes attribute " + attribute.name());
+                } else {
+                    outputIndices[i] = attribute.index();
+                    lastIndex = attribute.index();
+                    numKept++;
+                }
+            }
+
+            if (numKept != numOutputAttributes) {
+                throw new IllegalArgumentException("Remove filter adds attributes");
+            }
+        }
+
+        @Override
+        int getNumOutputAttributes() {
+            return numOutputAttributes;
+        }
+
+        @Override
+        void write(BinaryArtifact.Writer out) {
+            out.putInt(REMOVE);
+            out.putInt(numOutputAttributes);
+            out.putInts(outputIndices);
+        }
+
+        @Override
+        void apply(FeatureVector input, String text, FeatureVector output, Object workspace) {
+            output.clear(numOutputAttributes);
+            for (int k = 0; k < input.size(); k++) {
+                int index = outputIndices[input.index(k)];
+                double value = input.value(k);
+                if (index >= 0 && value != 0) {
+                    output.add(index, value);
+                }
+            }
+        }
+    }
+}
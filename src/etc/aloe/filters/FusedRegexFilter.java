@@ -0,0 +1,76 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.filters;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A filter that runs the regex features of several other regex filters at
+ * once. The output is the same as applying the filters one after another,
+ * but each instance is only copied once and every regex is matched in a
+ * single pass over the string.
+ *
+ * Whether a regex gets a length feature is taken from the filter it came
+ * from.
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public class FusedRegexFilter extends AbstractRegexFilter {
+
+    private static final long serialVersionUID = -3299192924789027150L;
+    private final NamedRegex[] regexFeatures;
+    private final boolean[] countRegexLengths;
+
+    /**
+     * Combine the regex features of the given filters, in order.
+     *
+     * @param attributeName The string attribute to search.
+     * @param filters
+     */
+    public FusedRegexFilter(String attributeName, AbstractRegexFilter... filters) {
+        this.setStringAttributeName(attributeName);
+
+        List<NamedRegex> regexes = new ArrayList<NamedRegex>();
+        List<Boolean> lengths = new ArrayList<Boolean>();
+        for (AbstractRegexFilter filter : filters) {
+            NamedRegex[] features = filter.getRegexFeatures();
+            for (int i = 0; i < features.length; i++) {
+                regexes.add(features[i]);
+                lengths.add(filter.isCountingRegexLength(i));
+            }
+        }
+
+        this.regexFeatures = regexes.toArray(new NamedRegex[regexes.size()]);
+        this.countRegexLengths = new boolean[lengths.size()];
+        for (int i = 0; i < countRegexLengths.length; i++) {
+            countRegexLengths[i] = lengths.get(i);
+        }
+    }
+
+    @Override
+    protected boolean isCountingRegexLength(int regexIndex) {
+        return countRegexLengths[regexIndex];
+    }
+
+    @Override
+    protected NamedRegex[] getRegexFeatures() {
+        return regexFeatures;
+    }
+}
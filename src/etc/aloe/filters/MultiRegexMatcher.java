@@ -0,0 +1,666 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.filters;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Counts the matches of several patterns in one string.
+ *
+ * Before any pattern is run, the text is scanned once from left to right to
+ * mark the positions where each pattern could possibly start a match. The
+ * possible starting characters for each pattern (and whether it only starts
+ * at the beginning of a word) are worked out from the regex when the matcher
+ * is built. Each pattern is then only tried at its own candidate positions,
+ * and patterns with no candidates are skipped. The counts and lengths are
+ * exactly those of calling find() repeatedly on each pattern.
+ *
+ * Not safe for use by multiple threads, since the matchers are reused.
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+final class MultiRegexMatcher {
+
+    private static final int ASCII = 128;
+    private final Matcher[] matchers;
+    private final int[] counts;
+    private final int[] maxLengths;
+    /**
+     * For each position in the last text, the patterns that may start there.
+     */
+    private long[] candidates = new long[256];
+    /**
+     * For each ASCII character, the patterns that may start a match on it.
+     */
+    private final long[] asciiStarts = new long[ASCII];
+    /**
+     * The patterns that may start a match on a non-ASCII character.
+     */
+    private long otherStarts;
+    /**
+     * The patterns that can't start right after a word character.
+     */
+    private long wordStartPatterns;
+    /**
+     * The patterns that could not be analyzed and are always run.
+     */
+    private long unfiltered;
+    private final long allPatterns;
+
+    /**
+     * Construct a matcher for up to 64 patterns.
+     *
+     * @param patterns
+     */
+    MultiRegexMatcher(Pattern[] patterns) {
+        if (patterns.length > Long.SIZE) {
+            throw new IllegalArgumentException("At most " + Long.SIZE + " patterns can be matched together");
+        }
+
+        matchers = new Matcher[patterns.length];
+        counts = new int[patterns.length];
+        maxLengths = new int[patterns.length];
+        allPatterns = patterns.length == Long.SIZE ? -1L : (1L << patterns.length) - 1;
+
+        for (int p = 0; p < patterns.length; p++) {
+            long bit = 1L << p;
+            matchers[p] = patterns[p].matcher("");
+            //Let lookbehinds see the text before the candidate position
+            matchers[p].useTransparentBounds(true);
+            matchers[p].useAnchoringBounds(false);
+
+            StartSet starts = StartSetParser.parse(patterns[p]);
+            if (starts == null) {
+                unfiltered |= bit;
+                continue;
+            }
+            for (int c = 0; c < ASCII; c++) {
+                if (starts.contains(c)) {
+                    asciiStarts[c] |= bit;
+                }
+            }
+            if (starts.other) {
+                otherStarts |= bit;
+            }
+            if (starts.wordStart) {
+                wordStartPatterns |= bit;
+            }
+        }
+    }
+
+    /**
+     * Get the number of patterns.
+     *
+     * @return
+     */
+    int size() {
+        return matchers.length;
+    }
+
+    /**
+     * Find all of the matches of every pattern in the text. The results are
+     * available from getCount() and getMaxLength() until the next call.
+     *
+     * @param text
+     */
+    void match(CharSequence text) {
+        int length = text.length();
+        if (candidates.length < length) {
+            candidates = new long[Math.max(length, 2 * candidates.length)];
+        }
+
+        long seen = 0;
+        boolean afterWordChar = false;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            long starts = c < ASCII ? asciiStarts[c] : otherStarts;
+            if (afterWordChar) {
+                starts &= ~wordStartPatterns;
+            }
+            candidates[i] = starts;
+            seen |= starts;
+            afterWordChar = isWordChar(c);
+        }
+
+        for (int p = 0; p < matchers.length; p++) {
+            long bit = 1L << p;
+            counts[p] = 0;
+            maxLengths[p] = 0;
+            if ((unfiltered & bit) != 0) {
+                findAll(p, text);
+            } else if ((seen & bit) != 0) {
+                matchCandidates(p, text);
+            }
+        }
+    }
+
+    /**
+     * Search for a pattern at every position of the text.
+     */
+    private void findAll(int p, CharSequence text) {
+        Matcher matcher = matchers[p].reset(text);
+        while (matcher.find()) {
+            count(p, matcher);
+        }
+        matcher.reset("");
+    }
+
+    /**
+     * Try a pattern at its candidate positions only. Since every match of a
+     * filtered pattern starts on a candidate and is not empty, this finds the
+     * same matches as find().
+     */
+    private void matchCandidates(int p, CharSequence text) {
+        long bit = 1L << p;
+        int length = text.length();
+        Matcher matcher = matchers[p].reset(text);
+        int i = 0;
+        while (i < length) {
+            if ((candidates[i] & bit) == 0) {
+                i++;
+                continue;
+            }
+
+            matcher.region(i, length);
+            if (matcher.lookingAt()) {
+                count(p, matcher);
+                i = Math.max(matcher.end(), i + 1);
+            } else {
+                i++;
+            }
+        }
+        //Don't hold on to the text
+        matcher.reset("");
+    }
+
+    private void count(int p, Matcher matcher) {
+        counts[p]++;
+        int len = matcher.end() - matcher.start();
+        if (len > maxLengths[p]) {
+            maxLengths[p] = len;
+        }
+    }
+
+    /**
+     * Whether a character is in \w, which is ASCII only by default.
+     */
+    private static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    /**
+     * Get the number of matches of a pattern in the last text.
+     *
+     * @param pattern
+     * @return
+     */
+    int getCount(int pattern) {
+        return counts[pattern];
+    }
+
+    /**
+     * Get the length of the longest match of a pattern in the last text.
+     *
+     * @param pattern
+     * @return
+     */
+    int getMaxLength(int pattern) {
+        return maxLengths[pattern];
+    }
+
+    /**
+     * A set of characters that a match may start with, whether the match
+     * may be empty (in which case it may start anywhere), and whether it can
+     * only start where the previous character is not a word character.
+     */
+    static final class StartSet {
+
+        private long low;
+        private long high;
+        private boolean other;
+        private boolean nullable;
+        private boolean wordStart;
+
+        static StartSet any() {
+            StartSet set = new StartSet();
+            set.low = -1L;
+            set.high = -1L;
+            set.other = true;
+            return set;
+        }
+
+        static StartSet empty() {
+            StartSet set = new StartSet();
+            set.nullable = true;
+            return set;
+        }
+
+        boolean contains(int c) {
+            if (c < 64) {
+                return (low & (1L << c)) != 0;
+            } else if (c < ASCII) {
+                return (high & (1L << (c - 64))) != 0;
+            }
+            return other;
+        }
+
+        boolean isNullable() {
+            return nullable;
+        }
+
+        boolean isWordStart() {
+            return wordStart;
+        }
+
+        void add(int c) {
+            if (c < 64) {
+                low |= 1L << c;
+            } else if (c < ASCII) {
+                high |= 1L << (c - 64);
+            } else {
+                other = true;
+            }
+        }
+
+        void addRange(int from, int to) {
+            for (int c = from; c <= to && c < ASCII; c++) {
+                add(c);
+            }
+            if (to >= ASCII) {
+                other = true;
+            }
+        }
+
+        void addAll(StartSet set) {
+            low |= set.low;
+            high |= set.high;
+            other |= set.other;
+        }
+
+        /**
+         * Add the other case of every ASCII letter in the set, as
+         * CASE_INSENSITIVE does.
+         */
+        void foldCase() {
+            for (int c = 'a'; c <= 'z'; c++) {
+                int upper = c - 'a' + 'A';
+                if (contains(c) || contains(upper)) {
+                    add(c);
+                    add(upper);
+                }
+            }
+        }
+    }
+
+    /**
+     * Works out the characters a regex match may start with. Only the syntax
+     * used by our filters is understood; anything else makes the whole
+     * pattern unfiltered. Where the answer is not exact it is always too
+     * large (lookarounds are ignored, intersections keep their left side,
+     * negated classes may start with anything), never too small.
+     */
+    static final class StartSetParser {
+
+        private static final String PUNCT = "!\"#$%&'()*+,-./:;<=>?@[\\]^_`{|}~";
+        private final String regex;
+        private final boolean caseInsensitive;
+        private int pos = 0;
+        /**
+         * The number of alternatives in the last alternation parsed, which is
+         * the whole pattern once parsing is done.
+         */
+        private int numAlternatives;
+
+        private StartSetParser(String regex, boolean caseInsensitive) {
+            this.regex = regex;
+            this.caseInsensitive = caseInsensitive;
+        }
+
+        /**
+         * Get the start set of a pattern, or null if it may match the empty
+         * string or could not be analyzed.
+         *
+         * @param pattern
+         * @return
+         */
+        static StartSet parse(Pattern pattern) {
+            if ((pattern.flags() & ~Pattern.CASE_INSENSITIVE) != 0) {
+                return null;
+            }
+
+            StartSetParser parser = new StartSetParser(pattern.pattern(), (pattern.flags() & Pattern.CASE_INSENSITIVE) != 0);
+            try {
+                StartSet set = parser.alternation();
+                if (parser.pos != parser.regex.length() || set.nullable) {
+                    return null;
+                }
+                //A leading lookbehind only covers the whole pattern if there
+                //is no top-level alternative after it, as in (?<!\w)foo|bar
+                set.wordStart = parser.regex.startsWith("(?<!\\w)") && parser.numAlternatives == 1;
+                return set;
+            } catch (UnsupportedSyntaxException e) {
+                return null;
+            }
+        }
+
+        private boolean more() {
+            return pos < regex.length();
+        }
+
+        private char peek() {
+            return regex.charAt(pos);
+        }
+
+        private StartSet alternation() throws UnsupportedSyntaxException {
+            StartSet result = sequence();
+            int alternatives = 1;
+            while (more() && peek() == '|') {
+                pos++;
+                StartSet next = sequence();
+                result.addAll(next);
+                result.nullable |= next.nullable;
+                alternatives++;
+            }
+            numAlternatives = alternatives;
+            return result;
+        }
+
+        private StartSet sequence() throws UnsupportedSyntaxException {
+            StartSet result = StartSet.empty();
+            while (more() && peek() != '|' && peek() != ')') {
+                StartSet item = quantified(atom());
+                //Later items only matter while everything before may be empty
+                if (result.nullable) {
+                    result.addAll(item);
+                    result.nullable = item.nullable;
+                }
+            }
+            return result;
+        }
+
+        private StartSet quantified(StartSet atom) throws UnsupportedSyntaxException {
+            if (!more()) {
+                return atom;
+            }
+
+            char c = peek();
+            if (c == '?' || c == '*') {
+                pos++;
+                atom.nullable = true;
+            } else if (c == '+') {
+                pos++;
+            } else if (c == '{') {
+                int close = regex.indexOf('}', pos);
+                if (close < 0) {
+                    throw new UnsupportedSyntaxException();
+                }
+                String bounds = regex.substring(pos + 1, close);
+                int comma = bounds.indexOf(',');
+                String min = comma < 0 ? bounds : bounds.substring(0, comma);
+                try {
+                    if (Integer.parseInt(min) == 0) {
+                        atom.nullable = true;
+                    }
+                } catch (NumberFormatException e) {
+                    throw new UnsupportedSyntaxException();
+                }
+                pos = close + 1;
+            } else {
+                return atom;
+            }
+
+            //Reluctant and possessive quantifiers match the same starts
+            if (more() && (peek() == '?' || peek() == '+')) {
+                pos++;
+            }
+            return atom;
+        }
+
+        private StartSet atom() throws UnsupportedSyntaxException {
+            StartSet set;
+            char c = regex.charAt(pos++);
+            switch (c) {
+                case '(':
+                    set = group();
+                    break;
+                case '[':
+                    set = characterClass();
+                    break;
+                case '\\':
+                    set = escape();
+                    break;
+                case '.':
+                    set = StartSet.any();
+                    break;
+                case '^':
+                case '$':
+                    set = StartSet.empty();
+                    break;
+                default:
+                    set = new StartSet();
+                    set.add(c);
+                    break;
+            }
+
+            if (caseInsensitive) {
+                set.foldCase();
+            }
+            return set;
+        }
+
+        private StartSet group() throws UnsupportedSyntaxException {
+            boolean lookaround = false;
+            if (regex.startsWith("?:", pos)) {
+                pos += 2;
+            } else if (regex.startsWith("?=", pos) || regex.startsWith("?!", pos)) {
+                pos += 2;
+                lookaround = true;
+            } else if (regex.startsWith("?<=", pos) || regex.startsWith("?<!", pos)) {
+                pos += 3;
+                lookaround = true;
+            } else if (regex.startsWith("?", pos)) {
+                //Named groups, inline flags, etc.
+                throw new UnsupportedSyntaxException();
+            }
+
+            StartSet content = alternation();
+            if (!more() || peek() != ')') {
+                throw new UnsupportedSyntaxException();
+            }
+            pos++;
+
+            //Lookarounds don't consume anything, so the match starts with whatever follows
+            if (lookaround) {
+                return StartSet.empty();
+            }
+            return content;
+        }
+
+        private StartSet escape() throws UnsupportedSyntaxException {
+            if (!more()) {
+                throw new UnsupportedSyntaxException();
+            }
+
+            char c = regex.charAt(pos++);
+            switch (c) {
+                case 'b':
+                case 'B':
+                    return StartSet.empty();
+                case 'Q':
+                    int end = regex.indexOf("\\E", pos);
+                    String quoted = end < 0 ? regex.substring(pos) : regex.substring(pos, end);
+                    pos = end < 0 ? regex.length() : end + 2;
+                    if (quoted.length() == 0) {
+                        return StartSet.empty();
+                    }
+                    StartSet set = new StartSet();
+                    set.add(quoted.charAt(0));
+                    return set;
+                default:
+                    if (c >= '1' && c <= '9') {
+                        //A back reference may be empty or anything at all
+                        StartSet any = StartSet.any();
+                        any.nullable = true;
+                        return any;
+                    }
+                    return classEscape(c);
+            }
+        }
+
+        /**
+         * An escape that stands for a set of characters, inside or outside
+         * of a character class.
+         */
+        private StartSet classEscape(char c) throws UnsupportedSyntaxException {
+            StartSet set = new StartSet();
+            switch (c) {
+                case 'w':
+                    set.addRange('a', 'z');
+                    set.addRange('A', 'Z');
+                    set.addRange('0', '9');
+                    set.add('_');
+                    break;
+                case 'd':
+                    set.addRange('0', '9');
+                    break;
+                case 's':
+                    set.add(' ');
+                    set.addRange('\t', '\r');
+                    break;
+                case 't':
+                    set.add('\t');
+                    break;
+                case 'n':
+                    set.add('\n');
+                    break;
+                case 'r':
+                    set.add('\r');
+                    break;
+                case 'f':
+                    set.add('\f');
+                    break;
+                case 'p':
+                    set = property();
+                    break;
+                default:
+                    if (Character.isLetterOrDigit(c)) {
+                        throw new UnsupportedSyntaxException();
+                    }
+                    set.add(c);
+                    break;
+            }
+            return set;
+        }
+
+        private StartSet property() throws UnsupportedSyntaxException {
+            int close = regex.indexOf('}', pos);
+            if (!more() || peek() != '{' || close < 0) {
+                throw new UnsupportedSyntaxException();
+            }
+            String name = regex.substring(pos + 1, close);
+            pos = close + 1;
+
+            StartSet set = new StartSet();
+            if (name.equals("Punct")) {
+                for (int i = 0; i < PUNCT.length(); i++) {
+                    set.add(PUNCT.charAt(i));
+                }
+            } else if (name.equals("Alpha")) {
+                set.addRange('a', 'z');
+                set.addRange('A', 'Z');
+            } else if (name.equals("Upper")) {
+                set.addRange('A', 'Z');
+            } else if (name.equals("Lower")) {
+                set.addRange('a', 'z');
+            } else if (name.equals("Digit")) {
+                set.addRange('0', '9');
+            } else {
+                throw new UnsupportedSyntaxException();
+            }
+            return set;
+        }
+
+        private StartSet characterClass() throws UnsupportedSyntaxException {
+            if (more() && peek() == '^') {
+                //Skip the contents; the complement of an estimate isn't safe
+                pos++;
+                characterClass();
+                return StartSet.any();
+            }
+
+            StartSet set = new StartSet();
+            //After an intersection, the rest of the class can only remove characters
+            StartSet target = set;
+            boolean first = true;
+            while (true) {
+                if (!more()) {
+                    throw new UnsupportedSyntaxException();
+                }
+
+                char c = regex.charAt(pos);
+                if (c == ']' && !first) {
+                    pos++;
+                    return set;
+                }
+                first = false;
+
+                if (c == '[') {
+                    pos++;
+                    target.addAll(characterClass());
+                } else if (regex.startsWith("&&", pos)) {
+                    pos += 2;
+                    target = new StartSet();
+                } else if (c == '\\') {
+                    pos += 2;
+                    if (pos > regex.length()) {
+                        throw new UnsupportedSyntaxException();
+                    }
+                    char escaped = regex.charAt(pos - 1);
+                    StartSet escapedSet = classEscape(escaped);
+                    if (pos + 1 < regex.length() && peek() == '-' && regex.charAt(pos + 1) != ']') {
+                        //Ranges from escaped characters
+                        throw new UnsupportedSyntaxException();
+                    }
+                    target.addAll(escapedSet);
+                } else {
+                    pos++;
+                    if (pos + 1 < regex.length() && peek() == '-' && regex.charAt(pos + 1) != ']') {
+                        char to = regex.charAt(pos + 1);
+                        if (to == '\\' || to == '[' || to < c) {
+                            throw new UnsupportedSyntaxException();
+                        }
+                        pos += 2;
+                        target.addRange(c, to);
+                    } else {
+                        target.add(c);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Thrown for regex syntax that the start set parser doesn't handle.
+     */
+    static final class UnsupportedSyntaxException extends Exception {
+
+        private static final long serialVersionUID = -6177038051333342643L;
+    }
+}
@@ -18,11 +18,27 @@
  */
 package etc.aloe.filters;
 
+import etc.aloe.data.BinaryArtifact;
+import etc.aloe.data.FeatureVector;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.StringTokenizer;
 import java.util.regex.Pattern;
+import org.tartarus.snowball.SnowballProgram;
 import weka.core.Attribute;
 import weka.core.Instances;
 import weka.core.stemmers.SnowballStemmer;
 import weka.core.stemmers.Stemmer;
+import weka.core.tokenizers.WordTokenizer;
 import weka.filters.unsupervised.attribute.StringToWordVector;
 
 /**
@@ -33,6 +49,7 @@ import weka.filters.unsupervised.attribute.StringToWordVector;
  */
 public class SimpleStringToWordVector extends StringToWordVector {
 
+    private static final long serialVersionUID = -5556599448921263553L;
     String stringAttributeName;
 
     @Override
@@ -59,14 +76,351 @@ public class SimpleStringToWordVector extends StringToWordVector {
         this.stringAttributeName = stringAttributeName;
     }
 
+    /**
+     * Compile this trained filter for use in a compiled filter chain.
+     *
+     * StringToWordVector keeps its dictionary and document statistics private,
+     * so they are read by reflection. Only the configurations ALOE uses are
+     * supported: a word tokenizer, no stop list, and a single selected string
+     * attribute.
+     *
+     * @param inputFormat The format of the vectors given to the compiled
+     * filter.
+     * @param textIndex The index of the string attribute in that format.
+     * @return
+     */
+    CompiledFilter compile(Instances inputFormat, int textIndex) {
+        Instances trainedFormat = getInputFormat();
+        CompiledFilter.checkFormat(trainedFormat, inputFormat);
+
+        int numInputAttributes = inputFormat.numAttributes();
+        int[] outputIndices = new int[numInputAttributes];
+        int firstCopy = 0;
+        for (int i = 0; i < numInputAttributes; i++) {
+            if (m_SelectedRange.isInRange(i)) {
+                if (i != textIndex) {
+                    throw new IllegalArgumentException("Bag of words filter selects attributes other than the string attribute");
+                }
+                outputIndices[i] = -1;
+            } else {
+                if (i == textIndex) {
+                    throw new IllegalArgumentException("Bag of words filter does not use the string attribute");
+                }
+                outputIndices[i] = firstCopy;
+                firstCopy++;
+            }
+        }
+        if (textIndex < 0) {
+            throw new IllegalArgumentException("Bag of words filter needs a string attribute");
+        }
+
+        if (getUseStoplist()) {
+            throw new IllegalArgumentException("Stop lists are not supported");
+        }
+        if (getTokenizer() == null || getTokenizer().getClass() != WordTokenizer.class) {
+            throw new IllegalArgumentException("Only the word tokenizer is supported");
+        }
+        String delimiters = ((WordTokenizer) getTokenizer()).getDelimiters();
+
+        Map<?, ?> dictionary = (Map<?, ?>) getPrivateField("m_Dictionary");
+        int[] docsCounts = (int[]) getPrivateField("m_DocsCounts");
+        int numInstances = (Integer) getPrivateField("m_NumInstances");
+        double avgDocLength = (Double) getPrivateField("m_AvgDocLength");
+        boolean normalize = getNormalizeDocLength().getSelectedTag().getID() != FILTER_NONE;
+        if (dictionary == null || docsCounts == null) {
+            throw new IllegalArgumentException("Bag of words filter has no dictionary");
+        }
+        if (normalize && avgDocLength < 0) {
+            throw new IllegalArgumentException("Average document length not set");
+        }
+
+        HashMap<String, Integer> wordIndices = new HashMap<String, Integer>();
+        for (Map.Entry<?, ?> entry : dictionary.entrySet()) {
+            wordIndices.put((String) entry.getKey(), (Integer) entry.getValue());
+        }
+
+        byte[] stemmer;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(getStemmer());
+            out.close();
+            stemmer = bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Stemmer can't be copied", e);
+        }
+
+        CompiledWordVector compiled = new CompiledWordVector(getOutputFormat().numAttributes(), outputIndices, firstCopy);
+        compiled.delimiters = delimiters;
+        compiled.wordIndices = wordIndices;
+        compiled.docsCounts = docsCounts.clone();
+        compiled.numInstances = numInstances;
+        compiled.avgDocLength = avgDocLength;
+        compiled.normalize = normalize;
+        compiled.outputCounts = getOutputWordCounts();
+        compiled.tfTransform = getTFTransform();
+        compiled.idfTransform = getIDFTransform();
+        compiled.lowerCaseTokens = getLowerCaseTokens();
+        compiled.stemmer = stemmer;
+        return compiled;
+    }
+
+    /**
+     * Read a compiled bag of words filter from a binary feature specification.
+     *
+     * @param buffer
+     * @return
+     * @throws InvalidObjectException
+     */
+    static CompiledFilter readCompiled(ByteBuffer buffer) throws InvalidObjectException {
+        int numOutputAttributes = buffer.getInt();
+        int[] outputIndices = BinaryArtifact.getInts(buffer);
+        int firstCopy = buffer.getInt();
+
+        CompiledWordVector compiled = new CompiledWordVector(numOutputAttributes, outputIndices, firstCopy);
+        compiled.delimiters = BinaryArtifact.getString(buffer);
+        int numWords = buffer.getInt();
+        if (numWords < 0 || numWords > buffer.remaining()) {
+            throw new InvalidObjectException("Invalid number of words " + numWords);
+        }
+        compiled.wordIndices = new HashMap<String, Integer>(numWords * 2);
+        for (int i = 0; i < numWords; i++) {
+            String word = BinaryArtifact.getString(buffer);
+            int index = buffer.getInt();
+            if (index < 0 || index >= numOutputAttributes) {
+                throw new InvalidObjectException("Invalid index " + index + " for word " + word);
+            }
+            compiled.wordIndices.put(word, index);
+        }
+        compiled.docsCounts = BinaryArtifact.getInts(buffer);
+        for (int index : compiled.wordIndices.values()) {
+            if (index >= compiled.docsCounts.length) {
+                throw new InvalidObjectException("No document count for index " + index);
+            }
+        }
+        compiled.numInstances = buffer.getInt();
+        compiled.avgDocLength = buffer.getDouble();
+        compiled.normalize = buffer.get() != 0;
+        compiled.outputCounts = buffer.get() != 0;
+        compiled.tfTransform = buffer.get() != 0;
+        compiled.idfTransform = buffer.get() != 0;
+        compiled.lowerCaseTokens = buffer.get() != 0;
+        compiled.stemmer = BinaryArtifact.getBytes(buffer);
+        return compiled;
+    }
+
+    private Object getPrivateField(String name) {
+        try {
+            Field field = StringToWordVector.class.getDeclaredField(name);
+            field.setAccessible(true);
+            return field.get(this);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Could not read " + name + " from the bag of words filter", e);
+        }
+    }
+
+    /**
+     * Compiled version of this filter. It follows the conversion in
+     * StringToWordVector step for step, so the values are the ones the trained
+     * filter would produce.
+     */
+    private static class CompiledWordVector extends CompiledFilter {
+
+        /**
+         * Stems looked up by each thread are cached up to this many tokens.
+         */
+        private static final int MAX_CACHED_TOKENS = 100000;
+        /**
+         * Copying a stemmer reads it back, which is not thread-safe for
+         * snowball stemmers.
+         */
+        private static final Object STEMMER_LOCK = new Object();
+        private final int numOutputAttributes;
+        private final int[] outputIndices;
+        private final int firstCopy;
+        private String delimiters;
+        private HashMap<String, Integer> wordIndices;
+        private int[] docsCounts;
+        private int numInstances;
+        private double avgDocLength;
+        private boolean normalize;
+        private boolean outputCounts;
+        private boolean tfTransform;
+        private boolean idfTransform;
+        private boolean lowerCaseTokens;
+        //The Java serialized stemmer, copied for each thread
+        private byte[] stemmer;
+
+        CompiledWordVector(int numOutputAttributes, int[] outputIndices, int firstCopy) {
+            this.numOutputAttributes = numOutputAttributes;
+            this.outputIndices = outputIndices;
+            this.firstCopy = firstCopy;
+        }
+
+        @Override
+        int getNumOutputAttributes() {
+            return numOutputAttributes;
+        }
+
+        @Override
+        Object createWorkspace() {
+            Stemmer copy;
+            synchronized (STEMMER_LOCK) {
+                try {
+                    ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(stemmer));
+                    copy = (Stemmer) in.readObject();
+                } catch (Exception e) {
+                    throw new IllegalStateException("Stemmer can't be copied", e);
+                }
+            }
+            return new WordVectorWorkspace(copy, numOutputAttributes);
+        }
+
+        @Override
+        void write(BinaryArtifact.Writer out) {
+            out.putInt(WORD_VECTOR);
+            out.putInt(numOutputAttributes);
+            out.putInts(outputIndices);
+            out.putInt(firstCopy);
+            out.putString(delimiters);
+            out.putInt(wordIndices.size());
+            for (Map.Entry<String, Integer> entry : wordIndices.entrySet()) {
+                out.putString(entry.getKey());
+                out.putInt(entry.getValue());
+            }
+            out.putInts(docsCounts);
+            out.putInt(numInstances);
+            out.putDouble(avgDocLength);
+            out.putBoolean(normalize);
+            out.putBoolean(outputCounts);
+            out.putBoolean(tfTransform);
+            out.putBoolean(idfTransform);
+            out.putBoolean(lowerCaseTokens);
+            out.putBytes(stemmer);
+        }
+
+        @Override
+        void apply(FeatureVector input, String text, FeatureVector output, Object workspace) {
+            WordVectorWorkspace buffers = (WordVectorWorkspace) workspace;
+
+            output.clear(numOutputAttributes);
+            for (int k = 0; k < input.size(); k++) {
+                int index = outputIndices[input.index(k)];
+                if (index >= 0 && input.value(k) != 0) {
+                    output.add(index, input.value(k));
+                }
+            }
+
+            if (text == null) {
+                return;
+            }
+
+            double[] counts = buffers.counts;
+            int[] touched = buffers.touched;
+            int numTouched = 0;
+
+            StringTokenizer tokenizer = new StringTokenizer(text, delimiters);
+            while (tokenizer.hasMoreTokens()) {
+                int index = buffers.lookup(tokenizer.nextToken(), this);
+                if (index >= 0) {
+                    if (counts[index] == 0) {
+                        touched[numTouched++] = index;
+                    }
+                    if (outputCounts) {
+                        counts[index]++;
+                    } else {
+                        counts[index] = 1;
+                    }
+                }
+            }
+            Arrays.sort(touched, 0, numTouched);
+
+            double docLength = 0;
+            for (int t = 0; t < numTouched; t++) {
+                int index = touched[t];
+                double value = counts[index];
+                if (tfTransform) {
+                    value = Math.log(value + 1);
+                }
+                if (idfTransform) {
+                    value = value * Math.log(numInstances / (double) docsCounts[index]);
+                }
+                counts[index] = value;
+                docLength += value * value;
+            }
+            docLength = Math.sqrt(docLength);
+
+            for (int t = 0; t < numTouched; t++) {
+                int index = touched[t];
+                double value = counts[index];
+                counts[index] = 0;
+                if (normalize) {
+                    value = value * avgDocLength / docLength;
+                    //Normalized zeros are removed from the sparse instance
+                    if (value == 0) {
+                        continue;
+                    }
+                }
+                output.add(index, value);
+            }
+        }
+
+        int getWordIndex(String token, Stemmer stemmer) {
+            String word = token;
+            if (lowerCaseTokens) {
+                word = word.toLowerCase();
+            }
+            word = stemmer.stem(word);
+            Integer index = wordIndices.get(word);
+            return index == null ? -1 : index;
+        }
+    }
+
+    /**
+     * The buffers and stemmer one thread uses to apply a compiled filter.
+     */
+    private static class WordVectorWorkspace {
+
+        final Stemmer stemmer;
+        final double[] counts;
+        final int[] touched;
+        final HashMap<String, Integer> tokenIndices = new HashMap<String, Integer>();
+
+        WordVectorWorkspace(Stemmer stemmer, int numOutputAttributes) {
+            this.stemmer = stemmer;
+            this.counts = new double[numOutputAttributes];
+            this.touched = new int[numOutputAttributes];
+        }
+
+        int lookup(String token, CompiledWordVector filter) {
+            Integer index = tokenIndices.get(token);
+            if (index == null) {
+                if (tokenIndices.size() >= CompiledWordVector.MAX_CACHED_TOKENS) {
+                    tokenIndices.clear();
+                }
+                index = filter.getWordIndex(token, stemmer);
+                tokenIndices.put(token, index);
+            }
+            return index;
+        }
+    }
+
     public static class NoNonsenseStemmer implements Stemmer {
 
         private SnowballStemmer snowball;
+        //The snowball program behind the Weka stemmer, called directly
+        private transient SnowballProgram program;
         private final Pattern nonsensePattern;
 
         public NoNonsenseStemmer(boolean useSnowball) {
             if (useSnowball) {
-                this.snowball = new SnowballStemmer();
+                //Snowball stemmers look up their implementation through static
+                //state that is not thread-safe
+                synchronized (NoNonsenseStemmer.class) {
+                    this.snowball = new SnowballStemmer();
+                    this.snowball.stem("");
+                }
+                this.program = getProgram(snowball);
             }
 
             this.nonsensePattern = Pattern.compile("^[\\p{Digit}\\p{Punct}]*$");
@@ -80,7 +434,12 @@ public class SimpleStringToWordVector extends StringToWordVector {
                 word = "";
             }
 
-            if (snowball != null) {
+            if (program != null) {
+                //As in SnowballStemmer.stem, without reflection
+                program.setCurrent(word);
+                ((org.tartarus.snowball.SnowballStemmer) program).stem();
+                return program.getCurrent();
+            } else if (snowball != null) {
                 return snowball.stem(word);
             } else {
                 return word;
@@ -91,5 +450,45 @@ public class SimpleStringToWordVector extends StringToWordVector {
         public String getRevision() {
             return "1";
         }
+
+        /**
+         * Get the snowball program a Weka stemmer wraps. Weka keeps it in a
+         * protected field, next to the reflective methods it calls it with.
+         *
+         * @return The program, or null if it is not a snowball stemmer.
+         */
+        private static SnowballProgram getProgram(SnowballStemmer snowball) {
+            try {
+                Field field = SnowballStemmer.class.getDeclaredField("m_Stemmer");
+                field.setAccessible(true);
+                Object program = field.get(snowball);
+                if (program instanceof org.tartarus.snowball.SnowballStemmer) {
+                    return (SnowballProgram) program;
+                }
+            } catch (Exception e) {
+            }
+            return null;
+        }
+
+        /**
+         * Set up the snowball stemmer as soon as this stemmer is read.
+         *
+         * The snowball program is read along with the Weka stemmer, so it is
+         * used directly. Otherwise the Weka stemmer looks up its
+         * implementation again on first use, by searching the class path for
+         * every snowball stemmer, which takes over a second and goes through
+         * static state that is not thread-safe.
+         */
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            if (snowball != null) {
+                program = getProgram(snowball);
+                if (program == null) {
+                    synchronized (NoNonsenseStemmer.class) {
+                        snowball.stem("");
+                    }
+                }
+            }
+        }
     }
 }
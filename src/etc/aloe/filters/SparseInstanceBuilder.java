@@ -0,0 +1,147 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.filters;
+
+import java.util.Arrays;
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+import weka.core.Utils;
+
+/**
+ * Builds the output instances of filters that copy their input attributes
+ * and append new ones. Only the non-zero values of the input are visited, and
+ * the index and value buffers are reused from one instance to the next, so
+ * the work per instance depends on the number of non-zero values rather than
+ * the number of attributes.
+ *
+ * String values are added to the output format's attributes, as Weka's
+ * string-to-vector filters do.
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+final class SparseInstanceBuilder {
+
+    private static final int INITIAL_CAPACITY = 64;
+    /**
+     * The string attributes of the input format, in order.
+     */
+    private final int[] stringAttributes;
+    private int[] indices = new int[INITIAL_CAPACITY];
+    private double[] values = new double[INITIAL_CAPACITY];
+    private int size = 0;
+
+    /**
+     * Construct a builder for instances in the given input format.
+     *
+     * @param inputFormat
+     */
+    SparseInstanceBuilder(Instances inputFormat) {
+        int numStrings = 0;
+        int[] strings = new int[inputFormat.numAttributes()];
+        for (int i = 0; i < inputFormat.numAttributes(); i++) {
+            if (inputFormat.attribute(i).type() == Attribute.STRING) {
+                strings[numStrings++] = i;
+            }
+        }
+        this.stringAttributes = Arrays.copyOf(strings, numStrings);
+    }
+
+    /**
+     * Start a new output instance with the values of an input instance.
+     * Non-string values are copied if they are not zero. String values are
+     * added to the corresponding attribute of the output format.
+     *
+     * @param instance
+     * @param outputFormat
+     */
+    void copy(Instance instance, Instances outputFormat) {
+        size = 0;
+
+        //String attributes are handled separately since their value may be
+        //index 0, which a sparse instance doesn't store
+        int nextString = 0;
+        int numValues = instance.numValues();
+        for (int k = 0; k < numValues; k++) {
+            int index = instance.index(k);
+            while (nextString < stringAttributes.length && stringAttributes[nextString] <= index) {
+                copyString(instance, stringAttributes[nextString], outputFormat);
+                nextString++;
+            }
+
+            if (nextString > 0 && stringAttributes[nextString - 1] == index) {
+                continue;
+            }
+            add(index, instance.valueSparse(k));
+        }
+
+        while (nextString < stringAttributes.length) {
+            copyString(instance, stringAttributes[nextString], outputFormat);
+            nextString++;
+        }
+    }
+
+    private void copyString(Instance instance, int index, Instances outputFormat) {
+        if (instance.isMissing(index)) {
+            add(index, Utils.missingValue());
+            return;
+        }
+
+        Attribute attribute = outputFormat.attribute(index);
+        if (attribute.numValues() == 0) {
+            // Note that the first string value in a
+            // SparseInstance doesn't get printed.
+            attribute.addStringValue("Hack to defeat SparseInstance bug");
+        }
+        add(index, attribute.addStringValue(instance.stringValue(index)));
+    }
+
+    /**
+     * Append a value to the instance being built. Zeros are skipped. Indices
+     * must be added in increasing order.
+     *
+     * @param index
+     * @param value
+     */
+    void add(int index, double value) {
+        if (value == 0) {
+            return;
+        }
+
+        if (size == indices.length) {
+            indices = Arrays.copyOf(indices, 2 * size);
+            values = Arrays.copyOf(values, 2 * size);
+        }
+        indices[size] = index;
+        values[size] = value;
+        size++;
+    }
+
+    /**
+     * Create the instance from the values added since the last copy().
+     *
+     * @param weight
+     * @param numAttributes The number of attributes in the output format.
+     * @return
+     */
+    Instance build(double weight, int numAttributes) {
+        return new SparseInstance(weight, Arrays.copyOf(values, size), Arrays.copyOf(indices, size), numAttributes);
+    }
+}
@@ -18,9 +18,13 @@
  */
 package etc.aloe.filters;
 
+import etc.aloe.data.BinaryArtifact;
+import etc.aloe.data.FeatureVector;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.InvalidObjectException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.*;
 import weka.core.*;
 import weka.filters.Filter;
@@ -35,6 +39,7 @@ import weka.filters.SimpleBatchFilter;
  */
 public class StringToDictionaryVector extends SimpleBatchFilter {
 
+    private static final long serialVersionUID = 6031955667976887409L;
     private int stringAttributeIndex = -1;
     private String stringAttribute;
     List<String> termList;
@@ -71,13 +76,20 @@ public class StringToDictionaryVector extends SimpleBatchFilter {
      */
     private ArrayList<String> m_selectedTerms;
     /**
-     * The trie containing the selected terms for matching.
+     * Matches the selected terms, reporting them by their index in
+     * m_selectedTerms. Rebuilt after deserialization.
      */
-    private Trie m_selectedTermsTrie;
+    private transient TermMatcher m_selectedTermsMatcher;
     /**
-     * Maps the terms to indices in m_selectedTerms
+     * Scratch space for matching: counts by selected term index, and the
+     * indices of the terms that were matched.
      */
-    private HashMap<String, Integer> m_selectedTermIndices;
+    private transient int[] m_matchCounts;
+    private transient int[] m_matchedTerms;
+    /**
+     * Builds the output instances. Recreated after deserialization.
+     */
+    private transient SparseInstanceBuilder m_instanceBuilder;
     /**
      * True if word frequencies should be transformed into log(1+fi) where fi is
      * the frequency of word i.
@@ -326,6 +338,7 @@ public class StringToDictionaryVector extends SimpleBatchFilter {
         }
 
         stringAttributeIndex = inputFormat.attribute(getStringAttribute()).index();
+        m_instanceBuilder = null;
 
         inputFormat = getInputFormat();
         //This generates m_selectedTerms and m_DocsCounts
@@ -348,16 +361,6 @@ public class StringToDictionaryVector extends SimpleBatchFilter {
         return outputFormat;
     }
 
-    private class Count {
-
-        public int count = 0;
-        public int docCount = 0;
-
-        public Count(int count) {
-            this.count = count;
-        }
-    }
-
     /**
      * sorts an array.
      *
@@ -399,13 +402,19 @@ public class StringToDictionaryVector extends SimpleBatchFilter {
             termIndices.put(termList.get(i), i);
         }
 
-        //Create the trie for matching terms
-        Trie termTrie = new Trie(termList);
+        //Create the matcher for the terms
+        TermMatcher termMatcher = new TermMatcher(termList);
+        int numTerms = termList.size();
+        int[] matchCounts = new int[numTerms];
+        int[] matchedTerms = new int[numTerms];
 
-        //Initialize the dictionary/count map
-        ArrayList<HashMap<Integer, Count>> termCounts = new ArrayList<HashMap<Integer, Count>>();
+        //Initialize the counts, by class and term index
+        int[][] termCounts = new int[values][numTerms];
+        int[][] termDocCounts = new int[values][numTerms];
+        //The terms seen in each class, in the order they were first seen
+        ArrayList<HashSet<Integer>> seenTerms = new ArrayList<HashSet<Integer>>();
         for (int z = 0; z < values; z++) {
-            termCounts.add(new HashMap<Integer, Count>());
+            seenTerms.add(new HashSet<Integer>());
         }
 
         //Go through all the instances and count the emoticons
@@ -419,37 +428,23 @@ public class StringToDictionaryVector extends SimpleBatchFilter {
             //Get the string attribute to examine
             String stringValue = instance.stringValue(stringAttributeIndex);
 
-            HashMap<Integer, Count> termCountsForClass = termCounts.get(vInd);
-
-            HashMap<String, Integer> termMatches = termTrie.countNonoverlappingMatches(stringValue);
-            for (Map.Entry<String, Integer> entry : termMatches.entrySet()) {
-                String term = entry.getKey();
-                int termIdx = termIndices.get(term);
-
-                int matches = entry.getValue();
-
-                Count count = termCountsForClass.get(termIdx);
-                if (count == null) {
-                    count = new Count(0);
-                    termCountsForClass.put(termIdx, count);
-                }
-
-                if (matches > 0) {
-                    count.docCount += 1;
-                    count.count += matches;
-                }
+            int numMatched = termMatcher.match(stringValue, matchCounts, matchedTerms);
+            for (int m = 0; m < numMatched; m++) {
+                int termIdx = matchedTerms[m];
+                seenTerms.get(vInd).add(termIdx);
+                termDocCounts[vInd][termIdx] += 1;
+                termCounts[vInd][termIdx] += matchCounts[termIdx];
+                matchCounts[termIdx] = 0;
             }
         }
 
         // Figure out the minimum required word frequency
         int prune[] = new int[values];
         for (int z = 0; z < values; z++) {
-            HashMap<Integer, Count> termCountsForClass = termCounts.get(z);
-
-            int array[] = new int[termCountsForClass.size()];
+            int array[] = new int[seenTerms.get(z).size()];
             int pos = 0;
-            for (Map.Entry<Integer, Count> entry : termCountsForClass.entrySet()) {
-                array[pos] = entry.getValue().count;
+            for (int termIndex : seenTerms.get(z)) {
+                array[pos] = termCounts[z][termIndex];
                 pos++;
             }
 
@@ -470,13 +465,9 @@ public class StringToDictionaryVector extends SimpleBatchFilter {
         // that occur in multiple classes)
         HashSet<String> selectedTerms = new HashSet<String>();
         for (int z = 0; z < values; z++) {
-            HashMap<Integer, Count> termCountsForClass = termCounts.get(z);
-
-            for (Map.Entry<Integer, Count> entry : termCountsForClass.entrySet()) {
-                int termIndex = entry.getKey();
+            for (int termIndex : seenTerms.get(z)) {
                 String term = termList.get(termIndex);
-                Count count = entry.getValue();
-                if (count.count >= prune[z]) {
+                if (termCounts[z][termIndex] >= prune[z]) {
                     selectedTerms.add(term);
                 }
             }
@@ -484,15 +475,9 @@ public class StringToDictionaryVector extends SimpleBatchFilter {
 
         //Save the selected terms as a list
         this.m_selectedTerms = new ArrayList<String>(selectedTerms);
-        this.m_selectedTermsTrie = new Trie(this.m_selectedTerms);
+        this.m_selectedTermsMatcher = null;
         this.m_NumInstances = instances.size();
 
-        //Construct the selected terms to index map
-        this.m_selectedTermIndices = new HashMap<String, Integer>();
-        for (int i = 0; i < m_selectedTerms.size(); i++) {
-            m_selectedTermIndices.put(m_selectedTerms.get(i), i);
-        }
-
         // Compute document frequencies, organized by selected term index (not original term index)
         int[] docsCounts = new int[m_selectedTerms.size()];
         for (int i = 0; i < m_selectedTerms.size(); i++) {
@@ -500,18 +485,95 @@ public class StringToDictionaryVector extends SimpleBatchFilter {
             int termIndex = termIndices.get(term);
             int docsCount = 0;
             for (int z = 0; z < values; z++) {
-                HashMap<Integer, Count> termCountsForClass = termCounts.get(z);
-
-                Count count = termCountsForClass.get(termIndex);
-                if (count != null) {
-                    docsCount += count.docCount;
-                }
+                docsCount += termDocCounts[z][termIndex];
             }
             docsCounts[i] = docsCount;
         }
         return docsCounts;
     }
 
+    /**
+     * Get the builder for output instances, creating it if the input format
+     * was just set or this filter was just deserialized.
+     *
+     * @return
+     */
+    private SparseInstanceBuilder getInstanceBuilder() {
+        if (m_instanceBuilder == null) {
+            m_instanceBuilder = new SparseInstanceBuilder(getInputFormat());
+        }
+        return m_instanceBuilder;
+    }
+
+    /**
+     * Get the matcher for the selected terms, building it if the dictionary
+     * was just determined or this filter was just deserialized.
+     *
+     * @return
+     */
+    private TermMatcher getSelectedTermsMatcher() {
+        if (m_selectedTermsMatcher == null) {
+            m_selectedTermsMatcher = new TermMatcher(m_selectedTerms);
+            m_matchCounts = new int[m_selectedTerms.size()];
+            m_matchedTerms = new int[m_selectedTerms.size()];
+        }
+        return m_selectedTermsMatcher;
+    }
+
+    /**
+     * Compile this trained filter for use in a compiled filter chain.
+     *
+     * @param inputFormat The format of the vectors given to the compiled
+     * filter.
+     * @param textIndex The index of the string attribute in that format.
+     * @return
+     */
+    CompiledFilter compile(Instances inputFormat, int textIndex) {
+        CompiledFilter.checkFormat(getInputFormat(), inputFormat);
+        if (stringAttributeIndex < 0 || stringAttributeIndex != textIndex) {
+            throw new IllegalArgumentException("Dictionary filter does not use the string attribute");
+        }
+        if (m_filterType != FILTER_NONE && m_AvgDocLength < 0) {
+            throw new IllegalArgumentException("Average document length not set");
+        }
+
+        return new CompiledDictionaryFilter(m_selectedTerms, m_DocsCounts.clone(), m_NumInstances,
+                m_OutputCounts, m_TFTransform, m_IDFTransform, m_filterType != FILTER_NONE,
+                m_AvgDocLength, inputFormat.numAttributes());
+    }
+
+    /**
+     * Read a compiled dictionary filter from a binary feature specification.
+     *
+     * @param buffer
+     * @return
+     * @throws InvalidObjectException
+     */
+    static CompiledFilter readCompiled(ByteBuffer buffer) throws InvalidObjectException {
+        int numOldValues = buffer.getInt();
+        int numTerms = buffer.getInt();
+        if (numTerms < 0 || numTerms > buffer.remaining()) {
+            throw new InvalidObjectException("Invalid number of terms " + numTerms);
+        }
+        List<String> terms = new ArrayList<String>(numTerms);
+        for (int i = 0; i < numTerms; i++) {
+            terms.add(BinaryArtifact.getString(buffer));
+        }
+        int[] docsCounts = BinaryArtifact.getInts(buffer);
+        if (docsCounts.length != numTerms) {
+            throw new InvalidObjectException("Document counts do not match the terms");
+        }
+        int numInstances = buffer.getInt();
+        boolean outputCounts = buffer.get() != 0;
+        boolean tfTransform = buffer.get() != 0;
+        boolean idfTransform = buffer.get() != 0;
+        boolean normalize = buffer.get() != 0;
+        double avgDocLength = buffer.getDouble();
+
+        return new CompiledDictionaryFilter(terms, docsCounts, numInstances,
+                outputCounts, tfTransform, idfTransform, normalize, avgDocLength, numOldValues);
+    }
+
     /**
      * Converts the instance w/o normalization.
      *
@@ -526,42 +588,23 @@ public class StringToDictionaryVector extends SimpleBatchFilter {
         }
 
         int numOldValues = instance.numAttributes();
-        double[] newValues = new double[numOldValues + m_selectedTerms.size()];
-
-        // Copy all attributes from input to output
-        for (int i = 0; i < getInputFormat().numAttributes(); i++) {
-            if (getInputFormat().attribute(i).type() != Attribute.STRING) {
-                // Add simple nominal and numeric attributes directly
-                if (instance.value(i) != 0.0) {
-                    newValues[i] = instance.value(i);
-                }
-            } else {
-                if (instance.isMissing(i)) {
-                    newValues[i] = Utils.missingValue();
-                } else {
 
-                    // If this is a string attribute, we have to first add
-                    // this value to the range of possible values, then add
-                    // its new internal index.
-                    if (outputFormatPeek().attribute(i).numValues() == 0) {
-                        // Note that the first string value in a
-                        // SparseInstance doesn't get printed.
-                        outputFormatPeek().attribute(i).addStringValue("Hack to defeat SparseInstance bug");
-                    }
-                    int newIndex = outputFormatPeek().attribute(i).addStringValue(instance.stringValue(i));
-                    newValues[i] = newIndex;
-                }
-            }
-        }
+        // Copy the non-zero attributes from input to output
+        SparseInstanceBuilder builder = getInstanceBuilder();
+        builder.copy(instance, outputFormatPeek());
 
         String stringValue = instance.stringValue(stringAttributeIndex);
         double docLength = 0;
 
-        HashMap<String, Integer> termMatches = m_selectedTermsTrie.countNonoverlappingMatches(stringValue);
-        for (Map.Entry<String, Integer> entry : termMatches.entrySet()) {
-            String term = entry.getKey();
-            int termIdx = m_selectedTermIndices.get(term);
-            double matches = entry.getValue();
+        TermMatcher matcher = getSelectedTermsMatcher();
+        int numMatched = matcher.match(stringValue, m_matchCounts, m_matchedTerms);
+
+        //Go through the terms in order so the document length doesn't depend on match order
+        Arrays.sort(m_matchedTerms, 0, numMatched);
+        for (int m = 0; m < numMatched; m++) {
+            int termIdx = m_matchedTerms[m];
+            double matches = m_matchCounts[termIdx];
+            m_matchCounts[termIdx] = 0;
             if (!m_OutputCounts && matches > 0) {
                 matches = 1;
             }
@@ -575,12 +618,12 @@ public class StringToDictionaryVector extends SimpleBatchFilter {
                     matches = matches * Math.log(m_NumInstances / (double) m_DocsCounts[termIdx]);
                 }
 
-                newValues[numOldValues + termIdx] = matches;
+                builder.add(numOldValues + termIdx, matches);
                 docLength += matches * matches;
             }
         }
 
-        Instance result = new SparseInstance(instance.weight(), newValues);
+        Instance result = builder.build(instance.weight(), numOldValues + m_selectedTerms.size());
         converted.add(result);
 
         return Math.sqrt(docLength);
@@ -607,13 +650,21 @@ public class StringToDictionaryVector extends SimpleBatchFilter {
             throw new Exception("Average document length not set.");
         }
 
-        // Normalize document vector
-        for (int j = numOldValues; j < inst.numAttributes(); j++) {
-            double val = inst.value(j) * m_AvgDocLength / docLength;
-            inst.setValue(j, val);
+        // Normalize document vector (the zeros stay zero)
+        for (int k = 0; k < inst.numValues(); k++) {
+            if (inst.index(k) >= numOldValues) {
+                double val = inst.valueSparse(k) * m_AvgDocLength / docLength;
+                inst.setValueSparse(k, val);
+            }
         }
     }
 
+    @Override
+    public boolean input(Instance instance) throws Exception {
+        StringValueRelease.beforeInput(this);
+        return super.input(instance);
+    }
+
     @Override
     protected Instances process(Instances instances) throws Exception {
         Instances result = new Instances(getOutputFormat(), 0);
@@ -656,109 +707,160 @@ public class StringToDictionaryVector extends SimpleBatchFilter {
         return result;
     }
 
-    private static class Trie implements Serializable {
-
-        private static class TrieNode implements Serializable {
-
-            boolean exists = false;
-            HashMap<Character, TrieNode> branches = new HashMap<Character, Trie.TrieNode>();
+    /**
+     * Compiled form of a dictionary filter. The term matcher is shared, and
+     * each thread counts matches in its own buffers.
+     */
+    private static class CompiledDictionaryFilter extends CompiledFilter {
+
+        private final List<String> terms;
+        private final TermMatcher termMatcher;
+        private final int numTerms;
+        private final int[] docsCounts;
+        private final int numInstances;
+        private final boolean outputCounts;
+        private final boolean tfTransform;
+        private final boolean idfTransform;
+        private final boolean normalize;
+        private final double avgDocLength;
+        private final int numOldValues;
+
+        CompiledDictionaryFilter(List<String> terms, int[] docsCounts, int numInstances,
+                boolean outputCounts, boolean tfTransform, boolean idfTransform, boolean normalize,
+                double avgDocLength, int numOldValues) {
+            this.terms = new ArrayList<String>(terms);
+            this.termMatcher = new TermMatcher(this.terms);
+            this.numTerms = this.terms.size();
+            this.docsCounts = docsCounts;
+            this.numInstances = numInstances;
+            this.outputCounts = outputCounts;
+            this.tfTransform = tfTransform;
+            this.idfTransform = idfTransform;
+            this.normalize = normalize;
+            this.avgDocLength = avgDocLength;
+            this.numOldValues = numOldValues;
+        }
+
+        @Override
+        void write(BinaryArtifact.Writer out) {
+            //The terms are written in index order
+            out.putInt(DICTIONARY);
+            out.putInt(numOldValues);
+            out.putInt(numTerms);
+            for (String term : terms) {
+                out.putString(term);
+            }
+            out.putInts(docsCounts);
+            out.putInt(numInstances);
+            out.putBoolean(outputCounts);
+            out.putBoolean(tfTransform);
+            out.putBoolean(idfTransform);
+            out.putBoolean(normalize);
+            out.putDouble(avgDocLength);
         }
-        TrieNode root = new TrieNode();
 
-        public Trie() {
+        @Override
+        int getNumOutputAttributes() {
+            return numOldValues + numTerms;
         }
 
-        public Trie(Collection<String> tokens) {
-            for (String token : tokens) {
-                this.add(token);
-            }
+        @Override
+        Object createWorkspace() {
+            return new DictionaryWorkspace(numTerms);
         }
 
-        public void add(String term) {
-            TrieNode currentNode = this.root;
-            for (int i = 0; i < term.length(); i++) {
-                char c = term.charAt(i);
-                TrieNode next = currentNode.branches.get(c);
-                if (next == null) {
-                    next = new TrieNode();
-                    currentNode.branches.put(c, next);
+        @Override
+        void apply(FeatureVector input, String text, FeatureVector output, Object workspace) {
+            output.clear(numOldValues + numTerms);
+            for (int k = 0; k < input.size(); k++) {
+                if (input.value(k) != 0) {
+                    output.add(input.index(k), input.value(k));
                 }
-                currentNode = next;
             }
-            currentNode.exists = true;
-        }
 
-        public boolean contains(String term) {
-            TrieNode currentNode = this.root;
-            for (int i = 0; i < term.length(); i++) {
-                char c = term.charAt(i);
-                TrieNode next = currentNode.branches.get(c);
-                if (next == null) {
-                    return false;
-                }
-                currentNode = next;
-            }
-            return currentNode.exists;
-        }
-
-        /**
-         * Finds the longest substring in the Trie that matches haystack
-         * starting from the given index.
-         *
-         * @param haystack
-         * @return
-         */
-        public String getLongestMatch(String haystack, int startingFrom) {
-            TrieNode currentNode = this.root;
-            String longestMatch = null;
-            String workingString = "";
-            for (int i = startingFrom; i < haystack.length(); i++) {
-                char c = haystack.charAt(i);
-                TrieNode next = currentNode.branches.get(c);
-                if (next == null) {
-                    return longestMatch;
+            DictionaryWorkspace buffers = (DictionaryWorkspace) workspace;
+            int[] matchCounts = buffers.matchCounts;
+            int[] matchedTerms = buffers.matchedTerms;
+            double[] values = buffers.values;
+            int numMatched = termMatcher.match(text, matchCounts, matchedTerms);
+            Arrays.sort(matchedTerms, 0, numMatched);
+
+            //Transform the counts as convertInstancewoDocNorm does
+            double docLength = 0;
+            for (int m = 0; m < numMatched; m++) {
+                int termIdx = matchedTerms[m];
+                double matches = matchCounts[termIdx];
+                matchCounts[termIdx] = 0;
+                if (!outputCounts && matches > 0) {
+                    matches = 1;
                 }
-                currentNode = next;
-                //Build up the next match
-                workingString += c;
 
-                if (currentNode.exists) {
-                    //This is the best match so far
-                    longestMatch = workingString;
-                }
-            }
-            return longestMatch;
-        }
-
-        /**
-         * Matches all Trie terms against the haystack, not overlapping. Returns
-         * the matched words and the number of times they occurred.
-         */
-        public HashMap<String, Integer> countNonoverlappingMatches(String haystack) {
-            HashMap<String, Integer> matchCounts = new HashMap<String, Integer>();
-
-            //Go through the string greedily
-            for (int i = 0; i < haystack.length();) {
-                String longestMatch = getLongestMatch(haystack, i);
-                if (longestMatch != null) {
-                    if (!matchCounts.containsKey(longestMatch)) {
-                        matchCounts.put(longestMatch, 1);
-                    } else {
-                        int count = matchCounts.get(longestMatch);
-                        matchCounts.put(longestMatch, count + 1);
+                if (matches > 0) {
+                    if (tfTransform == true) {
+                        matches = Math.log(matches + 1);
                     }
 
-                    //Skip ahead by length
-                    i += longestMatch.length();
+                    if (idfTransform == true) {
+                        matches = matches * Math.log(numInstances / (double) docsCounts[termIdx]);
+                    }
+
+                    docLength += matches * matches;
+                    values[m] = matches;
                 } else {
-                    i++;
+                    values[m] = 0;
+                }
+            }
+            docLength = Math.sqrt(docLength);
+
+            for (int m = 0; m < numMatched; m++) {
+                double value = values[m];
+                if (value != 0) {
+                    if (normalize && docLength != 0) {
+                        value = value * avgDocLength / docLength;
+                    }
+                    //Sparse instances drop values set to zero
+                    if (value != 0) {
+                        output.add(numOldValues + matchedTerms[m], value);
+                    }
                 }
             }
+        }
+    }
+
+    /**
+     * The buffers one thread uses to apply a compiled dictionary filter.
+     */
+    private static class DictionaryWorkspace {
+
+        final int[] matchCounts;
+        final int[] matchedTerms;
+        final double[] values;
 
-            return matchCounts;
+        DictionaryWorkspace(int numTerms) {
+            matchCounts = new int[numTerms];
+            matchedTerms = new int[numTerms];
+            values = new double[numTerms];
         }
     }
 
+    /**
+     * The term trie used by earlier versions of this filter. It is no longer
+     * used, but feature specifications saved by those versions contain one,
+     * so the class has to exist for them to load.
+     */
+    private static class Trie implements Serializable {
+
+        private static final long serialVersionUID = -7293361770686031137L;
+
+        private static class TrieNode implements Serializable {
+
+            private static final long serialVersionUID = 2385416092781607522L;
+            boolean exists = false;
+            HashMap<Character, TrieNode> branches = new HashMap<Character, Trie.TrieNode>();
+        }
+        TrieNode root = new TrieNode();
+    }
+
     public static List<String> readDictionaryFile(File file) throws FileNotFoundException {
         //Read in the dictionary file
         HashSet<String> termSet = new HashSet<String>();
@@ -0,0 +1,75 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.filters;
+
+import java.lang.reflect.Method;
+import weka.core.Instances;
+import weka.filters.Filter;
+
+/**
+ * Drops the string values that a filter has output in earlier batches.
+ *
+ * Weka keeps every value of a string attribute in the attribute itself, so a
+ * filter's output format collects the text of every instance the filter has
+ * output. A filter that labels batch after batch in a long-running session
+ * would keep every message it has seen. At the start of each batch after the
+ * first, the output format is replaced with a copy that has empty string
+ * attributes. Instances output in earlier batches keep the attributes they
+ * were made with, so their string values are still readable.
+ *
+ * The output format is only reachable through Filter's protected methods,
+ * which are called by reflection.
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+final class StringValueRelease {
+
+    private StringValueRelease() {
+    }
+
+    /**
+     * Call before a filter takes an instance, to release the string values of
+     * earlier batches if a new batch is starting.
+     *
+     * @param filter
+     */
+    static void beforeInput(Filter filter) {
+        if (!filter.isNewBatch() || !filter.isFirstBatchDone()) {
+            return;
+        }
+
+        try {
+            Method peek = getMethod("outputFormatPeek");
+            Method set = getMethod("setOutputFormat", Instances.class);
+            Instances outputFormat = (Instances) peek.invoke(filter);
+            String relationName = outputFormat.relationName();
+            set.invoke(filter, outputFormat);
+            //setOutputFormat appends the filter's name and options every time
+            ((Instances) peek.invoke(filter)).setRelationName(relationName);
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not replace the output format of " + filter.getClass().getName(), e);
+        }
+    }
+
+    private static Method getMethod(String name, Class<?>... parameterTypes) throws NoSuchMethodException {
+        Method method = Filter.class.getDeclaredMethod(name, parameterTypes);
+        method.setAccessible(true);
+        return method;
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.filters;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Finds occurrences of a fixed list of terms in strings. Matching is greedy:
+ * scanning from the left, the longest term starting at the current position
+ * is counted and the scan skips past it; if no term starts there, the scan
+ * moves ahead one character. Matches never overlap.
+ *
+ * The terms are stored in a trie flattened into arrays, so matching does not
+ * allocate or box characters. Transitions out of the root on ASCII
+ * characters are looked up directly, which makes the common case of a
+ * character that starts no term cheap.
+ *
+ * Matching does not modify the matcher, so threads can share one as long as
+ * they each use their own count arrays.
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+final class TermMatcher {
+
+    private static final int ASCII = 128;
+    private static final int LINEAR_SEARCH_SIZE = 8;
+    private final int numTerms;
+    /**
+     * The child of the root for each ASCII character, or 0 if there is none.
+     */
+    private final int[] rootAscii = new int[ASCII];
+    /**
+     * The edges out of node n are at [edgeStart[n], edgeStart[n + 1]),
+     * sorted by label.
+     */
+    private final int[] edgeStart;
+    private final char[] edgeLabels;
+    private final int[] edgeTargets;
+    /**
+     * The index of the term that ends at each node, or -1.
+     */
+    private final int[] nodeTerms;
+
+    /**
+     * Build a matcher for the given terms. A term's index in the list is the
+     * index its counts are reported under. If a term is listed more than
+     * once, the last index is used. Empty terms never match.
+     *
+     * @param terms
+     */
+    TermMatcher(List<String> terms) {
+        this.numTerms = terms.size();
+
+        //Build a pointer-based trie first, then flatten it breadth-first
+        BuildNode root = new BuildNode();
+        int numNodes = 1;
+        for (int t = 0; t < terms.size(); t++) {
+            String term = terms.get(t);
+            BuildNode current = root;
+            for (int i = 0; i < term.length(); i++) {
+                char c = term.charAt(i);
+                BuildNode next = current.children.get(c);
+                if (next == null) {
+                    next = new BuildNode();
+                    current.children.put(c, next);
+                    numNodes++;
+                }
+                current = next;
+            }
+            current.term = t;
+        }
+
+        edgeStart = new int[numNodes + 1];
+        edgeLabels = new char[numNodes - 1];
+        edgeTargets = new int[numNodes - 1];
+        nodeTerms = new int[numNodes];
+
+        List<BuildNode> queue = new ArrayList<BuildNode>(numNodes);
+        queue.add(root);
+        int numEdges = 0;
+        for (int n = 0; n < queue.size(); n++) {
+            BuildNode node = queue.get(n);
+            nodeTerms[n] = node.term;
+            edgeStart[n] = numEdges;
+            for (Map.Entry<Character, BuildNode> child : node.children.entrySet()) {
+                int target = queue.size();
+                queue.add(child.getValue());
+                edgeLabels[numEdges] = child.getKey();
+                edgeTargets[numEdges] = target;
+                numEdges++;
+
+                if (n == 0 && child.getKey() < ASCII) {
+                    rootAscii[child.getKey()] = target;
+                }
+            }
+        }
+        edgeStart[numNodes] = numEdges;
+
+        //Empty terms are never matched
+        nodeTerms[0] = -1;
+    }
+
+    /**
+     * Get the number of terms, which is the size the count arrays must be.
+     *
+     * @return
+     */
+    int getNumTerms() {
+        return numTerms;
+    }
+
+    /**
+     * Count the non-overlapping matches of each term in the text.
+     *
+     * The counts for each matched term are added to counts[term], and each
+     * term whose count went up from zero is recorded in matchedTerms, in the
+     * order they were first matched. Callers that reuse the arrays should set
+     * the counts of the matched terms back to zero afterwards. Both arrays
+     * must have room for every term.
+     *
+     * @param text
+     * @param counts
+     * @param matchedTerms
+     * @return The number of distinct terms that were matched.
+     */
+    int match(CharSequence text, int[] counts, int[] matchedTerms) {
+        int numMatched = 0;
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            int longestTerm = -1;
+            int longestEnd = i;
+
+            int node = 0;
+            for (int j = i; j < length; j++) {
+                node = child(node, text.charAt(j));
+                if (node <= 0) {
+                    break;
+                }
+                int term = nodeTerms[node];
+                if (term >= 0) {
+                    longestTerm = term;
+                    longestEnd = j + 1;
+                }
+            }
+
+            if (longestTerm >= 0) {
+                if (counts[longestTerm] == 0) {
+                    matchedTerms[numMatched++] = longestTerm;
+                }
+                counts[longestTerm]++;
+                i = longestEnd;
+            } else {
+                i++;
+            }
+        }
+        return numMatched;
+    }
+
+    /**
+     * Get the child of a node along an edge, or a value less than or equal
+     * to zero if there is none. The root is never a child.
+     */
+    private int child(int node, char c) {
+        if (node == 0 && c < ASCII) {
+            return rootAscii[c];
+        }
+
+        int low = edgeStart[node];
+        int high = edgeStart[node + 1] - 1;
+        if (high - low < LINEAR_SEARCH_SIZE) {
+            for (int e = low; e <= high; e++) {
+                if (edgeLabels[e] == c) {
+                    return edgeTargets[e];
+                }
+            }
+            return -1;
+        }
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char label = edgeLabels[mid];
+            if (label < c) {
+                low = mid + 1;
+            } else if (label > c) {
+                high = mid - 1;
+            } else {
+                return edgeTargets[mid];
+            }
+        }
+        return -1;
+    }
+
+    private static class BuildNode {
+
+        int term = -1;
+        TreeMap<Character, BuildNode> children = new TreeMap<Character, BuildNode>();
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.options;
+
+import etc.aloe.data.RecordFormat;
+import java.io.File;
+import org.kohsuke.args4j.Option;
+
+/**
+ * Defines options required for all batch-mode runs, independent of pipeline
+ * implementation.
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public class BatchOptions extends ModeOptions {
+
+    @Option(name = "--model", aliases = {"-m"}, usage = "use an existing model file", required = true, metaVar = "MODEL_FILE")
+    public File inputModelFile;
+    @Option(name = "--features", aliases = {"-f"}, usage = "use an existing feature specification file", required = true, metaVar = "FEATURES_FILE")
+    public File inputFeatureSpecFile;
+    @Option(name = "--format", usage = "record format on standard input and output: tsv or json (default tsv)", metaVar = "FORMAT")
+    public RecordFormat format = RecordFormat.TSV;
+    @Option(name = "--batch-size", usage = "largest number of records labeled together (default 256)", metaVar = "RECORDS")
+    public int batchSize = 256;
+    @Option(name = "--threads", usage = "number of batches labeled at the same time (default: number of processors)", metaVar = "THREADS")
+    public int numThreads = Runtime.getRuntime().availableProcessors();
+    @Option(name = "--watch", usage = "reload the model and feature specification when both files are replaced")
+    public boolean watch = false;
+    @Option(name = "--watch-interval", usage = "milliseconds between checks for new files with --watch (default 2000)", metaVar = "MILLISECONDS")
+    public long watchIntervalMillis = 2000;
+
+    @Override
+    public void printUsage() {
+        System.err.println("java -jar aloe.jar PIPELINE_CLASS batch -m MODEL_FILE -f FEATURES_FILE [options...] < INPUT > OUTPUT");
+    }
+}
@@ -45,6 +45,13 @@ public class InteractiveOptions extends ModeOptions {
     @Option(name = "--features", aliases = {"-f"}, usage = "use an existing feature specification file", required = true, metaVar = "FEATURES_FILE")
     public File inputFeatureSpecFile;
 
+    @Option(name = "--history", usage = "number of recent messages kept and saved to the output, or 0 to keep all (default 10000)", metaVar = "MESSAGES")
+    public int historyLimit = 10000;
+    @Option(name = "--watch", usage = "reload the model and feature specification when both files are replaced")
+    public boolean watch = false;
+    @Option(name = "--watch-interval", usage = "milliseconds between checks for new files with --watch (default 2000)", metaVar = "MILLISECONDS")
+    public long watchIntervalMillis = 2000;
+
     @Override
     public void printUsage() {
         System.err.println("java -jar aloe.jar PIPELINE_CLASS interactive OUTPUT_DIR -m MODEL_FILE -f FEATURES_FILE [options...]");
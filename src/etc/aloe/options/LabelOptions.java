@@ -55,6 +55,12 @@ public class LabelOptions extends ModeOptions {
     @Option(name = "--roc", usage = "Export data for ROC curves")
     public boolean makeROC;
 
+    @Option(name = "--stream", usage = "label the input as a stream, without loading it all into memory (input must be sorted by time)")
+    public boolean streaming;
+
+    @Option(name = "--stream-batch", usage = "number of segments labeled together when streaming (default 1000)", metaVar = "SEGMENTS")
+    public int streamingBatchSize = 1000;
+
     @Override
     public void printUsage() {
         System.err.println("java -jar aloe.jar PIPELINE_CLASS label INPUT_CSV OUTPUT_DIR -m MODEL_FILE -f FEATURES_FILE [options...]");
@@ -19,7 +19,6 @@
 package etc.aloe.options;
 
 import etc.aloe.RandomProvider;
-import java.util.Random;
 import org.kohsuke.args4j.Option;
 
 /**
@@ -32,9 +31,12 @@ public abstract class ModeOptions {
     @Option(name = "--dateformat", aliases = {"-d"}, usage = "date format string (default 'yyyy-MM-dd HH:mm:ss')", metaVar = "DATE_FORMAT")
     public String dateFormatString = "yyyy-MM-dd HH:mm:ss";
 
+    @Option(name = "--no-snapshot", usage = "do not read or write a binary snapshot of the input CSV")
+    public boolean noSnapshot = false;
+
     @Option(name = "--random", aliases = {"-r"}, usage = "random seed")
     void setRandomSeed(int randomSeed) {
-        RandomProvider.setRandom(new Random(randomSeed));
+        RandomProvider.setSeed(randomSeed);
     }
 
     public abstract void printUsage();
@@ -0,0 +1,55 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.options;
+
+import java.io.File;
+import org.kohsuke.args4j.Option;
+
+/**
+ * Defines options required for all serve-mode runs, independent of pipeline
+ * implementation.
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public class ServeOptions extends ModeOptions {
+
+    @Option(name = "--model", aliases = {"-m"}, usage = "use an existing model file", required = true, metaVar = "MODEL_FILE")
+    public File inputModelFile;
+    @Option(name = "--features", aliases = {"-f"}, usage = "use an existing feature specification file", required = true, metaVar = "FEATURES_FILE")
+    public File inputFeatureSpecFile;
+    @Option(name = "--port", usage = "port to listen on (default 8000)", metaVar = "PORT")
+    public int port = 8000;
+    @Option(name = "--host", usage = "address to listen on (default localhost)", metaVar = "HOST")
+    public String host = "localhost";
+    @Option(name = "--threads", usage = "number of labeling threads (default: number of processors)", metaVar = "THREADS")
+    public int numThreads = Runtime.getRuntime().availableProcessors();
+    @Option(name = "--max-batch", usage = "largest number of messages from concurrent requests labeled together, 1 to label each request on its own (default 64)", metaVar = "MESSAGES")
+    public int maxBatchSize = 64;
+    @Option(name = "--max-wait", usage = "microseconds a batch waits for more messages before it is labeled (default 0)", metaVar = "MICROSECONDS")
+    public long maxWaitMicros = 0;
+    @Option(name = "--watch", usage = "reload the model and feature specification when both files are replaced")
+    public boolean watch = false;
+    @Option(name = "--watch-interval", usage = "milliseconds between checks for new files with --watch (default 2000)", metaVar = "MILLISECONDS")
+    public long watchIntervalMillis = 2000;
+
+    @Override
+    public void printUsage() {
+        System.err.println("java -jar aloe.jar PIPELINE_CLASS serve -m MODEL_FILE -f FEATURES_FILE [options...]");
+    }
+}
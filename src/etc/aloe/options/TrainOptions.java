@@ -56,6 +56,9 @@ public class TrainOptions extends ModeOptions {
     @Option(name="--roc", usage="Export data for ROC curves")
     public boolean makeROC;
 
+    @Option(name = "--threads", aliases = {"--cv-threads"}, usage = "number of worker threads shared by cross validation and the final model (default 1)", metaVar = "THREADS")
+    public int numThreads = 1;
+
     @Override
     public void printUsage() {
         System.err.println("java -jar aloe.jar PIPELINE_CLASS train INPUT_CSV OUTPUT_DIR [options...]");
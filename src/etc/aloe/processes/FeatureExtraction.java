@@ -20,6 +20,7 @@ package etc.aloe.processes;
 
 import etc.aloe.data.ExampleSet;
 import etc.aloe.data.FeatureSpecification;
+import etc.aloe.data.Featurizer;
 
 /**
  * FeatureExtraction extracts features from the provided data.
@@ -38,4 +39,13 @@ public interface FeatureExtraction extends Loggable {
      * @return A set of examples with features extracted, or null on failure.
      */
     ExampleSet extractFeatures(ExampleSet basicExamples, FeatureSpecification spec);
+
+    /**
+     * Compile a trained feature specification into a featurizer that extracts
+     * the same features directly from segments.
+     *
+     * @param spec The features to extract.
+     * @return A featurizer, or null if the specification can't be compiled.
+     */
+    Featurizer compile(FeatureSpecification spec);
 }
@@ -35,4 +35,28 @@ public interface FeatureGeneration {
      * @return A feature specification
      */
     FeatureSpecification generateFeatures(ExampleSet basicExamples);
+
+    /**
+     * Generate the features whose values for an example depend only on that
+     * example, not on the examples used to configure them. These can be
+     * extracted once and shared by every subset of the data.
+     *
+     * Generating the invariant features and then the dependent features from
+     * the extracted examples is equivalent to calling generateFeatures.
+     *
+     * @param basicExamples The base examples to use to determine the features.
+     * @return A feature specification
+     */
+    FeatureSpecification generateInvariantFeatures(ExampleSet basicExamples);
+
+    /**
+     * Generate the features that depend on the examples they are configured
+     * on, such as vocabularies.
+     *
+     * @param invariantExamples Examples with the invariant features already
+     * extracted.
+     * @return A feature specification to apply to examples with the invariant
+     * features extracted.
+     */
+    FeatureSpecification generateDependentFeatures(ExampleSet invariantExamples);
 }
@@ -19,6 +19,7 @@
 package etc.aloe.processes;
 
 import etc.aloe.data.MessageSet;
+import etc.aloe.data.SegmentIdAllocator;
 import etc.aloe.data.SegmentSet;
 
 /**
@@ -42,4 +43,12 @@ public interface Segmentation {
      * @param resolution
      */
     public void setSegmentResolution(SegmentResolution resolution);
+
+    /**
+     * Set the allocator that new segment ids come from. By default each
+     * segmentation has its own allocator starting at 0.
+     *
+     * @param segmentIds
+     */
+    public void setSegmentIdAllocator(SegmentIdAllocator segmentIds);
 }
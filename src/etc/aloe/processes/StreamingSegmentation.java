@@ -0,0 +1,98 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.processes;
+
+import etc.aloe.data.Message;
+import etc.aloe.data.Segment;
+import etc.aloe.data.SegmentIdAllocator;
+
+/**
+ * Segments messages incrementally, as they arrive. Segments are handed to the
+ * segment handler as soon as they are closed, so only the currently open
+ * segments need to be held in memory.
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public interface StreamingSegmentation {
+
+    /**
+     * Receives segments as they are closed.
+     */
+    public static interface SegmentHandler {
+
+        /**
+         * Called once for every closed segment, in the order the segments
+         * were closed.
+         *
+         * @param segment
+         * @throws InterruptedException If the handler was interrupted while
+         * waiting to accept the segment.
+         */
+        void segmentClosed(Segment segment) throws InterruptedException;
+    }
+
+    /**
+     * Add the next message. Messages are expected to arrive roughly in time
+     * order. Any segments closed by the new message are passed to the
+     * handler.
+     *
+     * @param message
+     * @throws InterruptedException
+     */
+    public void add(Message message) throws InterruptedException;
+
+    /**
+     * Advance event time without adding a message, closing any segments that
+     * can no longer be extended. Useful when a live stream goes quiet.
+     *
+     * @param timeMillis The current event time, in milliseconds since the
+     * epoch.
+     * @throws InterruptedException
+     */
+    public void advanceWatermark(long timeMillis) throws InterruptedException;
+
+    /**
+     * Close all remaining open segments, passing them to the handler.
+     *
+     * @throws InterruptedException
+     */
+    public void finish() throws InterruptedException;
+
+    /**
+     * Set the handler that will receive closed segments.
+     *
+     * @param handler
+     */
+    public void setSegmentHandler(SegmentHandler handler);
+
+    /**
+     * Set the segment resolution strategy that will be used.
+     *
+     * @param resolution
+     */
+    public void setSegmentResolution(SegmentResolution resolution);
+
+    /**
+     * Set the allocator that new segment ids come from. By default each
+     * segmentation has its own allocator starting at 0.
+     *
+     * @param segmentIds
+     */
+    public void setSegmentIdAllocator(SegmentIdAllocator segmentIds);
+}
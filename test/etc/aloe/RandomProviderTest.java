@@ -0,0 +1,114 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public class RandomProviderTest {
+
+    public RandomProviderTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+        RandomProvider.setSeed(42);
+    }
+
+    @After
+    public void tearDown() {
+        RandomProvider.setTaskRandom(null);
+        RandomProvider.setSeed(new Random().nextLong());
+    }
+
+    private long[] draw(Random random) {
+        long[] values = new long[20];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextLong();
+        }
+        return values;
+    }
+
+    /**
+     * Test of getStream method, of class RandomProvider.
+     */
+    @Test
+    public void testGetStreamIsDeterministic() {
+        System.out.println("getStreamIsDeterministic");
+
+        long[] first = draw(RandomProvider.getStream("fold", 3));
+        //Using the global generator must not disturb the streams
+        RandomProvider.getRandom().nextLong();
+        long[] second = draw(RandomProvider.getStream("fold", 3));
+        assertArrayEquals(first, second);
+
+        RandomProvider.setSeed(43);
+        assertFalse(Arrays.equals(first, draw(RandomProvider.getStream("fold", 3))));
+    }
+
+    /**
+     * Test of getStream method, of class RandomProvider.
+     */
+    @Test
+    public void testGetStreamKeysDiffer() {
+        System.out.println("getStreamKeysDiffer");
+
+        long[] fold3 = draw(RandomProvider.getStream("fold", 3));
+        assertFalse(Arrays.equals(fold3, draw(RandomProvider.getStream("fold", 4))));
+        assertFalse(Arrays.equals(fold3, draw(RandomProvider.getStream("training", 3))));
+        assertFalse(Arrays.equals(fold3, draw(RandomProvider.getStream("fold", 3, 0))));
+        assertFalse(Arrays.equals(draw(RandomProvider.getStream("fold")),
+                draw(RandomProvider.getStream("training"))));
+    }
+
+    /**
+     * Test of setTaskRandom method, of class RandomProvider.
+     */
+    @Test
+    public void testSetTaskRandom() {
+        System.out.println("setTaskRandom");
+
+        Random global = RandomProvider.getRandom();
+        Random task = RandomProvider.getStream("task");
+
+        assertNull(RandomProvider.setTaskRandom(task));
+        assertSame(task, RandomProvider.getRandom());
+
+        assertSame(task, RandomProvider.setTaskRandom(null));
+        assertSame(global, RandomProvider.getRandom());
+    }
+}
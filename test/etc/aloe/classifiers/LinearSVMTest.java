@@ -0,0 +1,205 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.classifiers;
+
+import java.util.ArrayList;
+import java.util.Random;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import weka.classifiers.functions.SMO;
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+
+/**
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public class LinearSVMTest {
+
+    private Instances data;
+
+    public LinearSVMTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+        ArrayList<Attribute> attributes = new ArrayList<Attribute>();
+        attributes.add(new Attribute("good"));
+        attributes.add(new Attribute("bad"));
+        attributes.add(new Attribute("noise"));
+        ArrayList<String> classValues = new ArrayList<String>();
+        classValues.add("false");
+        classValues.add("true");
+        attributes.add(new Attribute("class", classValues));
+
+        data = new Instances("test", attributes, 0);
+        data.setClassIndex(3);
+
+        Random random = new Random(5);
+        for (int i = 0; i < 200; i++) {
+            boolean positive = i % 2 == 0;
+            double[] values = new double[4];
+            if (positive) {
+                values[0] = 1 + random.nextInt(3);
+            } else {
+                values[1] = 1 + random.nextInt(3);
+            }
+            values[2] = random.nextInt(2);
+            values[3] = positive ? 1 : 0;
+            data.add(new SparseInstance(1, values));
+        }
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    private Instance makeInstance(double good, double bad, double noise) {
+        Instance instance = new SparseInstance(1, new double[]{good, bad, noise, 0});
+        instance.setDataset(data);
+        return instance;
+    }
+
+    /**
+     * Test of buildClassifier method, of class LinearSVM.
+     */
+    @Test
+    public void testBuildClassifier() throws Exception {
+        System.out.println("buildClassifier");
+
+        LinearSVM svm = new LinearSVM();
+        svm.buildClassifier(data);
+
+        for (int i = 0; i < data.numInstances(); i++) {
+            assertEquals(data.instance(i).classValue(), svm.classifyInstance(data.instance(i)), 0);
+        }
+
+        assertTrue(svm.output(makeInstance(2, 0, 1)) > 0);
+        assertTrue(svm.output(makeInstance(0, 2, 1)) < 0);
+
+        //Weights are reported on the scaled attributes, like SMO
+        int[] indices = svm.sparseIndices();
+        double[] weights = svm.sparseWeights();
+        assertEquals(indices.length, weights.length);
+        for (int k = 0; k < indices.length; k++) {
+            assertTrue(indices[k] != data.classIndex());
+            if (indices[k] == 0) {
+                assertTrue(weights[k] > 0);
+            } else if (indices[k] == 1) {
+                assertTrue(weights[k] < 0);
+            }
+        }
+    }
+
+    /**
+     * Test that LinearSVM agrees with a linear SMO.
+     */
+    @Test
+    public void testMatchesSMO() throws Exception {
+        System.out.println("matchesSMO");
+
+        //Make the classes overlap
+        Random random = new Random(8);
+        for (int i = 0; i < data.numInstances(); i++) {
+            if (random.nextInt(10) == 0) {
+                Instance instance = data.instance(i);
+                instance.setClassValue(1 - instance.classValue());
+            }
+        }
+
+        LinearSVM svm = new LinearSVM();
+        svm.buildClassifier(data);
+        SMO smo = new SMO();
+        smo.buildClassifier(data);
+
+        int agree = 0;
+        for (int i = 0; i < data.numInstances(); i++) {
+            if (svm.classifyInstance(data.instance(i)) == smo.classifyInstance(data.instance(i))) {
+                agree++;
+            }
+        }
+        assertTrue(agree >= data.numInstances() * 0.98);
+    }
+
+    /**
+     * Test that instance weights scale the cost of each example.
+     */
+    @Test
+    public void testInstanceWeights() throws Exception {
+        System.out.println("instanceWeights");
+
+        //Instances with only noise are ambiguous
+        for (int i = 0; i < 20; i++) {
+            data.add(new SparseInstance(1, new double[]{0, 0, 1, i % 2}));
+        }
+        Instance ambiguous = makeInstance(0, 0, 1);
+
+        for (int i = 0; i < data.numInstances(); i++) {
+            Instance instance = data.instance(i);
+            instance.setWeight(instance.classValue() == 1 ? 10 : 1);
+        }
+        LinearSVM svm = new LinearSVM();
+        svm.buildClassifier(data);
+        assertEquals(1, svm.classifyInstance(ambiguous), 0);
+
+        for (int i = 0; i < data.numInstances(); i++) {
+            Instance instance = data.instance(i);
+            instance.setWeight(instance.classValue() == 1 ? 1 : 10);
+        }
+        svm.buildClassifier(data);
+        assertEquals(0, svm.classifyInstance(ambiguous), 0);
+    }
+
+    /**
+     * Test of distributionForInstance method, of class LinearSVM.
+     */
+    @Test
+    public void testLogisticModel() throws Exception {
+        System.out.println("logisticModel");
+
+        LinearSVM svm = new LinearSVM();
+        svm.buildClassifier(data);
+        assertArrayEquals(new double[]{0, 1}, svm.distributionForInstance(makeInstance(2, 0, 0)), 0);
+
+        svm.setBuildLogisticModels(true);
+        svm.buildClassifier(data);
+
+        double[] positive = svm.distributionForInstance(makeInstance(3, 0, 0));
+        double[] weak = svm.distributionForInstance(makeInstance(1, 0, 0));
+        double[] negative = svm.distributionForInstance(makeInstance(0, 3, 0));
+        assertEquals(1, positive[0] + positive[1], 1e-9);
+        assertTrue(positive[1] > 0.5 && positive[1] < 1);
+        assertTrue(negative[1] < 0.5 && negative[1] > 0);
+        assertTrue(positive[1] >= weak[1]);
+    }
+}
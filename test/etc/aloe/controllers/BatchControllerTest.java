@@ -0,0 +1,214 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.controllers;
+
+import etc.aloe.RandomProvider;
+import etc.aloe.cscw2013.FeatureExtractionImpl;
+import etc.aloe.cscw2013.FeatureGenerationImpl;
+import etc.aloe.cscw2013.SMOFeatureWeighting;
+import etc.aloe.cscw2013.TrainingImpl;
+import etc.aloe.data.ExampleSet;
+import etc.aloe.data.Message;
+import etc.aloe.data.Predictions;
+import etc.aloe.data.RecordFormat;
+import etc.aloe.data.Segment;
+import etc.aloe.data.SegmentSet;
+import etc.aloe.data.TimestampFormat;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public class BatchControllerTest {
+
+    private static TrainingController training;
+    private BatchController batch;
+    private List<String> messages = Arrays.asList("i love the cow :)", "you hate time :(", "lol", "love love love", "the cow !!!");
+
+    public BatchControllerTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+        String[] words = {"i", "you", "love", "hate", "the", "cow", "time", "lol", ":)", ":(", "!!!"};
+        Random random = new Random(3);
+        SegmentSet segments = new SegmentSet();
+        for (int id = 0; id < 80; id++) {
+            Segment segment = new Segment();
+            StringBuilder text = new StringBuilder();
+            int numWords = 1 + random.nextInt(5);
+            for (int w = 0; w < numWords; w++) {
+                text.append(words[random.nextInt(words.length)]).append(' ');
+            }
+            segment.add(new Message(id, new Date(1000000000000L + id * 1000L), "p", text.toString()));
+            segment.setTrueLabel(text.indexOf("love") >= 0);
+            segments.add(segment);
+        }
+
+        RandomProvider.setSeed(5);
+        training = new TrainingController();
+        training.setFeatureGenerationImpl(new FeatureGenerationImpl(Arrays.asList(":)", ":(")));
+        training.setFeatureExtractionImpl(new FeatureExtractionImpl());
+        training.setTrainingImpl(new TrainingImpl());
+        training.setFeatureWeightingImpl(new SMOFeatureWeighting());
+        training.setSegmentSet(segments);
+        training.run();
+        RandomProvider.setSeed(new Random().nextLong());
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        training = null;
+    }
+
+    @Before
+    public void setUp() {
+        batch = new BatchController();
+        batch.setFeatureSpecification(training.getFeatureSpecification());
+        batch.setModel(training.getModel());
+        batch.setFeatureExtractionImpl(new FeatureExtractionImpl());
+        batch.setDateFormat(new TimestampFormat(TimestampFormat.DEFAULT_PATTERN));
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Label the test messages the way label mode would, each in a segment of
+     * its own.
+     */
+    private Predictions expectedPredictions() {
+        SegmentSet segments = new SegmentSet();
+        for (int i = 0; i < messages.size(); i++) {
+            Segment segment = new Segment();
+            segment.add(new Message(i, new Date(), "p", messages.get(i)));
+            segments.add(segment);
+        }
+        ExampleSet examples = new FeatureExtractionImpl().extractFeatures(segments.getBasicExamples(), training.getFeatureSpecification());
+        return training.getModel().getPredictions(examples);
+    }
+
+    private String run(String input) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        batch.run(new ByteArrayInputStream(input.getBytes("UTF-8")), output);
+        return output.toString("UTF-8");
+    }
+
+    /**
+     * Test of run method, of class BatchController, with TSV records split
+     * across several batches.
+     */
+    @Test
+    public void testRun() throws Exception {
+        System.out.println("run");
+        batch.setBatchSize(2);
+        batch.setNumThreads(3);
+
+        StringBuilder input = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        Predictions predictions = expectedPredictions();
+        for (int i = 0; i < messages.size(); i++) {
+            input.append("m").append(i).append("\tp\t2004-11-27 03:36:32\t").append(messages.get(i)).append('\n');
+            expected.append("m").append(i).append('\t').append(predictions.getPredictedLabel(i));
+            expected.append('\t').append(predictions.getPredictionConfidence(i)).append('\n');
+            if (i == 2) {
+                input.append("\n");
+                input.append("bad\tp\tnot a time\tlol\n");
+                expected.append("bad\terror\tinvalid timestamp 'not a time'\n");
+            }
+        }
+
+        assertEquals(expected.toString(), run(input.toString()));
+        assertEquals(messages.size() + 1, batch.getNumRecords());
+        assertEquals(1, batch.getNumErrors());
+    }
+
+    /**
+     * Test of run method, of class BatchController, with JSON records.
+     */
+    @Test
+    public void testRun_json() throws Exception {
+        System.out.println("run_json");
+        batch.setFormat(RecordFormat.JSON);
+
+        Predictions predictions = expectedPredictions();
+        String output = run("{\"id\": 1, \"text\": \"" + messages.get(3) + "\"}\r\n{\"id\": 2}\r\n");
+        assertEquals("{\"id\":1,\"label\":" + predictions.getPredictedLabel(3) + ",\"confidence\":" + predictions.getPredictionConfidence(3) + "}\n"
+                + "{\"id\":2,\"error\":\"missing string member \\\"text\\\"\"}\n", output);
+    }
+
+    /**
+     * Test that each result is written as soon as it is ready, while the
+     * input is still open.
+     */
+    @Test
+    public void testRun_pipelined() throws Exception {
+        System.out.println("run_pipelined");
+
+        final PipedInputStream input = new PipedInputStream();
+        OutputStream toInput = new PipedOutputStream(input);
+        final PipedOutputStream output = new PipedOutputStream();
+        BufferedReader fromOutput = new BufferedReader(new InputStreamReader(new PipedInputStream(output, 65536), "UTF-8"));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<Void> done = executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                batch.run(input, output);
+                output.close();
+                return null;
+            }
+        });
+
+        Predictions predictions = expectedPredictions();
+        for (int i = 0; i < messages.size(); i++) {
+            toInput.write((i + "\tp\t\t" + messages.get(i) + "\n").getBytes("UTF-8"));
+            toInput.flush();
+            assertEquals(i + "\t" + predictions.getPredictedLabel(i) + "\t" + predictions.getPredictionConfidence(i), fromOutput.readLine());
+        }
+        toInput.close();
+
+        done.get();
+        executor.shutdown();
+        assertNull(fromOutput.readLine());
+        assertEquals(messages.size(), batch.getNumRecords());
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.controllers;
+
+import etc.aloe.RandomProvider;
+import etc.aloe.cscw2013.FeatureExtractionImpl;
+import etc.aloe.cscw2013.FeatureGenerationImpl;
+import etc.aloe.cscw2013.LabelMappingImpl;
+import etc.aloe.cscw2013.SMOFeatureWeighting;
+import etc.aloe.cscw2013.TrainingImpl;
+import etc.aloe.data.ExampleSet;
+import etc.aloe.data.Message;
+import etc.aloe.data.Predictions;
+import etc.aloe.data.Segment;
+import etc.aloe.data.SegmentSet;
+import etc.aloe.processes.LabelMapping;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public class CoalescingLabelingControllerTest {
+
+    private static final String[] WORDS = {"i", "you", "love", "hate", "the", "cow", "time", "lol", ":)", ":(", "!!!"};
+    private static TrainingController training;
+    private CoalescingLabelingController coalescer;
+
+    public CoalescingLabelingControllerTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+        RandomProvider.setSeed(5);
+        training = new TrainingController();
+        training.setFeatureGenerationImpl(new FeatureGenerationImpl(Arrays.asList(":)", ":(")));
+        training.setFeatureExtractionImpl(new FeatureExtractionImpl());
+        training.setTrainingImpl(new TrainingImpl());
+        training.setFeatureWeightingImpl(new SMOFeatureWeighting());
+        training.setSegmentSet(makeSegments(80, true));
+        training.run();
+        RandomProvider.setSeed(new Random().nextLong());
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        training = null;
+    }
+
+    @Before
+    public void setUp() {
+        coalescer = new CoalescingLabelingController();
+        coalescer.setFeatureSpecification(training.getFeatureSpecification());
+        coalescer.setModel(training.getModel());
+        coalescer.setFeatureExtractionImpl(new FeatureExtractionImpl());
+        coalescer.setMappingImpl(new LabelMappingImpl());
+    }
+
+    @After
+    public void tearDown() {
+        coalescer.stop();
+    }
+
+    private static SegmentSet makeSegments(int count, boolean labeled) {
+        Random random = new Random(3);
+        SegmentSet segments = new SegmentSet();
+        for (int id = 0; id < count; id++) {
+            Segment segment = new Segment();
+            StringBuilder text = new StringBuilder();
+            int numWords = 1 + random.nextInt(5);
+            for (int w = 0; w < numWords; w++) {
+                text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+            }
+            segment.add(new Message(id, new Date(1000000000000L + id * 1000L), "p", text.toString()));
+            if (labeled) {
+                segment.setTrueLabel(text.indexOf("love") >= 0);
+            }
+            segments.add(segment);
+        }
+        return segments;
+    }
+
+    private Predictions labelDirectly(SegmentSet segments) {
+        ExampleSet examples = new FeatureExtractionImpl().extractFeatures(segments.getBasicExamples(), training.getFeatureSpecification());
+        return training.getModel().getPredictions(examples);
+    }
+
+    /**
+     * Test that segments submitted from many threads are labeled as they
+     * would be all together, of class CoalescingLabelingController.
+     */
+    @Test
+    public void testSubmit() throws Exception {
+        System.out.println("submit");
+        coalescer.setNumThreads(2);
+        coalescer.setMaxBatchSize(8);
+        coalescer.setMaxWaitMicros(1000);
+        coalescer.start();
+
+        final SegmentSet segments = makeSegments(200, false);
+        Predictions expected = labelDirectly(makeSegments(200, false));
+
+        ExecutorService clients = Executors.newFixedThreadPool(16);
+        List<Future<Segment>> results = new ArrayList<Future<Segment>>();
+        for (int i = 0; i < segments.size(); i++) {
+            final Segment segment = segments.get(i);
+            results.add(clients.submit(new Callable<Segment>() {
+                @Override
+                public Segment call() throws Exception {
+                    return coalescer.submit(segment).get();
+                }
+            }));
+        }
+
+        for (int i = 0; i < segments.size(); i++) {
+            Segment segment = results.get(i).get();
+            assertSame(segments.get(i), segment);
+            assertEquals(expected.getPredictedLabel(i), segment.getPredictedLabel());
+            assertEquals(expected.getPredictionConfidence(i), segment.getPredictionConfidence());
+            assertEquals(segment.getPredictedLabel(), segment.getMessages().get(0).getPredictedLabel());
+        }
+        clients.shutdown();
+
+        assertEquals(200, coalescer.getNumLabeled());
+        assertTrue(coalescer.getNumBatches() >= 200 / 8);
+    }
+
+    /**
+     * Test that segments submitted together are labeled in full batches.
+     */
+    @Test
+    public void testSubmit_batches() throws Exception {
+        System.out.println("submit_batches");
+        coalescer.setMaxBatchSize(10);
+        coalescer.setMaxWaitMicros(2000000);
+        coalescer.start();
+
+        SegmentSet segments = makeSegments(25, false);
+        List<Future<Segment>> results = new ArrayList<Future<Segment>>();
+        for (int i = 0; i < segments.size(); i++) {
+            results.add(coalescer.submit(segments.get(i)));
+        }
+        for (Future<Segment> result : results) {
+            assertTrue(result.get().hasPredictedLabel());
+        }
+
+        assertEquals(25, coalescer.getNumLabeled());
+        assertEquals(3, coalescer.getNumBatches());
+    }
+
+    /**
+     * Test that stopping fails segments that were not labeled.
+     */
+    @Test
+    public void testStop() throws Exception {
+        System.out.println("stop");
+        coalescer.setMaxBatchSize(10);
+        coalescer.setMaxWaitMicros(60000000);
+        coalescer.start();
+
+        Future<Segment> result = coalescer.submit(makeSegments(1, false).get(0));
+        coalescer.stop();
+        try {
+            result.get();
+            fail("Expected the segment to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+
+        try {
+            coalescer.submit(makeSegments(1, false).get(0));
+            fail("Expected an exception after stopping");
+        } catch (IllegalStateException e) {
+        }
+    }
+
+    /**
+     * Test that an error while labeling fails the batch instead of leaving it
+     * pending, of class CoalescingLabelingController.
+     */
+    @Test(timeout = 10000)
+    public void testSubmit_error() throws Exception {
+        System.out.println("submit_error");
+        coalescer.setMappingImpl(new LabelMapping() {
+            @Override
+            public void map(Predictions predictions, SegmentSet segments) {
+                throw new StackOverflowError();
+            }
+        });
+        coalescer.setMaxBatchSize(10);
+        coalescer.setMaxWaitMicros(1000);
+        coalescer.start();
+
+        for (int i = 0; i < 2; i++) {
+            Future<Segment> result = coalescer.submit(makeSegments(1, false).get(0));
+            try {
+                result.get();
+                fail("Expected the segment to fail");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof StackOverflowError);
+            }
+        }
+        assertEquals(0, coalescer.getNumLabeled());
+    }
+}
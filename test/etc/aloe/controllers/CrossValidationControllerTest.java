@@ -0,0 +1,126 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.controllers;
+
+import etc.aloe.RandomProvider;
+import etc.aloe.cscw2013.FeatureExtractionImpl;
+import etc.aloe.cscw2013.FeatureGenerationImpl;
+import etc.aloe.cscw2013.TrainingImpl;
+import etc.aloe.cscw2013.UpsampleBalancing;
+import etc.aloe.data.EvaluationReport;
+import etc.aloe.data.Message;
+import etc.aloe.data.ROC;
+import etc.aloe.data.Segment;
+import etc.aloe.data.SegmentSet;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Random;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public class CrossValidationControllerTest {
+
+    private SegmentSet segments;
+
+    public CrossValidationControllerTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+        String[] words = {"i", "you", "love", "hate", "the", "cow", "time", "lol", ":)", ":(", "!!!"};
+        Random random = new Random(3);
+        segments = new SegmentSet();
+        int id = 0;
+        for (int s = 0; s < 120; s++) {
+            Segment segment = new Segment();
+            StringBuilder text = new StringBuilder();
+            int numWords = 1 + random.nextInt(5);
+            for (int w = 0; w < numWords; w++) {
+                text.append(words[random.nextInt(words.length)]).append(' ');
+            }
+            segment.add(new Message(id, new Date(1000000000000L + id * 1000L), "p", text.toString()));
+            id++;
+            //Mostly negative, so upsampling has to draw random segments
+            segment.setTrueLabel(text.indexOf("love") >= 0 || random.nextInt(5) == 0);
+            segments.add(segment);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        RandomProvider.setSeed(new Random().nextLong());
+    }
+
+    private EvaluationReport runCrossValidation(int numThreads) {
+        RandomProvider.setSeed(11);
+
+        CrossValidationController controller = new CrossValidationController();
+        controller.setFeatureGenerationImpl(new FeatureGenerationImpl(Arrays.asList(":)", ":(")));
+        controller.setFeatureExtractionImpl(new FeatureExtractionImpl());
+        controller.setTrainingImpl(new TrainingImpl());
+        controller.setBalancingImpl(new UpsampleBalancing(1, 3));
+        controller.setFolds(5);
+        controller.setNumThreads(numThreads);
+        controller.setSegmentSet(segments);
+        controller.run();
+        return controller.getEvaluationReport();
+    }
+
+    private static String toCSV(ROC roc) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        roc.save(bytes);
+        return bytes.toString("UTF-8");
+    }
+
+    /**
+     * Test that running folds at the same time gives the same results as
+     * running them in order, of class CrossValidationController.
+     */
+    @Test
+    public void testRun_threads() throws Exception {
+        System.out.println("run_threads");
+        EvaluationReport sequential = runCrossValidation(1);
+        EvaluationReport parallel = runCrossValidation(3);
+
+        assertEquals(segments.getCountWithTrueLabel(true) + segments.getCountWithTrueLabel(false), sequential.getTotalExamples());
+        assertEquals(sequential.toString(), parallel.toString());
+        assertEquals(5, parallel.getROCs().size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(sequential.getROCs().get(i).getName(), parallel.getROCs().get(i).getName());
+            assertEquals(toCSV(sequential.getROCs().get(i)), toCSV(parallel.getROCs().get(i)));
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.controllers;
+
+import etc.aloe.RandomProvider;
+import etc.aloe.cscw2013.FeatureExtractionImpl;
+import etc.aloe.cscw2013.FeatureGenerationImpl;
+import etc.aloe.cscw2013.SMOFeatureWeighting;
+import etc.aloe.cscw2013.TrainingImpl;
+import etc.aloe.data.Message;
+import etc.aloe.data.Segment;
+import etc.aloe.data.SegmentSet;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Random;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public class ModelReloaderTest {
+
+    private static TrainingController loveTraining;
+    private static TrainingController hateTraining;
+    private File modelFile;
+    private File specFile;
+    private long modified;
+    private ModelReloader reloader;
+
+    public ModelReloaderTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+        loveTraining = train("love");
+        hateTraining = train("hate");
+    }
+
+    /**
+     * Train a model that labels segments containing a word as true.
+     */
+    private static TrainingController train(String positiveWord) {
+        String[] words = {"i", "you", "love", "hate", "the", "cow", "time", "lol", ":)", ":(", "!!!"};
+        Random random = new Random(3);
+        SegmentSet segments = new SegmentSet();
+        for (int id = 0; id < 80; id++) {
+            Segment segment = new Segment();
+            StringBuilder text = new StringBuilder();
+            int numWords = 1 + random.nextInt(5);
+            for (int w = 0; w < numWords; w++) {
+                text.append(words[random.nextInt(words.length)]).append(' ');
+            }
+            segment.add(new Message(id, new Date(1000000000000L + id * 1000L), "p", text.toString()));
+            segment.setTrueLabel(text.indexOf(positiveWord) >= 0);
+            segments.add(segment);
+        }
+
+        RandomProvider.setSeed(5);
+        TrainingController training = new TrainingController();
+        training.setFeatureGenerationImpl(new FeatureGenerationImpl(Arrays.asList(":)", ":(")));
+        training.setFeatureExtractionImpl(new FeatureExtractionImpl());
+        training.setTrainingImpl(new TrainingImpl());
+        training.setFeatureWeightingImpl(new SMOFeatureWeighting());
+        training.setSegmentSet(segments);
+        training.run();
+        RandomProvider.setSeed(new Random().nextLong());
+        return training;
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        loveTraining = null;
+        hateTraining = null;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        modelFile = File.createTempFile("model", ".model");
+        specFile = File.createTempFile("features", ".spec");
+        modified = System.currentTimeMillis() / 1000 * 1000;
+        write(loveTraining);
+
+        reloader = new ModelReloader(modelFile, specFile);
+        reloader.setFeatureExtractionImpl(new FeatureExtractionImpl());
+        reloader.setPollIntervalMillis(60000);
+        reloader.start(loveTraining.getFeatureSpecification(), loveTraining.getModel());
+    }
+
+    @After
+    public void tearDown() {
+        reloader.stop();
+        modelFile.delete();
+        specFile.delete();
+    }
+
+    /**
+     * Replace both files with those of a trained model, giving them a new
+     * modification time.
+     */
+    private void write(TrainingController training) throws Exception {
+        OutputStream output = new FileOutputStream(specFile);
+        training.getFeatureSpecification().save(output);
+        output.close();
+        output = new FileOutputStream(modelFile);
+        training.getModel().save(output);
+        output.close();
+        touch(specFile);
+        touch(modelFile);
+    }
+
+    private void touch(File file) {
+        modified += 10000;
+        assertTrue(file.setLastModified(modified));
+    }
+
+    private static Boolean label(LoadedModel loaded, String text) {
+        SegmentSet segments = new SegmentSet();
+        Segment segment = new Segment();
+        segment.add(new Message(0, new Date(), "p", text));
+        segments.add(segment);
+        return loaded.label(segments, new FeatureExtractionImpl()).getPredictedLabel(0);
+    }
+
+    /**
+     * Test of reload method, of class ModelReloader.
+     */
+    @Test
+    public void testReload() throws Exception {
+        System.out.println("reload");
+
+        LoadedModel first = reloader.getCurrent();
+        assertEquals(1, reloader.getGeneration());
+        assertEquals(1, first.getGeneration());
+        assertNotNull(first.getFeaturizer());
+        assertEquals(true, label(first, "love love love"));
+        assertNull(reloader.getLastReloaded());
+
+        write(hateTraining);
+        assertTrue(reloader.reload());
+
+        LoadedModel second = reloader.getCurrent();
+        assertNotSame(first, second);
+        assertEquals(2, reloader.getGeneration());
+        assertEquals(false, label(second, "love love love"));
+        assertEquals(true, label(second, "hate hate hate"));
+        assertEquals(1, reloader.getNumReloads());
+        assertEquals(0, reloader.getNumFailures());
+        assertTrue(reloader.getLastLoadMillis() > 0);
+        assertTrue(reloader.getLastSwapNanos() >= 0);
+        assertNotNull(reloader.getLastReloaded());
+
+        //Work that started on the old model can finish on it
+        assertEquals(true, label(first, "love love love"));
+    }
+
+    /**
+     * Test that files are only reloaded once both have changed and stayed the
+     * same for a poll.
+     */
+    @Test
+    public void testPoll() throws Exception {
+        System.out.println("poll");
+
+        assertFalse(reloader.poll());
+
+        write(hateTraining);
+        assertFalse(reloader.poll());
+        assertEquals(1, reloader.getGeneration());
+        assertTrue(reloader.poll());
+        assertEquals(2, reloader.getGeneration());
+        assertFalse(reloader.poll());
+
+        //Half of a pair is not loaded
+        touch(modelFile);
+        assertFalse(reloader.poll());
+        assertFalse(reloader.poll());
+        assertEquals(2, reloader.getGeneration());
+
+        touch(specFile);
+        assertFalse(reloader.poll());
+        touch(specFile);
+        assertFalse(reloader.poll());
+        assertTrue(reloader.poll());
+        assertEquals(3, reloader.getGeneration());
+        assertEquals(2, reloader.getNumReloads());
+    }
+
+    /**
+     * Test that the current model is kept when the new files can't be used.
+     */
+    @Test
+    public void testPoll_invalid() throws Exception {
+        System.out.println("poll_invalid");
+
+        LoadedModel first = reloader.getCurrent();
+        OutputStream output = new FileOutputStream(modelFile);
+        output.write("not a model".getBytes("UTF-8"));
+        output.close();
+        touch(modelFile);
+        touch(specFile);
+
+        assertFalse(reloader.poll());
+        assertFalse(reloader.poll());
+        assertEquals(1, reloader.getNumFailures());
+        assertSame(first, reloader.getCurrent());
+
+        //Not tried again until the files change
+        assertFalse(reloader.poll());
+        assertEquals(1, reloader.getNumFailures());
+
+        write(hateTraining);
+        assertFalse(reloader.poll());
+        assertTrue(reloader.poll());
+        assertEquals(2, reloader.getGeneration());
+        assertEquals(1, reloader.getNumReloads());
+    }
+
+    /**
+     * Test that a started reloader picks up new files on its own.
+     */
+    @Test
+    public void testStart() throws Exception {
+        System.out.println("start");
+        reloader.stop();
+
+        reloader = new ModelReloader(modelFile, specFile);
+        reloader.setFeatureExtractionImpl(new FeatureExtractionImpl());
+        reloader.setPollIntervalMillis(20);
+        reloader.start(loveTraining.getFeatureSpecification(), loveTraining.getModel());
+
+        write(hateTraining);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (reloader.getGeneration() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(2, reloader.getGeneration());
+        assertEquals(false, label(reloader.getCurrent(), "love love love"));
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.controllers;
+
+import etc.aloe.RandomProvider;
+import etc.aloe.cscw2013.FeatureExtractionImpl;
+import etc.aloe.cscw2013.FeatureGenerationImpl;
+import etc.aloe.cscw2013.LabelMappingImpl;
+import etc.aloe.cscw2013.SMOFeatureWeighting;
+import etc.aloe.cscw2013.TrainingImpl;
+import etc.aloe.data.ExampleSet;
+import etc.aloe.data.Message;
+import etc.aloe.data.Predictions;
+import etc.aloe.data.Segment;
+import etc.aloe.data.SegmentSet;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public class ServingControllerTest {
+
+    private static TrainingController training;
+    private ServingController serving;
+    private List<String> messages = Arrays.asList("i love the cow :)", "you hate time :(", "lol", "", "love love love");
+
+    public ServingControllerTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+        String[] words = {"i", "you", "love", "hate", "the", "cow", "time", "lol", ":)", ":(", "!!!"};
+        Random random = new Random(3);
+        SegmentSet segments = new SegmentSet();
+        for (int id = 0; id < 80; id++) {
+            Segment segment = new Segment();
+            StringBuilder text = new StringBuilder();
+            int numWords = 1 + random.nextInt(5);
+            for (int w = 0; w < numWords; w++) {
+                text.append(words[random.nextInt(words.length)]).append(' ');
+            }
+            segment.add(new Message(id, new Date(1000000000000L + id * 1000L), "p", text.toString()));
+            segment.setTrueLabel(text.indexOf("love") >= 0);
+            segments.add(segment);
+        }
+
+        RandomProvider.setSeed(5);
+        training = new TrainingController();
+        training.setFeatureGenerationImpl(new FeatureGenerationImpl(Arrays.asList(":)", ":(")));
+        training.setFeatureExtractionImpl(new FeatureExtractionImpl());
+        training.setTrainingImpl(new TrainingImpl());
+        training.setFeatureWeightingImpl(new SMOFeatureWeighting());
+        training.setSegmentSet(segments);
+        training.run();
+        RandomProvider.setSeed(new Random().nextLong());
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        training = null;
+    }
+
+    @Before
+    public void setUp() {
+        serving = new ServingController();
+        serving.setFeatureSpecification(training.getFeatureSpecification());
+        serving.setModel(training.getModel());
+        serving.setFeatureExtractionImpl(new FeatureExtractionImpl());
+        serving.setMappingImpl(new LabelMappingImpl());
+        serving.setPort(0);
+        serving.setNumThreads(2);
+    }
+
+    @After
+    public void tearDown() {
+        serving.stop();
+    }
+
+    private HttpURLConnection open(String path) throws IOException {
+        URL url = new URL("http", serving.getHost(), serving.getPort(), path);
+        return (HttpURLConnection) url.openConnection();
+    }
+
+    private static String read(InputStream input) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        input.close();
+        return bytes.toString("UTF-8");
+    }
+
+    /**
+     * Test of classify method, of class ServingController.
+     */
+    @Test
+    public void testClassify() throws Exception {
+        System.out.println("classify");
+        serving.start();
+        assertNotNull(serving.getCoalescer());
+        checkClassify();
+    }
+
+    /**
+     * Test of classify method, of class ServingController, labeling each
+     * request on its own.
+     */
+    @Test
+    public void testClassify_withoutBatches() throws Exception {
+        System.out.println("classify_withoutBatches");
+        serving.setMaxBatchSize(1);
+        serving.start();
+        assertNull(serving.getCoalescer());
+        checkClassify();
+    }
+
+    private void checkClassify() {
+
+        SegmentSet segments = new SegmentSet();
+        for (int i = 0; i < messages.size(); i++) {
+            Segment segment = new Segment();
+            segment.add(new Message(i, new Date(), "p", messages.get(i)));
+            segments.add(segment);
+        }
+        ExampleSet examples = new FeatureExtractionImpl().extractFeatures(segments.getBasicExamples(), training.getFeatureSpecification());
+        Predictions expected = training.getModel().getPredictions(examples);
+
+        Predictions predictions = serving.classify(messages);
+        assertEquals(messages.size(), predictions.size());
+        for (int i = 0; i < messages.size(); i++) {
+            assertEquals(expected.getPredictedLabel(i), predictions.getPredictedLabel(i));
+            assertEquals(expected.getPredictionConfidence(i), predictions.getPredictionConfidence(i));
+        }
+        assertEquals(true, predictions.getPredictedLabel(4));
+    }
+
+    /**
+     * Test that POST /classify answers one line per message.
+     */
+    @Test
+    public void testPostClassify() throws Exception {
+        System.out.println("postClassify");
+        serving.start();
+
+        StringBuilder body = new StringBuilder();
+        for (String message : messages) {
+            body.append(message).append('\n');
+        }
+
+        HttpURLConnection connection = open("/classify");
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        OutputStream output = connection.getOutputStream();
+        output.write(body.toString().getBytes("UTF-8"));
+        output.close();
+        assertEquals(200, connection.getResponseCode());
+
+        Predictions predictions = serving.classify(messages);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < predictions.size(); i++) {
+            expected.append(predictions.getPredictedLabel(i)).append('\t');
+            expected.append(predictions.getPredictionConfidence(i)).append('\n');
+        }
+        assertEquals(expected.toString(), read(connection.getInputStream()));
+    }
+
+    /**
+     * Test that only POST is accepted on /classify, and that /health answers.
+     */
+    @Test
+    public void testOtherRequests() throws Exception {
+        System.out.println("otherRequests");
+        serving.start();
+
+        HttpURLConnection connection = open("/classify");
+        assertEquals(405, connection.getResponseCode());
+        assertEquals("POST", connection.getHeaderField("Allow"));
+        read(connection.getErrorStream());
+
+        connection = open("/health");
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("ok\n", read(connection.getInputStream()));
+    }
+
+    /**
+     * Test that /metrics reports the micro-batches and the watched model.
+     */
+    @Test
+    public void testMetrics() throws Exception {
+        System.out.println("metrics");
+        ModelReloader reloader = new ModelReloader(new File("model.model"), new File("features.spec"));
+        reloader.setFeatureExtractionImpl(new FeatureExtractionImpl());
+        reloader.setPollIntervalMillis(60000);
+        reloader.start(training.getFeatureSpecification(), training.getModel());
+        serving.setReloader(reloader);
+        serving.start();
+
+        assertEquals(messages.size(), serving.classify(messages).size());
+
+        HttpURLConnection connection = open("/metrics");
+        assertEquals(200, connection.getResponseCode());
+        String metrics = read(connection.getInputStream());
+        assertTrue(metrics.contains("labeled_messages " + messages.size() + "\n"));
+        assertTrue(metrics.contains("model_generation 1\n"));
+        assertTrue(metrics.contains("model_reloads 0\n"));
+        reloader.stop();
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.controllers;
+
+import etc.aloe.cscw2013.LabelMappingImpl;
+import etc.aloe.cscw2013.StreamingThresholdSegmentation;
+import etc.aloe.data.ExampleSet;
+import etc.aloe.data.FeatureSpecification;
+import etc.aloe.data.Featurizer;
+import etc.aloe.data.MessageReader;
+import etc.aloe.data.MessageWriter;
+import etc.aloe.data.TimestampFormat;
+import etc.aloe.processes.FeatureExtraction;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public class StreamingLabelingControllerTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private StreamingLabelingController labeling;
+
+    public StreamingLabelingControllerTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        //Enough messages to fill every queue, each in a segment of its own
+        StringBuilder csv = new StringBuilder("id,time,participant,message,truth\n");
+        for (int i = 0; i < 20000; i++) {
+            int minutes = i % 60;
+            int hours = (i / 60) % 24;
+            int days = 1 + i / (60 * 24);
+            csv.append(i).append(String.format(",2012-01-%02d %02d:%02d:00,p%d,hello %d,\n", days, hours, minutes, i % 3, i));
+        }
+
+        TimestampFormat dateFormat = new TimestampFormat(TimestampFormat.DEFAULT_PATTERN);
+        labeling = new StreamingLabelingController();
+        labeling.setReader(new MessageReader(new ByteArrayInputStream(csv.toString().getBytes(UTF8)), dateFormat, UTF8));
+        labeling.setWriter(new MessageWriter(new ByteArrayOutputStream(), dateFormat, UTF8));
+        labeling.setSegmentationImpl(new StreamingThresholdSegmentation(30, true));
+        labeling.setMappingImpl(new LabelMappingImpl());
+        labeling.setFeatureSpecification(new FeatureSpecification());
+        labeling.setBatchSize(1);
+        labeling.setQueueCapacity(1);
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Test that run fails promptly when a stage in the middle of the pipeline
+     * fails while the stages before it are blocked on full queues.
+     */
+    @Test(timeout = 10000)
+    public void testRun_failingStage() throws Exception {
+        System.out.println("run_failingStage");
+
+        labeling.setFeatureExtractionImpl(new FeatureExtraction() {
+            @Override
+            public ExampleSet extractFeatures(ExampleSet basicExamples, FeatureSpecification spec) {
+                throw new IllegalArgumentException("extraction failed");
+            }
+
+            @Override
+            public Featurizer compile(FeatureSpecification spec) {
+                return null;
+            }
+
+            @Override
+            public void setVerbosity(Verbosity verbosityLevel) {
+            }
+        });
+
+        try {
+            labeling.run();
+            fail("Expected the extraction failure");
+        } catch (IllegalArgumentException e) {
+            assertEquals("extraction failed", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.cscw2013;
+
+import etc.aloe.data.ExampleSet;
+import etc.aloe.data.FeatureSpecification;
+import etc.aloe.data.FeatureVector;
+import etc.aloe.data.Message;
+import etc.aloe.data.Segment;
+import etc.aloe.data.SegmentSet;
+import etc.aloe.filters.SimpleStringToWordVector;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SelectedTag;
+import weka.filters.Filter;
+import weka.filters.unsupervised.attribute.Add;
+import weka.filters.unsupervised.attribute.StringToWordVector;
+
+/**
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public class CompiledFeaturizerTest {
+
+    private static final String[] WORDS = {"i", "you", "we", "love", "hate", "the",
+        "cow", "time", "noooooo", "!!!", "???", ":)", ":(", ";)", "lol", "wat", "it's",
+        "Cows", "TIME", "42"};
+    private static final List<String> EMOTICONS = Arrays.asList(":)", ":(", ";)");
+
+    public CompiledFeaturizerTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    private static SegmentSet makeSegments(long seed, int numSegments, boolean labeled) {
+        Random random = new Random(seed);
+        SegmentSet segments = new SegmentSet();
+        int id = 0;
+        for (int s = 0; s < numSegments; s++) {
+            Segment segment = new Segment();
+            int numMessages = 1 + random.nextInt(3);
+            for (int m = 0; m < numMessages; m++) {
+                StringBuilder text = new StringBuilder();
+                int numWords = random.nextInt(7);
+                for (int w = 0; w < numWords; w++) {
+                    text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+                }
+                segment.add(new Message(id, new Date(1000000000000L + id * 1000L), "p" + random.nextInt(3), text.toString()));
+                id++;
+            }
+            if (labeled) {
+                segment.setTrueLabel(random.nextBoolean());
+            }
+            segments.add(segment);
+        }
+        return segments;
+    }
+
+    /**
+     * Check that two data sets have the same values stored at the same
+     * indices.
+     */
+    private static void assertSameValues(Instances expected, Instances actual) {
+        assertTrue(expected.equalHeaders(actual));
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Instance e = expected.instance(i);
+            Instance a = actual.instance(i);
+            assertEquals("Instance " + i, e.toString(), a.toString());
+            assertEquals("Instance " + i, e.numValues(), a.numValues());
+            for (int k = 0; k < e.numValues(); k++) {
+                assertEquals("Instance " + i, e.index(k), a.index(k));
+                assertEquals("Instance " + i, e.valueSparse(k), a.valueSparse(k), 0);
+            }
+        }
+    }
+
+    /**
+     * Test of extractFeatures method, of class CompiledFeaturizer.
+     */
+    @Test
+    public void testExtractFeatures() {
+        System.out.println("extractFeatures");
+        FeatureSpecification spec = new FeatureGenerationImpl(EMOTICONS).generateFeatures(makeSegments(4, 300, true).getBasicExamples());
+
+        for (boolean labeled : new boolean[]{true, false}) {
+            SegmentSet segments = makeSegments(5, 300, labeled);
+            Instances expected = new FeatureExtractionImpl().extractFeatures(segments.getBasicExamples(), spec).getInstances();
+
+            CompiledFeaturizer featurizer = new CompiledFeaturizer(spec);
+            Instances result = featurizer.extractFeatures(segments).getInstances();
+
+            assertSameValues(expected, result);
+            assertEquals(expected.classIndex(), result.classIndex());
+        }
+    }
+
+    /**
+     * Test that a specification saved in the binary format is loaded already
+     * compiled, and gives the same features.
+     */
+    @Test
+    public void testExtractFeatures_savedSpecification() throws Exception {
+        System.out.println("extractFeatures_savedSpecification");
+        FeatureSpecification spec = new FeatureGenerationImpl(EMOTICONS).generateFeatures(makeSegments(4, 300, true).getBasicExamples());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(spec.save(out));
+        FeatureSpecification loaded = new FeatureSpecification();
+        assertTrue(loaded.load(new ByteArrayInputStream(out.toByteArray())));
+
+        SegmentSet segments = makeSegments(5, 300, true);
+        Instances expected = new FeatureExtractionImpl().extractFeatures(segments.getBasicExamples(), spec).getInstances();
+        Instances result = new CompiledFeaturizer(loaded).extractFeatures(segments).getInstances();
+        assertSameValues(expected, result);
+        assertEquals(expected.classIndex(), result.classIndex());
+
+        //The filters are still there
+        assertEquals(spec.getFilters().size(), loaded.getFilters().size());
+        Instances filtered = new FeatureExtractionImpl().extractFeatures(segments.getBasicExamples(), loaded).getInstances();
+        assertSameValues(expected, filtered);
+    }
+
+    /**
+     * Test that bag of words options other than the generated ones are
+     * compiled exactly, of class CompiledFeaturizer.
+     */
+    @Test
+    public void testExtractFeatures_wordVectorOptions() throws Exception {
+        System.out.println("extractFeatures_wordVectorOptions");
+        Instances training = makeSegments(6, 200, true).getBasicExamples().getInstances();
+        SegmentSet segments = makeSegments(7, 200, false);
+
+        for (int options = 0; options < 8; options++) {
+            SimpleStringToWordVector filter = new SimpleStringToWordVector();
+            filter.setStringAttributeName(ExampleSet.MESSAGE_ATTR_NAME);
+            filter.setLowerCaseTokens((options & 1) != 0);
+            filter.setOutputWordCounts((options & 2) != 0);
+            filter.setTFTransform((options & 2) != 0);
+            filter.setIDFTransform(true);
+            int normalize = (options & 4) != 0 ? StringToWordVector.FILTER_NORMALIZE_ALL : StringToWordVector.FILTER_NONE;
+            filter.setNormalizeDocLength(new SelectedTag(normalize, StringToWordVector.TAGS_FILTER));
+            filter.setStemmer(new SimpleStringToWordVector.NoNonsenseStemmer((options & 1) != 0));
+            filter.setInputFormat(training);
+            Filter.useFilter(training, filter);
+
+            FeatureSpecification spec = new FeatureSpecification();
+            spec.addFilter(filter);
+
+            Instances expected = new FeatureExtractionImpl().extractFeatures(segments.getBasicExamples(), spec).getInstances();
+            Instances result = new CompiledFeaturizer(spec).extractFeatures(segments).getInstances();
+            assertSameValues(expected, result);
+        }
+    }
+
+    /**
+     * Test of featurize method, of class CompiledFeaturizer, for raw text.
+     */
+    @Test
+    public void testFeaturize_text() {
+        System.out.println("featurize_text");
+        FeatureSpecification spec = new FeatureGenerationImpl(EMOTICONS).generateFeatures(makeSegments(4, 300, true).getBasicExamples());
+        CompiledFeaturizer featurizer = new CompiledFeaturizer(spec);
+
+        SegmentSet segments = makeSegments(8, 50, false);
+        Instances expected = featurizer.extractFeatures(segments).getInstances();
+
+        FeatureVector features = new FeatureVector();
+        for (int i = 0; i < segments.size(); i++) {
+            Segment segment = segments.get(i);
+            featurizer.featurize(segment.concatMessages(), segment.getDurationInSeconds(), segment.getMessages().size(), features);
+            assertEquals(expected.instance(i).toString(), featurizer.toInstance(features).toString());
+        }
+    }
+
+    /**
+     * Test that threads sharing a featurizer get the same features, of class
+     * CompiledFeaturizer.
+     */
+    @Test
+    public void testFeaturize_threads() throws Exception {
+        System.out.println("featurize_threads");
+        FeatureSpecification spec = new FeatureGenerationImpl(EMOTICONS).generateFeatures(makeSegments(4, 300, true).getBasicExamples());
+        final CompiledFeaturizer featurizer = new CompiledFeaturizer(spec);
+        final SegmentSet segments = makeSegments(9, 500, false);
+        final String expected = featurizer.extractFeatures(segments).getInstances().toString();
+
+        final List<String> results = new ArrayList<String>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    String result = featurizer.extractFeatures(segments).getInstances().toString();
+                    synchronized (results) {
+                        results.add(result);
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(4, results.size());
+        for (String result : results) {
+            assertEquals(expected, result);
+        }
+    }
+
+    /**
+     * Test that specifications with other filters are not compiled, of class
+     * CompiledFeaturizer.
+     */
+    @Test
+    public void testCompile_unsupported() throws Exception {
+        System.out.println("compile_unsupported");
+        Instances basic = makeSegments(4, 10, true).getBasicExamples().getInstances();
+        Add add = new Add();
+        add.setAttributeName("newAtt");
+        add.setInputFormat(basic);
+        Filter.useFilter(basic, add);
+
+        FeatureSpecification spec = new FeatureSpecification();
+        spec.addFilter(add);
+
+        try {
+            new CompiledFeaturizer(spec);
+            fail("Add filter was compiled");
+        } catch (IllegalArgumentException e) {
+        }
+
+        FeatureExtractionImpl extraction = new FeatureExtractionImpl();
+        assertNull(extraction.compile(spec));
+    }
+}
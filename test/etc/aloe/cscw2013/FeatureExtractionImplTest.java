@@ -23,7 +23,10 @@ import etc.aloe.data.FeatureSpecification;
 import etc.aloe.data.Message;
 import etc.aloe.data.Segment;
 import etc.aloe.data.SegmentSet;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
+import java.util.Random;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -145,4 +148,56 @@ public class FeatureExtractionImplTest {
         assertEquals(seg0.getId(), instances.get(0).value(idAttr), 0);
         assertEquals(seg3.getId(), instances.get(1).value(idAttr), 0);
     }
+
+    /**
+     * Test that extracting features from partitions in parallel gives the same
+     * result as extracting them sequentially, of class FeatureExtractionImpl.
+     */
+    @Test
+    public void testExtractFeatures_parallel() {
+        System.out.println("extractFeatures_parallel");
+        String[] words = {"i", "you", "we", "love", "hate", "the", "cow", "time",
+            "noooooo", "!!!", "???", ":)", ":(", ";)", "lol", "wat", "it's"};
+        List<String> emoticons = Arrays.asList(":)", ":(", ";)");
+
+        Random random = new Random(4);
+        SegmentSet segments = new SegmentSet();
+        int id = 0;
+        for (int s = 0; s < 500; s++) {
+            Segment segment = new Segment();
+            int numMessages = 1 + random.nextInt(3);
+            for (int m = 0; m < numMessages; m++) {
+                StringBuilder text = new StringBuilder();
+                int numWords = 1 + random.nextInt(6);
+                for (int w = 0; w < numWords; w++) {
+                    text.append(words[random.nextInt(words.length)]).append(' ');
+                }
+                segment.add(new Message(id, new Date(1000000000000L + id * 1000L), "p" + random.nextInt(3), text.toString()));
+                id++;
+            }
+            segment.setTrueLabel(random.nextBoolean());
+            segments.add(segment);
+        }
+
+        FeatureSpecification spec = new FeatureGenerationImpl(emoticons).generateFeatures(segments.getBasicExamples());
+
+        //The first two filters keep the message text, the rest remove it
+        FeatureSpecification textSpec = new FeatureSpecification();
+        textSpec.addFilter(spec.getFilters().get(0));
+        textSpec.addFilter(spec.getFilters().get(1));
+
+        for (FeatureSpecification s : new FeatureSpecification[]{spec, textSpec}) {
+            FeatureExtractionImpl sequential = new FeatureExtractionImpl();
+            sequential.setNumThreads(1);
+            Instances expected = sequential.extractFeatures(segments.getBasicExamples(), s).getInstances();
+
+            FeatureExtractionImpl parallel = new FeatureExtractionImpl();
+            parallel.setNumThreads(4);
+            parallel.setPartitioning(0, 1);
+            Instances result = parallel.extractFeatures(segments.getBasicExamples(), s).getInstances();
+
+            assertEquals(500, result.size());
+            assertEquals(expected.toString(), result.toString());
+        }
+    }
 }
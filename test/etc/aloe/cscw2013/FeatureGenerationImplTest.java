@@ -86,6 +86,12 @@ public class FeatureGenerationImplTest {
         seg2.setTrueLabel(Boolean.FALSE);
         segments.add(seg2);
 
+        Segment seg3 = new Segment();
+        seg3.add(new Message(6, new Date(), "Bob", "the cow :) ;-)"));
+        seg3.add(new Message(7, new Date(), "Alice", "it's TIME!!!"));
+        seg3.setTrueLabel(Boolean.TRUE);
+        segments.add(seg3);
+
         basicExamples = segments.getBasicExamples();
     }
 
@@ -117,4 +123,31 @@ public class FeatureGenerationImplTest {
             }
         }
     }
+
+    /**
+     * Test that generating the invariant and then the dependent features is
+     * the same as generating all of them, of class FeatureGenerationImpl.
+     */
+    @Test
+    public void testGenerateInvariantFeatures() throws Exception {
+        System.out.println("generateInvariantFeatures");
+
+        FeatureGenerationImpl generation = new FeatureGenerationImpl(termList);
+        FeatureSpecification spec = generation.generateFeatures(basicExamples);
+        FeatureExtractionImpl extraction = new FeatureExtractionImpl();
+        ExampleSet expected = extraction.extractFeatures(segments.getBasicExamples(), spec);
+
+        FeatureSpecification invariantSpec = generation.generateInvariantFeatures(segments.getBasicExamples());
+        for (Filter filter : invariantSpec.getFilters()) {
+            assertTrue(filter.isFirstBatchDone());
+        }
+        ExampleSet invariantExamples = extraction.extractFeatures(segments.getBasicExamples(), invariantSpec);
+        assertEquals(segments.size(), invariantExamples.size());
+
+        FeatureSpecification dependentSpec = generation.generateDependentFeatures(invariantExamples);
+        assertEquals(spec.getFilters().size(), invariantSpec.getFilters().size() + dependentSpec.getFilters().size());
+        ExampleSet result = extraction.extractFeatures(invariantExamples, dependentSpec);
+
+        assertEquals(expected.getInstances().toString(), result.getInstances().toString());
+    }
 }
@@ -0,0 +1,318 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.cscw2013;
+
+import etc.aloe.data.Message;
+import etc.aloe.data.MessageSet;
+import etc.aloe.data.Segment;
+import etc.aloe.data.SegmentSet;
+import etc.aloe.cscw2013.StreamingThresholdSegmentation.LatePolicy;
+import etc.aloe.processes.StreamingSegmentation.SegmentHandler;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public class StreamingThresholdSegmentationTest {
+
+    private MessageSet messages;
+
+    public StreamingThresholdSegmentationTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+        messages = new MessageSet();
+
+        long now = new Date().getTime();
+        long second = 1 * 1000;
+        long minute = 60 * 1000;
+
+        messages.add(new Message(0, new Date(now), "Alice", "it's", true));
+        messages.add(new Message(1, new Date(now + second), "Bob", "cow"));
+        messages.add(new Message(2, new Date(now + 2 * second), "Bob", "time", false));
+        messages.add(new Message(3, new Date(now + minute), "Bob", "noooooooo"));
+        messages.add(new Message(4, new Date(now + minute + second), "Bob", "once"));
+        messages.add(new Message(5, new Date(now + 2 * minute), "Alice", "upon"));
+        messages.add(new Message(6, new Date(now + 3 * minute), "Alice", "a", true));
+        messages.add(new Message(7, new Date(now + 3 * minute + second), "Alice", "time"));
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Test of add method, of class StreamingThresholdSegmentation.
+     */
+    @Test
+    public void testAdd_byTimeAndParticipant() throws InterruptedException {
+        System.out.println("add_byTimeAndParticipant");
+
+        ThresholdSegmentation batch = new ThresholdSegmentation(30, true);
+        batch.setSegmentResolution(new ResolutionImpl());
+        SegmentSet expected = batch.segment(messages);
+
+        StreamingThresholdSegmentation instance = new StreamingThresholdSegmentation(30, true);
+        instance.setSegmentResolution(new ResolutionImpl());
+        List<Segment> closed = stream(instance);
+
+        assertSameSegments(expected, closed);
+        assertEquals(0, instance.getOpenSegmentCount());
+    }
+
+    /**
+     * Test of add method, of class StreamingThresholdSegmentation.
+     */
+    @Test
+    public void testAdd_byTime() throws InterruptedException {
+        System.out.println("add_byTime");
+
+        ThresholdSegmentation batch = new ThresholdSegmentation(30, false);
+        batch.setSegmentResolution(new ResolutionImpl());
+        SegmentSet expected = batch.segment(messages);
+
+        StreamingThresholdSegmentation instance = new StreamingThresholdSegmentation(30, false);
+        instance.setSegmentResolution(new ResolutionImpl());
+        List<Segment> closed = stream(instance);
+
+        assertSameSegments(expected, closed);
+    }
+
+    /**
+     * Segments should be emitted as soon as they cannot grow any more.
+     */
+    @Test
+    public void testAdd_closesEarly() throws InterruptedException {
+        System.out.println("add_closesEarly");
+
+        final List<Segment> closed = new ArrayList<Segment>();
+        StreamingThresholdSegmentation instance = new StreamingThresholdSegmentation(30, true);
+        instance.setSegmentHandler(new SegmentHandler() {
+            @Override
+            public void segmentClosed(Segment segment) {
+                closed.add(segment);
+            }
+        });
+
+        //Alice and Bob's first segments are still open after message 2
+        for (int i = 0; i <= 2; i++) {
+            instance.add(messages.get(i));
+        }
+        assertEquals(0, closed.size());
+        assertEquals(2, instance.getOpenSegmentCount());
+
+        //A minute later, both have been closed
+        instance.add(messages.get(3));
+        assertEquals(2, closed.size());
+        assertEquals(1, instance.getOpenSegmentCount());
+        assertEquals(messages.get(0), closed.get(0).getMessages().get(0));
+        assertEquals(messages.get(1), closed.get(1).getMessages().get(0));
+    }
+
+    /**
+     * Test of add method, of class StreamingThresholdSegmentation, with
+     * messages out of order by no more than the allowed lateness.
+     */
+    @Test
+    public void testAdd_outOfOrder() throws InterruptedException {
+        System.out.println("add_outOfOrder");
+
+        Random random = new Random(11);
+        MessageSet shuffled = new MessageSet();
+        long time = 1000000000000L;
+        for (int i = 0; i < 2000; i++) {
+            time += random.nextInt(5) == 0 ? random.nextInt(120000) : random.nextInt(20000);
+            shuffled.add(new Message(i, new Date(time), "P" + random.nextInt(4), "m", random.nextBoolean()));
+        }
+
+        ThresholdSegmentation batch = new ThresholdSegmentation(30, true);
+        batch.setSegmentResolution(new ResolutionImpl());
+        SegmentSet expected = batch.segment(shuffled);
+
+        //Deliver each message up to 60 seconds late
+        final Map<Message, Long> arrivalTimes = new HashMap<Message, Long>();
+        List<Message> arrivals = new ArrayList<Message>(shuffled.getMessages());
+        for (Message message : arrivals) {
+            arrivalTimes.put(message, message.getTimestampMillis() + random.nextInt(60000));
+        }
+        Collections.sort(arrivals, new Comparator<Message>() {
+            @Override
+            public int compare(Message o1, Message o2) {
+                return arrivalTimes.get(o1).compareTo(arrivalTimes.get(o2));
+            }
+        });
+
+        final List<Segment> closed = new ArrayList<Segment>();
+        StreamingThresholdSegmentation instance = new StreamingThresholdSegmentation(30, true);
+        instance.setSegmentResolution(new ResolutionImpl());
+        instance.setAllowedLateness(60);
+        instance.setSegmentHandler(new SegmentHandler() {
+            @Override
+            public void segmentClosed(Segment segment) {
+                closed.add(segment);
+            }
+        });
+        int maxOpen = 0;
+        for (Message message : arrivals) {
+            instance.add(message);
+            maxOpen = Math.max(maxOpen, instance.getOpenSegmentCount());
+        }
+        instance.finish();
+
+        assertEquals(0, instance.getLateCount());
+        assertSameSegments(expected, closed);
+        assertTrue(maxOpen < 20);
+    }
+
+    /**
+     * Test of setLatePolicy method, of class StreamingThresholdSegmentation.
+     */
+    @Test
+    public void testSetLatePolicy() throws InterruptedException {
+        System.out.println("setLatePolicy");
+
+        for (LatePolicy policy : LatePolicy.values()) {
+            StreamingThresholdSegmentation instance = new StreamingThresholdSegmentation(30, true);
+            instance.setLatePolicy(policy);
+            final List<Segment> closed = new ArrayList<Segment>();
+            instance.setSegmentHandler(new SegmentHandler() {
+                @Override
+                public void segmentClosed(Segment segment) {
+                    closed.add(segment);
+                }
+            });
+
+            //Bob's message at 1 second is late once Bob's message at 2 seconds arrives
+            instance.add(messages.get(0));
+            instance.add(messages.get(2));
+            instance.add(messages.get(1));
+            instance.finish();
+            assertEquals(1, instance.getLateCount());
+
+            int total = 0;
+            for (Segment segment : closed) {
+                total += segment.getMessages().size();
+            }
+            switch (policy) {
+                case ADMIT:
+                    //Joins Bob's open segment, in time order
+                    assertEquals(2, closed.size());
+                    assertEquals(3, total);
+                    assertEquals(messages.get(1), closed.get(1).getMessages().get(0));
+                    break;
+                case SEPARATE:
+                    assertEquals(3, closed.size());
+                    assertEquals(messages.get(1), closed.get(0).getMessages().get(0));
+                    break;
+                case DROP:
+                    assertEquals(2, closed.size());
+                    assertEquals(2, total);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Test of advanceWatermark method, of class
+     * StreamingThresholdSegmentation.
+     */
+    @Test
+    public void testAdvanceWatermark() throws InterruptedException {
+        System.out.println("advanceWatermark");
+
+        final List<Segment> closed = new ArrayList<Segment>();
+        StreamingThresholdSegmentation instance = new StreamingThresholdSegmentation(30, true);
+        instance.setAllowedLateness(10);
+        instance.setSegmentHandler(new SegmentHandler() {
+            @Override
+            public void segmentClosed(Segment segment) {
+                closed.add(segment);
+            }
+        });
+
+        instance.add(messages.get(0));
+        instance.add(messages.get(1));
+        long start = messages.get(0).getTimestampMillis();
+
+        //Not yet past the threshold plus the lateness
+        instance.advanceWatermark(start + 40 * 1000);
+        assertEquals(0, closed.size());
+
+        //Both segments are idle now
+        instance.advanceWatermark(start + 45 * 1000);
+        assertEquals(2, closed.size());
+        assertEquals(0, instance.getOpenSegmentCount());
+    }
+
+    private List<Segment> stream(StreamingThresholdSegmentation instance) throws InterruptedException {
+        final List<Segment> closed = new ArrayList<Segment>();
+        instance.setSegmentHandler(new SegmentHandler() {
+            @Override
+            public void segmentClosed(Segment segment) {
+                closed.add(segment);
+            }
+        });
+        for (Message message : messages.getMessages()) {
+            instance.add(message);
+        }
+        instance.finish();
+        return closed;
+    }
+
+    /**
+     * Checks that the two lists contain segments with the same messages and
+     * labels, ignoring the order of the segments.
+     */
+    private void assertSameSegments(SegmentSet expected, List<Segment> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (Segment expectedSegment : expected.getSegments()) {
+            Segment match = null;
+            for (Segment segment : actual) {
+                if (segment.getMessages().equals(expectedSegment.getMessages())) {
+                    match = segment;
+                }
+            }
+            assertNotNull(match);
+            assertEquals(expectedSegment.getTrueLabel(), match.getTrueLabel());
+        }
+    }
+}
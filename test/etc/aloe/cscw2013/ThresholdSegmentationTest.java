@@ -21,8 +21,14 @@ package etc.aloe.cscw2013;
 import etc.aloe.data.Message;
 import etc.aloe.data.MessageSet;
 import etc.aloe.data.Segment;
+import etc.aloe.data.SegmentIdAllocator;
 import etc.aloe.data.SegmentSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.List;
+import java.util.Random;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -220,4 +226,122 @@ public class ThresholdSegmentationTest {
         }
     }
 
+    /**
+     * Segment the way ThresholdSegmentation originally did: sort everything
+     * by time, then by participant, and split in one pass. Returns the
+     * message ids in each segment.
+     */
+    private List<List<Integer>> referenceSegment(MessageSet messageSet, int thresholdSeconds, boolean byParticipant) {
+        List<Message> messages = new ArrayList<Message>(messageSet.getMessages());
+        Collections.sort(messages, new Comparator<Message>() {
+            @Override
+            public int compare(Message o1, Message o2) {
+                return o1.getTimestamp().compareTo(o2.getTimestamp());
+            }
+        });
+        if (byParticipant) {
+            Collections.sort(messages, new Comparator<Message>() {
+                @Override
+                public int compare(Message o1, Message o2) {
+                    return o1.getParticipant().compareTo(o2.getParticipant());
+                }
+            });
+        }
+
+        List<List<Integer>> segments = new ArrayList<List<Integer>>();
+        List<Integer> current = new ArrayList<Integer>();
+        long lastTime = 0;
+        String lastParticipant = null;
+        for (Message message : messages) {
+            long msgSeconds = message.getTimestamp().getTime() / 1000;
+            boolean newSegment = lastTime > 0 && msgSeconds - lastTime > thresholdSeconds;
+            if (byParticipant && lastParticipant != null && !lastParticipant.equals(message.getParticipant())) {
+                newSegment = true;
+            }
+            if (newSegment) {
+                segments.add(current);
+                current = new ArrayList<Integer>();
+            }
+            lastTime = msgSeconds;
+            lastParticipant = message.getParticipant();
+            current.add(message.getId());
+        }
+        if (!current.isEmpty()) {
+            segments.add(current);
+        }
+        return segments;
+    }
+
+    /**
+     * Test that segment matches sorting the whole list, for sorted and
+     * unsorted input, including inputs large enough to be split in parallel.
+     */
+    @Test
+    public void testSegment_matchesSortedOrder() {
+        System.out.println("segment_matchesSortedOrder");
+        Random random = new Random(3);
+        int[] sizes = {0, 1, 50, 150000};
+        for (int size : sizes) {
+            for (int shuffle = 0; shuffle < 2; shuffle++) {
+                MessageSet messages = new MessageSet();
+                long time = size > 100 ? 1000000000000L : 500;
+                for (int i = 0; i < size; i++) {
+                    time += random.nextInt(4) == 0 ? random.nextInt(120000) : random.nextInt(2000);
+                    long messageTime = shuffle == 1 ? time - random.nextInt(300000) : time;
+                    messages.add(new Message(i, new Date(messageTime), "P" + random.nextInt(size > 100 ? 40 : 3), "m"));
+                }
+
+                for (int b = 0; b < 2; b++) {
+                    boolean byParticipant = b == 1;
+                    SegmentSet segments = new ThresholdSegmentation(30, byParticipant).segment(messages);
+                    List<List<Integer>> expected = referenceSegment(messages, 30, byParticipant);
+
+                    assertEquals(expected.size(), segments.size());
+                    for (int s = 0; s < segments.size(); s++) {
+                        Segment segment = segments.get(s);
+                        if (s > 0) {
+                            assertEquals(segments.get(s - 1).getId() + 1, segment.getId());
+                        }
+                        List<Integer> expectedIds = expected.get(s);
+                        assertEquals(expectedIds.size(), segment.getMessages().size());
+                        for (int m = 0; m < expectedIds.size(); m++) {
+                            Message message = segment.getMessages().get(m);
+                            assertEquals((int) expectedIds.get(m), message.getId());
+                            assertEquals(segment.getId(), message.getSegmentId());
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Each segmentation numbers its segments from zero unless it is given a
+     * shared allocator.
+     */
+    @Test
+    public void testSegment_idsPerRun() {
+        System.out.println("segment_idsPerRun");
+        MessageSet messages = new MessageSet();
+        messages.add(new Message(0, new Date(1000000000000L), "Alice", "a"));
+        messages.add(new Message(1, new Date(1000000060000L), "Alice", "b"));
+        messages.add(new Message(2, new Date(1000000120000L), "Alice", "c"));
+
+        SegmentSet first = new ThresholdSegmentation(30, true).segment(messages);
+        SegmentSet second = new ThresholdSegmentation(30, true).segment(messages);
+        assertEquals(3, first.size());
+        assertEquals(3, second.size());
+        for (int s = 0; s < 3; s++) {
+            assertEquals(s, first.get(s).getId());
+            assertEquals(s, second.get(s).getId());
+        }
+
+        SegmentIdAllocator shared = new SegmentIdAllocator(10);
+        ThresholdSegmentation instance = new ThresholdSegmentation(30, true);
+        instance.setSegmentIdAllocator(shared);
+        SegmentSet third = instance.segment(messages);
+        assertEquals(10, third.get(0).getId());
+        assertEquals(12, third.get(2).getId());
+        assertEquals(13, shared.peek());
+    }
 }
@@ -18,11 +18,15 @@
  */
 package etc.aloe.cscw2013;
 
+import etc.aloe.classifiers.LinearSVM;
 import etc.aloe.cscw2013.WekaModel;
 import etc.aloe.data.ExampleSet;
 import etc.aloe.data.Predictions;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
@@ -34,11 +38,18 @@ import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import static org.junit.Assert.*;
+import java.util.Random;
 import weka.classifiers.Classifier;
+import weka.classifiers.CostMatrix;
+import weka.classifiers.functions.SMO;
+import weka.classifiers.functions.supportVector.PolyKernel;
+import weka.classifiers.meta.CostSensitiveClassifier;
 import weka.classifiers.trees.J48;
 import weka.core.Attribute;
 import weka.core.DenseInstance;
+import weka.core.Instance;
 import weka.core.Instances;
+import weka.core.SparseInstance;
 
 /**
  *
@@ -189,4 +200,278 @@ public class WekaModelTest {
             assertEquals(testInstances.get(i).classValue(), predictions.getTrueLabel(i) ? 1.0 : 0.0, 0.0);
         }
     }
+
+    /**
+     * Make sparse, overlapping data for a linear SVM.
+     */
+    private Instances makeSparseInstances(int numInstances, long seed) {
+        ArrayList<Attribute> attributes = new ArrayList<Attribute>();
+        attributes.add(new Attribute("good"));
+        attributes.add(new Attribute("bad"));
+        attributes.add(new Attribute("shifted"));
+        attributes.add(new Attribute("constant"));
+
+        ArrayList<String> classValues = new ArrayList<String>();
+        classValues.add("false");
+        classValues.add("true");
+        attributes.add(new Attribute("class", classValues));
+
+        Instances data = new Instances("SparseInstances", attributes, numInstances);
+        data.setClassIndex(4);
+
+        Random random = new Random(seed);
+        for (int i = 0; i < numInstances; i++) {
+            boolean positive = random.nextBoolean();
+            double good = random.nextInt(positive ? 4 : 2);
+            double bad = random.nextInt(positive ? 2 : 4);
+            double shifted = 3 + random.nextInt(3);
+            data.add(new SparseInstance(1.0, new double[]{good, bad, shifted, 0, positive ? 1 : 0}));
+        }
+        return data;
+    }
+
+    private void assertSameAsClassifier(Classifier classifier, Instances test) throws Exception {
+        WekaModel model = new WekaModel(classifier);
+        ExampleSet examples = new ExampleSet(test);
+        Predictions predictions = model.getPredictions(examples);
+
+        LinearScorer scorer = LinearScorer.forClassifier(classifier);
+
+        assertEquals(test.numInstances(), predictions.size());
+        for (int i = 0; i < test.numInstances(); i++) {
+            Instance instance = test.instance(i);
+            double[] distribution = classifier.distributionForInstance(instance);
+            assertEquals(examples.getClassLabel(classifier.classifyInstance(instance)), predictions.getPredictedLabel(i));
+            assertEquals(distribution[1], predictions.getPredictionConfidence(i), 0);
+
+            if (scorer != null && scorer.canScore(instance)) {
+                assertArrayEquals(distribution, scorer.distributionForInstance(instance), 0);
+            }
+        }
+    }
+
+    /**
+     * Test that a linear SMO is scored without Weka, with the same results.
+     */
+    @Test
+    public void testLinearScoring() throws Exception {
+        System.out.println("linearScoring");
+
+        Instances train = makeSparseInstances(200, 1);
+        Instances test = makeSparseInstances(100, 2);
+        //A missing value has to go through Weka
+        test.instance(0).setMissing(0);
+
+        SMO smo = new SMO();
+        smo.buildClassifier(train);
+        assertNotNull(LinearScorer.forClassifier(smo));
+        assertSameAsClassifier(smo, test);
+
+        SMO logistic = new SMO();
+        logistic.setBuildLogisticModels(true);
+        logistic.buildClassifier(train);
+        assertNotNull(LinearScorer.forClassifier(logistic));
+        assertSameAsClassifier(logistic, test);
+
+        CostMatrix matrix = new CostMatrix(2);
+        matrix.setElement(0, 1, 1);
+        matrix.setElement(1, 0, 3);
+        CostSensitiveClassifier minCost = new CostSensitiveClassifier();
+        minCost.setClassifier(logistic);
+        minCost.setCostMatrix(matrix);
+        minCost.setMinimizeExpectedCost(true);
+        minCost.buildClassifier(train);
+        assertNotNull(LinearScorer.forClassifier(minCost));
+        assertSameAsClassifier(minCost, test);
+    }
+
+    /**
+     * Test that a LinearSVM is scored without Weka, with the same results.
+     */
+    @Test
+    public void testLinearScoring_linearSVM() throws Exception {
+        System.out.println("linearScoring_linearSVM");
+
+        Instances train = makeSparseInstances(200, 1);
+        Instances test = makeSparseInstances(100, 2);
+        test.instance(0).setMissing(0);
+
+        LinearSVM svm = new LinearSVM();
+        svm.buildClassifier(train);
+        assertNotNull(LinearScorer.forClassifier(svm));
+        assertSameAsClassifier(svm, test);
+
+        LinearSVM logistic = new LinearSVM();
+        logistic.setBuildLogisticModels(true);
+        logistic.buildClassifier(train);
+        assertTrue(logistic.hasLogisticModel());
+        assertNotNull(LinearScorer.forClassifier(logistic));
+        assertSameAsClassifier(logistic, test);
+
+        CostMatrix matrix = new CostMatrix(2);
+        matrix.setElement(0, 1, 1);
+        matrix.setElement(1, 0, 3);
+        CostSensitiveClassifier minCost = new CostSensitiveClassifier();
+        minCost.setClassifier(logistic);
+        minCost.setCostMatrix(matrix);
+        minCost.setMinimizeExpectedCost(true);
+        minCost.buildClassifier(train);
+        assertNotNull(LinearScorer.forClassifier(minCost));
+        assertSameAsClassifier(minCost, test);
+
+        assertNull(LinearScorer.forClassifier(new LinearSVM()));
+    }
+
+    /**
+     * Test that classifiers that aren't linear SMOs are scored by Weka.
+     */
+    @Test
+    public void testNoLinearScoring() throws Exception {
+        System.out.println("noLinearScoring");
+
+        Instances train = makeSparseInstances(200, 1);
+        Instances test = makeSparseInstances(100, 2);
+
+        SMO quadratic = new SMO();
+        PolyKernel kernel = new PolyKernel();
+        kernel.setExponent(2.0);
+        quadratic.setKernel(kernel);
+        quadratic.buildClassifier(train);
+        assertNull(LinearScorer.forClassifier(quadratic));
+        assertSameAsClassifier(quadratic, test);
+
+        assertNull(LinearScorer.forClassifier(new SMO()));
+        assertNull(LinearScorer.forClassifier(new J48()));
+    }
+
+    /**
+     * Test that a model with a linear scorer is saved in the binary format and
+     * loads with the same results, from a stream or a mapped file.
+     */
+    @Test
+    public void testSaveLoad_binary() throws Exception {
+        System.out.println("saveLoad_binary");
+
+        Instances train = makeSparseInstances(200, 1);
+        Instances test = makeSparseInstances(100, 2);
+        test.instance(0).setMissing(0);
+
+        SMO logistic = new SMO();
+        logistic.setBuildLogisticModels(true);
+        CostMatrix matrix = new CostMatrix(2);
+        matrix.setElement(0, 1, 1);
+        matrix.setElement(1, 0, 3);
+        CostSensitiveClassifier minCost = new CostSensitiveClassifier();
+        minCost.setClassifier(logistic);
+        minCost.setCostMatrix(matrix);
+        minCost.setMinimizeExpectedCost(true);
+        minCost.buildClassifier(train);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(new WekaModel(minCost).save(out));
+        byte[] bytes = out.toByteArray();
+        //Not a Java serialization stream
+        assertFalse(bytes[0] == (byte) 0xac && bytes[1] == (byte) 0xed);
+
+        File file = File.createTempFile("model", ".model");
+        try {
+            FileOutputStream fileOut = new FileOutputStream(file);
+            fileOut.write(bytes);
+            fileOut.close();
+
+            WekaModel fromStream = new WekaModel();
+            assertTrue(fromStream.load(new ByteArrayInputStream(bytes)));
+            WekaModel fromFile = new WekaModel();
+            FileInputStream fileIn = new FileInputStream(file);
+            assertTrue(fromFile.load(fileIn));
+            fileIn.close();
+
+            for (WekaModel model : new WekaModel[]{fromStream, fromFile}) {
+                Predictions predictions = model.getPredictions(new ExampleSet(test));
+                assertEquals(test.numInstances(), predictions.size());
+                for (int i = 0; i < test.numInstances(); i++) {
+                    double[] distribution = minCost.distributionForInstance(test.instance(i));
+                    assertEquals(distribution[1], predictions.getPredictionConfidence(i), 0);
+                }
+                assertTrue(model.getClassifier() instanceof CostSensitiveClassifier);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Test that a model trained by dual coordinate descent is saved in the
+     * binary format, and that its scorer is trusted after loading without
+     * deserializing the classifier.
+     */
+    @Test
+    public void testSaveLoad_binaryLinearSVM() throws Exception {
+        System.out.println("saveLoad_binaryLinearSVM");
+
+        Instances train = makeSparseInstances(200, 1);
+        Instances test = makeSparseInstances(100, 2);
+
+        LinearSVM logistic = new LinearSVM();
+        logistic.setBuildLogisticModels(true);
+        CostMatrix matrix = new CostMatrix(2);
+        matrix.setElement(0, 1, 1);
+        matrix.setElement(1, 0, 3);
+        CostSensitiveClassifier minCost = new CostSensitiveClassifier();
+        minCost.setClassifier(logistic);
+        minCost.setCostMatrix(matrix);
+        minCost.setMinimizeExpectedCost(true);
+        minCost.buildClassifier(train);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(new WekaModel(minCost).save(out));
+        byte[] bytes = out.toByteArray();
+        assertFalse(bytes[0] == (byte) 0xac && bytes[1] == (byte) 0xed);
+
+        WekaModel model = new WekaModel();
+        assertTrue(model.load(new ByteArrayInputStream(bytes)));
+
+        //A single example is enough to use the scorer
+        Instances first = new Instances(test, 0, 1);
+        Predictions predictions = model.getPredictions(new ExampleSet(first));
+        assertEquals(minCost.distributionForInstance(first.instance(0))[1], predictions.getPredictionConfidence(0), 0);
+        assertFalse(model.isClassifierLoaded());
+
+        predictions = model.getPredictions(new ExampleSet(test));
+        for (int i = 0; i < test.numInstances(); i++) {
+            double[] distribution = minCost.distributionForInstance(test.instance(i));
+            assertEquals(distribution[1], predictions.getPredictionConfidence(i), 0);
+        }
+        assertFalse(model.isClassifierLoaded());
+
+        //The classifier is still there when it is needed
+        assertTrue(model.getClassifier() instanceof CostSensitiveClassifier);
+        assertTrue(model.isClassifierLoaded());
+    }
+
+    /**
+     * Test that a saved SMO's scorer is trusted after loading, so labeling
+     * does not deserialize the classifier.
+     */
+    @Test
+    public void testSaveLoad_binaryTrusted() throws Exception {
+        System.out.println("saveLoad_binaryTrusted");
+
+        Instances train = makeSparseInstances(200, 1);
+        Instances test = makeSparseInstances(100, 2);
+
+        SMO smo = new SMO();
+        smo.buildClassifier(train);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(new WekaModel(smo).save(out));
+
+        WekaModel model = new WekaModel();
+        assertTrue(model.load(new ByteArrayInputStream(out.toByteArray())));
+        Predictions predictions = model.getPredictions(new ExampleSet(test));
+        for (int i = 0; i < test.numInstances(); i++) {
+            assertEquals(smo.distributionForInstance(test.instance(i))[1], predictions.getPredictionConfidence(i), 0);
+        }
+        assertFalse(model.isClassifierLoaded());
+    }
 }
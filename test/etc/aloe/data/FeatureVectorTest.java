@@ -0,0 +1,125 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.data;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import weka.core.Instance;
+
+/**
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public class FeatureVectorTest {
+
+    public FeatureVectorTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Test of add and get methods, of class FeatureVector.
+     */
+    @Test
+    public void testAdd() {
+        System.out.println("add");
+        FeatureVector vector = new FeatureVector();
+        vector.clear(200);
+        for (int i = 0; i < 100; i++) {
+            vector.add(2 * i, i);
+        }
+
+        assertEquals(100, vector.size());
+        assertEquals(200, vector.numAttributes());
+        assertEquals(10, vector.index(5));
+        assertEquals(5, vector.value(5), 0);
+        assertEquals(7, vector.get(14), 0);
+        assertEquals(0, vector.get(15), 0);
+
+        //Zeros are kept
+        assertEquals(0, vector.index(0));
+        assertEquals(0, vector.get(0), 0);
+
+        vector.clear(3);
+        assertEquals(0, vector.size());
+        assertEquals(0, vector.get(2), 0);
+    }
+
+    /**
+     * Test that indices must increase, of class FeatureVector.
+     */
+    @Test
+    public void testAdd_outOfOrder() {
+        System.out.println("add_outOfOrder");
+        FeatureVector vector = new FeatureVector();
+        vector.clear(10);
+        vector.add(3, 1);
+        try {
+            vector.add(3, 1);
+            fail("Repeated index was added");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            vector.add(10, 1);
+            fail("Index past the last attribute was added");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    /**
+     * Test of toInstance method, of class FeatureVector.
+     */
+    @Test
+    public void testToInstance() {
+        System.out.println("toInstance");
+        FeatureVector vector = new FeatureVector();
+        vector.clear(5);
+        vector.add(1, 0);
+        vector.add(3, 2.5);
+
+        Instance instance = vector.toInstance(2);
+        assertEquals(5, instance.numAttributes());
+        assertEquals(1, instance.numValues());
+        assertEquals(2, instance.weight(), 0);
+        assertEquals(3, instance.index(0));
+        assertEquals(2.5, instance.value(3), 0);
+
+        //The instance does not change with the vector
+        vector.clear(5);
+        assertEquals(2.5, instance.value(3), 0);
+    }
+}
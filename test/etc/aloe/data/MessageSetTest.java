@@ -275,4 +275,39 @@ public class MessageSetTest {
 
         assertEquals(1, instance.size());
     }
+
+    /**
+     * Test that messages returned by the set are views of its storage.
+     */
+    @Test
+    public void testGet_views() {
+        System.out.println("get_views");
+        Date time = new Date(1000);
+        Message message = new Message(7, time, "Alice", "hello", true, null, 3);
+        MessageSet messages = new MessageSet();
+        messages.add(new Message(6, time, "Bob", "hi"));
+        messages.add(message);
+
+        Message view = messages.get(1);
+        assertEquals(7, view.getId());
+        assertEquals(time, view.getTimestamp());
+        assertEquals(1000, view.getTimestampMillis());
+        assertEquals("Alice", view.getParticipant());
+        assertEquals("hello", view.getMessage());
+        assertEquals(true, view.getTrueLabel());
+        assertEquals(null, view.getPredictedLabel());
+        assertEquals(3, view.getSegmentId());
+        assertTrue(view.getPredictionConfidence().isNaN());
+
+        view.setPredictedLabel(false);
+        view.setPredictionConfidence(0.25);
+        view.setSegmentId(4);
+        assertEquals(false, message.getPredictedLabel());
+        assertEquals(0.25, message.getPredictionConfidence(), 0);
+        assertEquals(4, message.getSegmentId());
+
+        message.setTrueLabel(null);
+        assertFalse(messages.getMessages().get(1).hasTrueLabel());
+        assertEquals(null, messages.get(0).getTrueLabel());
+    }
 }
@@ -0,0 +1,163 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.data;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public class MessageSnapshotTest {
+
+    private static final String PATTERN = "yyyy-MM-dd'T'HH:mm:ss";
+    private File source;
+    private File snapshotFile;
+
+    public MessageSnapshotTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        source = File.createTempFile("messages", ".csv");
+        snapshotFile = MessageSnapshot.fileFor(source);
+
+        String data =
+                "id,time,participant,message,truth,predicted,segment\n"
+                + "1,2005-01-04T00:07:47,BERT,\"15 hrs 59 min, to twilight\",true,false,3\n"
+                + "2,2005-01-04T00:07:48,Ray,hi bert,false,true,5\n"
+                + "3,2005-01-04T00:07:48,BERT,\"caf\u00e9 \u2603\",,,\n"
+                + "4,2005-01-04T00:07:50,,(sunrise at 16:48 UTC),,false,\n"
+                + "5,2005-01-04T00:07:55,Ray,,true\n";
+        FileOutputStream out = new FileOutputStream(source);
+        out.write(data.getBytes(Charset.forName("UTF-8")));
+        out.close();
+    }
+
+    @After
+    public void tearDown() {
+        source.delete();
+        snapshotFile.delete();
+    }
+
+    private MessageSet loadCSV() throws IOException {
+        MessageSet messages = new MessageSet();
+        messages.setDateFormat(new TimestampFormat(PATTERN));
+        FileInputStream in = new FileInputStream(source);
+        messages.load(in);
+        in.close();
+        return messages;
+    }
+
+    private MessageSet loadSnapshot(String pattern) throws IOException {
+        MessageSet messages = new MessageSet();
+        messages.setDateFormat(new TimestampFormat(pattern));
+        if (!new MessageSnapshot(snapshotFile, source).load(messages)) {
+            return null;
+        }
+        return messages;
+    }
+
+    /**
+     * Test of save and load methods, of class MessageSnapshot.
+     */
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        System.out.println("saveAndLoad");
+        MessageSet expected = loadCSV();
+        assertNull(loadSnapshot(PATTERN));
+
+        new MessageSnapshot(snapshotFile, source).save(expected);
+        MessageSet result = loadSnapshot(PATTERN);
+        assertNotNull(result);
+
+        assertEquals(expected.size(), result.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Message e = expected.get(i);
+            Message r = result.get(i);
+            assertEquals(e.getId(), r.getId());
+            assertEquals(e.getTimestamp(), r.getTimestamp());
+            assertEquals(e.getParticipant(), r.getParticipant());
+            assertEquals(e.getMessage(), r.getMessage());
+            assertEquals(e.getTrueLabel(), r.getTrueLabel());
+            assertEquals(e.getPredictedLabel(), r.getPredictedLabel());
+            assertEquals(e.getSegmentId(), r.getSegmentId());
+            assertTrue(r.getPredictionConfidence().isNaN());
+        }
+        assertEquals("caf\u00e9 \u2603", result.get(2).getMessage());
+    }
+
+    /**
+     * Test of load method, of class MessageSnapshot, with a stale snapshot.
+     */
+    @Test
+    public void testLoad_stale() throws Exception {
+        System.out.println("load_stale");
+        new MessageSnapshot(snapshotFile, source).save(loadCSV());
+        assertNotNull(loadSnapshot(PATTERN));
+
+        //A different date format
+        assertNull(loadSnapshot("yyyy-MM-dd'T'HH:mm"));
+
+        //A modified source
+        assertTrue(source.setLastModified(source.lastModified() - 10000));
+        assertNull(loadSnapshot(PATTERN));
+    }
+
+    /**
+     * Test of load method, of class MessageSnapshot, with a damaged header.
+     */
+    @Test
+    public void testLoad_damaged() throws Exception {
+        System.out.println("load_damaged");
+        new MessageSnapshot(snapshotFile, source).save(loadCSV());
+
+        RandomAccessFile file = new RandomAccessFile(snapshotFile, "rw");
+        file.seek(40);
+        int value = file.read();
+        file.seek(40);
+        file.write(value ^ 1);
+        file.close();
+        assertNull(loadSnapshot(PATTERN));
+
+        file = new RandomAccessFile(snapshotFile, "rw");
+        file.setLength(file.length() - 1);
+        file.close();
+        assertNull(loadSnapshot(PATTERN));
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.nio.charset.Charset;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.List;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public class ParallelMessageLoaderTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private DateFormat dateFormat;
+    private File file;
+
+    public ParallelMessageLoaderTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+        file = File.createTempFile("messages", ".csv");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private void write(String data) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(data.getBytes(UTF8));
+        out.close();
+    }
+
+    private MessageSet loadFromStream(String data) throws InvalidObjectException {
+        MessageSet messages = new MessageSet();
+        messages.setDateFormat(dateFormat);
+        messages.load(new ByteArrayInputStream(data.getBytes(UTF8)));
+        return messages;
+    }
+
+    private List<Message> loadFromFile(int numThreads) throws IOException {
+        ParallelMessageLoader loader = new ParallelMessageLoader(dateFormat, UTF8);
+        loader.setNumThreads(numThreads);
+        FileInputStream in = new FileInputStream(file);
+        try {
+            return loader.load(in.getChannel());
+        } finally {
+            in.close();
+        }
+    }
+
+    private void assertSameMessages(MessageSet expected, List<Message> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Message e = expected.get(i);
+            Message a = actual.get(i);
+            assertEquals(e.getId(), a.getId());
+            assertEquals(e.getTimestamp(), a.getTimestamp());
+            assertEquals(e.getParticipant(), a.getParticipant());
+            assertEquals(e.getMessage(), a.getMessage());
+            assertEquals(e.getTrueLabel(), a.getTrueLabel());
+            assertEquals(e.getPredictedLabel(), a.getPredictedLabel());
+            assertEquals(e.getSegmentId(), a.getSegmentId());
+        }
+    }
+
+    /**
+     * Test of load method, of class ParallelMessageLoader, with quoting
+     * and line ending edge cases.
+     */
+    @Test
+    public void testLoad() throws Exception {
+        System.out.println("load");
+        String data =
+                "\"id\",\"time\",\"participant\",\"message\",truth\r\n"
+                + "1,\"2005-01-04T00:07:47\",\"BERT\",\"quoted, with \"\"escapes\"\"\",true\r\n"
+                + "\r\n"
+                + "2, 2005-01-04T00:07:48 ,Ray,  padded  ,false\n"
+                + "3,\"2005-01-04T00:07:48\",\"BERT\",\"spans\nlines\r\nand, commas\"\r"
+                + "4,2005-01-04T00:07:50,BERT,a \"literal\" quote\n"
+                + "5,2005-01-04T00:07:55,Ray,\"junk after\" ignored,\n"
+                + "6,2005-01-04T00:07:56,Ray,short";
+        write(data);
+
+        MessageSet expected = loadFromStream(data);
+        assertEquals(6, expected.size());
+
+        List<Message> result = loadFromFile(1);
+        assertSameMessages(expected, result);
+        assertEquals("spans\nlines\r\nand, commas", result.get(2).getMessage());
+    }
+
+    /**
+     * Test of load method, of class ParallelMessageLoader, with a file large
+     * enough to be split into several chunks.
+     */
+    @Test
+    public void testLoad_multipleChunks() throws Exception {
+        System.out.println("load_multipleChunks");
+        StringBuilder data = new StringBuilder("id,time,participant,message,truth,predicted,segment\n");
+        for (int i = 0; i < 40000; i++) {
+            data.append(i).append(",2005-01-04T00:07:").append(10 + i % 50).append(',');
+            data.append(i % 3 == 0 ? "\"Alice\"" : "Bob").append(',');
+            switch (i % 4) {
+                case 0:
+                    data.append("\"message ").append(i).append(",\nsecond line with \"\"quotes\"\"\"");
+                    break;
+                case 1:
+                    data.append("plain message ").append(i);
+                    break;
+                case 2:
+                    data.append("\"\"");
+                    break;
+                default:
+                    data.append("\"").append("long message ").append(i).append(" ........................").append("\"");
+            }
+            data.append(',').append(i % 5 == 0 ? "" : (i % 2 == 0 ? "true" : "false"));
+            data.append(',').append(i % 7 == 0 ? "true" : "");
+            data.append(',').append(i % 11 == 0 ? "" : Integer.toString(i / 10));
+            data.append(i % 13 == 0 ? "\r\n" : "\n");
+        }
+        write(data.toString());
+        assertTrue(file.length() > 2 * (1 << 20));
+
+        MessageSet expected = loadFromStream(data.toString());
+        assertSameMessages(expected, loadFromFile(4));
+    }
+
+    /**
+     * Test of load method, of class ParallelMessageLoader, where a row in a
+     * later chunk is invalid.
+     */
+    @Test
+    public void testLoad_invalidRow() throws Exception {
+        System.out.println("load_invalidRow");
+        StringBuilder data = new StringBuilder("id,time,participant,message\n");
+        for (int i = 0; i < 40000; i++) {
+            data.append(i == 35000 ? "x" : Integer.toString(i));
+            data.append(",2005-01-04T00:07:47,Alice,\"hello, this is message number ").append(i).append("\"\n");
+        }
+        write(data.toString());
+
+        String expected = null;
+        try {
+            loadFromStream(data.toString());
+            fail();
+        } catch (InvalidObjectException e) {
+            expected = e.getMessage();
+        }
+        assertTrue(expected.endsWith("on line 35002"));
+
+        try {
+            loadFromFile(4);
+            fail();
+        } catch (InvalidObjectException e) {
+            assertEquals(expected, e.getMessage());
+        }
+    }
+
+    /**
+     * Test of load method, of class ParallelMessageLoader, where a column in
+     * a later chunk is too long.
+     */
+    @Test
+    public void testLoad_longColumn() throws Exception {
+        System.out.println("load_longColumn");
+        StringBuilder data = new StringBuilder("id,time,participant,message\n");
+        for (int i = 0; i < 40000; i++) {
+            data.append(i).append(",2005-01-04T00:07:47,Alice,\"");
+            if (i == 35000) {
+                for (int j = 0; j < 100001; j++) {
+                    data.append('x');
+                }
+            } else {
+                data.append("hello, this is message number ").append(i);
+            }
+            data.append("\"\n");
+        }
+        write(data.toString());
+
+        try {
+            loadFromFile(4);
+            fail();
+        } catch (InvalidObjectException e) {
+            assertEquals("Maximum column length of 100,000 exceeded in column 3 on line 35002", e.getMessage());
+        }
+    }
+}
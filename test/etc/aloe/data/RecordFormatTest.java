@@ -0,0 +1,158 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.data;
+
+import java.util.Date;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public class RecordFormatTest {
+
+    private TimestampFormat dateFormat;
+
+    public RecordFormatTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+        dateFormat = new TimestampFormat(TimestampFormat.DEFAULT_PATTERN);
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Test of parse method, of class RecordFormat, with TSV records.
+     */
+    @Test
+    public void testParseTSV() throws Exception {
+        System.out.println("parseTSV");
+
+        BatchRecord record = RecordFormat.TSV.parse("a7\tAlice\t2004-11-27 03:36:32\tHello\\tthere\\\\\tfriend", 3, dateFormat);
+        assertNull(record.getError());
+        assertEquals("a7", record.getId());
+        Message message = record.getMessage();
+        assertEquals(3, message.getId());
+        assertEquals("Alice", message.getParticipant());
+        assertEquals(dateFormat.parse("2004-11-27 03:36:32"), message.getTimestamp());
+        assertEquals("Hello\tthere\\\tfriend", message.getMessage());
+
+        //A blank timestamp means now
+        long before = System.currentTimeMillis();
+        record = RecordFormat.TSV.parse("8\t\t\tHi", 0, dateFormat);
+        assertNull(record.getError());
+        assertTrue(record.getMessage().getTimestamp().getTime() >= before);
+
+        record = RecordFormat.TSV.parse("9\tBob\tyesterday\tHi", 0, dateFormat);
+        assertEquals("9", record.getId());
+        assertNull(record.getMessage());
+        assertNotNull(record.getError());
+
+        record = RecordFormat.TSV.parse("10\tBob", 0, dateFormat);
+        assertEquals("10", record.getId());
+        assertNotNull(record.getError());
+    }
+
+    /**
+     * Test of parse method, of class RecordFormat, with JSON records.
+     */
+    @Test
+    public void testParseJSON() throws Exception {
+        System.out.println("parseJSON");
+
+        BatchRecord record = RecordFormat.JSON.parse(
+                " {\"text\": \"I'm \\\"happy\\\" \\u263a\", \"extra\": {\"a\": [1, \"}\"]}, \"id\": \"x\\\"1\", "
+                + "\"participant\": \"Bob\", \"timestamp\": \"2004-11-27 03:36:43\"} ", 2, dateFormat);
+        assertNull(record.getError());
+        assertEquals("\"x\\\"1\"", record.getId());
+        assertEquals("Bob", record.getMessage().getParticipant());
+        assertEquals("I'm \"happy\" \u263a", record.getMessage().getMessage());
+        assertEquals(dateFormat.parse("2004-11-27 03:36:43"), record.getMessage().getTimestamp());
+
+        record = RecordFormat.JSON.parse("{\"id\": 12, \"timestamp\": 1101555392000, \"text\": \"Hi\"}", 0, dateFormat);
+        assertNull(record.getError());
+        assertEquals("12", record.getId());
+        assertEquals("", record.getMessage().getParticipant());
+        assertEquals(new Date(1101555392000L), record.getMessage().getTimestamp());
+
+        record = RecordFormat.JSON.parse("{\"id\": 13, \"participant\": \"Bob\"}", 0, dateFormat);
+        assertEquals("13", record.getId());
+        assertNull(record.getMessage());
+        assertNotNull(record.getError());
+
+        record = RecordFormat.JSON.parse("{\"id\": 14, \"text\": \"Hi\"", 0, dateFormat);
+        assertEquals("14", record.getId());
+        assertNotNull(record.getError());
+
+        record = RecordFormat.JSON.parse("{\"id\": -1.5e3, \"text\": \"Hi\"}", 0, dateFormat);
+        assertNull(record.getError());
+        assertEquals("-1.5e3", record.getId());
+
+        record = RecordFormat.JSON.parse("{\"id\":abc,\"text\":\"x\"}", 0, dateFormat);
+        assertNull(record.getId());
+        assertEquals("invalid id abc", record.getError());
+        assertEquals("{\"id\":null,\"error\":\"invalid id abc\"}", RecordFormat.JSON.format(record));
+
+        record = RecordFormat.JSON.parse("{\"id\": [1], \"text\": \"x\"}", 0, dateFormat);
+        assertNull(record.getId());
+        assertNotNull(record.getError());
+
+                record = RecordFormat.JSON.parse("not json", 0, dateFormat);
+        assertNull(record.getId());
+        assertNotNull(record.getError());
+    }
+
+    /**
+     * Test of format method, of class RecordFormat.
+     */
+    @Test
+    public void testFormat() {
+        System.out.println("format");
+
+        BatchRecord labeled = new BatchRecord("\"a\"", new Message(0, new Date(), "p", "Hi"));
+        labeled.setPrediction(true, 0.75);
+        BatchRecord failed = new BatchRecord("7", "bad \"time\"\tstamp");
+        BatchRecord unknown = new BatchRecord(null, "invalid JSON");
+
+        assertEquals("\"a\"\ttrue\t0.75", RecordFormat.TSV.format(labeled));
+        assertEquals("7\terror\tbad \"time\" stamp", RecordFormat.TSV.format(failed));
+        assertEquals("\terror\tinvalid JSON", RecordFormat.TSV.format(unknown));
+
+        assertEquals("{\"id\":\"a\",\"label\":true,\"confidence\":0.75}", RecordFormat.JSON.format(labeled));
+        assertEquals("{\"id\":7,\"error\":\"bad \\\"time\\\"\\tstamp\"}", RecordFormat.JSON.format(failed));
+        assertEquals("{\"id\":null,\"error\":\"invalid JSON\"}", RecordFormat.JSON.format(unknown));
+    }
+}
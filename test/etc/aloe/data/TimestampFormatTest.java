@@ -0,0 +1,217 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.data;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public class TimestampFormatTest {
+
+    private static final TimeZone ZONE = TimeZone.getTimeZone("America/Los_Angeles");
+    private static final long YEAR_MILLIS = 365L * 24 * 60 * 60 * 1000;
+
+    public TimestampFormatTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    private SimpleDateFormat reference(String pattern) {
+        SimpleDateFormat format = new SimpleDateFormat(pattern);
+        format.setTimeZone(ZONE);
+        return format;
+    }
+
+    private void assertSameParse(SimpleDateFormat expected, TimestampFormat actual, String text) {
+        ParsePosition expectedPos = new ParsePosition(0);
+        ParsePosition actualPos = new ParsePosition(0);
+        assertEquals(text, expected.parse(text, expectedPos), actual.parse(text, actualPos));
+        assertEquals(text, expectedPos.getIndex(), actualPos.getIndex());
+        assertEquals(text, expectedPos.getErrorIndex(), actualPos.getErrorIndex());
+    }
+
+    /**
+     * Test of format and parse methods, of class TimestampFormat, with the
+     * default pattern.
+     */
+    @Test
+    public void testFormatAndParse() throws Exception {
+        System.out.println("formatAndParse");
+        SimpleDateFormat expected = reference(TimestampFormat.DEFAULT_PATTERN);
+        TimestampFormat instance = new TimestampFormat(TimestampFormat.DEFAULT_PATTERN, ZONE);
+
+        Random random = new Random(42);
+        long time = -50 * YEAR_MILLIS;
+        for (int i = 0; i < 20000; i++) {
+            //Mostly small steps so the caches get used, with some big jumps
+            time += random.nextInt(10) == 0 ? (long) (random.nextDouble() * YEAR_MILLIS) : random.nextInt(3000);
+            Date date = new Date(time);
+            String text = expected.format(date);
+            assertEquals(text, instance.format(date));
+            assertSameParse(expected, instance, text);
+        }
+    }
+
+    /**
+     * Test of parse method, of class TimestampFormat, with text that is not
+     * laid out exactly like the default pattern.
+     */
+    @Test
+    public void testParse_irregular() throws Exception {
+        System.out.println("parse_irregular");
+        SimpleDateFormat expected = reference(TimestampFormat.DEFAULT_PATTERN);
+        TimestampFormat instance = new TimestampFormat(TimestampFormat.DEFAULT_PATTERN, ZONE);
+
+        String[] texts = {
+            "2005-01-04 00:07:47",
+            "2005-1-4 0:7:47",
+            "2005-13-40 25:61:59",
+            "2005-01-04 00:07:75",
+            "2005-01-04 00:07:47 and more",
+            "2005-01-04 00:07:475",
+            "2005-01-04T00:07:47",
+            "0005-01-04 00:07:47",
+            "2012-03-11 02:30:00",
+            "2012-11-04 01:30:00",
+            "hello",
+            ""
+        };
+        for (String text : texts) {
+            assertSameParse(expected, instance, text);
+            //Again, to go through the cache
+            assertSameParse(expected, instance, text);
+        }
+
+        ParsePosition expectedPos = new ParsePosition(3);
+        ParsePosition actualPos = new ParsePosition(3);
+        String text = "at 2005-01-04 00:07:47";
+        assertEquals(expected.parse(text, expectedPos), instance.parse(text, actualPos));
+        assertEquals(expectedPos.getIndex(), actualPos.getIndex());
+    }
+
+    /**
+     * Test of format and parse methods, of class TimestampFormat, with other
+     * patterns.
+     */
+    @Test
+    public void testFormatAndParse_otherPatterns() throws Exception {
+        System.out.println("formatAndParse_otherPatterns");
+        String[] patterns = {"yyyy-MM-dd'T'HH:mm:ss", "MM/dd/yy h:mm a z", "yyyy-MM-dd HH:mm:ss.SSS"};
+        Random random = new Random(7);
+        for (String pattern : patterns) {
+            SimpleDateFormat expected = reference(pattern);
+            TimestampFormat instance = new TimestampFormat(pattern, ZONE);
+            long time = 0;
+            for (int i = 0; i < 2000; i++) {
+                time += random.nextInt(10) == 0 ? (long) (random.nextDouble() * YEAR_MILLIS) : random.nextInt(3000);
+                Date date = new Date(time);
+                String text = expected.format(date);
+                assertEquals(text, instance.format(date));
+                assertSameParse(expected, instance, text);
+            }
+        }
+    }
+
+    /**
+     * Test of clone method, of class TimestampFormat.
+     */
+    @Test
+    public void testClone() {
+        System.out.println("clone");
+        TimestampFormat instance = new TimestampFormat(TimestampFormat.DEFAULT_PATTERN);
+        assertSame(instance, instance.clone());
+        assertEquals(TimestampFormat.DEFAULT_PATTERN, instance.toPattern());
+        assertEquals(TimeZone.getDefault(), instance.getTimeZone());
+
+        try {
+            instance.setTimeZone(ZONE);
+            fail();
+        } catch (UnsupportedOperationException e) {
+            assertTrue(true);
+        }
+    }
+
+    /**
+     * Test that one TimestampFormat can be shared between threads.
+     */
+    @Test
+    public void testConcurrentUse() throws Exception {
+        System.out.println("concurrentUse");
+        final TimestampFormat instance = new TimestampFormat(TimestampFormat.DEFAULT_PATTERN, ZONE);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int t = 0; t < 4; t++) {
+                final long seed = t;
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        SimpleDateFormat expected = reference(TimestampFormat.DEFAULT_PATTERN);
+                        Random random = new Random(seed);
+                        for (int i = 0; i < 5000; i++) {
+                            Date date = new Date((long) (random.nextDouble() * 40 * YEAR_MILLIS) / 1000 * 1000);
+                            String text = instance.format(date);
+                            if (!text.equals(expected.format(date)) || !expected.parse(text).equals(instance.parse(text))) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -31,6 +31,7 @@ import weka.core.Attribute;
 import weka.core.DenseInstance;
 import weka.core.Instance;
 import weka.core.Instances;
+import weka.filters.Filter;
 
 /**
  *
@@ -146,6 +147,49 @@ public class AbstractRegexFilterTest {
         }
     }
 
+    /**
+     * Test that the output format does not keep the string values of earlier
+     * batches, of class AbstractRegexFilter.
+     */
+    @Test
+    public void testInput_releasesStringValues() throws Exception {
+        System.out.println("input_releasesStringValues");
+        AbstractRegexFilter filter = new AbstractRegexFilterImpl();
+        filter.setStringAttributeName("string_attr");
+
+        ArrayList<Attribute> attrs = new ArrayList<Attribute>();
+        attrs.add(new Attribute("string_attr", (List<String>) null));
+        attrs.add(new Attribute("another_attr"));
+        Instances inputFormat = new Instances("data", attrs, 0);
+
+        filter.setInputFormat(inputFormat);
+        String relationName = filter.getOutputFormat().relationName();
+
+        Instances first = null;
+        for (int batch = 0; batch < 100; batch++) {
+            Instances data = new Instances(inputFormat, 0);
+            for (int i = 0; i < 5; i++) {
+                Instance instance = new DenseInstance(2);
+                instance.setDataset(data);
+                instance.setValue(0, "message " + batch + " " + i);
+                instance.setValue(1, i);
+                data.add(instance);
+            }
+            Instances output = Filter.useFilter(data, filter);
+            if (first == null) {
+                first = output;
+            }
+            assertEquals("message " + batch + " 4", output.instance(4).stringValue(0));
+        }
+
+        //Only the strings from the last batch are kept
+        assertTrue(filter.getOutputFormat().attribute(0).numValues() <= 6);
+        assertEquals(relationName, filter.getOutputFormat().relationName());
+
+        //Output from earlier batches is still readable
+        assertEquals("message 0 3", first.instance(3).stringValue(0));
+    }
+
     /**
      * Test of globalInfo method, of class AbstractRegexFilter.
      */
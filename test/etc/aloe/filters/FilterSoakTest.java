@@ -0,0 +1,130 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.filters;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.filters.Filter;
+
+/**
+ * Runs many single-message batches through a chain of filters, the way
+ * interactive and streaming labeling do, and checks that memory use stays
+ * flat. Set the aloe.soak.messages system property to run a longer soak.
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public class FilterSoakTest {
+
+    private static final int DEFAULT_MESSAGES = 100000;
+    private static final long MAX_HEAP_GROWTH = 8 * 1024 * 1024;
+
+    public FilterSoakTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    @Test
+    public void testSoak() throws Exception {
+        System.out.println("soak");
+        int numMessages = Integer.getInteger("aloe.soak.messages", DEFAULT_MESSAGES);
+
+        ArrayList<Attribute> attrs = new ArrayList<Attribute>();
+        attrs.add(new Attribute("id"));
+        attrs.add(new Attribute("message", (List<String>) null));
+        Instances inputFormat = new Instances("data", attrs, 0);
+
+        PronounRegexFilter pronouns = new PronounRegexFilter();
+        PunctuationRegexFilter punctuation = new PunctuationRegexFilter();
+        punctuation.setCountRegexLengths(true);
+        FusedRegexFilter regexFilter = new FusedRegexFilter("message", pronouns, punctuation);
+        regexFilter.setInputFormat(inputFormat);
+
+        StringToDictionaryVector dictionaryFilter = new StringToDictionaryVector();
+        dictionaryFilter.setTermList(Arrays.asList(":)", ":(", ";)"));
+        dictionaryFilter.setStringAttribute("message");
+        dictionaryFilter.setDoNotOperateOnPerClassBasis(true);
+        dictionaryFilter.setOutputWordCounts(true);
+        dictionaryFilter.setInputFormat(Filter.useFilter(batch(inputFormat, 0), regexFilter));
+
+        int warmup = numMessages / 10;
+        long baseline = 0;
+        for (int i = 0; i < numMessages; i++) {
+            if (i == warmup) {
+                baseline = usedHeap();
+            }
+            Instances output = Filter.useFilter(Filter.useFilter(batch(inputFormat, i), regexFilter), dictionaryFilter);
+            assertEquals(message(i), output.instance(0).stringValue(output.attribute("message")));
+        }
+        long growth = usedHeap() - baseline;
+        System.out.println("Heap growth after " + numMessages + " messages: " + growth + " bytes");
+
+        assertTrue(regexFilter.getOutputFormat().attribute("message").numValues() <= 2);
+        assertTrue(dictionaryFilter.getOutputFormat().attribute("message").numValues() <= 2);
+        assertTrue("Heap grew by " + growth + " bytes", growth < MAX_HEAP_GROWTH);
+    }
+
+    private static Instances batch(Instances format, int id) {
+        //Each batch gets its own string attribute, like SegmentSet examples
+        Instances data = format.stringFreeStructure();
+        Instance instance = new DenseInstance(2);
+        instance.setDataset(data);
+        instance.setValue(0, id);
+        instance.setValue(1, message(id));
+        data.add(instance);
+        return data;
+    }
+
+    private static String message(int id) {
+        return "message number " + id + " from me to you :) !!";
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.filters;
+
+import java.util.ArrayList;
+import java.util.Random;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+import weka.core.SerializedObject;
+import weka.filters.Filter;
+
+/**
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public class FusedRegexFilterTest {
+
+    private static final String[] WORDS = {
+        "I", "you all", "Who's", "they", "Ray", "can't", "no", "HAHA", "lol", "hmmm",
+        "...", "?!", "!!!", "???", "$#@!", "damn", "noooo", "OK", "café", "x"
+    };
+
+    public FusedRegexFilterTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    private Instances makeData() {
+        ArrayList<Attribute> attributes = new ArrayList<Attribute>();
+        attributes.add(new Attribute("id"));
+        attributes.add(new Attribute("message", (ArrayList<String>) null));
+        Instances data = new Instances("test", attributes, 0);
+
+        Random random = new Random(5);
+        for (int i = 0; i < 500; i++) {
+            StringBuilder text = new StringBuilder();
+            int length = random.nextInt(10);
+            for (int w = 0; w < length; w++) {
+                text.append(WORDS[random.nextInt(WORDS.length)]).append(random.nextBoolean() ? " " : "");
+            }
+            DenseInstance instance = new DenseInstance(2);
+            instance.setDataset(data);
+            instance.setValue(0, i);
+            instance.setValue(1, text.toString());
+            data.add(instance);
+        }
+        return data;
+    }
+
+    private AbstractRegexFilter[] makeFilters() {
+        PronounRegexFilter pronouns = new PronounRegexFilter("message");
+        PunctuationRegexFilter punctuation = new PunctuationRegexFilter("message");
+        punctuation.setCountRegexLengths(true);
+        SpecialRegexFilter special = new SpecialRegexFilter("message");
+        SpellingRegexFilter spelling = new SpellingRegexFilter("message");
+        spelling.setCountRegexLengths(true);
+        return new AbstractRegexFilter[]{pronouns, punctuation, special, spelling};
+    }
+
+    private static void assertSameInstances(Instances expected, Instances actual) {
+        assertEquals(expected.numAttributes(), actual.numAttributes());
+        for (int a = 0; a < expected.numAttributes(); a++) {
+            assertEquals(expected.attribute(a).name(), actual.attribute(a).name());
+        }
+        assertEquals(expected.numInstances(), actual.numInstances());
+        for (int i = 0; i < expected.numInstances(); i++) {
+            assertEquals(expected.instance(i).stringValue(1), actual.instance(i).stringValue(1));
+            for (int a = 0; a < expected.numAttributes(); a++) {
+                if (a != 1) {
+                    assertEquals(expected.instance(i).value(a), actual.instance(i).value(a), 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Test that the fused filter produces the same output as applying its
+     * component filters one after another.
+     */
+    @Test
+    public void testSameAsChainedFilters() throws Exception {
+        System.out.println("sameAsChainedFilters");
+        Instances data = makeData();
+
+        Instances chained = data;
+        for (AbstractRegexFilter filter : makeFilters()) {
+            filter.setInputFormat(chained);
+            chained = Filter.useFilter(chained, filter);
+        }
+
+        FusedRegexFilter instance = new FusedRegexFilter("message", makeFilters());
+        instance.setInputFormat(data);
+        Instances fused = Filter.useFilter(data, instance);
+        assertSameInstances(chained, fused);
+
+        //A deserialized filter rebuilds its matcher
+        Filter copy = (Filter) new SerializedObject(instance).getObject();
+        assertSameInstances(chained, Filter.useFilter(data, copy));
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.filters;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public class MultiRegexMatcherTest {
+
+    private static final String[] FRAGMENTS = {
+        "I", "me", "you all", "y'all", "Y’all", "yourselves", "who's", "WHOM", "it", "they",
+        "Ray", "rayon", "Christophe", "can't", "cant", "don't", "not", "no", "cannot",
+        "HAHA", "hehe", "heeheehee", "lol", "lolol", "hmmm", "uhmm", "Hmmmmm",
+        "...", ". . .", "..", "?", "!!!", "?!", "!?!?", "$#@!", "@#$%", "f*ck", "fuck", "motherfucker",
+        "goddamn", "damnit", "crappy", "shitty", "assholes", "sucky",
+        "noooo", "aaaa", "OMG", "WHAT", "x", "_", "42", "a_b",
+        "é", "café", "K", "ſ", "İ", "😀", "ÉTÉ"
+    };
+    private static final String[] SEPARATORS = {" ", "", "  ", "\t", "\n", ",", "'", "-", "!", "."};
+
+    public MultiRegexMatcherTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    private static Pattern[] getPatterns(AbstractRegexFilter... filters) {
+        List<Pattern> patterns = new ArrayList<Pattern>();
+        for (AbstractRegexFilter filter : filters) {
+            for (AbstractRegexFilter.NamedRegex regex : filter.getRegexFeatures()) {
+                patterns.add(regex.getPattern());
+            }
+        }
+        return patterns.toArray(new Pattern[patterns.size()]);
+    }
+
+    private static Pattern[] getAllPatterns() {
+        return getPatterns(new PronounRegexFilter(), new PunctuationRegexFilter(),
+                new SpecialRegexFilter(), new SpellingRegexFilter());
+    }
+
+    private static void assertMatchesFind(MultiRegexMatcher instance, Pattern[] patterns, String text) {
+        instance.match(text);
+        for (int p = 0; p < patterns.length; p++) {
+            Matcher matcher = patterns[p].matcher(text);
+            int count = 0;
+            int maxLength = 0;
+            while (matcher.find()) {
+                count++;
+                maxLength = Math.max(maxLength, matcher.group().length());
+            }
+            assertEquals(patterns[p].pattern() + " in '" + text + "'", count, instance.getCount(p));
+            assertEquals(patterns[p].pattern() + " in '" + text + "'", maxLength, instance.getMaxLength(p));
+        }
+    }
+
+    /**
+     * Test that the counts and lengths are the same as running each pattern
+     * on its own, for the patterns used by the regex filters.
+     */
+    @Test
+    public void testMatch_sameAsFind() {
+        System.out.println("match_sameAsFind");
+        Pattern[] patterns = getAllPatterns();
+        MultiRegexMatcher instance = new MultiRegexMatcher(patterns);
+        assertEquals(patterns.length, instance.size());
+
+        assertMatchesFind(instance, patterns, "");
+        assertMatchesFind(instance, patterns, "I love you all... Who's there?!");
+        assertMatchesFind(instance, patterns, "HAHAHA lol Ray, I can't!!! $#@!");
+
+        Random random = new Random(9);
+        for (int t = 0; t < 20000; t++) {
+            StringBuilder text = new StringBuilder();
+            int length = random.nextInt(12);
+            for (int i = 0; i < length; i++) {
+                text.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+                text.append(SEPARATORS[random.nextInt(SEPARATORS.length)]);
+            }
+            //Also try random characters, including ones near the edges of the classes
+            int noise = random.nextInt(4);
+            for (int i = 0; i < noise; i++) {
+                text.insert(random.nextInt(text.length() + 1), (char) random.nextInt(200));
+            }
+            assertMatchesFind(instance, patterns, text.toString());
+        }
+    }
+
+    /**
+     * Test that all of the filter patterns can be narrowed down by their
+     * first characters, so none of them have to be run on every string.
+     */
+    @Test
+    public void testStartSets_filterPatterns() {
+        System.out.println("startSets_filterPatterns");
+        for (Pattern pattern : getAllPatterns()) {
+            assertNotNull(pattern.pattern(), MultiRegexMatcher.StartSetParser.parse(pattern));
+        }
+
+        MultiRegexMatcher.StartSet starts = MultiRegexMatcher.StartSetParser.parse(Pattern.compile("\\?+"));
+        assertTrue(starts.contains('?'));
+        assertFalse(starts.contains('!'));
+        assertFalse(starts.contains('é'));
+
+        starts = MultiRegexMatcher.StartSetParser.parse(Pattern.compile("(?<!\\w)(god?)?dam(n|mit)?", Pattern.CASE_INSENSITIVE));
+        assertTrue(starts.contains('g'));
+        assertTrue(starts.contains('G'));
+        assertTrue(starts.contains('D'));
+        assertFalse(starts.contains('a'));
+        assertTrue(starts.isWordStart());
+
+        starts = MultiRegexMatcher.StartSetParser.parse(Pattern.compile("(\\w)\\1{2,}"));
+        assertTrue(starts.contains('_'));
+        assertFalse(starts.contains(' '));
+        assertFalse(starts.isWordStart());
+    }
+
+    /**
+     * Test that patterns which are not understood, or which may match the
+     * empty string, are still matched correctly.
+     */
+    @Test
+    public void testMatch_unfilteredPatterns() {
+        System.out.println("match_unfilteredPatterns");
+        Pattern[] patterns = {
+            Pattern.compile("a*"),
+            Pattern.compile("(?i)hello"),
+            Pattern.compile("\\x41+"),
+            Pattern.compile("[^a-z]+"),
+            Pattern.compile("b", Pattern.COMMENTS),
+            Pattern.compile("(?<name>c)d")
+        };
+        assertNull(MultiRegexMatcher.StartSetParser.parse(patterns[0]));
+        assertNull(MultiRegexMatcher.StartSetParser.parse(patterns[1]));
+        assertNull(MultiRegexMatcher.StartSetParser.parse(patterns[2]));
+        assertNull(MultiRegexMatcher.StartSetParser.parse(patterns[4]));
+        assertNull(MultiRegexMatcher.StartSetParser.parse(patterns[5]));
+
+        MultiRegexMatcher instance = new MultiRegexMatcher(patterns);
+        assertMatchesFind(instance, patterns, "");
+        assertMatchesFind(instance, patterns, "aaa HELLO AAB cd b");
+        assertMatchesFind(instance, patterns, "éé hello");
+    }
+
+    /**
+     * Test that a leading lookbehind does not restrict the other alternatives
+     * of an unparenthesized alternation.
+     */
+    @Test
+    public void testMatch_topLevelAlternation() {
+        System.out.println("match_topLevelAlternation");
+        Pattern[] patterns = {
+            Pattern.compile("(?<!\\w)foo|bar"),
+            Pattern.compile("(?<!\\w)(foo|bar)")
+        };
+        assertFalse(MultiRegexMatcher.StartSetParser.parse(patterns[0]).isWordStart());
+        assertTrue(MultiRegexMatcher.StartSetParser.parse(patterns[1]).isWordStart());
+
+        MultiRegexMatcher instance = new MultiRegexMatcher(patterns);
+        assertMatchesFind(instance, patterns, "foobar xbar xfoo bar foo");
+        assertMatchesFind(instance, patterns, "barbar");
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.filters;
+
+import java.util.ArrayList;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+import weka.core.Utils;
+
+/**
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public class SparseInstanceBuilderTest {
+
+    private Instances inputFormat;
+    private Instances outputFormat;
+
+    public SparseInstanceBuilderTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+        ArrayList<Attribute> attributes = new ArrayList<Attribute>();
+        attributes.add(new Attribute("text", (ArrayList<String>) null));
+        attributes.add(new Attribute("a"));
+        attributes.add(new Attribute("b"));
+        attributes.add(new Attribute("other", (ArrayList<String>) null));
+        attributes.add(new Attribute("c"));
+        inputFormat = new Instances("input", attributes, 0);
+
+        outputFormat = new Instances(inputFormat, 0);
+        outputFormat.insertAttributeAt(new Attribute("new1"), outputFormat.numAttributes());
+        outputFormat.insertAttributeAt(new Attribute("new2"), outputFormat.numAttributes());
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    private Instance build(Instance input) {
+        SparseInstanceBuilder instance = new SparseInstanceBuilder(inputFormat);
+        instance.copy(input, outputFormat);
+        instance.add(5, 0);
+        instance.add(6, 2.5);
+        return instance.build(input.weight(), outputFormat.numAttributes());
+    }
+
+    /**
+     * Test of copy method, of class SparseInstanceBuilder, with a dense
+     * instance.
+     */
+    @Test
+    public void testCopy_dense() {
+        System.out.println("copy_dense");
+        Instance input = new DenseInstance(5);
+        input.setDataset(inputFormat);
+        input.setValue(0, "hello");
+        input.setValue(1, 0);
+        input.setValue(2, 3);
+        input.setMissing(3);
+        input.setValue(4, Utils.missingValue());
+        input.setWeight(2);
+
+        Instance result = build(input);
+        result.setDataset(outputFormat);
+        assertTrue(result instanceof SparseInstance);
+        assertEquals(7, result.numAttributes());
+        assertEquals(2, result.weight(), 0);
+        assertEquals("hello", result.stringValue(0));
+        assertEquals(0, result.value(1), 0);
+        assertEquals(3, result.value(2), 0);
+        assertTrue(result.isMissing(3));
+        assertTrue(result.isMissing(4));
+        assertEquals(0, result.value(5), 0);
+        assertEquals(2.5, result.value(6), 0);
+
+        //Zeros are not stored
+        for (int k = 0; k < result.numValues(); k++) {
+            assertTrue(result.valueSparse(k) != 0);
+        }
+    }
+
+    /**
+     * Test of copy method, of class SparseInstanceBuilder, with a sparse
+     * instance whose string value is at index 0.
+     */
+    @Test
+    public void testCopy_sparse() {
+        System.out.println("copy_sparse");
+        inputFormat.attribute(0).addStringValue("first");
+        inputFormat.attribute(3).addStringValue("x");
+        inputFormat.attribute(3).addStringValue("y");
+
+        Instance input = new SparseInstance(1, new double[]{0, 0, 7, 1, 0});
+        input.setDataset(inputFormat);
+        assertEquals("first", input.stringValue(0));
+
+        Instance result = build(input);
+        result.setDataset(outputFormat);
+        assertEquals("first", result.stringValue(0));
+        assertEquals(0, result.value(1), 0);
+        assertEquals(7, result.value(2), 0);
+        assertEquals("y", result.stringValue(3));
+        assertEquals(0, result.value(4), 0);
+        assertEquals(2.5, result.value(6), 0);
+
+        //The builder can be reused
+        SparseInstanceBuilder builder = new SparseInstanceBuilder(inputFormat);
+        for (int i = 0; i < 100; i++) {
+            builder.copy(input, outputFormat);
+            builder.add(6, i + 1);
+            Instance reused = builder.build(1, outputFormat.numAttributes());
+            reused.setDataset(outputFormat);
+            assertEquals(i + 1, reused.value(6), 0);
+            assertEquals(7, reused.value(2), 0);
+        }
+    }
+}
@@ -18,13 +18,20 @@
  */
 package etc.aloe.filters;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import static org.junit.Assert.*;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
 import weka.core.Instances;
+import weka.filters.Filter;
 
 /**
  *
@@ -80,4 +87,48 @@ public class StringToDictionaryVectorTest {
         // TODO review the generated test code and remove the default call to fail.
 //        fail("The test case is a prototype.");
     }
+
+    /**
+     * Test that the output format does not keep the string values of earlier
+     * batches, of class StringToDictionaryVector.
+     */
+    @Test
+    public void testInput_releasesStringValues() throws Exception {
+        System.out.println("input_releasesStringValues");
+        StringToDictionaryVector filter = new StringToDictionaryVector();
+        filter.setTermList(Arrays.asList(":)", ":("));
+        filter.setStringAttribute("message");
+        filter.setDoNotOperateOnPerClassBasis(true);
+        filter.setOutputWordCounts(true);
+
+        ArrayList<Attribute> attrs = new ArrayList<Attribute>();
+        attrs.add(new Attribute("message", (List<String>) null));
+        Instances inputFormat = new Instances("data", attrs, 0);
+
+        Instances first = null;
+        for (int batch = 0; batch < 100; batch++) {
+            Instances data = new Instances(inputFormat, 0);
+            for (int i = 0; i < 5; i++) {
+                Instance instance = new DenseInstance(1);
+                instance.setDataset(data);
+                instance.setValue(0, "message :) " + batch + " " + i);
+                data.add(instance);
+            }
+            if (batch == 0) {
+                filter.setInputFormat(data);
+            }
+            Instances output = Filter.useFilter(data, filter);
+            if (first == null) {
+                first = output;
+            }
+            assertEquals("message :) " + batch + " 4", output.instance(4).stringValue(0));
+            assertEquals(1, output.instance(4).value(output.attribute(":)")), 0);
+        }
+
+        //Only the strings from the last batch are kept
+        assertTrue(filter.getOutputFormat().attribute(0).numValues() <= 6);
+
+        //Output from earlier batches is still readable
+        assertEquals("message :) 0 3", first.instance(3).stringValue(0));
+    }
 }
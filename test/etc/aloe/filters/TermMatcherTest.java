@@ -0,0 +1,180 @@
+/*
+ * This file is part of ALOE.
+ *
+ * ALOE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * ALOE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with ALOE.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2012 SCCL, University of Washington (http://depts.washington.edu/sccl)
+ */
+package etc.aloe.filters;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Michael Brooks <mjbrooks@uw.edu>
+ */
+public class TermMatcherTest {
+
+    public TermMatcherTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * The greedy longest-match counting done by the original HashMap trie.
+     */
+    private static Map<String, Integer> referenceMatch(List<String> terms, String text) {
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (int i = 0; i < text.length();) {
+            String longest = null;
+            for (String term : terms) {
+                if (term.length() > 0 && text.startsWith(term, i)
+                        && (longest == null || term.length() > longest.length())) {
+                    longest = term;
+                }
+            }
+            if (longest != null) {
+                Integer count = counts.get(longest);
+                counts.put(longest, count == null ? 1 : count + 1);
+                i += longest.length();
+            } else {
+                i++;
+            }
+        }
+        return counts;
+    }
+
+    private static void assertSameAsReference(TermMatcher instance, List<String> terms, String text) {
+        int[] counts = new int[terms.size()];
+        int[] matched = new int[terms.size()];
+        int numMatched = instance.match(text, counts, matched);
+
+        Map<String, Integer> expected = referenceMatch(terms, text);
+        assertEquals(text, expected.size(), numMatched);
+        for (int m = 0; m < numMatched; m++) {
+            String term = terms.get(matched[m]);
+            assertEquals(text, expected.get(term).intValue(), counts[matched[m]]);
+        }
+    }
+
+    /**
+     * Test of match method, of class TermMatcher.
+     */
+    @Test
+    public void testMatch() {
+        System.out.println("match");
+        List<String> terms = Arrays.asList(":)", ":-)", ":(", ":-(", ":-", "<3", "xD");
+        TermMatcher instance = new TermMatcher(terms);
+        assertEquals(terms.size(), instance.getNumTerms());
+
+        int[] counts = new int[terms.size()];
+        int[] matched = new int[terms.size()];
+        int numMatched = instance.match("hi :-) :) :-) :-/ <3<3 x", counts, matched);
+
+        //Matched terms are listed in the order they were first seen
+        assertEquals(4, numMatched);
+        assertEquals(1, matched[0]);
+        assertEquals(0, matched[1]);
+        assertEquals(4, matched[2]);
+        assertEquals(5, matched[3]);
+        assertEquals(2, counts[1]);
+        assertEquals(1, counts[0]);
+        assertEquals(1, counts[4]);
+        assertEquals(2, counts[5]);
+        assertEquals(0, counts[2]);
+
+        assertEquals(0, instance.match("", counts, matched));
+    }
+
+    /**
+     * Test that repeated terms are reported under their last index, and that
+     * empty terms never match.
+     */
+    @Test
+    public void testMatch_repeatedAndEmptyTerms() {
+        System.out.println("match_repeatedAndEmptyTerms");
+        List<String> terms = Arrays.asList(":)", "", ":)");
+        TermMatcher instance = new TermMatcher(terms);
+
+        int[] counts = new int[terms.size()];
+        int[] matched = new int[terms.size()];
+        assertEquals(1, instance.match("a:)b", counts, matched));
+        assertEquals(2, matched[0]);
+        assertEquals(1, counts[2]);
+        assertEquals(0, counts[1]);
+    }
+
+    /**
+     * Test that the counts are the same as the original greedy matching for
+     * the emoticon dictionary.
+     */
+    @Test
+    public void testMatch_sameAsReference() throws Exception {
+        System.out.println("match_sameAsReference");
+        List<String> terms = StringToDictionaryVector.readDictionaryFile(new File("emoticons.txt"));
+        TermMatcher instance = new TermMatcher(terms);
+
+        String[] fillers = {" ", "a", "ok ", "é", "❤", "\n"};
+        Random random = new Random(11);
+        for (int t = 0; t < 2000; t++) {
+            StringBuilder text = new StringBuilder();
+            int length = random.nextInt(10);
+            for (int i = 0; i < length; i++) {
+                if (random.nextBoolean()) {
+                    String term = terms.get(random.nextInt(terms.size()));
+                    //Sometimes only use part of a term
+                    text.append(random.nextInt(4) == 0 ? term.substring(0, random.nextInt(term.length() + 1)) : term);
+                } else {
+                    text.append(fillers[random.nextInt(fillers.length)]);
+                }
+            }
+            assertSameAsReference(instance, terms, text.toString());
+        }
+
+        List<String> wide = new ArrayList<String>();
+        for (char c = 'a'; c <= 'z'; c++) {
+            wide.add("q" + c);
+            wide.add("q" + c + c);
+        }
+        wide.add("éé");
+        TermMatcher wideInstance = new TermMatcher(wide);
+        assertSameAsReference(wideInstance, wide, "qa qbb qzzz qq qqa ééé qé");
+    }
+}